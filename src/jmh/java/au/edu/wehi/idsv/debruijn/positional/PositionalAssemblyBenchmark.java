@@ -0,0 +1,257 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import au.edu.wehi.idsv.AssemblyEvidenceSource;
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.DirectedEvidence;
+import au.edu.wehi.idsv.SAMEvidenceSource;
+import au.edu.wehi.idsv.SequentialIdGenerator;
+import au.edu.wehi.idsv.configuration.AssemblyConfiguration;
+import au.edu.wehi.idsv.debruijn.positional.SimulatedEvidenceGenerator.Scenario;
+
+/**
+ * Per-stage throughput of the positional de Bruijn graph assembler.
+ *
+ * Each stage consumes the materialised output of the previous stage so
+ * stages are measured in isolation. Every invocation processes the graph generated
+ * from {@link #EVIDENCE_COUNT} evidence so the reported throughput is evidence/s
+ * and, when run with -prof gc, gc.alloc.rate.norm is the bytes allocated per evidence.
+ *
+ * Collapse, simplification and contig calling mutate their input graph. Their input
+ * is regenerated before each invocation outside of the timed region but on the
+ * benchmark thread, so the allocation of each of these stages is the difference
+ * between the stage and its matching *Input baseline.
+ *
+ * Run with: mvn -P benchmark test-compile exec:exec -Djmh.args="PositionalAssemblyBenchmark -prof gc"
+ *
+ * @author Daniel Cameron
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class PositionalAssemblyBenchmark {
+	public static final int EVIDENCE_COUNT = 10000;
+	@State(Scope.Benchmark)
+	public static class Evidence {
+		@Param({ "SIMPLE", "FRAGMENTED", "REPEAT" })
+		public Scenario scenario;
+		@Param({ "Forward", "Backward" })
+		public BreakendDirection direction;
+		private File directory;
+		private SimulatedEvidenceGenerator generator;
+		private AssemblyEvidenceSource aes;
+		private List<DirectedEvidence> evidence;
+		private List<KmerSupportNode> support;
+		private List<KmerNode> aggregate;
+		private int k;
+		private int maxReadLength;
+		private int maxKmerSupportIntervalWidth;
+		private int maxPathLength;
+		private int maxPathCollapseLength;
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			directory = Files.createTempDir();
+			generator = new SimulatedEvidenceGenerator(directory, 0);
+			evidence = generator.generate(scenario, direction, EVIDENCE_COUNT);
+			List<SAMEvidenceSource> sources = Lists.newArrayList(generator.getEvidenceSource());
+			aes = new AssemblyEvidenceSource(generator.getContext(), sources, new File(directory, "assembly.bam"));
+			AssemblyConfiguration ap = generator.getContext().getAssemblyParameters();
+			k = ap.k;
+			maxReadLength = SimulatedEvidenceGenerator.READ_LENGTH;
+			maxKmerSupportIntervalWidth = aes.getMaxConcordantFragmentSize() - aes.getMinConcordantFragmentSize() + 1;
+			maxPathLength = ap.positional.maxPathLengthInBases(maxReadLength);
+			maxPathCollapseLength = ap.errorCorrection.maxPathCollapseLengthInBases(maxReadLength);
+			support = Lists.newArrayList(supportIterator(null));
+			aggregate = Lists.newArrayList(new AggregateNodeIterator(support.iterator()));
+		}
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			FileUtils.deleteDirectory(directory);
+		}
+		SupportNodeIterator supportIterator(EvidenceTracker tracker) {
+			AssemblyConfiguration ap = generator.getContext().getAssemblyParameters();
+			return new SupportNodeIterator(k, evidence.iterator(), aes.getMaxConcordantFragmentSize(), tracker, ap.includePairAnchors, ap.pairAnchorMismatchIgnoreEndBases);
+		}
+		Iterator<KmerPathNode> pathNodeIterator(Iterator<? extends KmerNode> it) {
+			return new PathNodeIterator(it, maxPathLength, k);
+		}
+		Iterator<KmerPathNode> leafBubbleCollapseIterator(Iterator<KmerPathNode> it) {
+			return new LeafBubbleCollapseIterator(it, k, maxPathCollapseLength, generator.getContext().getAssemblyParameters().errorCorrection.maxBaseMismatchForCollapse);
+		}
+		Iterator<KmerPathNode> pathCollapseIterator(Iterator<KmerPathNode> it) {
+			return new PathCollapseIterator(it, k, maxPathCollapseLength, generator.getContext().getAssemblyParameters().errorCorrection.maxBaseMismatchForCollapse, false, 0);
+		}
+		Iterator<KmerPathNode> pathSimplificationIterator(Iterator<KmerPathNode> it) {
+			return new PathSimplificationIterator(it, maxPathLength, maxKmerSupportIntervalWidth);
+		}
+		NonReferenceContigAssembler assembler(Iterator<KmerPathNode> it, EvidenceTracker tracker) {
+			int maxEvidenceSupportIntervalWidth = maxKmerSupportIntervalWidth + maxReadLength - k + 2;
+			return new NonReferenceContigAssembler(it, 0, maxEvidenceSupportIntervalWidth, generator.getContext().getAssemblyParameters().anchorLength, k, aes, new SequentialIdGenerator("asm"), tracker, "benchmark");
+		}
+	}
+	/**
+	 * Path nodes are mutated by the downstream stages so are regenerated for each invocation
+	 */
+	@State(Scope.Thread)
+	public static class PathNodes {
+		private List<KmerPathNode> nodes;
+		@Setup(Level.Invocation)
+		public void setup(Evidence in) {
+			nodes = Lists.newArrayList(in.pathNodeIterator(in.aggregate.iterator()));
+		}
+	}
+	@State(Scope.Thread)
+	public static class CollapsedPathNodes {
+		private List<KmerPathNode> nodes;
+		@Setup(Level.Invocation)
+		public void setup(Evidence in) {
+			nodes = Lists.newArrayList(in.leafBubbleCollapseIterator(in.pathNodeIterator(in.aggregate.iterator())));
+		}
+	}
+	@State(Scope.Thread)
+	public static class AssemblyGraph {
+		private List<KmerPathNode> nodes;
+		private EvidenceTracker tracker;
+		@Setup(Level.Invocation)
+		public void setup(Evidence in) {
+			// contig calling requires the evidence to be tracked
+			tracker = new EvidenceTracker();
+			Iterator<KmerPathNode> it = in.pathNodeIterator(new AggregateNodeIterator(in.supportIterator(tracker)));
+			it = in.leafBubbleCollapseIterator(it);
+			it = in.pathSimplificationIterator(it);
+			nodes = Lists.newArrayList(it);
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public void supportNode(Evidence in, Blackhole bh) {
+		SupportNodeIterator it = in.supportIterator(new EvidenceTracker());
+		while (it.hasNext()) {
+			bh.consume(it.nextSlot());
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public void aggregateNode(Evidence in, Blackhole bh) {
+		AggregateNodeIterator it = new AggregateNodeIterator(in.support.iterator());
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+	/**
+	 * Support and aggregation as executed by the assembler:
+	 * aggregation reads kmer support directly from the support buffer.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public void supportAndAggregateNode(Evidence in, Blackhole bh) {
+		AggregateNodeIterator it = new AggregateNodeIterator(in.supportIterator(new EvidenceTracker()));
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public void pathNode(Evidence in, Blackhole bh) {
+		Iterator<KmerPathNode> it = in.pathNodeIterator(in.aggregate.iterator());
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public List<KmerPathNode> pathNodeInput(PathNodes pn) {
+		return pn.nodes;
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public void leafBubbleCollapse(Evidence in, PathNodes pn, Blackhole bh) {
+		Iterator<KmerPathNode> it = in.leafBubbleCollapseIterator(pn.nodes.iterator());
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public void pathCollapse(Evidence in, PathNodes pn, Blackhole bh) {
+		Iterator<KmerPathNode> it = in.pathCollapseIterator(pn.nodes.iterator());
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public List<KmerPathNode> collapsedPathNodeInput(CollapsedPathNodes pn) {
+		return pn.nodes;
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public void pathSimplification(Evidence in, CollapsedPathNodes pn, Blackhole bh) {
+		Iterator<KmerPathNode> it = in.pathSimplificationIterator(pn.nodes.iterator());
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public List<KmerPathNode> assemblyGraphInput(AssemblyGraph g) {
+		return g.nodes;
+	}
+	@Benchmark
+	@OperationsPerInvocation(EVIDENCE_COUNT)
+	public void contigAssembly(Evidence in, AssemblyGraph g, Blackhole bh) {
+		NonReferenceContigAssembler it = in.assembler(g.nodes.iterator(), g.tracker);
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+	/**
+	 * Evidence counts and assembly output of each scenario
+	 */
+	public static void main(String[] args) throws IOException {
+		for (Scenario scenario : Scenario.values()) {
+			for (BreakendDirection direction : BreakendDirection.values()) {
+				Evidence in = new Evidence();
+				in.scenario = scenario;
+				in.direction = direction;
+				in.setup();
+				AssemblyGraph g = new AssemblyGraph();
+				g.setup(in);
+				List<Object> contigs = new ArrayList<>();
+				in.assembler(g.nodes.iterator(), g.tracker).forEachRemaining(contigs::add);
+				System.out.println(String.format("%s %s: %d evidence, %d kmer support, %d kmer nodes, %d assembly path nodes, %d contigs",
+						scenario, direction, in.evidence.size(), in.support.size(), in.aggregate.size(), g.nodes.size(), contigs.size()));
+				in.tearDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakpointSummary;
+import au.edu.wehi.idsv.DirectedEvidence;
+import au.edu.wehi.idsv.IdsvVariantContext;
+import au.edu.wehi.idsv.NonReferenceReadPair;
+import au.edu.wehi.idsv.ProcessingContext;
+import au.edu.wehi.idsv.SoftClipEvidence;
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.TestHelper.MockSAMEvidenceSource;
+import au.edu.wehi.idsv.VariantContextDirectedBreakpoint;
+import au.edu.wehi.idsv.sim.FragmentedChromosome;
+import au.edu.wehi.idsv.sim.RepeatFragmentedChromosome;
+import au.edu.wehi.idsv.sim.SimpleVariantChromosome;
+import au.edu.wehi.idsv.vcf.SvType;
+import au.edu.wehi.idsv.vcf.VcfSvConstants;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+/**
+ * Generates synthetic assembly evidence supporting the breakpoints of a
+ * simulated rearrangement.
+ *
+ * The rearrangement is generated by one of the au.edu.wehi.idsv.sim generators
+ * against the small.fa test reference. Soft clipped reads and discordant
+ * read pairs are then synthesised at each breakend of the resultant truth VCF.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class SimulatedEvidenceGenerator {
+	public enum Scenario {
+		/**
+		 * Deletions, tandem duplications and inversions
+		 */
+		SIMPLE,
+		/**
+		 * Chromothripsis of unique sequence
+		 */
+		FRAGMENTED,
+		/**
+		 * Chromothripsis with every fragment starting or ending in a tandem repeat
+		 */
+		REPEAT,
+	}
+	public static final int READ_LENGTH = 100;
+	public static final int MIN_FRAGMENT_SIZE = READ_LENGTH;
+	public static final int MAX_FRAGMENT_SIZE = 300;
+	private static final int MIN_SOFT_CLIP_LENGTH = 20;
+	private static final int BREAK_MARGIN = 100;
+	private static final int CHROMOTHRIPSIS_FRAGMENT_LENGTH = 300;
+	private static final int CHROMOTHRIPSIS_FRAGMENTS = 8;
+	private static final String REPEAT_CLASS = "Simple_repeat";
+	private final ProcessingContext context;
+	private final MockSAMEvidenceSource source;
+	private final File directory;
+	private final Random rng;
+	private int readCount = 0;
+	public SimulatedEvidenceGenerator(File directory, int seed) {
+		this.context = TestHelper.getContext();
+		this.source = new MockSAMEvidenceSource(context, MIN_FRAGMENT_SIZE, MAX_FRAGMENT_SIZE);
+		this.directory = directory;
+		this.rng = new Random(seed);
+	}
+	public ProcessingContext getContext() {
+		return context;
+	}
+	public MockSAMEvidenceSource getEvidenceSource() {
+		return source;
+	}
+	/**
+	 * Generates evidence for the given scenario
+	 * @param scenario simulated rearrangement
+	 * @param direction breakend direction of the generated evidence
+	 * @param evidenceCount number of evidence to generate
+	 * @return evidence sorted in the order expected by {@link SupportNodeIterator}
+	 */
+	public List<DirectedEvidence> generate(Scenario scenario, BreakendDirection direction, int evidenceCount) throws IOException {
+		List<BreakpointSummary> breakpoints = new ArrayList<>();
+		for (BreakpointSummary bp : simulate(scenario)) {
+			if (bp.direction == direction) {
+				breakpoints.add(bp);
+			}
+		}
+		if (breakpoints.isEmpty()) throw new IllegalStateException(String.format("No %s breakpoints simulated for %s", direction, scenario));
+		List<DirectedEvidence> evidence = new ArrayList<>(evidenceCount);
+		for (int i = 0; evidence.size() < evidenceCount; i++) {
+			BreakpointSummary bp = breakpoints.get(i % breakpoints.size());
+			DirectedEvidence e = (i / breakpoints.size()) % 2 == 0 ? softClip(bp) : readPair(bp);
+			if (e != null) {
+				evidence.add(e);
+			}
+		}
+		evidence.sort(DirectedEvidence.ByStartEnd);
+		return evidence;
+	}
+	private List<BreakpointSummary> simulate(Scenario scenario) throws IOException {
+		File fasta = new File(directory, scenario.name().toLowerCase() + ".fa");
+		File vcf = new File(directory, scenario.name().toLowerCase() + ".vcf");
+		int seed = rng.nextInt();
+		switch (scenario) {
+			case SIMPLE:
+				new SimpleVariantChromosome(context, "random", BREAK_MARGIN, seed).assemble(fasta, vcf, false,
+						ImmutableList.of(SvType.DEL, SvType.DUP, SvType.INV),
+						ImmutableList.of(50, 200, 1000),
+						2);
+				return readSimpleVariants(vcf);
+			case FRAGMENTED:
+				new FragmentedChromosome(context, "random", BREAK_MARGIN, CHROMOTHRIPSIS_FRAGMENT_LENGTH, seed).assemble(fasta, vcf, CHROMOTHRIPSIS_FRAGMENTS, false);
+				return readBreakpoints(vcf);
+			case REPEAT:
+				File rm = new File(directory, "polyACGT.fa.out");
+				writeRepeatMaskerOutput(rm, "polyACGT");
+				new RepeatFragmentedChromosome(context, "polyACGT", BREAK_MARGIN, CHROMOTHRIPSIS_FRAGMENT_LENGTH, rm, REPEAT_CLASS, seed).assemble(fasta, vcf, CHROMOTHRIPSIS_FRAGMENTS, false);
+				return readBreakpoints(vcf);
+			default:
+				throw new IllegalArgumentException(scenario.name());
+		}
+	}
+	/**
+	 * Annotates regularly spaced repeats that are shorter than the fragment length
+	 * so the other end of each simulated fragment falls outside the annotated repeat.
+	 */
+	private void writeRepeatMaskerOutput(File file, String chr) throws IOException {
+		int length = context.getDictionary().getSequence(chr).getSequenceLength();
+		int repeatLength = CHROMOTHRIPSIS_FRAGMENT_LENGTH / 2;
+		int spacing = 4 * CHROMOTHRIPSIS_FRAGMENT_LENGTH;
+		StringBuilder sb = new StringBuilder();
+		// RepeatMasker .out files have three header lines
+		sb.append("   SW  perc perc perc  query      position in query    matching  repeat         position in  repeat\n");
+		sb.append("score  div. del. ins.  sequence   begin  end  (left)   repeat    class/family   begin  end (left)  ID\n");
+		sb.append("\n");
+		int id = 1;
+		for (int start = spacing; start + repeatLength < length - spacing; start += spacing) {
+			int end = start + repeatLength - 1;
+			sb.append(String.format("1000 0.0 0.0 0.0 %s %d %d (%d) + (ACGT)n %s 1 %d (0) %d\n", chr, start, end, length - end, REPEAT_CLASS, repeatLength, id++));
+		}
+		Files.write(sb.toString(), file, StandardCharsets.US_ASCII);
+	}
+	private List<BreakpointSummary> readBreakpoints(File vcf) {
+		List<BreakpointSummary> list = new ArrayList<>();
+		try (VCFFileReader reader = new VCFFileReader(vcf, false)) {
+			for (VariantContext vc : reader) {
+				IdsvVariantContext ivc = IdsvVariantContext.create(context, null, vc);
+				if (ivc instanceof VariantContextDirectedBreakpoint) {
+					list.add(((VariantContextDirectedBreakpoint)ivc).getBreakendSummary());
+				}
+			}
+		}
+		return list;
+	}
+	/**
+	 * Converts the symbolic SVTYPE/SVLEN calls written by {@link SimpleVariantChromosome}
+	 * into the breakpoints of the simulated events.
+	 * Insertions are not included as the inserted sequence is not reported.
+	 */
+	private List<BreakpointSummary> readSimpleVariants(File vcf) {
+		List<BreakpointSummary> list = new ArrayList<>();
+		try (VCFFileReader reader = new VCFFileReader(vcf, false)) {
+			for (VariantContext vc : reader) {
+				if (vc.isFiltered()) continue;
+				int referenceIndex = context.getDictionary().getSequenceIndex(vc.getContig());
+				int pos = vc.getStart();
+				int size = Math.abs(vc.getAttributeAsInt(VcfSvConstants.SV_LENGTH_KEY, 0));
+				BreakpointSummary bp;
+				switch (SvType.valueOf(vc.getAttributeAsString(VcfSvConstants.SV_TYPE_KEY, null))) {
+					case DEL:
+						bp = new BreakpointSummary(referenceIndex, BreakendDirection.Forward, pos, referenceIndex, BreakendDirection.Backward, pos + size + 1);
+						list.add(bp);
+						list.add(bp.remoteBreakpoint());
+						break;
+					case DUP:
+						bp = new BreakpointSummary(referenceIndex, BreakendDirection.Forward, pos + size, referenceIndex, BreakendDirection.Backward, pos + 1);
+						list.add(bp);
+						list.add(bp.remoteBreakpoint());
+						break;
+					case INV:
+						bp = new BreakpointSummary(referenceIndex, BreakendDirection.Forward, pos, referenceIndex, BreakendDirection.Forward, pos + size);
+						list.add(bp);
+						list.add(bp.remoteBreakpoint());
+						bp = new BreakpointSummary(referenceIndex, BreakendDirection.Backward, pos + 1, referenceIndex, BreakendDirection.Backward, pos + size + 1);
+						list.add(bp);
+						list.add(bp.remoteBreakpoint());
+						break;
+					default:
+						break;
+				}
+			}
+		}
+		return list;
+	}
+	private byte[] referenceBases(int referenceIndex, int position, int length) {
+		String chr = context.getDictionary().getSequence(referenceIndex).getSequenceName();
+		byte[] seq = context.getReference().getSequence(chr).getBases();
+		return Arrays.copyOfRange(seq, position - 1, position - 1 + length);
+	}
+	/**
+	 * Bases following the remote breakend, in the direction leading away from the breakpoint
+	 */
+	private byte[] partnerBases(BreakpointSummary bp, int length) {
+		if (bp.direction2 == BreakendDirection.Backward) {
+			return referenceBases(bp.referenceIndex2, bp.start2, length);
+		}
+		byte[] bases = referenceBases(bp.referenceIndex2, bp.start2 - length + 1, length);
+		SequenceUtil.reverseComplement(bases);
+		return bases;
+	}
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] result = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+	private void setBases(SAMRecord r, byte[] bases) {
+		byte[] qual = new byte[bases.length];
+		Arrays.fill(qual, (byte)30);
+		r.setReadBases(bases);
+		r.setBaseQualities(qual);
+	}
+	private SoftClipEvidence softClip(BreakpointSummary bp) {
+		int clipLength = MIN_SOFT_CLIP_LENGTH + rng.nextInt(READ_LENGTH - 2 * MIN_SOFT_CLIP_LENGTH);
+		int anchorLength = READ_LENGTH - clipLength;
+		byte[] clip = partnerBases(bp, clipLength);
+		SAMRecord r;
+		if (bp.direction == BreakendDirection.Forward) {
+			int anchorStart = bp.start - anchorLength + 1;
+			r = TestHelper.Read(bp.referenceIndex, anchorStart, String.format("%dM%dS", anchorLength, clipLength));
+			setBases(r, concat(referenceBases(bp.referenceIndex, anchorStart, anchorLength), clip));
+		} else {
+			SequenceUtil.reverseComplement(clip);
+			r = TestHelper.Read(bp.referenceIndex, bp.start, String.format("%dS%dM", clipLength, anchorLength));
+			setBases(r, concat(clip, referenceBases(bp.referenceIndex, bp.start, anchorLength)));
+		}
+		r.setReadName(String.format("sc%d", readCount++));
+		return SoftClipEvidence.create(source, bp.direction, r);
+	}
+	/**
+	 * Clamps the read start so the read lies entirely within the contig
+	 */
+	private int readStart(int referenceIndex, int position) {
+		int length = context.getDictionary().getSequence(referenceIndex).getSequenceLength();
+		return Math.max(1, Math.min(position, length - READ_LENGTH + 1));
+	}
+	private NonReferenceReadPair readPair(BreakpointSummary bp) {
+		// keep the fragment size within the expected range
+		int maxOffset = (MAX_FRAGMENT_SIZE - 2 * READ_LENGTH) / 2;
+		int localPosition = readStart(bp.referenceIndex, bp.direction == BreakendDirection.Forward ? bp.start - READ_LENGTH + 1 - rng.nextInt(maxOffset) : bp.start + rng.nextInt(maxOffset));
+		int remotePosition = readStart(bp.referenceIndex2, bp.direction2 == BreakendDirection.Forward ? bp.start2 - READ_LENGTH + 1 - rng.nextInt(maxOffset) : bp.start2 + rng.nextInt(maxOffset));
+		SAMRecord local = TestHelper.Read(bp.referenceIndex, localPosition, READ_LENGTH);
+		SAMRecord remote = TestHelper.Read(bp.referenceIndex2, remotePosition, READ_LENGTH);
+		local.setReadNegativeStrandFlag(bp.direction == BreakendDirection.Backward);
+		remote.setReadNegativeStrandFlag(bp.direction2 == BreakendDirection.Backward);
+		setBases(local, referenceBases(bp.referenceIndex, localPosition, READ_LENGTH));
+		setBases(remote, referenceBases(bp.referenceIndex2, remotePosition, READ_LENGTH));
+		local.setReadName(String.format("rp%d", readCount++));
+		TestHelper.clean(local, remote);
+		local.setProperPairFlag(false);
+		remote.setProperPairFlag(false);
+		return NonReferenceReadPair.create(local, remote, source);
+	}
+}
@@ -0,0 +1,235 @@
+package au.edu.wehi.idsv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import au.edu.wehi.idsv.configuration.GridssConfiguration;
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.Log;
+
+/**
+ * Splits the genome into chunks for parallel processing.
+ *
+ * The processing cost of each chunk is estimated from the size of the
+ * compressed BAM data covering that chunk in the indexed SV BAMs.
+ * Chunks with a high estimated cost are split into smaller chunks
+ * so a few high coverage regions do not serialise the tail of the run.
+ *
+ * Chunks remain in genomic order. Callers are responsible for padding
+ * chunk bounds as required.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class AdaptiveChunkScheduler {
+	private static final Log log = Log.getInstance(AdaptiveChunkScheduler.class);
+	private final ProcessingContext context;
+	private final List<File> bams;
+	private List<QueryInterval[]> chunks = null;
+	private List<Long> chunkCost = null;
+	/**
+	 * Creates a new scheduler
+	 * @param context processing context
+	 * @param sources evidence sources whose SV BAM index are used to estimate processing cost
+	 */
+	public AdaptiveChunkScheduler(ProcessingContext context, List<? extends SAMEvidenceSource> sources) {
+		this.context = context;
+		this.bams = sources.stream()
+				.map(ses -> context.getFileSystemContext().getSVBam(ses.getFile()))
+				.filter(f -> f.exists())
+				.collect(Collectors.toList());
+	}
+	/**
+	 * Creates the scheduler used for variant calling. Evidence allocation and
+	 * annotation use the same scheduler so all stages partition the genome identically.
+	 * @param context processing context
+	 * @param samEvidence read evidence sources
+	 * @param assemblyEvidence assembly evidence source. Can be null.
+	 * @return variant calling scheduler
+	 */
+	public static AdaptiveChunkScheduler forVariantCalling(ProcessingContext context, List<SAMEvidenceSource> samEvidence, AssemblyEvidenceSource assemblyEvidence) {
+		List<SAMEvidenceSource> allEvidence = new ArrayList<>();
+		if (!context.getVariantCallingParameters().callOnlyAssemblies) {
+			allEvidence.addAll(samEvidence);
+		}
+		if (assemblyEvidence != null) {
+			allEvidence.add(assemblyEvidence);
+		}
+		return new AdaptiveChunkScheduler(context, allEvidence);
+	}
+	/**
+	 * Chunks to process, in genomic order
+	 * @return genomic chunks
+	 */
+	public List<QueryInterval[]> getChunks() {
+		ensureChunks();
+		return chunks;
+	}
+	/**
+	 * Order in which chunks should be scheduled. Chunks with the highest
+	 * estimated processing cost are scheduled first.
+	 * @return chunk offsets in decreasing order of estimated cost
+	 */
+	public List<Integer> getExecutionOrder() {
+		ensureChunks();
+		return IntStream.range(0, chunks.size())
+				.boxed()
+				.sorted(Comparator.comparing((Integer i) -> chunkCost.get(i)).reversed().thenComparing(i -> i))
+				.collect(Collectors.toList());
+	}
+	/**
+	 * Name of the given chunk. Since the chunk boundaries depend on the current
+	 * SV BAM sizes, the chunk name includes a hash of the chunk boundaries so
+	 * chunk output from a different chunking is not reused.
+	 * @param chunk chunk offset
+	 * @return chunk name
+	 */
+	public String getChunkName(int chunk) {
+		ensureChunks();
+		Hasher hasher = Hashing.murmur3_32().newHasher();
+		for (QueryInterval qi : chunks.get(chunk)) {
+			hasher.putInt(qi.referenceIndex);
+			hasher.putInt(qi.start);
+			hasher.putInt(qi.end);
+		}
+		return String.format("%d.%s", chunk, hasher.hash().toString());
+	}
+	private void ensureChunks() {
+		if (chunks != null) return;
+		GridssConfiguration config = context.getConfig();
+		List<QueryInterval[]> baseChunks = context.getReference().getIntervals(config.chunkSize, config.chunkSequenceChangePenalty);
+		List<BAMIndex> indexes = new ArrayList<>();
+		List<SamReader> readers = new ArrayList<>();
+		try {
+			for (File bam : bams) {
+				SamReader reader = SamReaderFactory.makeDefault().open(bam);
+				readers.add(reader);
+				if (reader.hasIndex()) {
+					indexes.add(reader.indexing().getIndex());
+				}
+			}
+			chunks = new ArrayList<>();
+			chunkCost = new ArrayList<>();
+			if (indexes.isEmpty() || config.chunkSplitCostMultiple <= 0) {
+				for (QueryInterval[] chunk : baseChunks) {
+					chunks.add(chunk);
+					chunkCost.add(indexes.isEmpty() ? 0 : sum(windowCosts(indexes, getWindows(chunk, config.minChunkSize))));
+				}
+			} else {
+				split(indexes, baseChunks, config.chunkSplitCostMultiple, config.minChunkSize);
+			}
+		} finally {
+			for (SamReader reader : readers) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					log.debug(e);
+				}
+			}
+		}
+	}
+	private void split(List<BAMIndex> indexes, List<QueryInterval[]> baseChunks, double splitMultiple, int minChunkSize) {
+		List<List<QueryInterval>> windows = new ArrayList<>();
+		List<long[]> costs = new ArrayList<>();
+		long totalCost = 0;
+		for (QueryInterval[] chunk : baseChunks) {
+			List<QueryInterval> w = getWindows(chunk, minChunkSize);
+			long[] c = windowCosts(indexes, w);
+			windows.add(w);
+			costs.add(c);
+			totalCost += sum(c);
+		}
+		double meanCost = totalCost / (double)Math.max(1, baseChunks.size());
+		for (int i = 0; i < baseChunks.size(); i++) {
+			long cost = sum(costs.get(i));
+			int pieces = (int)Math.min(windows.get(i).size(), Math.ceil(cost / Math.max(1, meanCost)));
+			if (cost <= splitMultiple * meanCost || pieces <= 1) {
+				chunks.add(baseChunks.get(i));
+				chunkCost.add(cost);
+			} else {
+				log.debug(String.format("Splitting chunk %d into %d chunks (estimated cost %d, mean %.0f)", i, pieces, cost, meanCost));
+				splitChunk(windows.get(i), costs.get(i), cost, pieces);
+			}
+		}
+	}
+	/**
+	 * Splits a chunk into contiguous sub-chunks of approximately equal cost
+	 */
+	private void splitChunk(List<QueryInterval> windows, long[] costs, long totalCost, int pieces) {
+		double target = totalCost / (double)pieces;
+		List<QueryInterval> current = new ArrayList<>();
+		long currentCost = 0;
+		for (int i = 0; i < windows.size(); i++) {
+			current.add(windows.get(i));
+			currentCost += costs[i];
+			int windowsRemaining = windows.size() - i - 1;
+			if (windowsRemaining > 0 && currentCost >= target) {
+				addChunk(current, currentCost);
+				current = new ArrayList<>();
+				currentCost = 0;
+			}
+		}
+		if (!current.isEmpty()) {
+			addChunk(current, currentCost);
+		}
+	}
+	private void addChunk(List<QueryInterval> windows, long cost) {
+		chunks.add(QueryInterval.optimizeIntervals(windows.toArray(new QueryInterval[0])));
+		chunkCost.add(cost);
+	}
+	private static List<QueryInterval> getWindows(QueryInterval[] chunk, int windowSize) {
+		List<QueryInterval> windows = new ArrayList<>();
+		for (QueryInterval qi : chunk) {
+			for (int start = qi.start; start <= qi.end; start += windowSize) {
+				windows.add(new QueryInterval(qi.referenceIndex, start, Math.min(qi.end, start + windowSize - 1)));
+			}
+		}
+		return windows;
+	}
+	private static long[] windowCosts(List<BAMIndex> indexes, List<QueryInterval> windows) {
+		long[] costs = new long[windows.size()];
+		for (int i = 0; i < windows.size(); i++) {
+			QueryInterval w = windows.get(i);
+			// every window has a minimal cost so empty regions are not free
+			long cost = 1;
+			for (BAMIndex index : indexes) {
+				cost += compressedSize(index.getSpanOverlapping(w.referenceIndex, w.start, w.end));
+			}
+			costs[i] = cost;
+		}
+		return costs;
+	}
+	/**
+	 * Approximate compressed size of the BAM records within the given span
+	 */
+	private static long compressedSize(BAMFileSpan span) {
+		long size = 0;
+		if (span != null) {
+			for (Chunk c : span.getChunks()) {
+				// virtual file offsets: upper 48 bits are the compressed block address
+				size += (c.getChunkEnd() >>> 16) - (c.getChunkStart() >>> 16);
+			}
+		}
+		return size;
+	}
+	private static long sum(long[] values) {
+		long total = 0;
+		for (long v : values) {
+			total += v;
+		}
+		return total;
+	}
+}
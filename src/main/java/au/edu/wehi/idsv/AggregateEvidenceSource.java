@@ -22,6 +22,15 @@ public class AggregateEvidenceSource extends EvidenceSource implements Iterable<
 	public CloseableIterator<DirectedEvidence> iterator(QueryInterval[] intervals) {
 		return SAMEvidenceSource.mergedIterator(all, intervals);
 	}
+	/**
+	 * Iterates over all evidence, reading from the binary evidence cache of each source when available.
+	 */
+	public CloseableIterator<DirectedEvidence> summaryIterator() {
+		return SAMEvidenceSource.mergedSummaryIterator(all, true);
+	}
+	public CloseableIterator<DirectedEvidence> summaryIterator(QueryInterval[] intervals) {
+		return SAMEvidenceSource.mergedSummaryIterator(all, intervals);
+	}
 	@Override
 	public int getMaxConcordantFragmentSize() {
 		return all.stream().mapToInt(source -> source.getMaxConcordantFragmentSize()).max().getAsInt();
@@ -5,12 +5,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -21,17 +23,20 @@ import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.configuration.AssemblyConfiguration;
 import au.edu.wehi.idsv.debruijn.positional.PositionalAssembler;
 import au.edu.wehi.idsv.sam.CigarUtil;
+import au.edu.wehi.idsv.sam.ParallelSAMFileWriterFactory;
 import au.edu.wehi.idsv.sam.SAMFileUtil;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import au.edu.wehi.idsv.util.AsyncFanOutIterator;
 import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.visualisation.AssemblyTelemetry;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry.Counter;
 import gridss.SoftClipsToSplitReads;
 import gridss.cmdline.CommandLineProgramHelper;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
-import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
@@ -52,6 +57,9 @@ import picard.sam.GatherBamFiles;
  */
 public class AssemblyEvidenceSource extends SAMEvidenceSource {
 	private static final Log log = Log.getInstance(AssemblyEvidenceSource.class);
+	private static final String METRIC_ASSEMBLY_CHUNK_TIME = "gridss_assembly_chunk_seconds";
+	private static final String METRIC_ASSEMBLY_CHUNK_ELAPSED = "gridss_assembly_chunk_elapsed_seconds";
+	private static final double[] ASSEMBLY_CHUNK_TIME_BUCKETS = { 10, 60, 300, 900, 1800, 3600, 7200, 14400, 28800 };
 	private final List<SAMEvidenceSource> source;
 	private final IntervalBed throttled;
 	private int cachedMaxSourceFragSize = -1;
@@ -82,18 +90,21 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		if (getContext().getConfig().getVisualisation().assemblyTelemetry) {
 			telemetry = new AssemblyTelemetry(getContext().getFileSystemContext().getAssemblyTelemetry(getFile()), getContext().getDictionary());
 		}
-		List<QueryInterval[]> chunks = getContext().getReference().getIntervals(getContext().getConfig().chunkSize, getContext().getConfig().chunkSequenceChangePenalty);
+		AdaptiveChunkScheduler scheduler = new AdaptiveChunkScheduler(getContext(), source);
+		List<QueryInterval[]> chunks = scheduler.getChunks();
 		List<File> assembledChunk = new ArrayList<>();
 		List<Future<Void>> tasks = new ArrayList<>();
 		for (int i = 0; i < chunks.size(); i++) {
+			assembledChunk.add(getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), scheduler.getChunkName(i)));
+		}
+		// most expensive chunks first so they are not left running alone at the end
+		for (int i : scheduler.getExecutionOrder()) {
 			QueryInterval[] chunck = chunks.get(i);
-			File f = getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i);
+			File f = assembledChunk.get(i);
 			int chunkNumber = i;
-			assembledChunk.add(f);
 			if (!f.exists()) {
 				tasks.add(threadpool.submit(() -> { assembleChunk(f, chunkNumber, chunck); return null; }));
 			}
-			
 		}
 		runTasks(tasks);
 		if (telemetry != null) {
@@ -205,27 +216,26 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		}
 	}
 	private void assembleChunk(File output, int chunkNumber, QueryInterval[] qi) throws IOException {
-		AssemblyIdGenerator assemblyNameGenerator = new SequentialIdGenerator(String.format("asm%d-", chunkNumber));
 		String chuckName = String.format("chunk %d (%s:%d-%s:%d)", chunkNumber,
 			getContext().getDictionary().getSequence(qi[0].referenceIndex).getSequenceName(), qi[0].start,
 			getContext().getDictionary().getSequence(qi[qi.length-1].referenceIndex).getSequenceName(), qi[qi.length-1].end);
 		log.info(String.format("Starting assembly on %s", chuckName));
 		Stopwatch timer = Stopwatch.createStarted();
+		// report in-progress chunks so slow chunks can be identified before they complete
+		String chunkLabel = Integer.toString(chunkNumber);
+		MetricsRegistry.Current.gauge(METRIC_ASSEMBLY_CHUNK_ELAPSED, "Elapsed time of in-progress assembly chunks",
+				() -> timer.elapsed(TimeUnit.MILLISECONDS) / 1000.0, "chunk", chunkLabel);
 		SAMFileHeader header = getContext().getBasicSamHeader();
 		// TODO: add assembly @PG header
 		File filteredout = FileSystemContext.getWorkingFileFor(output, "filtered.");
 		File tmpout = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.");
-		try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, false, tmpout)) {
+		try (SAMFileWriter writer = new ParallelSAMFileWriterFactory().makeSAMOrBAMWriter(header, false, tmpout)) {
 			if (getContext().getAssemblyParameters().writeFiltered) {
-				try (SAMFileWriter filteredWriter = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, false, filteredout)) {
-					for (BreakendDirection direction : BreakendDirection.values()) {
-						assembleChunk(writer, filteredWriter, chunkNumber, qi, direction, assemblyNameGenerator);
-					}
+				try (SAMFileWriter filteredWriter = new ParallelSAMFileWriterFactory().makeSAMOrBAMWriter(header, false, filteredout)) {
+					assembleChunk(writer, filteredWriter, chunkNumber, qi);
 				}
 			} else {
-				for (BreakendDirection direction : BreakendDirection.values()) {
-					assembleChunk(writer, null, chunkNumber, qi, direction, assemblyNameGenerator);
-				}
+				assembleChunk(writer, null, chunkNumber, qi);
 			}
 		} catch (Exception e) {
 			log.error(e, "Error assembling ", chuckName);
@@ -235,6 +245,9 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			throw e;
 		} finally {
 			timer.stop();
+			MetricsRegistry.Current.remove(METRIC_ASSEMBLY_CHUNK_ELAPSED, "chunk", chunkLabel);
+			MetricsRegistry.Current.histogram(METRIC_ASSEMBLY_CHUNK_TIME, "Assembly time per chunk", ASSEMBLY_CHUNK_TIME_BUCKETS)
+				.observe(timer.elapsed(TimeUnit.MILLISECONDS) / 1000.0);
 			log.info(String.format("Completed assembly on %s in %ds (%s)", chuckName, timer.elapsed(TimeUnit.SECONDS), timer.toString()));
 		}
 		SAMFileUtil.sort(getContext().getFileSystemContext(), tmpout, output, SortOrder.coordinate);
@@ -256,24 +269,92 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 				(int)(2 * getMaxConcordantFragmentSize() * getContext().getConfig().getAssembly().maxExpectedBreakendLengthMultiple) + 1);
 		return expanded;
 	}
-	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals, BreakendDirection direction, AssemblyIdGenerator assemblyNameGenerator) {
+	/**
+	 * Assembles both breakend directions of the given chunk.
+	 * 
+	 * Evidence is read once and partitioned by breakend direction. The first
+	 * direction is assembled on the calling thread with the remaining directions
+	 * assembled concurrently on the shared fan-out consumer thread pool. Each direction
+	 * has its own assembly name generator so assembly names do not depend on thread scheduling.
+	 * Assembly names are of the form asm<chunk><direction>-<n> (e.g. asm12f-3).
+	 */
+	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals) throws IOException {
 		QueryInterval[] expanded = getExpanded(intervals);
+		BreakendDirection[] directions = BreakendDirection.values();
 		try (CloseableIterator<DirectedEvidence> input = mergedIterator(source, expanded)) {
 			Iterator<DirectedEvidence> throttledIt = throttled(input);
-			PositionalAssembler assembler = new PositionalAssembler(getContext(), AssemblyEvidenceSource.this, assemblyNameGenerator, throttledIt, direction);
-			if (telemetry != null) {
-				assembler.setTelemetry(telemetry.getTelemetry(chunkNumber, direction));
+			try (AsyncFanOutIterator<DirectedEvidence> fanout = new AsyncFanOutIterator<>(throttledIt, directions.length,
+					e -> e.getBreakendSummary() == null ? -1 : e.getBreakendSummary().direction.ordinal(),
+					String.format("asm%d-input", chunkNumber),
+					gridss.Defaults.ASYNC_BUFFERS, gridss.Defaults.ASYNC_BUFFER_SIZE)) {
+				List<Future<Void>> tasks = new ArrayList<>();
+				for (int i = 1; i < directions.length; i++) {
+					BreakendDirection direction = directions[i];
+					tasks.add(AsyncFanOutIterator.getConsumerExecutor().submit(() -> {
+						try {
+							assembleChunk(writer, filteredWriter, chunkNumber, intervals, direction, fanout);
+						} catch (Exception e) {
+							// unblock the other direction
+							fanout.close();
+							throw e;
+						}
+						return null;
+					}));
+				}
+				try {
+					assembleChunk(writer, filteredWriter, chunkNumber, intervals, directions[0], fanout);
+				} catch (Exception e) {
+					fanout.close();
+					// don't return until the other directions have stopped writing
+					for (Future<Void> f : tasks) {
+						try {
+							f.get();
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						} catch (ExecutionException ex) {
+							// already failing with the first exception
+						}
+					}
+					throw e;
+				}
+				for (Future<Void> f : tasks) {
+					try {
+						f.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException(e);
+					} catch (ExecutionException e) {
+						Throwables.propagateIfPossible(e.getCause(), IOException.class);
+						throw new RuntimeException(e.getCause());
+					}
+				}
 			}
-			while (assembler.hasNext()) {
-				SAMRecord asm = assembler.next();
-				asm = transformAssembly(asm); // transform before chunk bounds checking as the position may have moved
-				if (QueryIntervalUtil.overlaps(intervals, asm.getReferenceIndex(), asm.getAlignmentStart())) {
-					// only output assemblies that start within our chunk
-					if (shouldFilterAssembly(asm)) {
-						if (filteredWriter != null) {
+		}
+	}
+	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals, BreakendDirection direction, AsyncFanOutIterator<DirectedEvidence> fanout) {
+		AssemblyIdGenerator assemblyNameGenerator = new SequentialIdGenerator(String.format("asm%d%s-", chunkNumber, direction.toChar()));
+		assembleChunk(writer, filteredWriter, chunkNumber, intervals, direction, fanout.getOutput(direction.ordinal()), assemblyNameGenerator);
+	}
+	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals, BreakendDirection direction, Iterator<DirectedEvidence> evidence, AssemblyIdGenerator assemblyNameGenerator) {
+		PositionalAssembler assembler = new PositionalAssembler(getContext(), AssemblyEvidenceSource.this, assemblyNameGenerator, evidence, direction);
+		if (telemetry != null) {
+			assembler.setTelemetry(telemetry.getTelemetry(chunkNumber, direction));
+		}
+		Counter assemblyCount = MetricsRegistry.Current.records("assembly");
+		while (assembler.hasNext()) {
+			SAMRecord asm = assembler.next();
+			assemblyCount.inc();
+			asm = transformAssembly(asm); // transform before chunk bounds checking as the position may have moved
+			if (QueryIntervalUtil.overlaps(intervals, asm.getReferenceIndex(), asm.getAlignmentStart())) {
+				// only output assemblies that start within our chunk
+				if (shouldFilterAssembly(asm)) {
+					if (filteredWriter != null) {
+						synchronized (filteredWriter) {
 							filteredWriter.addAlignment(asm);
 						}
-					} else {
+					}
+				} else {
+					synchronized (writer) {
 						writer.addAlignment(asm);
 					}
 				}
@@ -317,7 +398,7 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		try (CloseableIterator<DirectedEvidence> reads = mergedIterator(source, expanded)) {
 			try (SamReader reader = factory.open(in)) {
 				try (SAMRecordIterator assemblies = reader.iterator()) {
-					try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(reader.getFileHeader(), true, tmpout)) {
+					try (SAMFileWriter writer = new ParallelSAMFileWriterFactory().makeSAMOrBAMWriter(reader.getFileHeader(), true, tmpout)) {
 						SequentialEvidenceAssemblyAllocator it = new SequentialEvidenceAssemblyAllocator(
 								getContext().getLinear(),
 								reads,
@@ -359,6 +440,7 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			execute(new SoftClipsToSplitReads(), args);
 		}
 		SAMFileUtil.sort(getContext().getFileSystemContext(), withsplitreadsFile, svFile, SortOrder.coordinate);
+		ensureEvidenceCache();
 	}
 	public boolean shouldFilterAssembly(SAMRecord asm) {
 		AssemblyConfiguration ap = getContext().getAssemblyParameters();
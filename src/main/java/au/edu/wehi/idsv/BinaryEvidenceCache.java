@@ -0,0 +1,546 @@
+package au.edu.wehi.idsv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.lang3.NotImplementedException;
+
+import au.edu.wehi.idsv.util.FileHelper;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * Compact binary store of the evidence of an evidence source.
+ *
+ * Evidence is written once in natural evidence order and can then be
+ * streamed, or queried by genomic interval, without decoding the underlying
+ * BAM records or recalculating evidence scores.
+ *
+ * Each entry contains the breakend location, scores, evidence identifier,
+ * mapping qualities and breakend and anchor sequence and qualities.
+ * Entries are stored in a BGZF compressed data file with a sidecar index
+ * containing the virtual file offset of every INDEX_INTERVAL entry.
+ *
+ * The index header records the size and modification time of the file the
+ * evidence was read from so a cache that is stale with respect to its source
+ * file can be detected and rebuilt.
+ *
+ * Evidence returned from the cache does not have an underlying SAMRecord
+ * so can only be used by processing steps that do not require the
+ * underlying reads (such as variant calling).
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class BinaryEvidenceCache {
+	private static final Log log = Log.getInstance(BinaryEvidenceCache.class);
+	private static final String MAGIC = "GRIDSSEV";
+	private static final int VERSION = 2;
+	private static final int INDEX_INTERVAL = 1024;
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final int FLAG_BREAKPOINT = 1;
+	private static final int FLAG_EXACT = 2;
+	private static final int FLAG_MULTIMAPPING = 4;
+	private final File file;
+	private final EvidenceSource source;
+	private final int sourceCategory;
+	private final long count;
+	/**
+	 * Maximum width of any breakend interval in the cache
+	 */
+	private final int maxBreakendWidth;
+	private final int[] indexReferenceIndex;
+	private final int[] indexStart;
+	private final long[] indexOrdinal;
+	private final long[] indexVirtualOffset;
+	/**
+	 * Opens an existing evidence cache
+	 * @param file evidence cache
+	 * @param source evidence source returned evidence is associated with
+	 */
+	public BinaryEvidenceCache(File file, EvidenceSource source) throws IOException {
+		this.file = file;
+		this.source = source;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(file))))) {
+			readMagic(in, file);
+			in.readLong(); // source file length
+			in.readLong(); // source file modification time
+			this.sourceCategory = in.readInt();
+			this.count = in.readLong();
+			this.maxBreakendWidth = in.readInt();
+			int indexSize = in.readInt();
+			indexReferenceIndex = new int[indexSize];
+			indexStart = new int[indexSize];
+			indexOrdinal = new long[indexSize];
+			indexVirtualOffset = new long[indexSize];
+			for (int i = 0; i < indexSize; i++) {
+				indexReferenceIndex[i] = in.readInt();
+				indexStart[i] = in.readInt();
+				indexOrdinal[i] = in.readLong();
+				indexVirtualOffset[i] = in.readLong();
+			}
+		}
+	}
+	public static File getIndexFile(File file) {
+		return new File(file.getAbsolutePath() + INDEX_SUFFIX);
+	}
+	/**
+	 * Indicates whether the given evidence cache exists
+	 */
+	public static boolean exists(File file) {
+		return file.exists() && getIndexFile(file).exists();
+	}
+	/**
+	 * Indicates whether the given evidence cache exists and was written from
+	 * the current version of the given source file
+	 * @param file evidence cache
+	 * @param sourceFile file the evidence was read from
+	 */
+	public static boolean isCurrent(File file, File sourceFile) {
+		if (!exists(file)) return false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(file))))) {
+			readMagic(in, file);
+			return in.readLong() == sourceFile.length() && in.readLong() == sourceFile.lastModified();
+		} catch (IOException e) {
+			log.debug(e, "Unable to read evidence cache header of " + file.getAbsolutePath());
+			return false;
+		}
+	}
+	/**
+	 * Writes the given evidence to a new evidence cache
+	 * @param file output file
+	 * @param sourceCategory category of the evidence source
+	 * @param it evidence in natural evidence order
+	 * @return number of evidence written
+	 */
+	public static long write(File file, int sourceCategory, Iterator<DirectedEvidence> it) throws IOException {
+		return write(file, sourceCategory, null, it);
+	}
+	/**
+	 * Writes the given evidence to a new evidence cache
+	 * @param file output file
+	 * @param sourceCategory category of the evidence source
+	 * @param sourceFile file the evidence was read from. Can be null.
+	 * @param it evidence in natural evidence order
+	 * @return number of evidence written
+	 */
+	public static long write(File file, int sourceCategory, File sourceFile, Iterator<DirectedEvidence> it) throws IOException {
+		// fingerprint taken before reading so a source rewritten during the write is detected
+		long sourceLength = sourceFile == null ? 0 : sourceFile.length();
+		long sourceLastModified = sourceFile == null ? 0 : sourceFile.lastModified();
+		File tmp = FileSystemContext.getWorkingFileFor(file);
+		File tmpIndex = getIndexFile(tmp);
+		long count = 0;
+		int maxBreakendWidth = 0;
+		int lastReferenceIndex = -1;
+		try (BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(tmp);
+				DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpIndex)))) {
+			// DataOutputStream does not buffer so the file pointer of the BGZF stream is always current
+			DataOutputStream out = new DataOutputStream(bcos);
+			out.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+			out.writeInt(VERSION);
+			ByteArrayDataOutput indexEntries = new ByteArrayDataOutput();
+			while (it.hasNext()) {
+				DirectedEvidence e = it.next();
+				BreakendSummary bs = e.getBreakendSummary();
+				if (count % INDEX_INTERVAL == 0 || bs.referenceIndex != lastReferenceIndex) {
+					indexEntries.out.writeInt(bs.referenceIndex);
+					indexEntries.out.writeInt(bs.start);
+					indexEntries.out.writeLong(count);
+					indexEntries.out.writeLong(bcos.getFilePointer());
+					indexEntries.size++;
+				}
+				writeEntry(out, e);
+				lastReferenceIndex = bs.referenceIndex;
+				maxBreakendWidth = Math.max(maxBreakendWidth, bs.end - bs.start);
+				count++;
+			}
+			index.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+			index.writeInt(VERSION);
+			index.writeLong(sourceLength);
+			index.writeLong(sourceLastModified);
+			index.writeInt(sourceCategory);
+			index.writeLong(count);
+			index.writeInt(maxBreakendWidth);
+			index.writeInt(indexEntries.size);
+			indexEntries.bytes.writeTo(index);
+		}
+		FileHelper.move(tmp, file, true);
+		log.debug(String.format("Wrote %d evidence to %s", count, file));
+		return count;
+	}
+	private static class ByteArrayDataOutput {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private int size = 0;
+	}
+	private static void readMagic(DataInput in, File file) throws IOException {
+		byte[] magic = new byte[MAGIC.length()];
+		in.readFully(magic);
+		int version = in.readInt();
+		if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII)) || version != VERSION) {
+			throw new IOException(String.format("%s is not a version %d evidence cache", file, VERSION));
+		}
+	}
+	public long size() {
+		return count;
+	}
+	public int getSourceCategory() {
+		return sourceCategory;
+	}
+	/**
+	 * Iterates over all evidence in the cache
+	 * @return evidence in natural evidence order
+	 */
+	public CloseableIterator<DirectedEvidence> iterator() {
+		return new EvidenceIterator(null);
+	}
+	/**
+	 * Iterates over the evidence with breakends overlapping the given intervals
+	 * @param intervals genomic intervals
+	 * @return evidence in natural evidence order
+	 */
+	public CloseableIterator<DirectedEvidence> iterator(QueryInterval[] intervals) {
+		return new EvidenceIterator(QueryInterval.optimizeIntervals(intervals.clone()));
+	}
+	/**
+	 * Finds the last index entry that is at or before all evidence overlapping the given interval
+	 */
+	private int seekIndex(QueryInterval qi) {
+		int firstStart = qi.start - maxBreakendWidth;
+		int lo = 0;
+		int hi = indexOrdinal.length - 1;
+		int result = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (indexReferenceIndex[mid] < qi.referenceIndex || (indexReferenceIndex[mid] == qi.referenceIndex && indexStart[mid] < firstStart)) {
+				result = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return result;
+	}
+	private class EvidenceIterator implements CloseableIterator<DirectedEvidence> {
+		private final QueryInterval[] intervals;
+		private final BlockCompressedInputStream bcis;
+		private final DataInputStream in;
+		private int intervalOffset = 0;
+		private long nextOrdinal = 0;
+		private DirectedEvidence pending = null;
+		private DirectedEvidence next = null;
+		public EvidenceIterator(QueryInterval[] intervals) {
+			this.intervals = intervals;
+			try {
+				this.bcis = new BlockCompressedInputStream(file);
+				this.in = new DataInputStream(bcis);
+				readMagic(in, file);
+			} catch (IOException e) {
+				close();
+				throw new RuntimeIOException(e);
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				try {
+					next = intervals == null ? readNext() : queryNext();
+				} catch (IOException e) {
+					throw new RuntimeIOException(e);
+				}
+			}
+			return next != null;
+		}
+		@Override
+		public DirectedEvidence next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			DirectedEvidence result = next;
+			next = null;
+			return result;
+		}
+		private DirectedEvidence readNext() throws IOException {
+			if (nextOrdinal >= count) return null;
+			nextOrdinal++;
+			return readEntry(in, source);
+		}
+		private DirectedEvidence queryNext() throws IOException {
+			while (intervalOffset < intervals.length) {
+				QueryInterval qi = intervals[intervalOffset];
+				if (pending == null) {
+					int seek = seekIndex(qi);
+					if (indexOrdinal.length > 0 && indexOrdinal[seek] > nextOrdinal) {
+						bcis.seek(indexVirtualOffset[seek]);
+						nextOrdinal = indexOrdinal[seek];
+					}
+					pending = readNext();
+					if (pending == null) return null;
+				}
+				BreakendSummary bs = pending.getBreakendSummary();
+				if (bs.referenceIndex > qi.referenceIndex || (bs.referenceIndex == qi.referenceIndex && bs.start > qi.end)) {
+					// past the end of this interval. Check against the next interval
+					intervalOffset++;
+					continue;
+				}
+				DirectedEvidence e = pending;
+				pending = null;
+				if (QueryIntervalUtil.overlaps(intervals, bs)) {
+					return e;
+				}
+			}
+			return null;
+		}
+		@Override
+		public void close() {
+			CloserUtil.close(bcis);
+		}
+	}
+	private static void writeEntry(DataOutput out, DirectedEvidence e) throws IOException {
+		BreakendSummary bs = e.getBreakendSummary();
+		boolean isBreakpoint = e instanceof DirectedBreakpoint && bs instanceof BreakpointSummary;
+		int flags = (isBreakpoint ? FLAG_BREAKPOINT : 0)
+				| (e.isBreakendExact() ? FLAG_EXACT : 0)
+				| (e.isFromMultimappingFragment() ? FLAG_MULTIMAPPING : 0);
+		out.writeByte(flags);
+		writeBreakend(out, bs.referenceIndex, bs.direction, bs.nominal, bs.start, bs.end);
+		out.writeFloat(e.getBreakendQual());
+		out.writeInt(e.getLocalMapq());
+		writeString(out, e.getEvidenceID());
+		writeBytes(out, e.getBreakendSequence());
+		writeBytes(out, e.getBreakendQuality());
+		writeBytes(out, e.getAnchorSequence());
+		writeBytes(out, e.getAnchorQuality());
+		if (isBreakpoint) {
+			DirectedBreakpoint bp = (DirectedBreakpoint)e;
+			BreakpointSummary loc = bp.getBreakendSummary();
+			writeBreakend(out, loc.referenceIndex2, loc.direction2, loc.nominal2, loc.start2, loc.end2);
+			out.writeFloat(bp.getBreakpointQual());
+			out.writeInt(bp.getRemoteMapq());
+			writeString(out, bp.getRemoteEvidenceID());
+			writeString(out, bp.getUntemplatedSequence());
+			writeString(out, bp.getHomologySequence());
+			out.writeInt(bp.getHomologyAnchoredBaseCount());
+		}
+	}
+	private static DirectedEvidence readEntry(DataInput in, EvidenceSource source) throws IOException {
+		int flags = in.readByte();
+		int referenceIndex = in.readInt();
+		BreakendDirection direction = readDirection(in);
+		int nominal = in.readInt();
+		int start = in.readInt();
+		int end = in.readInt();
+		float breakendQual = in.readFloat();
+		int localMapq = in.readInt();
+		String evidenceID = readString(in);
+		byte[] breakendSequence = readBytes(in);
+		byte[] breakendQuality = readBytes(in);
+		byte[] anchorSequence = readBytes(in);
+		byte[] anchorQuality = readBytes(in);
+		boolean exact = (flags & FLAG_EXACT) != 0;
+		boolean multimapping = (flags & FLAG_MULTIMAPPING) != 0;
+		if ((flags & FLAG_BREAKPOINT) == 0) {
+			return new CachedBreakend(source, new BreakendSummary(referenceIndex, direction, nominal, start, end), breakendQual, localMapq, evidenceID,
+					breakendSequence, breakendQuality, anchorSequence, anchorQuality, exact, multimapping);
+		}
+		int referenceIndex2 = in.readInt();
+		BreakendDirection direction2 = readDirection(in);
+		int nominal2 = in.readInt();
+		int start2 = in.readInt();
+		int end2 = in.readInt();
+		float breakpointQual = in.readFloat();
+		int remoteMapq = in.readInt();
+		String remoteEvidenceID = readString(in);
+		String untemplatedSequence = readString(in);
+		String homologySequence = readString(in);
+		int homologyAnchoredBaseCount = in.readInt();
+		return new CachedBreakpoint(source,
+				new BreakpointSummary(referenceIndex, direction, nominal, start, end, referenceIndex2, direction2, nominal2, start2, end2),
+				breakendQual, localMapq, evidenceID,
+				breakendSequence, breakendQuality, anchorSequence, anchorQuality, exact, multimapping,
+				breakpointQual, remoteMapq, remoteEvidenceID, untemplatedSequence, homologySequence, homologyAnchoredBaseCount);
+	}
+	private static void writeBreakend(DataOutput out, int referenceIndex, BreakendDirection direction, int nominal, int start, int end) throws IOException {
+		out.writeInt(referenceIndex);
+		out.writeByte(direction == BreakendDirection.Forward ? 0 : 1);
+		out.writeInt(nominal);
+		out.writeInt(start);
+		out.writeInt(end);
+	}
+	private static BreakendDirection readDirection(DataInput in) throws IOException {
+		return in.readByte() == 0 ? BreakendDirection.Forward : BreakendDirection.Backward;
+	}
+	private static void writeBytes(DataOutput out, byte[] b) throws IOException {
+		if (b == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+	private static byte[] readBytes(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) return null;
+		byte[] b = new byte[length];
+		in.readFully(b);
+		return b;
+	}
+	private static void writeString(DataOutput out, String s) throws IOException {
+		writeBytes(out, s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+	}
+	private static String readString(DataInput in) throws IOException {
+		byte[] b = readBytes(in);
+		if (b == null) return null;
+		return new String(b, StandardCharsets.UTF_8);
+	}
+	/**
+	 * Breakend evidence loaded from the evidence cache
+	 */
+	public static class CachedBreakend implements DirectedEvidence {
+		private final EvidenceSource source;
+		private final BreakendSummary location;
+		private final float breakendQual;
+		private final int localMapq;
+		private final String evidenceID;
+		private final byte[] breakendSequence;
+		private final byte[] breakendQuality;
+		private final byte[] anchorSequence;
+		private final byte[] anchorQuality;
+		private final boolean exact;
+		private final boolean multimapping;
+		protected CachedBreakend(EvidenceSource source, BreakendSummary location, float breakendQual, int localMapq, String evidenceID,
+				byte[] breakendSequence, byte[] breakendQuality, byte[] anchorSequence, byte[] anchorQuality,
+				boolean exact, boolean multimapping) {
+			this.source = source;
+			this.location = location;
+			this.breakendQual = breakendQual;
+			this.localMapq = localMapq;
+			this.evidenceID = evidenceID;
+			this.breakendSequence = breakendSequence;
+			this.breakendQuality = breakendQuality;
+			this.anchorSequence = anchorSequence;
+			this.anchorQuality = anchorQuality;
+			this.exact = exact;
+			this.multimapping = multimapping;
+		}
+		@Override
+		public float getBreakendQual() {
+			return breakendQual;
+		}
+		@Override
+		public BreakendSummary getBreakendSummary() {
+			return location;
+		}
+		@Override
+		public byte[] getBreakendSequence() {
+			return breakendSequence;
+		}
+		@Override
+		public byte[] getBreakendQuality() {
+			return breakendQuality;
+		}
+		@Override
+		public byte[] getAnchorSequence() {
+			return anchorSequence;
+		}
+		@Override
+		public byte[] getAnchorQuality() {
+			return anchorQuality;
+		}
+		@Override
+		public String getEvidenceID() {
+			return evidenceID;
+		}
+		@Override
+		public EvidenceSource getEvidenceSource() {
+			return source;
+		}
+		@Override
+		public int getLocalMapq() {
+			return localMapq;
+		}
+		@Override
+		public boolean isBreakendExact() {
+			return exact;
+		}
+		@Override
+		public boolean isFromMultimappingFragment() {
+			return multimapping;
+		}
+		@Override
+		public String toString() {
+			return String.format("%s %s", evidenceID, location);
+		}
+	}
+	/**
+	 * Breakpoint evidence loaded from the evidence cache
+	 */
+	public static class CachedBreakpoint extends CachedBreakend implements DirectedBreakpoint {
+		private final float breakpointQual;
+		private final int remoteMapq;
+		private final String remoteEvidenceID;
+		private final String untemplatedSequence;
+		private final String homologySequence;
+		private final int homologyAnchoredBaseCount;
+		protected CachedBreakpoint(EvidenceSource source, BreakpointSummary location, float breakendQual, int localMapq, String evidenceID,
+				byte[] breakendSequence, byte[] breakendQuality, byte[] anchorSequence, byte[] anchorQuality,
+				boolean exact, boolean multimapping,
+				float breakpointQual, int remoteMapq, String remoteEvidenceID, String untemplatedSequence, String homologySequence, int homologyAnchoredBaseCount) {
+			super(source, location, breakendQual, localMapq, evidenceID, breakendSequence, breakendQuality, anchorSequence, anchorQuality, exact, multimapping);
+			this.breakpointQual = breakpointQual;
+			this.remoteMapq = remoteMapq;
+			this.remoteEvidenceID = remoteEvidenceID;
+			this.untemplatedSequence = untemplatedSequence;
+			this.homologySequence = homologySequence;
+			this.homologyAnchoredBaseCount = homologyAnchoredBaseCount;
+		}
+		@Override
+		public BreakpointSummary getBreakendSummary() {
+			return (BreakpointSummary)super.getBreakendSummary();
+		}
+		@Override
+		public float getBreakpointQual() {
+			return breakpointQual;
+		}
+		@Override
+		public int getRemoteMapq() {
+			return remoteMapq;
+		}
+		@Override
+		public String getUntemplatedSequence() {
+			return untemplatedSequence;
+		}
+		@Override
+		public String getHomologySequence() {
+			return homologySequence;
+		}
+		@Override
+		public int getHomologyAnchoredBaseCount() {
+			return homologyAnchoredBaseCount;
+		}
+		@Override
+		public DirectedBreakpoint asRemote() {
+			throw new NotImplementedException("Remote evidence is not stored in the evidence cache");
+		}
+		@Override
+		public String getRemoteEvidenceID() {
+			return remoteEvidenceID;
+		}
+	}
+}
@@ -12,6 +12,8 @@ public class Defaults {
 	public static final boolean NO_LIBSSW;
 	public static final boolean ASYNC_CACHE_REFERENCE;
 	public static final boolean ATTEMPT_ASSEMBLY_RECOVERY;
+	public static final boolean LEGACY_CLIQUE_CALCULATOR;
+	public static final boolean MEMORY_MAPPED_REFERENCE;
 	static {
 		SANITY_CHECK_DE_BRUIJN = Boolean.valueOf(System.getProperty("sanitycheck.debruijn", "false"));
 		SANITY_CHECK_CLIQUE = Boolean.valueOf(System.getProperty("sanitycheck.clique", "false"));
@@ -22,5 +24,7 @@ public class Defaults {
 		NO_LIBSSW = Boolean.valueOf(System.getProperty("sswjni.disable", "false"));
 		ASYNC_CACHE_REFERENCE = !Boolean.valueOf(System.getProperty("reference.loading.sync", "false"));
 		ATTEMPT_ASSEMBLY_RECOVERY = Boolean.valueOf(System.getProperty("assembly.recover", "true"));
+		LEGACY_CLIQUE_CALCULATOR = Boolean.valueOf(System.getProperty("clique.legacy", "false"));
+		MEMORY_MAPPED_REFERENCE = Boolean.valueOf(System.getProperty("reference.mmap", "true"));
 	}
 }
\ No newline at end of file
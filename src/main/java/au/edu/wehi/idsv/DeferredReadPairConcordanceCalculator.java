@@ -0,0 +1,177 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamPairUtil.PairOrientation;
+
+/**
+ * Fragment size based read pair concordance calculator for use before the
+ * insert size distribution of the library is known.
+ *
+ * Read pairs that are not aligned to the same chromosome in opposite orientations are
+ * discordant for any fragment size bounds and can be classified immediately. Read pairs
+ * with a fragment size within the provisional bounds estimated from the fragment sizes
+ * seen so far are assumed to be concordant. The classification of all other read pairs
+ * is undecided until the final concordance calculator is resolved.
+ *
+ * Provisional bounds should be well within the expected final bounds. Once resolved,
+ * the concordance assumptions made can be checked against the final bounds.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class DeferredReadPairConcordanceCalculator extends ReadPairConcordanceCalculator {
+	/**
+	 * Minimum number of read pairs required before provisional bounds are estimated
+	 */
+	public static final int DEFAULT_MIN_PAIRS = 100000;
+	/**
+	 * Provisional bounds are placed this many times further into the distribution than the final bounds
+	 */
+	private static final double TAIL_SAFETY_FACTOR = 10;
+	private static final int UPDATE_INTERVAL = 65536;
+	private static final int MAX_TRACKED_FRAGMENT_SIZE = 1 << 16;
+	private final double concordantPercent;
+	private final int minPairs;
+	private final long[] fragmentSizeCounts = new long[MAX_TRACKED_FRAGMENT_SIZE + 1];
+	private long fragmentSizeTotal = 0;
+	private int provisionalMin = Integer.MAX_VALUE;
+	private int provisionalMax = Integer.MIN_VALUE;
+	private int minAssumedConcordant = Integer.MAX_VALUE;
+	private int maxAssumedConcordant = Integer.MIN_VALUE;
+	private ReadPairConcordanceCalculator resolved = null;
+	/**
+	 * Creates a new deferred concordance calculator
+	 * @param concordantPercent portion of read pairs considered concordant by the final calculator
+	 * @param minPairs minimum number of fragment sizes required before provisional bounds are estimated
+	 */
+	public DeferredReadPairConcordanceCalculator(double concordantPercent, int minPairs) {
+		if (concordantPercent < 0 || concordantPercent > 1) throw new IllegalArgumentException("concordantPercent must be between 0.0 and 1.0");
+		this.concordantPercent = concordantPercent;
+		this.minPairs = minPairs;
+	}
+	/**
+	 * Adds a fragment size observation used to estimate provisional bounds
+	 * @param fragmentSize fragment size
+	 */
+	public void acceptFragmentSize(int fragmentSize) {
+		if (resolved != null || fragmentSize <= 0) return;
+		fragmentSizeCounts[Math.min(fragmentSize, MAX_TRACKED_FRAGMENT_SIZE)]++;
+		fragmentSizeTotal++;
+		if (fragmentSizeTotal >= minPairs && fragmentSizeTotal % UPDATE_INTERVAL == 0) {
+			updateProvisionalBounds();
+		}
+	}
+	/**
+	 * Adds the fragment size of the given read to the provisional distribution.
+	 * Only the primary alignment of the first read of each concordantly oriented read pair is considered.
+	 * @param read read
+	 */
+	public void acceptRead(SAMRecord read) {
+		if (read.getReadPairedFlag()
+				&& read.getFirstOfPairFlag()
+				&& !read.isSecondaryOrSupplementary()
+				&& super.isConcordant(read, null)) {
+			acceptFragmentSize(SAMRecordUtil.estimateFragmentSize(read, PairOrientation.FR));
+		}
+	}
+	private void updateProvisionalBounds() {
+		double tail = (1.0 - concordantPercent) / 2;
+		double provisionalTail = Math.max(tail, Math.min(0.25, tail * TAIL_SAFETY_FACTOR));
+		long lowerCount = (long)Math.ceil(fragmentSizeTotal * provisionalTail);
+		long upperCount = (long)Math.floor(fragmentSizeTotal * (1.0 - provisionalTail));
+		long cumulative = 0;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		// last bucket is an overflow bucket and cannot be used as a bound
+		for (int i = 1; i < MAX_TRACKED_FRAGMENT_SIZE; i++) {
+			cumulative += fragmentSizeCounts[i];
+			if (min == Integer.MAX_VALUE && cumulative >= lowerCount) {
+				min = i;
+			}
+			if (cumulative >= upperCount) {
+				max = i;
+				break;
+			}
+		}
+		if (min <= max) {
+			provisionalMin = min;
+			provisionalMax = max;
+		}
+	}
+	/**
+	 * Provisional minimum concordant fragment size
+	 */
+	public int getProvisionalMin() {
+		return provisionalMin;
+	}
+	/**
+	 * Provisional maximum concordant fragment size
+	 */
+	public int getProvisionalMax() {
+		return provisionalMax;
+	}
+	public boolean isResolved() {
+		return resolved != null;
+	}
+	/**
+	 * Sets the final concordance calculator.
+	 * @param calc final read pair concordance calculator
+	 * @return true if all read pairs assumed to be concordant are concordant according to the final calculator,
+	 * false if the provisional bounds were not contained within the final bounds
+	 */
+	public boolean resolve(ReadPairConcordanceCalculator calc) {
+		if (resolved != null) throw new IllegalStateException("Already resolved");
+		if (calc == null) throw new IllegalArgumentException("Final concordance calculator required");
+		resolved = calc;
+		if (minAssumedConcordant > maxAssumedConcordant) {
+			// never used the provisional bounds
+			return true;
+		}
+		return calc.minConcordantFragmentSize() <= minAssumedConcordant && maxAssumedConcordant <= calc.maxConcordantFragmentSize();
+	}
+	/**
+	 * Determines whether the concordance of the given read pair can be determined without the final calculator
+	 * @param read1 read
+	 * @param read2 mate. If null, the mate information of read1 is used.
+	 * @return true if isConcordant() can be called for this read pair
+	 */
+	public boolean isDecidable(SAMRecord read1, SAMRecord read2) {
+		if (resolved != null) return true;
+		if (!super.isConcordant(read1, read2)) return true;
+		int fragSize = fragmentSize(read1, read2);
+		return provisionalMin <= fragSize && fragSize <= provisionalMax;
+	}
+	@Override
+	public boolean isConcordant(SAMRecord read1, SAMRecord read2) {
+		if (resolved != null) return resolved.isConcordant(read1, read2);
+		if (!super.isConcordant(read1, read2)) return false;
+		int fragSize = fragmentSize(read1, read2);
+		if (provisionalMin <= fragSize && fragSize <= provisionalMax) {
+			minAssumedConcordant = Math.min(minAssumedConcordant, fragSize);
+			maxAssumedConcordant = Math.max(maxAssumedConcordant, fragSize);
+			return true;
+		}
+		throw new IllegalStateException(String.format("Concordance of read pair %s with fragment size %d cannot be determined until the insert size distribution is known.", read1.getReadName(), fragSize));
+	}
+	@Override
+	public boolean isConcordant(SAMRecord read) {
+		return isConcordant(read, null);
+	}
+	private static int fragmentSize(SAMRecord read1, SAMRecord read2) {
+		if (read2 == null) {
+			return SAMRecordUtil.estimateFragmentSize(read1, PairOrientation.FR);
+		}
+		return SAMRecordUtil.calculateFragmentSize(read1, read2, PairOrientation.FR);
+	}
+	@Override
+	public int maxConcordantFragmentSize() {
+		if (resolved != null) return resolved.maxConcordantFragmentSize();
+		throw new IllegalStateException("Maximum concordant fragment size not known until the insert size distribution is known.");
+	}
+	@Override
+	public int minConcordantFragmentSize() {
+		if (resolved != null) return resolved.minConcordantFragmentSize();
+		throw new IllegalStateException("Minimum concordant fragment size not known until the insert size distribution is known.");
+	}
+}
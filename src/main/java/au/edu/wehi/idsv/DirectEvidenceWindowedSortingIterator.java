@@ -6,6 +6,7 @@ import java.util.Iterator;
 import com.google.common.base.Function;
 
 import au.edu.wehi.idsv.util.WindowedSortingIterator;
+import htsjdk.samtools.util.SortingCollection;
 
 /**
  * Sorts directed evidence within from a sequence where the sequence position of
@@ -29,4 +30,20 @@ public class DirectEvidenceWindowedSortingIterator<T extends DirectedEvidence> e
 			}
 		}, windowSize, (Comparator<T>)DirectedEvidenceOrder.ByNatural);
 	}
+	/**
+	 * Creates a sorting iterator that spills to disk when the sort window contains more records
+	 * than the maximum number of records in memory allowed by the processing context.
+	 * @param codec evidence encoder/decoder
+	 */
+	@SuppressWarnings("unchecked")
+	public DirectEvidenceWindowedSortingIterator(final GenomicProcessingContext processContext, final int windowSize, final Iterator<T> it, final SortingCollection.Codec<T> codec) {
+		super(it, new Function<T, Long>() {
+			public Long apply(T arg) {
+				return processContext.getLinear().getStartLinearCoordinate(arg.getBreakendSummary());
+			}
+		}, windowSize, (Comparator<T>)DirectedEvidenceOrder.ByNatural,
+		codec,
+		processContext.getFileSystemContext().getMaxBufferedRecordsPerFile(),
+		processContext.getFileSystemContext().getTemporaryDirectory());
+	}
 }
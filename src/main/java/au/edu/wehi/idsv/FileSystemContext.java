@@ -57,6 +57,8 @@ public class FileSystemContext {
 	private static final String COMMON_INITIAL_SUFFIX = ".gridss";
 	private static final String INTERMEDIATE_DIR_SUFFIX = COMMON_INITIAL_SUFFIX + ".working";
 	private static final String FORMAT_SV_SAM = "%1$s/%2$s.sv.bam";
+	private static final String FORMAT_EVIDENCE_CACHE = "%1$s/%2$s.sv.evidence";
+	private static final String FORMAT_COVERAGE_TRACK = "%1$s/%2$s.coverage";
 	private static final String FORMAT_METRICS_PREFIX = "%1$s/%2$s";
 	private static final String FORMAT_INSERT_SIZE_METRICS = FORMAT_METRICS_PREFIX + ".insert_size_metrics";
 	private static final String FORMAT_IDSV_METRICS = FORMAT_METRICS_PREFIX + CollectIdsvMetrics.METRICS_SUFFIX;
@@ -68,9 +70,10 @@ public class FileSystemContext {
 	private static final String FORMAT_REALIGN_FASTQ = "%1$s/%2$s.realign.%3$d.fq";
 	private static final String FORMAT_REALIGN_SAM = "%1$s/%2$s.realign.%3$d" + SAM_SUFFIX;
 	private static final String FORMAT_BREAKPOINT_VCF = "%1$s/%2$s.breakpoint" + VCF_SUFFIX;
-	private static final String FORMAT_ASSEMBLY_CHUNK_SAM = "%1$s/%2$s.assembly.chunk%3$d" + SAM_SUFFIX;
+	private static final String FORMAT_ASSEMBLY_CHUNK_SAM = "%1$s/%2$s.assembly.chunk%3$s" + SAM_SUFFIX;
 	private static final String FORMAT_ASSEMBLY_TELEMETRY = "%1$s/%2$s.events.csv";
-	private static final String FORMAT_VARIANT_CALL_CHUNK_VCF = "%1$s/%2$s.breakpoint.chunk%3$d" + VCF_SUFFIX;
+	private static final String FORMAT_VARIANT_CALL_CHUNK_VCF = "%1$s/%2$s.breakpoint.chunk%3$s" + VCF_SUFFIX;
+	private static final String FORMAT_ANNOTATION_CHUNK_VCF = "%1$s/%2$s.annotated.chunk%3$d" + VCF_SUFFIX;
 	/**
 	 * Gets the idsv intermediate working directory for the given input
 	 * @param input
@@ -114,6 +117,12 @@ public class FileSystemContext {
 	public File getSVBam(File input) {
 		return getFile(String.format(FORMAT_SV_SAM, getIntermediateDirectory(input), getSource(input).getName()));
 	}
+	public File getEvidenceCache(File input) {
+		return getFile(String.format(FORMAT_EVIDENCE_CACHE, getIntermediateDirectory(input), getSource(input).getName()));
+	}
+	public File getCoverageTrack(File input) {
+		return getFile(String.format(FORMAT_COVERAGE_TRACK, getIntermediateDirectory(input), getSource(input).getName()));
+	}
 	public File getBreakpointVcf(File input) {
 		return getFile(String.format(FORMAT_BREAKPOINT_VCF, getIntermediateDirectory(input), getSource(input).getName()));
 	}
@@ -147,13 +156,26 @@ public class FileSystemContext {
 	public File getCoverageBlacklistBed(File input) {
 		return getFile(String.format(FORMAT_COVERAGE_BLACKLIST_BED, getIntermediateDirectory(input), getSource(input).getName()));
 	}
-	public File getAssemblyChunkBam(File input, int chunk) {
+	/**
+	 * Assembly output for the given chunk
+	 * @param input assembly file
+	 * @param chunk chunk name. Chunk names must uniquely identify the genomic interval assembled
+	 */
+	public File getAssemblyChunkBam(File input, String chunk) {
 		return getFile(String.format(FORMAT_ASSEMBLY_CHUNK_SAM, getIntermediateDirectory(input), getSource(input).getName(), chunk));
 	}
 	public File getAssemblyTelemetry(File assembly) {
 		return getFile(String.format(FORMAT_ASSEMBLY_TELEMETRY, getIntermediateDirectory(assembly), getSource(assembly).getName()));
 	}
-	public File getVariantCallChunkVcf(File input, int chunk) {
+	/**
+	 * Variant calls for the given chunk
+	 * @param input variant call file
+	 * @param chunk chunk name. Chunk names must uniquely identify the genomic interval called
+	 */
+	public File getVariantCallChunkVcf(File input, String chunk) {
 		return getFile(String.format(FORMAT_VARIANT_CALL_CHUNK_VCF, getIntermediateDirectory(input), getSource(input).getName(), chunk));
 	}
+	public File getAnnotationChunkVcf(File input, int chunk) {
+		return getFile(String.format(FORMAT_ANNOTATION_CHUNK_VCF, getIntermediateDirectory(input), getSource(input).getName(), chunk));
+	}
 }
@@ -11,9 +11,15 @@ import com.google.common.collect.Lists;
 
 import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
+import au.edu.wehi.idsv.picard.ReferenceLookupFactory;
 import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
+import au.edu.wehi.idsv.sam.ParallelSAMFileWriterFactory;
+import au.edu.wehi.idsv.util.AsyncFanOutIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
+import au.edu.wehi.idsv.util.InputThreadPools;
+import au.edu.wehi.idsv.util.ParallelBlockCompressedOutputStream;
 import au.edu.wehi.idsv.vcf.GridssVcfConstants;
+import au.edu.wehi.idsv.vcf.VcfFileUtil;
 import gridss.cmdline.CommandLineProgramHelper;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
@@ -120,6 +126,10 @@ public class GenomicProcessingContext implements Closeable {
 	@SuppressWarnings("resource")
 	protected ReferenceLookup LoadSynchronizedReference(File referenceFile) {
 		ensureSeqeunceDictionary(referenceFile);
+		ReferenceLookup mapped = ReferenceLookupFactory.openMemoryMapped(referenceFile);
+		if (mapped != null) {
+			return mapped;
+		}
 		try {
 			ReferenceSequenceFile underlying = new IndexedFastaSequenceFile(referenceFile);
 			if (referenceFile.length() > Runtime.getRuntime().maxMemory()) {
@@ -195,7 +205,7 @@ public class GenomicProcessingContext implements Closeable {
 	}
 
 	public SAMFileWriterFactory getSamFileWriterFactory(boolean sorted) {
-		return new SAMFileWriterFactory()
+		return new ParallelSAMFileWriterFactory()
 			.setTempDirectory(fsContext.getTemporaryDirectory());
 			//.setCreateIndex(sorted); // covered by -Dcreate_index=true
 	}
@@ -232,8 +242,7 @@ public class GenomicProcessingContext implements Closeable {
 	}
 
 	public VariantContextWriterBuilder getVariantContextWriterBuilder(File output, boolean createIndex) {
-		VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
-			.setOutputFile(output)
+		VariantContextWriterBuilder builder = VcfFileUtil.createWriterBuilder(output, createIndex)
 			.setReferenceDictionary(getReference().getSequenceDictionary());
 		builder.clearOptions();
 		if (createIndex) {
@@ -303,6 +312,10 @@ public class GenomicProcessingContext implements Closeable {
 
 	public void setWorkerThreadCount(int workerThreads) {
 		this.workerThreads = workerThreads;
+		ParallelBlockCompressedOutputStream.setDefaultThreadCount(workerThreads);
+		AsyncFanOutIterator.setConsumerThreadCount(workerThreads);
+		InputThreadPools.setThreadCount(workerThreads);
+		VariantCallIterator.setThreadCount(workerThreads);
 	}
 
 	public IntervalBed getBlacklistedRegions() {
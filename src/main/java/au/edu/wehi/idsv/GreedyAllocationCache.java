@@ -9,15 +9,20 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.common.collect.Lists;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
 import au.edu.wehi.idsv.sam.ChimericAlignment;
+import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import au.edu.wehi.idsv.util.OffHeapBestScoreTable;
+import gridss.Defaults;
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMTag;
 import htsjdk.samtools.TextCigarCodec;
@@ -28,62 +33,54 @@ import net.openhft.chronicle.map.ChronicleMap;
 
 public abstract class GreedyAllocationCache implements Closeable {
 	//private static final Log log = Log.getInstance(GreedyAllocationCache.class);
-	private static final Comparator<ChimericAlignment> ByPosition = Comparator.<ChimericAlignment, Integer>comparing(ca -> ca.pos)
+	private static final Comparator<ChimericAlignment> ByPosition = Comparator.<ChimericAlignment>comparingInt(ca -> ca.pos)
 				.thenComparing(ca -> ca.isNegativeStrand)
 				.thenComparing(ca -> ca.rname)
-				.thenComparing(ca -> ca.cigar.toString());
+				.thenComparing(ca -> ca.cigar, GreedyAllocationCache::compareCigar);
+	private static int compareCigar(Cigar a, Cigar b) {
+		List<CigarElement> ae = a.getCigarElements();
+		List<CigarElement> be = b.getCigarElements();
+		for (int i = 0; i < ae.size() && i < be.size(); i++) {
+			int cmp = Integer.compare(ae.get(i).getLength(), be.get(i).getLength());
+			if (cmp != 0) return cmp;
+			cmp = ae.get(i).getOperator().compareTo(be.get(i).getOperator());
+			if (cmp != 0) return cmp;
+		}
+		return Integer.compare(ae.size(), be.size());
+	}
 	/**
-	 * Gets a string representing the full read alignment including split alignments
+	 * Gets a hash of the full read alignment including split alignments
 	 * @param r record
-	 * @return read alignment string
+	 * @return read alignment hash
 	 */
-	protected String getReadAlignment(SAMRecord r) {
-		if (r.getReadUnmappedFlag()) return "";
+	protected Hash96bit getReadAlignment(SAMRecord r) {
+		if (r.getReadUnmappedFlag()) return getAlignmentHash(Collections.emptyList());
 		List<ChimericAlignment> ca = Lists.newArrayList(ChimericAlignment.getChimericAlignments(r));
 		ca.add(new ChimericAlignment(r));
-		return getAlignmentString(ca);
+		return getAlignmentHash(ca);
 	}
-	protected void putEventAlignmentScoreNode(GreedyAllocationCacheLookup<EventAlignmentScoreNode> bestAlignment, Hash96bit readName, Hash96bit alignment, Hash96bit event, float score) {
-		if (bestAlignment == null) return;
-		EventAlignmentScoreNode notInLookup = new EventAlignmentScoreNode(event, score, alignment);
-		EventAlignmentScoreNode inLookup = bestAlignment.get(readName);
-		// this check is a loop as when there are multiple threads writing to the same key
-		// the score that we wrote could be worse since the get and put are two separate (atomic)
-		// operations.
-		while (notInLookup != null && (inLookup == null || inLookup.getScore() < notInLookup.getScore())) {
-			EventAlignmentScoreNode toPut = notInLookup;
-			inLookup = toPut;
-			notInLookup = bestAlignment.put(readName, toPut);
-		}
+	/**
+	 * Gets the key of the given read
+	 * @param r record
+	 * @return key unique to the read name and segment index of the record
+	 */
+	protected Hash96bit getReadKey(SAMRecord r) {
+		return new Hash96bit(r.getReadName(), SAMRecordUtil.getSegmentIndex(r));
 	}
-	protected void putAlignmentScoreNode(GreedyAllocationCacheLookup<AlignmentScoreNode> bestAlignment, Hash96bit readName, Hash96bit alignment, float score) {
-		// (duplicates EventAlignmentScoreNode logic)
-		if (bestAlignment == null) return;
-		AlignmentScoreNode notInLookup = new AlignmentScoreNode(score, alignment);
-		AlignmentScoreNode inLookup = bestAlignment.get(readName);
-		while (notInLookup != null && (inLookup == null || inLookup.getScore() < notInLookup.getScore())) {
-			AlignmentScoreNode toPut = notInLookup;
-			inLookup = toPut;
-			notInLookup = bestAlignment.put(readName, toPut);
-		}
+	protected void put(GreedyAllocationCacheLookup lookup, Hash96bit key, Hash96bit event, float score, Hash96bit alignment) {
+		if (lookup == null) return;
+		lookup.putIfBetter(key, event, score, alignment);
 	}
-	protected void putEventScoreNode(GreedyAllocationCacheLookup<EventScoreNode> bestEvent, Hash96bit readName, Hash96bit event, float score) {
-		if (bestEvent == null) return;
-		EventScoreNode notInLookup = new EventScoreNode(event, score);
-		EventScoreNode inLookup = bestEvent.get(readName);
-		while (notInLookup != null && (inLookup == null || inLookup.getScore() < notInLookup.getScore())) {
-			EventScoreNode toPut = notInLookup;
-			inLookup = toPut;
-			notInLookup = bestEvent.put(readName, toPut);
-		}
+	protected boolean isBestEvent(GreedyAllocationCacheLookup lookup, Hash96bit key, Hash96bit event) {
+		if (lookup == null) return true;
+		return lookup.isBestEvent(key, event);
 	}
-	protected boolean isBestAlignment(GreedyAllocationCacheLookup<EventAlignmentScoreNode> bestAlignment, Hash96bit readName, Hash96bit alignment) {
-		if (bestAlignment == null) return true;
-		EventAlignmentScoreNode node = bestAlignment.get(readName);
-		return node != null && Objects.equals(alignment, node.getAlignment());
+	protected boolean isBestAlignment(GreedyAllocationCacheLookup lookup, Hash96bit key, Hash96bit alignment) {
+		if (lookup == null) return true;
+		return lookup.isBestAlignment(key, alignment);
 	}
 	/**
-	 * Gets a string representing the primary alignment of the read pair
+	 * Gets a hash of the primary alignment of the read pair
 	 * @param r
 	 * @return
 	 */
@@ -102,85 +99,143 @@ public abstract class GreedyAllocationCache implements Closeable {
 					0,
 					0));
 		}
-		return new Hash96bit(getAlignmentString(ca));
+		return getAlignmentHash(ca);
 	}
-	private String getAlignmentString(List<ChimericAlignment> ca) {
-		StringBuilder sb = new StringBuilder();
+	/**
+	 * Hashes the alignment fields directly instead of hashing a string representation.
+	 */
+	private static Hash96bit getAlignmentHash(List<ChimericAlignment> ca) {
 		// need to make sure the order is the same at every alignment
 		Collections.sort(ca, ByPosition);
+		Hasher hasher = Hash96bit.hf.newHasher();
 		for (ChimericAlignment a : ca) {
-			sb.append(a.rname);
-			sb.append('#');
-			sb.append(a.isNegativeStrand ? '-' : '+');
-			sb.append(a.pos);
-			sb.append('#');
-			sb.append(a.cigar.toString());
-			sb.append('#');
-		}
-		return sb.toString();
+			hasher.putUnencodedChars(a.rname);
+			hasher.putBoolean(a.isNegativeStrand);
+			hasher.putInt(a.pos);
+			List<CigarElement> cigar = a.cigar.getCigarElements();
+			hasher.putInt(cigar.size());
+			for (CigarElement ce : cigar) {
+				hasher.putInt(ce.getLength());
+				hasher.putInt(ce.getOperator().ordinal());
+			}
+		}
+		return new Hash96bit(hasher.hash());
 	}
-	protected static interface GreedyAllocationCacheLookup<T extends Hash96bit> extends Closeable {
-		T get(Hash96bit key);
-		T put(Hash96bit key, T value);
+	/**
+	 * Lookup of the best scoring (event, alignment) for each key
+	 */
+	protected static interface GreedyAllocationCacheLookup extends Closeable {
+		/**
+		 * Sets the event and alignment of the given key if the key has no
+		 * existing value, or the existing value has a lower score
+		 */
+		void putIfBetter(Hash96bit key, Hash96bit event, float score, Hash96bit alignment);
+		boolean isBestEvent(Hash96bit key, Hash96bit event);
+		boolean isBestAlignment(Hash96bit key, Hash96bit alignment);
 	}
-	protected static <T extends Hash96bit> GreedyAllocationCacheLookup<T> createLookup(String name, Class<T> clazz, long size) {
-		//return new HashMapLookup<T>();
-		//return new ApacheIgniteLookup<T>(name);
-		return new OpenHFTLookup<T>(name, clazz, size);
+	protected static GreedyAllocationCacheLookup createLookup(String name, long size) {
+		if (Defaults.OFF_HEAP_ALLOCATION_CACHE && OffHeapBestScoreTable.isAvailable()) {
+			return new OffHeapLookup(size);
+		}
+		//return new HashMapLookup();
+		return new OpenHFTLookup(name, size);
 	}
 	/**
-	 * Java HashMap lookup. This stores all values on the java heap which requireds
-	 * results a gigantic (>400GB for WGS) heap
+	 * Open addressing off-heap lookup.
 	 */
-	protected static class HashMapLookup<T extends Hash96bit> implements GreedyAllocationCacheLookup<T> {
-		private static final int INITIAL_LOOKUP_SIZE = 1 << 20;
-		private Map<Hash96bit, T> map;
-		public HashMapLookup() {
-			//map = new HashMap<>(INITIAL_LOOKUP_SIZE);
-			map = new ConcurrentHashMap<Hash96bit, T>(INITIAL_LOOKUP_SIZE, 0.75f, 64);
+	protected static class OffHeapLookup implements GreedyAllocationCacheLookup {
+		private final OffHeapBestScoreTable table;
+		public OffHeapLookup(long size) {
+			this.table = new OffHeapBestScoreTable(size);
 		}
 		@Override
-		public T get(Hash96bit key) {
-			return map.get(key);
+		public void putIfBetter(Hash96bit key, Hash96bit event, float score, Hash96bit alignment) {
+			table.putIfBetter(key.key1, key.key2, event.key1, event.key2, score, alignment.key1, alignment.key2);
 		}
 		@Override
-		public T put(Hash96bit key, T value) {
-			return map.put(key, value);
+		public boolean isBestEvent(Hash96bit key, Hash96bit event) {
+			return table.isBestEvent(key.key1, key.key2, event.key1, event.key2);
+		}
+		@Override
+		public boolean isBestAlignment(Hash96bit key, Hash96bit alignment) {
+			return table.isBestAlignment(key.key1, key.key2, alignment.key1, alignment.key2);
 		}
 		@Override
 		public void close() throws IOException {
-			map = null;
+			table.close();
 		}
 	}
-	protected static class OpenHFTLookup<T extends Hash96bit> implements GreedyAllocationCacheLookup<T> {
-		private ChronicleMap<Hash96bit, T> map;
-		private ChronicleMap<Hash96bit, T> create(String name, Class<T> clazz, long size) {
-			try {
-				return ChronicleMap
-					    .of(Hash96bit.class, clazz)
-					    .name(name)
-					    .constantKeySizeBySample(new Hash96bit())
-					    .constantValueSizeBySample(clazz.newInstance())
-					    .entries(size)
-					    .create();
-			} catch (InstantiationException | IllegalAccessException e) {
-				throw new RuntimeException(e);
+	/**
+	 * Lookup backed by a key-value map.
+	 */
+	protected static abstract class MapLookup implements GreedyAllocationCacheLookup {
+		protected abstract Map<Hash96bit, EventAlignmentScoreNode> getMap();
+		@Override
+		public void putIfBetter(Hash96bit key, Hash96bit event, float score, Hash96bit alignment) {
+			Map<Hash96bit, EventAlignmentScoreNode> map = getMap();
+			EventAlignmentScoreNode notInLookup = new EventAlignmentScoreNode(event, score, alignment);
+			EventAlignmentScoreNode inLookup = map.get(key);
+			// this check is a loop as when there are multiple threads writing to the same key
+			// the score that we wrote could be worse since the get and put are two separate (atomic)
+			// operations.
+			while (notInLookup != null && (inLookup == null || inLookup.getScore() < notInLookup.getScore())) {
+				EventAlignmentScoreNode toPut = notInLookup;
+				inLookup = toPut;
+				notInLookup = map.put(key, toPut);
 			}
 		}
-		public OpenHFTLookup(String name, Class<T> clazz, long size) {
-			this.map = create(name, clazz, size);
+		@Override
+		public boolean isBestEvent(Hash96bit key, Hash96bit event) {
+			EventAlignmentScoreNode node = getMap().get(key);
+			return node != null && event.equals(node.getEvent());
+		}
+		@Override
+		public boolean isBestAlignment(Hash96bit key, Hash96bit alignment) {
+			EventAlignmentScoreNode node = getMap().get(key);
+			return node != null && alignment.equals(node.getAlignment());
+		}
+	}
+	/**
+	 * Java HashMap lookup. This stores all values on the java heap which requireds
+	 * results a gigantic (>400GB for WGS) heap
+	 */
+	protected static class HashMapLookup extends MapLookup {
+		private static final int INITIAL_LOOKUP_SIZE = 1 << 20;
+		private Map<Hash96bit, EventAlignmentScoreNode> map;
+		public HashMapLookup() {
+			//map = new HashMap<>(INITIAL_LOOKUP_SIZE);
+			map = new ConcurrentHashMap<Hash96bit, EventAlignmentScoreNode>(INITIAL_LOOKUP_SIZE, 0.75f, 64);
+		}
+		@Override
+		protected Map<Hash96bit, EventAlignmentScoreNode> getMap() {
+			return map;
 		}
 		@Override
 		public void close() throws IOException {
-			map.close();
+			map = null;
+		}
+	}
+	protected static class OpenHFTLookup extends MapLookup {
+		private ChronicleMap<Hash96bit, EventAlignmentScoreNode> map;
+		private ChronicleMap<Hash96bit, EventAlignmentScoreNode> create(String name, long size) {
+			return ChronicleMap
+				    .of(Hash96bit.class, EventAlignmentScoreNode.class)
+				    .name(name)
+				    .constantKeySizeBySample(new Hash96bit())
+				    .constantValueSizeBySample(new EventAlignmentScoreNode())
+				    .entries(size)
+				    .create();
+		}
+		public OpenHFTLookup(String name, long size) {
+			this.map = create(name, size);
 		}
 		@Override
-		public T get(Hash96bit key) {
-			return map.get(key);
+		protected Map<Hash96bit, EventAlignmentScoreNode> getMap() {
+			return map;
 		}
 		@Override
-		public T put(Hash96bit key, T value) {
-			return map.put(key, value);
+		public void close() throws IOException {
+			map.close();
 		}
 	}
 	protected static class Hash96bit implements BytesMarshallable {
@@ -189,7 +244,12 @@ public abstract class GreedyAllocationCache implements Closeable {
 		protected int key2;
 		public Hash96bit() { }
 		public Hash96bit(String key) {
-			HashCode hc = hf.newHasher().putString(key, StandardCharsets.UTF_8).hash();
+			this(hf.newHasher().putString(key, StandardCharsets.UTF_8).hash());
+		}
+		public Hash96bit(String key, int index) {
+			this(hf.newHasher().putUnencodedChars(key).putInt(index).hash());
+		}
+		public Hash96bit(HashCode hc) {
 			ByteBuffer bb = ByteBuffer.wrap(hc.asBytes());
 			this.key1 = bb.getLong();
 			this.key2 = bb.getInt();
@@ -267,16 +327,6 @@ public abstract class GreedyAllocationCache implements Closeable {
 			return String.format("(%s,%f)", getAlignment(), getScore());
 		}
 	}
-	protected static class EventScoreNode extends HashScoreNode {
-		public EventScoreNode() { }
-		public EventScoreNode(Hash96bit event, float score) {
-			super(event, score);
-		}
-		public Hash96bit getEvent() { return this; } 
-		public String toString() {
-			return String.format("(,%s,%f)", getEvent(), getScore());
-		}
-	}
 	protected static class EventAlignmentScoreNode extends AlignmentScoreNode {
 		public EventAlignmentScoreNode() { }
 		public EventAlignmentScoreNode(Hash96bit event, float score, Hash96bit alignment) {
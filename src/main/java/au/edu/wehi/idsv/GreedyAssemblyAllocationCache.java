@@ -3,7 +3,6 @@ package au.edu.wehi.idsv;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
 
-import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.Log;
 
@@ -22,14 +21,18 @@ public class GreedyAssemblyAllocationCache extends GreedyAllocationCache {
 	 * since we don't want to allocate the mutually exclusive evidence that
 	 * results from two separate read alignments for the same read
 	 */
-	private final GreedyAllocationCacheLookup<AlignmentScoreNode> bestReadAlignment;
+	private final GreedyAllocationCacheLookup bestReadAlignment;
+	/**
+	 * Placeholder event since only the best alignment is tracked
+	 */
+	private static final Hash96bit NO_EVENT = new Hash96bit(0, 0);
 	private final AtomicLong loaded = new AtomicLong(0);
 	/**
 	 * Creates a new allocation caches
 	 * @param threads number of concurrent access threads. This implementation is thread safe for values greater than 1.
 	 */
 	public GreedyAssemblyAllocationCache(long uniqueReads) {
-		bestReadAlignment = createLookup("bestReadAlignment", AlignmentScoreNode.class, uniqueReads);
+		bestReadAlignment = createLookup("bestReadAlignment", uniqueReads);
 	}
 	protected void addBreakendAssemblyAllocation(float assemblyScore, DirectedEvidence evidence) {
 		SAMRecord anchor;
@@ -38,11 +41,7 @@ public class GreedyAssemblyAllocationCache extends GreedyAllocationCache {
 		} else {
 			anchor = ((SingleReadEvidence)evidence).getSAMRecord();
 		}
-		String read = anchor.getReadName() + "#" + Integer.valueOf(SAMRecordUtil.getSegmentIndex(anchor));
-		String alignment = getReadAlignment(anchor);
-		Hash96bit readkey = new Hash96bit(read);
-		Hash96bit alignmentkey = new Hash96bit(alignment);
-		putAlignmentScoreNode(bestReadAlignment, readkey, alignmentkey, assemblyScore);
+		put(bestReadAlignment, getReadKey(anchor), NO_EVENT, assemblyScore, getReadAlignment(anchor));
 		long count = loaded.incrementAndGet();
 		if (count % 1000000 == 0) {
 			log.info(String.format("Loaded %,d records. Current java heap memory usage is %,d MiB", count, (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20));
@@ -55,13 +54,7 @@ public class GreedyAssemblyAllocationCache extends GreedyAllocationCache {
 		} else {
 			anchor = ((SingleReadEvidence)evidence).getSAMRecord();
 		}
-		String read = anchor.getReadName() + "#" + Integer.valueOf(SAMRecordUtil.getSegmentIndex(anchor));
-		String alignment = getReadAlignment(anchor);
-		Hash96bit readkey = new Hash96bit(read);
-		Hash96bit alignmentkey = new Hash96bit(alignment);
-		
-		AlignmentScoreNode node = bestReadAlignment.get(readkey);
-		return node != null && node.getAlignment().equals(alignmentkey);
+		return isBestAlignment(bestReadAlignment, getReadKey(anchor), getReadAlignment(anchor));
 	}
 	@Override
 	public void close() throws IOException {
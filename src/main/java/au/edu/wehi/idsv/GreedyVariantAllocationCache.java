@@ -4,9 +4,9 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
-import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.vcf.VcfSvConstants;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
 
 public class GreedyVariantAllocationCache extends GreedyAllocationCache {
@@ -15,7 +15,7 @@ public class GreedyVariantAllocationCache extends GreedyAllocationCache {
 	 * read (pair) -> (event, score, read pair alignment)
 	 * Only best placement of the read pairs should be allocated.
 	 */
-	private final GreedyAllocationCacheLookup<EventAlignmentScoreNode> bestReadPairAlignment;
+	private final GreedyAllocationCacheLookup bestReadPairAlignment;
 	/**
 	 * read -> (event, score, read alignment)
 	 * 
@@ -23,12 +23,16 @@ public class GreedyVariantAllocationCache extends GreedyAllocationCache {
 	 * since we don't want to allocate the mutually exclusive evidence that
 	 * results from two separate read alignments for the same read
 	 */
-	private final GreedyAllocationCacheLookup<EventAlignmentScoreNode> bestReadAlignment;
+	private final GreedyAllocationCacheLookup bestReadAlignment;
 	/**
 	 * evidenceID -> best event lookup
 	 * Each evidence can support only a single variant.
 	 */
-	private final GreedyAllocationCacheLookup<EventScoreNode> bestEventForEvidence;
+	private final GreedyAllocationCacheLookup bestEventForEvidence;
+	/**
+	 * Placeholder alignment for lookups that track only the best event
+	 */
+	private static final Hash96bit NO_ALIGNMENT = new Hash96bit(0, 0);
 	private final AtomicLong loaded = new AtomicLong(0);
 	public GreedyVariantAllocationCache(
 			boolean ensureUniqueReadPairAlignment,
@@ -37,9 +41,9 @@ public class GreedyVariantAllocationCache extends GreedyAllocationCache {
 			long expectedSVReads,
 			boolean ensureUniqueEvidenceAllocation,
 			long expectedSVEvidence) {
-		this.bestReadPairAlignment = ensureUniqueReadPairAlignment ? createLookup("bestReadPairAlignment", EventAlignmentScoreNode.class, expectedSVReadPairs) : null;
-		this.bestReadAlignment = ensureUniqueReadAlignment ? createLookup("bestReadAlignment", EventAlignmentScoreNode.class, expectedSVReads) : null;
-		this.bestEventForEvidence = ensureUniqueEvidenceAllocation ? createLookup("bestEventForEvidence", EventScoreNode.class, expectedSVEvidence) : null;
+		this.bestReadPairAlignment = ensureUniqueReadPairAlignment ? createLookup("bestReadPairAlignment", expectedSVReadPairs) : null;
+		this.bestReadAlignment = ensureUniqueReadAlignment ? createLookup("bestReadAlignment", expectedSVReads) : null;
+		this.bestEventForEvidence = ensureUniqueEvidenceAllocation ? createLookup("bestEventForEvidence", expectedSVEvidence) : null;
 	}
 	private static Hash96bit getEvent(VariantContextDirectedBreakpoint variant) {
 		return new Hash96bit(variant.getAttributeAsString(VcfSvConstants.BREAKEND_EVENT_ID_KEY, null));
@@ -64,19 +68,21 @@ public class GreedyVariantAllocationCache extends GreedyAllocationCache {
 		return isBestBreakpoint(new Hash96bit(event), evidence);
 	}
 	protected void addBreakpoint(Hash96bit event, float score, DirectedEvidence evidence) {
-		putEventScoreNode(bestEventForEvidence, new Hash96bit(evidence.getEvidenceID()), event, score);
+		if (bestEventForEvidence != null) {
+			put(bestEventForEvidence, new Hash96bit(evidence.getEvidenceID()), event, score, NO_ALIGNMENT);
+		}
 		if (evidence instanceof NonReferenceReadPair) {
-			NonReferenceReadPair dp = (NonReferenceReadPair)evidence;
-			Hash96bit readpairid = new Hash96bit(dp.getLocalledMappedRead().getReadName());
-			Hash96bit alignment = getReadPairAlignment(dp.getLocalledMappedRead());
-			putEventAlignmentScoreNode(bestReadPairAlignment, readpairid, alignment, event, score);
-		} else {
+			if (bestReadPairAlignment != null) {
+				NonReferenceReadPair dp = (NonReferenceReadPair)evidence;
+				Hash96bit readpairid = new Hash96bit(dp.getLocalledMappedRead().getReadName());
+				Hash96bit alignment = getReadPairAlignment(dp.getLocalledMappedRead());
+				put(bestReadPairAlignment, readpairid, event, score, alignment);
+			}
+		} else if (bestReadAlignment != null) {
 			assert(evidence instanceof SingleReadEvidence);
 			SingleReadEvidence sre = (SingleReadEvidence)evidence;
 			SAMRecord r = sre.getSAMRecord();
-			Hash96bit readid = new Hash96bit(r.getReadName() + "#" + Integer.valueOf(SAMRecordUtil.getSegmentIndex(r)));
-			Hash96bit alignment = new Hash96bit(getReadAlignment(r));
-			putEventAlignmentScoreNode(bestReadAlignment, readid, alignment, event, score);
+			put(bestReadAlignment, getReadKey(r), event, score, getReadAlignment(r));
 		}
 		long count = loaded.incrementAndGet();
 		if (count % 1000000 == 0) {
@@ -86,31 +92,28 @@ public class GreedyVariantAllocationCache extends GreedyAllocationCache {
 		}
 	}
 	public boolean isBestBreakpoint(Hash96bit event, DirectedEvidence evidence) {
-		if (bestEventForEvidence != null) {
-			EventScoreNode lookup = bestEventForEvidence.get(new Hash96bit(evidence.getEvidenceID()));
-			if (lookup == null || !event.equals(lookup.getEvent())) {
-				// This is not the best breakpoint supported by this evidence
-				return false;
-			}
+		if (bestEventForEvidence != null && !isBestEvent(bestEventForEvidence, new Hash96bit(evidence.getEvidenceID()), event)) {
+			// This is not the best breakpoint supported by this evidence
+			return false;
 		}
 		if (evidence instanceof NonReferenceReadPair) {
+			if (bestReadPairAlignment == null) return true;
 			NonReferenceReadPair dp = (NonReferenceReadPair)evidence;
 			Hash96bit readpairid = new Hash96bit(dp.getLocalledMappedRead().getReadName());
 			Hash96bit alignment = getReadPairAlignment(dp.getLocalledMappedRead());
 			return isBestAlignment(bestReadPairAlignment, readpairid, alignment);
 		} else {
+			if (bestReadAlignment == null) return true;
 			assert(evidence instanceof SingleReadEvidence);
 			SingleReadEvidence sre = (SingleReadEvidence)evidence;
 			SAMRecord r = sre.getSAMRecord();
-			Hash96bit readid = new Hash96bit(r.getReadName() + "#" + Integer.valueOf(SAMRecordUtil.getSegmentIndex(r)));
-			Hash96bit alignment = new Hash96bit(getReadAlignment(r));
-			return isBestAlignment(bestReadAlignment, readid, alignment);
+			return isBestAlignment(bestReadAlignment, getReadKey(r), getReadAlignment(r));
 		}
 	}
 	@Override
 	public void close() throws IOException {
-		bestEventForEvidence.close();
-		bestReadAlignment.close();
-		bestReadPairAlignment.close();
+		CloserUtil.close(bestEventForEvidence);
+		CloserUtil.close(bestReadAlignment);
+		CloserUtil.close(bestReadPairAlignment);
 	}
 }
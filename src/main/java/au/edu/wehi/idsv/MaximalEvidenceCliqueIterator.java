@@ -119,6 +119,21 @@ public class MaximalEvidenceCliqueIterator extends AbstractIterator<VariantConte
 		assert(v != null);
 		return v;
 	}
+	/**
+	 * Copies a call made by this iterator with the identifiers replaced by those of the given event
+	 * @param processContext processing context
+	 * @param call breakend call
+	 * @param event event identifier
+	 * @return call with the given event identifier
+	 */
+	static VariantContextDirectedBreakpoint withEventId(ProcessingContext processContext, VariantContextDirectedBreakpoint call, String event) {
+		boolean isHighBreakend = call.getID().endsWith(BREAKEND_ID_SUFFIX_HIGH);
+		IdsvVariantContextBuilder builder = new IdsvVariantContextBuilder(processContext, call);
+		builder.attribute(VcfSvConstants.BREAKEND_EVENT_ID_KEY, event);
+		builder.attribute(VcfSvConstants.PARTNER_BREAKEND_ID_KEY, event + (isHighBreakend ? BREAKEND_ID_SUFFIX_LOW : BREAKEND_ID_SUFFIX_HIGH));
+		builder.id(event + (isHighBreakend ? BREAKEND_ID_SUFFIX_HIGH : BREAKEND_ID_SUFFIX_LOW));
+		return (VariantContextDirectedBreakpoint)builder.make();
+	}
 	private BreakpointSummary toBreakpointSummary(RectangleGraphNode node) {
 		int start = context.getLinear().getReferencePosition(node.startX);
 		int end = context.getLinear().getReferencePosition(node.endX);
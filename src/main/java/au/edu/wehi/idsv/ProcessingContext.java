@@ -13,6 +13,8 @@ import au.edu.wehi.idsv.configuration.VariantCallingConfiguration;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.vcf.GridssVcfConstants;
 import au.edu.wehi.idsv.visualisation.BufferTracker;
+import au.edu.wehi.idsv.visualisation.MetricsHttpServer;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
 import au.edu.wehi.idsv.visualisation.TrackedBuffer;
 import htsjdk.samtools.metrics.Header;
 import htsjdk.samtools.metrics.MetricBase;
@@ -45,6 +47,9 @@ public class ProcessingContext extends GenomicProcessingContext {
 			bufferTracker = new BufferTracker(new File(config.getVisualisation().directory, "gridss.buffers.csv"), config.getVisualisation().bufferTrackingItervalInSeconds);
 			bufferTracker.start();
 		}
+		if (gridss.Defaults.METRICS_PORT > 0) {
+			MetricsHttpServer.ensureStarted(gridss.Defaults.METRICS_PORT);
+		}
 		this.eidgen = config.hashEvidenceID ? new HashedEvidenceIdentifierGenerator() : new StringEvidenceIdentifierGenerator();
 	}
 	/**
@@ -80,6 +85,12 @@ public class ProcessingContext extends GenomicProcessingContext {
 		if (bufferTracker != null) {
 			bufferTracker.register(context, obj);
 		}
+		if (gridss.Defaults.METRICS_PORT > 0) {
+			if (bufferTracker == null) {
+				obj.setTrackedBufferContext(context);
+			}
+			MetricsRegistry.Current.register(obj);
+		}
 	}
 	public int registerCategory(String label) {
 		int offset = categories.indexOf(label);
@@ -0,0 +1,435 @@
+package au.edu.wehi.idsv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.PriorityQueue;
+
+import com.google.common.collect.Queues;
+
+import au.edu.wehi.idsv.util.FileHelper;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.filter.AlignedFilter;
+import htsjdk.samtools.filter.DuplicateReadFilter;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * Precomputed per-position reference coverage of an input file.
+ *
+ * The track is calculated in a single pass over the coordinate sorted input
+ * and contains the same read and read pair counts as reported by
+ * SequentialReferenceCoverageLookup. Counts are run-length encoded: an entry
+ * is written only at the positions at which either count changes.
+ * Entries are stored in a BGZF compressed data file with a sidecar index
+ * containing the virtual file offset of every INDEX_INTERVAL entry and
+ * the first entry of each contig.
+ *
+ * Querying the track allows reference coverage annotation without
+ * rereading the input file.
+ *
+ * The index header records the size and modification time of the input
+ * file so a track that is stale with respect to its input can be detected
+ * and ignored.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class ReferenceCoverageTrack implements Closeable, ReferenceCoverageLookup {
+	private static final Log log = Log.getInstance(ReferenceCoverageTrack.class);
+	private static final String MAGIC = "GRIDSSCV";
+	private static final int VERSION = 2;
+	private static final int INDEX_INTERVAL = 4096;
+	private static final String INDEX_SUFFIX = ".idx";
+	private final File file;
+	private final int category;
+	private final long count;
+	private final int[] indexReferenceIndex;
+	private final int[] indexPosition;
+	private final long[] indexOrdinal;
+	private final long[] indexVirtualOffset;
+	private BlockCompressedInputStream bcis;
+	private DataInputStream in;
+	/**
+	 * Offset of the first entry in the data file
+	 */
+	private long firstVirtualOffset;
+	/**
+	 * Number of entries read from the data file
+	 */
+	private long nextOrdinal;
+	private boolean hasCurrent;
+	private int currentReferenceIndex;
+	private int currentPosition;
+	private int currentReads;
+	private int currentPairs;
+	private boolean hasNext;
+	private int nextReferenceIndex;
+	private int nextPosition;
+	private int nextReads;
+	private int nextPairs;
+	/**
+	 * Opens an existing coverage track
+	 * @param file coverage track
+	 * @param category evidence category of the coverage
+	 */
+	public ReferenceCoverageTrack(File file, int category) throws IOException {
+		this.file = file;
+		this.category = category;
+		try (DataInputStream idx = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(file))))) {
+			readMagic(idx, file);
+			idx.readLong(); // source file length
+			idx.readLong(); // source file modification time
+			this.count = idx.readLong();
+			int indexSize = idx.readInt();
+			indexReferenceIndex = new int[indexSize];
+			indexPosition = new int[indexSize];
+			indexOrdinal = new long[indexSize];
+			indexVirtualOffset = new long[indexSize];
+			for (int i = 0; i < indexSize; i++) {
+				indexReferenceIndex[i] = idx.readInt();
+				indexPosition[i] = idx.readInt();
+				indexOrdinal[i] = idx.readLong();
+				indexVirtualOffset[i] = idx.readLong();
+			}
+		}
+		try {
+			this.bcis = new BlockCompressedInputStream(file);
+			this.in = new DataInputStream(bcis);
+			readMagic(in, file);
+			this.firstVirtualOffset = bcis.getFilePointer();
+			readNext();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+	public static File getIndexFile(File file) {
+		return new File(file.getAbsolutePath() + INDEX_SUFFIX);
+	}
+	/**
+	 * Indicates whether the given coverage track exists
+	 */
+	public static boolean exists(File file) {
+		return file != null && file.exists() && getIndexFile(file).exists();
+	}
+	/**
+	 * Indicates whether the given coverage track exists and was calculated
+	 * from the current version of the given source file
+	 * @param file coverage track
+	 * @param sourceFile file the coverage was calculated from
+	 */
+	public static boolean isCurrent(File file, File sourceFile) {
+		if (!exists(file)) return false;
+		try (DataInputStream idx = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(file))))) {
+			readMagic(idx, file);
+			return idx.readLong() == sourceFile.length() && idx.readLong() == sourceFile.lastModified();
+		} catch (IOException e) {
+			log.debug(e, "Unable to read coverage track header of " + file.getAbsolutePath());
+			return false;
+		}
+	}
+	private static void readMagic(DataInput in, File file) throws IOException {
+		byte[] magic = new byte[MAGIC.length()];
+		in.readFully(magic);
+		int version = in.readInt();
+		if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII)) || version != VERSION) {
+			throw new IOException(String.format("%s is not a version %d coverage track", file, VERSION));
+		}
+	}
+	public long size() {
+		return count;
+	}
+	@Override
+	public int getCategory() {
+		return category;
+	}
+	@Override
+	public int readsSupportingNoBreakendAfter(int referenceIndex, int position) {
+		ensure(referenceIndex, position);
+		return hasCurrent && currentReferenceIndex == referenceIndex ? currentReads : 0;
+	}
+	@Override
+	public int readPairsSupportingNoBreakendAfter(int referenceIndex, int position) {
+		ensure(referenceIndex, position);
+		return hasCurrent && currentReferenceIndex == referenceIndex ? currentPairs : 0;
+	}
+	private static int compare(int referenceIndex1, int position1, int referenceIndex2, int position2) {
+		if (referenceIndex1 != referenceIndex2) return Integer.compare(referenceIndex1, referenceIndex2);
+		return Integer.compare(position1, position2);
+	}
+	/**
+	 * Positions the current entry at the last entry at or before the given position
+	 */
+	private void ensure(int referenceIndex, int position) {
+		try {
+			int seek = seekIndex(referenceIndex, position);
+			boolean rewind = hasCurrent && compare(currentReferenceIndex, currentPosition, referenceIndex, position) > 0;
+			if (seek < 0) {
+				if (hasCurrent) {
+					// query is before the first entry
+					bcis.seek(firstVirtualOffset);
+					nextOrdinal = 0;
+					hasCurrent = false;
+					readNext();
+				}
+			} else if (rewind || indexOrdinal[seek] >= nextOrdinal) {
+				// jump directly to the closest index entry instead of scanning
+				bcis.seek(indexVirtualOffset[seek]);
+				nextOrdinal = indexOrdinal[seek];
+				hasCurrent = false;
+				readNext();
+			}
+			while (hasNext && compare(nextReferenceIndex, nextPosition, referenceIndex, position) <= 0) {
+				hasCurrent = true;
+				currentReferenceIndex = nextReferenceIndex;
+				currentPosition = nextPosition;
+				currentReads = nextReads;
+				currentPairs = nextPairs;
+				readNext();
+			}
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+	/**
+	 * Finds the last index entry at or before the given position
+	 * @return index entry offset, -1 if the position is before all index entries
+	 */
+	private int seekIndex(int referenceIndex, int position) {
+		int lo = 0;
+		int hi = indexOrdinal.length - 1;
+		int result = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(indexReferenceIndex[mid], indexPosition[mid], referenceIndex, position) <= 0) {
+				result = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return result;
+	}
+	private void readNext() throws IOException {
+		hasNext = nextOrdinal < count;
+		if (!hasNext) return;
+		nextReferenceIndex = in.readInt();
+		nextPosition = in.readInt();
+		nextReads = in.readInt();
+		nextPairs = in.readInt();
+		nextOrdinal++;
+	}
+	@Override
+	public void close() {
+		CloserUtil.close(bcis);
+		bcis = null;
+		in = null;
+	}
+	/**
+	 * Calculates the coverage track of a coordinate sorted input file
+	 */
+	public static class Writer implements Closeable {
+		private final File file;
+		private final File tmp;
+		private final long sourceLength;
+		private final long sourceLastModified;
+		private final ReadPairConcordanceCalculator pairing;
+		private final SamRecordFilter alignedFilter = new AlignedFilter(true);
+		private final SamRecordFilter duplicateFilter;
+		private final PriorityQueue<Integer> readEnd = Queues.newPriorityQueue();
+		private final PriorityQueue<Integer> pairStart = Queues.newPriorityQueue();
+		private final PriorityQueue<Integer> pairEnd = Queues.newPriorityQueue();
+		private final BlockCompressedOutputStream bcos;
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		private final DataOutputStream indexEntries = new DataOutputStream(indexBytes);
+		private int indexSize = 0;
+		private long count = 0;
+		private int referenceIndex = -1;
+		private int lastAlignmentStart = 0;
+		private int reads = 0;
+		private int pairs = 0;
+		private int writtenReferenceIndex = -1;
+		private int writtenReads = 0;
+		private int writtenPairs = 0;
+		/**
+		 * Creates a new coverage track writer
+		 * @param file output file
+		 * @param pairing read pair concordance calculator. Read pair coverage is not calculated if null.
+		 * @param ignoreDuplicates exclude reads flagged as duplicates
+		 */
+		public Writer(File file, ReadPairConcordanceCalculator pairing, boolean ignoreDuplicates) {
+			this(file, null, pairing, ignoreDuplicates);
+		}
+		/**
+		 * Creates a new coverage track writer
+		 * @param file output file
+		 * @param sourceFile file the reads are read from. Can be null.
+		 * @param pairing read pair concordance calculator. Read pair coverage is not calculated if null.
+		 * @param ignoreDuplicates exclude reads flagged as duplicates
+		 */
+		public Writer(File file, File sourceFile, ReadPairConcordanceCalculator pairing, boolean ignoreDuplicates) {
+			this.file = file;
+			// fingerprint taken before reading so a source rewritten during the write is detected
+			this.sourceLength = sourceFile == null ? 0 : sourceFile.length();
+			this.sourceLastModified = sourceFile == null ? 0 : sourceFile.lastModified();
+			this.tmp = FileSystemContext.getWorkingFileFor(file);
+			this.pairing = pairing;
+			this.duplicateFilter = ignoreDuplicates ? new DuplicateReadFilter() : null;
+			this.bcos = new BlockCompressedOutputStream(tmp);
+			// DataOutputStream does not buffer so the file pointer of the BGZF stream is always current
+			this.out = new DataOutputStream(bcos);
+			try {
+				out.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+				out.writeInt(VERSION);
+			} catch (IOException e) {
+				throw new RuntimeIOException(e);
+			}
+		}
+		/**
+		 * Adds the given read to the coverage track
+		 * @param read read. Reads <b>must</b> be added in coordinate order
+		 */
+		public void accept(SAMRecord read) {
+			if (alignedFilter.filterOut(read)) return;
+			if (duplicateFilter != null && duplicateFilter.filterOut(read)) return;
+			int readReferenceIndex = read.getReferenceIndex();
+			if (readReferenceIndex < referenceIndex || (readReferenceIndex == referenceIndex && read.getAlignmentStart() < lastAlignmentStart)) {
+				throw new IllegalStateException(String.format("Input is not coordinate sorted: read %s at %s:%d",
+						read.getReadName(), read.getReferenceName(), read.getAlignmentStart()));
+			}
+			try {
+				if (readReferenceIndex != referenceIndex) {
+					flushReference();
+					referenceIndex = readReferenceIndex;
+				}
+				if (read.getAlignmentStart() != lastAlignmentStart) {
+					// coverage at the previous position is now complete
+					completePosition(lastAlignmentStart);
+					advanceTo(read.getAlignmentStart() - 1);
+					lastAlignmentStart = read.getAlignmentStart();
+				}
+				reads++;
+				readEnd.add(read.getAlignmentEnd());
+				if (isLowerMappedOfNonOverlappingConcordantPair(read)) {
+					pairStart.add(read.getAlignmentEnd());
+					pairEnd.add(read.getMateAlignmentStart());
+				}
+			} catch (IOException e) {
+				throw new RuntimeIOException(e);
+			}
+		}
+		private boolean isLowerMappedOfNonOverlappingConcordantPair(SAMRecord read) {
+			return pairing != null
+					&& read.getReadPairedFlag()
+					&& !read.getMateUnmappedFlag()
+					&& read.getAlignmentEnd() < read.getMateAlignmentStart()
+					&& read.getReferenceIndex().equals(read.getMateReferenceIndex())
+					&& (read.getAlignmentStart() < read.getMateAlignmentStart()
+							|| (read.getAlignmentStart() == read.getMateAlignmentStart() && read.getFirstOfPairFlag()))
+					&& pairing.isConcordant(read);
+		}
+		/**
+		 * Writes the coverage at the given position once all reads starting
+		 * at that position have been added.
+		 */
+		private void completePosition(int position) throws IOException {
+			advanceTo(position);
+			write(position);
+		}
+		/**
+		 * Applies all coverage changes at or before the given position
+		 */
+		private void advanceTo(int position) throws IOException {
+			while (true) {
+				int next = Integer.MAX_VALUE;
+				if (!readEnd.isEmpty()) next = Math.min(next, readEnd.peek());
+				if (!pairStart.isEmpty()) next = Math.min(next, pairStart.peek());
+				if (!pairEnd.isEmpty()) next = Math.min(next, pairEnd.peek());
+				if (next == Integer.MAX_VALUE || next > position) break;
+				while (!readEnd.isEmpty() && readEnd.peek() == next) {
+					readEnd.poll();
+					reads--;
+				}
+				while (!pairStart.isEmpty() && pairStart.peek() == next) {
+					pairStart.poll();
+					pairs++;
+				}
+				while (!pairEnd.isEmpty() && pairEnd.peek() == next) {
+					pairEnd.poll();
+					pairs--;
+				}
+				write(next);
+			}
+		}
+		private void flushReference() throws IOException {
+			if (referenceIndex < 0) return;
+			completePosition(lastAlignmentStart);
+			advanceTo(Integer.MAX_VALUE);
+			assert(reads == 0);
+			reads = 0;
+			pairs = 0;
+			readEnd.clear();
+			pairStart.clear();
+			pairEnd.clear();
+			lastAlignmentStart = 0;
+		}
+		/**
+		 * Writes the coverage at the given position if it differs from the previous entry
+		 */
+		private void write(int position) throws IOException {
+			boolean newReference = writtenReferenceIndex != referenceIndex;
+			if (!newReference && reads == writtenReads && pairs == writtenPairs) return;
+			if (newReference && reads == 0 && pairs == 0) return;
+			if (newReference || count % INDEX_INTERVAL == 0) {
+				indexEntries.writeInt(referenceIndex);
+				indexEntries.writeInt(position);
+				indexEntries.writeLong(count);
+				indexEntries.writeLong(bcos.getFilePointer());
+				indexSize++;
+			}
+			out.writeInt(referenceIndex);
+			out.writeInt(position);
+			out.writeInt(reads);
+			out.writeInt(pairs);
+			writtenReferenceIndex = referenceIndex;
+			writtenReads = reads;
+			writtenPairs = pairs;
+			count++;
+		}
+		@Override
+		public void close() throws IOException {
+			flushReference();
+			out.close();
+			File tmpIndex = getIndexFile(tmp);
+			try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpIndex)))) {
+				index.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+				index.writeInt(VERSION);
+				index.writeLong(sourceLength);
+				index.writeLong(sourceLastModified);
+				index.writeLong(count);
+				index.writeInt(indexSize);
+				indexEntries.flush();
+				indexBytes.writeTo(index);
+			}
+			// index is moved first since the existence of the track implies the existence of the index
+			FileHelper.move(tmpIndex, getIndexFile(file), true);
+			FileHelper.move(tmp, file, true);
+			log.debug(String.format("Wrote %d coverage track entries to %s", count, file));
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package au.edu.wehi.idsv;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * Encodes the evidence derived from the SAM records of a single evidence source.
+ *
+ * Evidence is encoded as the evidence identifier and the record the evidence
+ * was created from. Decoding recreates the evidence from the record.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class SAMEvidenceCodec implements SortingCollection.Codec<DirectedEvidence> {
+	private static final int SINGLE_READ_EVIDENCE = 1;
+	private static final int READ_PAIR_EVIDENCE = 2;
+	private final SAMEvidenceSource source;
+	private final int minIndelSize;
+	private final SAMFileHeader header;
+	private final BAMRecordCodec recordCodec;
+	private DataOutputStream os;
+	private DataInputStream is;
+	/**
+	 * Creates a new codec
+	 * @param source evidence source
+	 * @param minIndelSize minimum indel size used when creating the evidence
+	 * @param header header of the records the evidence was created from
+	 */
+	public SAMEvidenceCodec(SAMEvidenceSource source, int minIndelSize, SAMFileHeader header) {
+		this.source = source;
+		this.minIndelSize = minIndelSize;
+		this.header = header;
+		this.recordCodec = new BAMRecordCodec(header);
+	}
+	@Override
+	public void setOutputStream(OutputStream os) {
+		// neither stream buffers so the evidence fields and BAM record can be interleaved
+		this.os = new DataOutputStream(os);
+		recordCodec.setOutputStream(os);
+	}
+	@Override
+	public void setInputStream(InputStream is) {
+		this.is = new DataInputStream(is);
+		recordCodec.setInputStream(is);
+	}
+	@Override
+	public void encode(DirectedEvidence val) {
+		SAMRecord record;
+		int type;
+		if (val instanceof NonReferenceReadPair) {
+			record = ((NonReferenceReadPair)val).getLocalledMappedRead();
+			type = READ_PAIR_EVIDENCE;
+		} else if (val instanceof SingleReadEvidence) {
+			record = ((SingleReadEvidence)val).getSAMRecord();
+			type = SINGLE_READ_EVIDENCE;
+		} else {
+			throw new IllegalArgumentException("Unable to encode " + val.getClass().getName());
+		}
+		try {
+			os.writeByte(type);
+			os.writeUTF(val.getEvidenceID());
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		recordCodec.encode(record);
+	}
+	@Override
+	public DirectedEvidence decode() {
+		int type;
+		String evidenceID;
+		try {
+			type = is.read();
+			if (type < 0) {
+				return null;
+			}
+			evidenceID = is.readUTF();
+		} catch (EOFException e) {
+			throw new RuntimeIOException("Unexpected end of evidence stream", e);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		SAMRecord record = recordCodec.decode();
+		if (record == null) {
+			throw new RuntimeIOException("Missing record for evidence " + evidenceID);
+		}
+		if (type == READ_PAIR_EVIDENCE) {
+			return NonReferenceReadPair.create(source, record);
+		}
+		for (SingleReadEvidence e : SingleReadEvidence.createEvidence(source, minIndelSize, record)) {
+			if (evidenceID.equals(e.getEvidenceID())) {
+				return e;
+			}
+		}
+		throw new IllegalStateException(String.format("Unable to recreate evidence %s from %s", evidenceID, record.getReadName()));
+	}
+	@Override
+	public SAMEvidenceCodec clone() {
+		return new SAMEvidenceCodec(source, minIndelSize, header);
+	}
+}
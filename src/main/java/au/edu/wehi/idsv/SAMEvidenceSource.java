@@ -2,8 +2,10 @@ package au.edu.wehi.idsv;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableList;
@@ -15,6 +17,7 @@ import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.configuration.GridssConfiguration;
 import au.edu.wehi.idsv.configuration.SoftClipConfiguration;
 import au.edu.wehi.idsv.metrics.IdsvSamFileMetrics;
+import au.edu.wehi.idsv.sam.BAMRecordBatchIterator;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
 import au.edu.wehi.idsv.sam.CigarUtil;
 import au.edu.wehi.idsv.sam.SAMFileUtil;
@@ -24,7 +27,11 @@ import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.util.AutoClosingMergedIterator;
 import au.edu.wehi.idsv.util.BufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.InputThreadPools;
+import au.edu.wehi.idsv.util.ParallelTransformIterator;
 import au.edu.wehi.idsv.validation.OrderAssertingIterator;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry.Counter;
 import gridss.ComputeSamTags;
 import gridss.ExtractSVReads;
 import gridss.SoftClipsToSplitReads;
@@ -34,6 +41,7 @@ import gridss.cmdline.CommandLineProgramHelper;
 import gridss.cmdline.ReferenceCommandLineProgram;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
@@ -45,6 +53,7 @@ import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.TextCigarCodec;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import picard.cmdline.CommandLineProgram;
 
@@ -55,6 +64,14 @@ import picard.cmdline.CommandLineProgram;
  */
 public class SAMEvidenceSource extends EvidenceSource {
 	private static final Log log = Log.getInstance(SAMEvidenceSource.class);
+	/**
+	 * Working file prefixes of the intermediate files generated during SV read extraction
+	 */
+	static final String EXTRACTED_PREFIX = "gridss.tmp.extracted.";
+	static final String QUERYSORTED_PREFIX = "gridss.tmp.querysorted.";
+	static final String TAGGED_PREFIX = "gridss.tmp.tagged.";
+	static final String SPLITREADS_PREFIX = "gridss.tmp.splitreads.";
+	private static final List<String> INTERMEDIATE_PREFIXES = ImmutableList.of(EXTRACTED_PREFIX, QUERYSORTED_PREFIX, TAGGED_PREFIX, SPLITREADS_PREFIX);
 	protected final SamReaderFactory factory = SamReaderFactory.makeDefault();
 	private final int sourceCategory;
 	private final ReadPairConcordanceMethod rpcMethod;
@@ -64,6 +81,7 @@ public class SAMEvidenceSource extends EvidenceSource {
 	private IdsvSamFileMetrics metrics;
 	private StructuralVariantReadMetrics svMetrics;
 	private ReadPairConcordanceCalculator rpcc;
+	private BinaryEvidenceCache evidenceCache;
 	public SAMEvidenceSource(ProcessingContext processContext, File file, File nameSorted, int sourceCategory) {
 		this(processContext, file, nameSorted, sourceCategory, ReadPairConcordanceMethod.SAM_FLAG, 0, 0, 0);
 	}
@@ -112,36 +130,74 @@ public class SAMEvidenceSource extends EvidenceSource {
 			File cigarFile = getContext().getFileSystemContext().getCigarMetrics(getFile());
 			File mapqFile = getContext().getFileSystemContext().getMapqMetrics(getFile());
 			if (!idsvFile.exists() || !cigarFile.exists() || !mapqFile.exists()) {
-				log.info("Calculating metrics for " + getFile().getAbsolutePath());
-				List<String> args = Lists.newArrayList(
-						"INPUT=" + getFile().getAbsolutePath(),
-						"OUTPUT=" + getContext().getFileSystemContext().getMetricsPrefix(getFile()).getAbsolutePath(),
-						"THRESHOLD_COVERAGE=" + getContext().getConfig().maxCoverage,
-						"FILE_EXTENSION=null",
-						"GRIDSS_PROGRAM=null",
-						"GRIDSS_PROGRAM=CollectCigarMetrics",
-						"GRIDSS_PROGRAM=CollectMapqMetrics",
-						"GRIDSS_PROGRAM=CollectTagMetrics",
-						"GRIDSS_PROGRAM=CollectIdsvMetrics",
-						"GRIDSS_PROGRAM=ReportThresholdCoverage",
-						// The CollectMultipleMetrics super class complains if no PROGRAM set so
-						// we'll just collect some stuff that is useful, but we don't actually
-						// use yet
-						"PROGRAM=null",
-						"PROGRAM=CollectAlignmentSummaryMetrics",
-						"PROGRAM=QualityScoreDistribution");
-				if (!knownSingleEnded()) {
-					// Don't run CollectInsertSizeMetrics
-					args.add("PROGRAM=CollectInsertSizeMetrics");
+				if (canCalculateMetricsDuringExtraction()) {
+					calculateMetricsDuringExtraction();
+				} else {
+					calculateMetrics();
 				}
-				if (getContext().getCalculateMetricsRecordCount() < Integer.MAX_VALUE) {
-					args.add("STOP_AFTER=" + getContext().getCalculateMetricsRecordCount());
-				}
-				execute(new CollectGridssMetrics(), args);
 			}
 			metrics = new IdsvSamFileMetrics(getContext(), getFile(), knownSingleEnded());
 		}
 	}
+	private void calculateMetrics() {
+		log.info("Calculating metrics for " + getFile().getAbsolutePath());
+		List<String> args = Lists.newArrayList(
+				"INPUT=" + getFile().getAbsolutePath(),
+				"OUTPUT=" + getContext().getFileSystemContext().getMetricsPrefix(getFile()).getAbsolutePath(),
+				"THRESHOLD_COVERAGE=" + getContext().getConfig().maxCoverage,
+				"FILE_EXTENSION=null",
+				"GRIDSS_PROGRAM=null",
+				"GRIDSS_PROGRAM=CollectCigarMetrics",
+				"GRIDSS_PROGRAM=CollectMapqMetrics",
+				"GRIDSS_PROGRAM=CollectTagMetrics",
+				"GRIDSS_PROGRAM=CollectIdsvMetrics",
+				"GRIDSS_PROGRAM=ReportThresholdCoverage",
+				// The CollectMultipleMetrics super class complains if no PROGRAM set so
+				// we'll just collect some stuff that is useful, but we don't actually
+				// use yet
+				"PROGRAM=null",
+				"PROGRAM=CollectAlignmentSummaryMetrics",
+				"PROGRAM=QualityScoreDistribution");
+		if (!knownSingleEnded()) {
+			// Don't run CollectInsertSizeMetrics
+			args.add("PROGRAM=CollectInsertSizeMetrics");
+		}
+		if (getContext().getCalculateMetricsRecordCount() < Integer.MAX_VALUE) {
+			args.add("STOP_AFTER=" + getContext().getCalculateMetricsRecordCount());
+		}
+		execute(new CollectGridssMetrics(), args);
+	}
+	/**
+	 * Metrics can be calculated as part of read extraction if the extraction
+	 * is performed from the coordinate sorted input file.
+	 */
+	private boolean canCalculateMetricsDuringExtraction() {
+		if (!gridss.Defaults.SINGLE_PASS_METRICS) return false;
+		if (getContext().getConfig().multimapping) return false;
+		File nameSorted = getFile(SortOrder.queryname);
+		if (nameSorted != null && nameSorted.exists()) return false;
+		File svFile = getContext().getFileSystemContext().getSVBam(getFile());
+		for (String prefix : INTERMEDIATE_PREFIXES) {
+			if (FileSystemContext.getWorkingFileFor(svFile, prefix).exists()) return false;
+		}
+		return !svFile.exists();
+	}
+	/**
+	 * Calculates the metrics calculated by CollectGridssMetrics in the same pass as the SV read extraction
+	 */
+	private void calculateMetricsDuringExtraction() {
+		log.info("Calculating metrics and extracting SV reads for " + getFile().getAbsolutePath());
+		File svFile = getContext().getFileSystemContext().getSVBam(getFile());
+		File extractedFile = FileSystemContext.getWorkingFileFor(svFile, EXTRACTED_PREFIX);
+		List<String> args = getExtractSVReadsArgs(getFile(), extractedFile);
+		args.add("GRIDSS_METRICS_OUTPUT=" + getContext().getFileSystemContext().getMetricsPrefix(getFile()).getAbsolutePath());
+		args.add("THRESHOLD_COVERAGE=" + getContext().getConfig().maxCoverage);
+		args.add("COLLECT_INSERT_SIZE_METRICS=" + !knownSingleEnded());
+		if (getContext().getCalculateMetricsRecordCount() < Integer.MAX_VALUE) {
+			args.add("METRICS_STOP_AFTER=" + getContext().getCalculateMetricsRecordCount());
+		}
+		execute(new ExtractSVReads(), args);
+	}
 	protected void execute(CommandLineProgram cmd, List<String> args) {
 		if (cmd instanceof ReferenceCommandLineProgram) {
 			((ReferenceCommandLineProgram) cmd).setReference(getContext().getReference());
@@ -165,10 +221,11 @@ public class SAMEvidenceSource extends EvidenceSource {
 	}
 	public void ensureExtracted() throws IOException {
 		File svFile = getContext().getFileSystemContext().getSVBam(getFile());
-		File extractedFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.extracted.");
-		File querysortedFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.querysorted.");
-		File taggedFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.tagged.");
-		File withsplitreadsFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.splitreads.");
+		File extractedFile = FileSystemContext.getWorkingFileFor(svFile, EXTRACTED_PREFIX);
+		File querysortedFile = FileSystemContext.getWorkingFileFor(svFile, QUERYSORTED_PREFIX);
+		File taggedFile = FileSystemContext.getWorkingFileFor(svFile, TAGGED_PREFIX);
+		File withsplitreadsFile = FileSystemContext.getWorkingFileFor(svFile, SPLITREADS_PREFIX);
+		File realignmentFastq = getContext().getFileSystemContext().getRealignmentFastq(taggedFile, 0);
 		ensureMetrics();
 		// Regenerate from from the intermediate file furtherest through the pipeline
 		// extract -> query sort -> tag -> split read -> back to coordinate sorted
@@ -177,55 +234,67 @@ public class SAMEvidenceSource extends EvidenceSource {
 		if (!svFile.exists()) {
 			if (!withsplitreadsFile.exists()) {
 				if (!taggedFile.exists()) {
-					if (!querysortedFile.exists()) {
-						if (!extractedFile.exists()) {
-							log.info("Extracting SV reads from " + getFile().getAbsolutePath());
-							File in = getFile(SortOrder.queryname);
-							if (in == null || !in.exists()) {
-								if (getContext().getConfig().multimapping) {
-									throw new IllegalArgumentException(String.format("Missing INPUT_NAME_SORTED for %s."
-											+ " Both coordinate and name sorted input files must be supplied when multi-mapping mode is enabled.", getFile()));
+					File nameSorted = getFile(SortOrder.queryname);
+					if (gridss.Defaults.STREAMING_EXTRACTION && nameSorted != null && nameSorted.exists() && !querysortedFile.exists()) {
+						// The extracted reads are already grouped by read name so we can
+						// compute tags and generate the realignment fastq in the same pass
+						log.info("Extracting and tagging SV reads from " + nameSorted.getAbsolutePath());
+						List<String> args = getExtractSVReadsArgs(nameSorted, taggedFile);
+						for (String tag : new ComputeSamTags().TAGS) {
+							args.add("TAGS=" + tag);
+						}
+						if (!getContext().getConfig().alignerStreaming) {
+							// no realignment fastq is required when soft clips are streamed directly to the aligner
+							args.add("REALIGNMENT_FASTQ=" + realignmentFastq.getAbsolutePath());
+							args.add("REALIGNMENT_MIN_CLIP_LENGTH=" + SoftClipsToSplitReads.DEFAULT_MIN_CLIP_LENGTH);
+							args.add("REALIGNMENT_MIN_CLIP_QUAL=" + SoftClipsToSplitReads.DEFAULT_MIN_CLIP_QUAL);
+						}
+						execute(new ExtractSVReads(), args);
+					} else {
+						if (!querysortedFile.exists()) {
+							if (!extractedFile.exists()) {
+								log.info("Extracting SV reads from " + getFile().getAbsolutePath());
+								File in = getFile(SortOrder.queryname);
+								if (in == null || !in.exists()) {
+									if (getContext().getConfig().multimapping) {
+										throw new IllegalArgumentException(String.format("Missing INPUT_NAME_SORTED for %s."
+												+ " Both coordinate and name sorted input files must be supplied when multi-mapping mode is enabled.", getFile()));
+									}
+									in = getFile();
 								}
-								in = getFile();
+								execute(new ExtractSVReads(), getExtractSVReadsArgs(in, extractedFile));
+							}
+							SAMFileUtil.sort(getContext().getFileSystemContext(), extractedFile, querysortedFile, SortOrder.queryname);
+							if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
+								FileHelper.delete(extractedFile, true);
 							}
-							List<String> args = Lists.newArrayList(
-									"INPUT=" + in.getAbsolutePath(),
-									"OUTPUT=" + extractedFile.getAbsolutePath(),
-									"UNMAPPED_READS=false", // saves intermediate file space
-									"METRICS_OUTPUT=" + getContext().getFileSystemContext().getSVMetrics(getFile()),
-									"MIN_CLIP_LENGTH=" + getContext().getConfig().getSoftClip().minLength,
-									"READ_PAIR_CONCORDANCE_METHOD=" + rpcMethod.name(),
-									"FIXED_READ_PAIR_CONCORDANCE_MIN_FRAGMENT_SIZE=" + rpcMinFragmentSize,
-									"FIXED_READ_PAIR_CONCORDANCE_MAX_FRAGMENT_SIZE=" + rpcMaxFragmentSize,
-									"READ_PAIR_CONCORDANT_PERCENT=" + rpcConcordantPercentage,
-									"INSERT_SIZE_METRICS=" + getContext().getFileSystemContext().getInsertSizeMetrics(getFile()));
-							execute(new ExtractSVReads(), args);
 						}
-						SAMFileUtil.sort(getContext().getFileSystemContext(), extractedFile, querysortedFile, SortOrder.queryname);
+						log.info("Computing SAM tags for " + svFile);
+						List<String> args = Lists.newArrayList(
+								"INPUT=" + querysortedFile.getAbsolutePath(),
+								"OUTPUT=" + taggedFile.getAbsolutePath());
+						execute(new ComputeSamTags(), args);
 						if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
-							FileHelper.delete(extractedFile, true);
+							FileHelper.delete(querysortedFile, true);
 						}
 					}
-					log.info("Computing SAM tags for " + svFile);
-					List<String> args = Lists.newArrayList(
-							"INPUT=" + querysortedFile.getAbsolutePath(),
-							"OUTPUT=" + taggedFile.getAbsolutePath());
-					execute(new ComputeSamTags(), args);
-					if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
-						FileHelper.delete(querysortedFile, true);
-					}
 				}
 				log.info("Identifying split reads for " + getFile().getAbsolutePath());
 				List<String> args = Lists.newArrayList(
 						"WORKER_THREADS=" + getProcessContext().getWorkerThreadCount(),
 						"INPUT=" + taggedFile.getAbsolutePath(),
-						"OUTPUT=" + withsplitreadsFile.getAbsolutePath());
+						"OUTPUT=" + withsplitreadsFile.getAbsolutePath(),
 						// realignment.* not soft-clip
-						//"MIN_CLIP_LENGTH=" + getContext().getConfig().
-						//"MIN_CLIP_QUAL=" + getContext().getConfig().getSoftClip().minAverageQual);
+						"MIN_CLIP_LENGTH=" + SoftClipsToSplitReads.DEFAULT_MIN_CLIP_LENGTH,
+						"MIN_CLIP_QUAL=" + SoftClipsToSplitReads.DEFAULT_MIN_CLIP_QUAL,
+						"ALIGNER_STREAMING=" + getContext().getConfig().alignerStreaming);
+				if (!getContext().getConfig().alignerStreaming && realignmentFastq.exists()) {
+					args.add("REALIGNMENT_FASTQ=" + realignmentFastq.getAbsolutePath());
+				}
 				execute(new SoftClipsToSplitReads(), args);
 				if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 					FileHelper.delete(taggedFile, true);
+					FileHelper.delete(realignmentFastq, true);
 				}
 			}
 			SAMFileUtil.sort(getContext().getFileSystemContext(), withsplitreadsFile, svFile, SortOrder.coordinate);
@@ -238,15 +307,92 @@ public class SAMEvidenceSource extends EvidenceSource {
 			FileHelper.delete(querysortedFile, true);
 			FileHelper.delete(taggedFile, true);
 			FileHelper.delete(withsplitreadsFile, true);
+			FileHelper.delete(realignmentFastq, true);
 		}
+		ensureEvidenceCache();
+	}
+	/**
+	 * Writes the binary evidence cache for this source if it does not already exist
+	 * or was written from a different version of the extracted evidence file
+	 */
+	public void ensureEvidenceCache() throws IOException {
+		if (!gridss.Defaults.EVIDENCE_CACHE) return;
+		File cacheFile = getContext().getFileSystemContext().getEvidenceCache(getFile());
+		if (!BinaryEvidenceCache.isCurrent(cacheFile, getReaderFile())) {
+			if (BinaryEvidenceCache.exists(cacheFile)) {
+				log.info("Evidence cache " + cacheFile.getAbsolutePath() + " is out of date. Rebuilding.");
+			}
+			log.info("Writing evidence cache for " + getFile().getAbsolutePath());
+			synchronized (this) {
+				evidenceCache = null;
+			}
+			try (CloseableIterator<DirectedEvidence> it = iterator()) {
+				BinaryEvidenceCache.write(cacheFile, getSourceCategory(), getReaderFile(), it);
+			}
+		}
+	}
+	private synchronized BinaryEvidenceCache getEvidenceCache() {
+		if (evidenceCache == null && gridss.Defaults.EVIDENCE_CACHE && getFile() != null) {
+			File cacheFile = getContext().getFileSystemContext().getEvidenceCache(getFile());
+			if (BinaryEvidenceCache.isCurrent(cacheFile, getReaderFile())) {
+				try {
+					evidenceCache = new BinaryEvidenceCache(cacheFile, this);
+				} catch (IOException e) {
+					log.warn(e, "Unable to read evidence cache " + cacheFile.getAbsolutePath());
+				}
+			}
+		}
+		return evidenceCache;
+	}
+	private List<String> getExtractSVReadsArgs(File in, File out) {
+		return Lists.newArrayList(
+				"INPUT=" + in.getAbsolutePath(),
+				"OUTPUT=" + out.getAbsolutePath(),
+				"UNMAPPED_READS=false", // saves intermediate file space
+				"METRICS_OUTPUT=" + getContext().getFileSystemContext().getSVMetrics(getFile()),
+				"MIN_CLIP_LENGTH=" + getContext().getConfig().getSoftClip().minLength,
+				"READ_PAIR_CONCORDANCE_METHOD=" + rpcMethod.name(),
+				"FIXED_READ_PAIR_CONCORDANCE_MIN_FRAGMENT_SIZE=" + rpcMinFragmentSize,
+				"FIXED_READ_PAIR_CONCORDANCE_MAX_FRAGMENT_SIZE=" + rpcMaxFragmentSize,
+				"READ_PAIR_CONCORDANT_PERCENT=" + rpcConcordantPercentage,
+				"INSERT_SIZE_METRICS=" + getContext().getFileSystemContext().getInsertSizeMetrics(getFile()),
+				"COVERAGE_OUTPUT=" + getContext().getFileSystemContext().getCoverageTrack(getFile()),
+				"COVERAGE_IGNORE_DUPLICATES=" + getContext().isFilterDuplicates());
 	}
 	public CloseableIterator<DirectedEvidence> iterator(final QueryInterval[] intervals) {
 		SamReader reader = getReader();
 		// expand query bounds as the alignment for a discordant read pair could fall before or after the breakend interval we are extracting
 		SAMRecordIterator it = tryOpenReader(reader, QueryIntervalUtil.padIntervals(getContext().getDictionary(), intervals, getMaxConcordantFragmentSize() + 1));
-		Iterator<DirectedEvidence> eit = asEvidence(it);
-		eit = Iterators.filter(eit, e -> QueryIntervalUtil.overlaps(intervals, e.getBreakendSummary()));
-		return new AutoClosingIterator<>(eit, reader, it);
+		CloseableIterator<DirectedEvidence> sortedIt = asEvidence(it, reader.getFileHeader());
+		Iterator<DirectedEvidence> eit = Iterators.filter(sortedIt, e -> QueryIntervalUtil.overlaps(intervals, e.getBreakendSummary()));
+		// filtering hides the sorting iterator so it needs to be explicitly closed to remove any spilled runs
+		return new AutoClosingIterator<>(eit, sortedIt, reader, it);
+	}
+	/**
+	 * Iterates over the evidence overlapping the given intervals.
+	 * 
+	 * Evidence is read from the binary evidence cache when available. Such evidence
+	 * does not have an underlying SAMRecord.
+	 * @param intervals genomic intervals
+	 * @return evidence in natural evidence order
+	 */
+	public CloseableIterator<DirectedEvidence> summaryIterator(final QueryInterval[] intervals) {
+		BinaryEvidenceCache cache = getEvidenceCache();
+		if (cache == null) {
+			return iterator(intervals);
+		}
+		return cache.iterator(intervals);
+	}
+	/**
+	 * Iterates over all evidence, reading from the binary evidence cache when available.
+	 * @return evidence in natural evidence order
+	 */
+	public CloseableIterator<DirectedEvidence> summaryIterator() {
+		BinaryEvidenceCache cache = getEvidenceCache();
+		if (cache == null) {
+			return iterator();
+		}
+		return cache.iterator();
 	}
 	/**
 	 * Attempts to open a new iterator.
@@ -273,30 +419,75 @@ public class SAMEvidenceSource extends EvidenceSource {
 		return it;
 	}
 	public CloseableIterator<DirectedEvidence> iterator() {
+		File file = getReaderFile();
+		if (gridss.Defaults.PARALLEL_BAM_DECODING && file.getName().endsWith(IOUtil.BAM_FILE_EXTENSION)) {
+			BAMRecordBatchIterator batchIt = new BAMRecordBatchIterator(file, gridss.Defaults.ASYNC_BUFFER_SIZE);
+			if (batchIt.getFileHeader().getSortOrder() == SortOrder.coordinate) {
+				// ensure the lazily loaded blacklist is initialised before access from worker threads
+				getBlacklistedRegions();
+				ExecutorService threadpool = InputThreadPools.getDecodeExecutor();
+				Iterator<List<SAMRecord>> transformed = new ParallelTransformIterator<>(batchIt, batch -> transformAndFilter(batch),
+						2 * InputThreadPools.getThreadCount() + 2, threadpool);
+				Iterator<SAMRecord> it = Iterators.concat(Iterators.transform(transformed, batch -> batch.iterator()));
+				CloseableIterator<DirectedEvidence> eit = asTransformedEvidence(it, batchIt.getFileHeader());
+				return new AutoClosingIterator<>(eit, batchIt);
+			}
+			batchIt.close();
+		}
 		SamReader reader = getReader();
 		SAMRecordIterator it = reader.iterator();
 		it.assertSorted(SortOrder.coordinate);
-		Iterator<DirectedEvidence> eit = asEvidence(it);
+		CloseableIterator<DirectedEvidence> eit = asEvidence(it, reader.getFileHeader());
 		return new AutoClosingIterator<>(eit, reader, it);
 	}
-	private SamReader getReader() {
+	/**
+	 * Decodes, transforms and filters a batch of records
+	 * @param batch records read from the underlying file
+	 * @return records not filtered 
+	 */
+	private List<SAMRecord> transformAndFilter(List<SAMRecord> batch) {
+		List<SAMRecord> result = new ArrayList<>(batch.size());
+		for (SAMRecord r : batch) {
+			r.eagerDecode();
+			r = transform(r);
+			if (!shouldFilter(r)) {
+				result.add(r);
+			}
+		}
+		return result;
+	}
+	private File getReaderFile() {
 		File svFile = getContext().getFileSystemContext().getSVBam(getFile());
-		SamReader reader = factory.open(svFile.exists() ? svFile : getFile());
+		return svFile.exists() ? svFile : getFile();
+	}
+	private SamReader getReader() {
+		SamReader reader = factory.open(getReaderFile());
 		return reader;
 	}
-	private Iterator<DirectedEvidence> asEvidence(Iterator<SAMRecord> it) {
+	private CloseableIterator<DirectedEvidence> asEvidence(Iterator<SAMRecord> it, SAMFileHeader header) {
 		it = new BufferedIterator<>(it, 2); // TODO: remove when https://github.com/samtools/htsjdk/issues/760 is resolved 
 		it = Iterators.transform(it, r -> transform(r));
-		it = Iterators.filter(it, r -> !shouldFilter(r));		
+		it = Iterators.filter(it, r -> !shouldFilter(r));
+		return asTransformedEvidence(it, header);
+	}
+	/**
+	 * Converts the given records to evidence in natural evidence order.
+	 * The returned iterator must be closed to delete any sort window records spilled to disk.
+	 * The underlying record iterator is not closed.
+	 */
+	private CloseableIterator<DirectedEvidence> asTransformedEvidence(Iterator<SAMRecord> it, SAMFileHeader header) {
 		Iterator<DirectedEvidence> eit = new DirectedEvidenceIterator(it, this, minIndelSize());
 		eit = Iterators.filter(eit, e -> !shouldFilter(e));
-		eit = new DirectEvidenceWindowedSortingIterator<DirectedEvidence>(getContext(), getSortWindowSize(), eit);
+		Counter evidenceCount = MetricsRegistry.Current.records("evidence");
+		eit = Iterators.transform(eit, e -> { evidenceCount.inc(); return e; });
+		// evidence in satellite and high-copy regions can exceed the memory available for the sort window
+		CloseableIterator<DirectedEvidence> sortedIt = new DirectEvidenceWindowedSortingIterator<DirectedEvidence>(getContext(), getSortWindowSize(), eit, new SAMEvidenceCodec(this, minIndelSize(), header));
 		if (Defaults.SANITY_CHECK_ITERATORS) {
 			// Can't enforce pairing as there may actually be duplicates depending on how multi-mapping alignment was performed
-			//eit = new PairedEvidenceTracker<DirectedEvidence>(getFile().getName(), eit);
-			eit = new OrderAssertingIterator<DirectedEvidence>(eit, DirectedEvidenceOrder.ByNatural);
+			//sortedIt = new PairedEvidenceTracker<DirectedEvidence>(getFile().getName(), sortedIt);
+			sortedIt = new OrderAssertingIterator<DirectedEvidence>(sortedIt, DirectedEvidenceOrder.ByNatural);
 		}
-		return eit;
+		return sortedIt;
 	}
 	private static float average(byte[] values) {
 		float total = 0;
@@ -504,6 +695,24 @@ public class SAMEvidenceSource extends EvidenceSource {
 		CloseableIterator<DirectedEvidence> merged = new AutoClosingMergedIterator<DirectedEvidence>(toMerge, DirectedEvidenceOrder.ByNatural);
 		return merged;
 	}
+	public static CloseableIterator<DirectedEvidence> mergedSummaryIterator(List<SAMEvidenceSource> source, boolean parallel) {
+		List<CloseableIterator<DirectedEvidence>> toMerge = Lists.newArrayList();
+		for (SAMEvidenceSource bam : source) {
+			CloseableIterator<DirectedEvidence> it = bam.summaryIterator();
+			if (parallel) {
+				it = new AsyncBufferedIterator<>(it, bam.getFile() == null ? "" : bam.getFile().getName());
+			}
+			toMerge.add(it);
+		}
+		return new AutoClosingMergedIterator<DirectedEvidence>(toMerge, DirectedEvidenceOrder.ByNatural);
+	}
+	public static CloseableIterator<DirectedEvidence> mergedSummaryIterator(final List<SAMEvidenceSource> source, final QueryInterval[] intervals) {
+		List<CloseableIterator<DirectedEvidence>> toMerge = Lists.newArrayList();
+		for (SAMEvidenceSource bam : source) {
+			toMerge.add(bam.summaryIterator(intervals));
+		}
+		return new AutoClosingMergedIterator<DirectedEvidence>(toMerge, DirectedEvidenceOrder.ByNatural);
+	}
 	/**
 	 * Maximum distance between the SAM alignment location of evidence, and the extrema of the
 	 * breakend position supported by that evidence. 
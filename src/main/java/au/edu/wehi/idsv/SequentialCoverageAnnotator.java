@@ -1,6 +1,8 @@
 package au.edu.wehi.idsv;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -10,6 +12,7 @@ import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
@@ -36,19 +39,40 @@ public class SequentialCoverageAnnotator<T extends VariantContextDirectedEvidenc
 	private final List<Closeable> toclose = new ArrayList<>();
 	private final ExecutorService threadpool;
 	public SequentialCoverageAnnotator(ProcessingContext context, List<SAMEvidenceSource> sources, Iterator<T> it, int windowSize, ExecutorService threadpool) {
+		this(context, sources, it, windowSize, threadpool, null);
+	}
+	/**
+	 * Annotates calls using only the reads overlapping the given intervals
+	 * @param intervals intervals to read. The input files must be indexed.
+	 * Intervals must include the coverage window size around all calls.
+	 */
+	public SequentialCoverageAnnotator(ProcessingContext context, List<SAMEvidenceSource> sources, Iterator<T> it, int windowSize, ExecutorService threadpool, QueryInterval[] intervals) {
 		this.context = context;
-		this.reference = createLookup(context, sources, windowSize);
+		this.reference = createLookup(context, sources, windowSize, intervals);
 		this.it = it;
 		this.threadpool = threadpool;
 	}
-	private List<ReferenceCoverageLookup> createLookup(ProcessingContext context, List<SAMEvidenceSource> sources, int windowSize) {
+	private List<ReferenceCoverageLookup> createLookup(ProcessingContext context, List<SAMEvidenceSource> sources, int windowSize, QueryInterval[] intervals) {
 		List<ReferenceCoverageLookup> result = new ArrayList<>();
 		for (SAMEvidenceSource ses : sources) {
 			assert(ses.getSourceCategory() >= 0);
 			assert(ses.getSourceCategory() < context.getCategoryCount());
+			File track = context.getFileSystemContext().getCoverageTrack(ses.getFile());
+			if (ReferenceCoverageTrack.isCurrent(track, ses.getFile())) {
+				try {
+					ReferenceCoverageTrack trackLookup = new ReferenceCoverageTrack(track, ses.getSourceCategory());
+					toclose.add(trackLookup);
+					result.add(trackLookup);
+					continue;
+				} catch (IOException e) {
+					log.warn(e, "Unable to read coverage track ", track, ". Calculating coverage from ", ses.getFile());
+				}
+			} else if (ReferenceCoverageTrack.exists(track)) {
+				log.info("Ignoring coverage track ", track, " as it was not calculated from the current version of ", ses.getFile());
+			}
 			// one read-ahead thread per input file
 			SamReader reader = SamReaderFactory.makeDefault().open(ses.getFile());
-			SAMRecordIterator rawIterator = reader.iterator();
+			SAMRecordIterator rawIterator = intervals == null ? reader.iterator() : reader.queryOverlapping(QueryInterval.optimizeIntervals(intervals.clone()));
 			rawIterator.assertSorted(SortOrder.coordinate);
 			CloseableIterator<SAMRecord> sit = new AsyncBufferedIterator<SAMRecord>(rawIterator, ses.getFile().getName() + "-Coverage");
 			toclose.add(sit); // close the async iterator first to prevent aysnc reading from a closed stream 
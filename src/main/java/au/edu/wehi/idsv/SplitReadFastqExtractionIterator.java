@@ -1,7 +1,10 @@
 package au.edu.wehi.idsv;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 
@@ -40,22 +43,38 @@ public class SplitReadFastqExtractionIterator implements Iterator<FastqRecord> {
 	private void ensureBuffer() {
 		while (buffer.isEmpty() && it.hasNext()) {
 			SAMRecord r = it.next();
-			if (r.getReadUnmappedFlag()) continue;
-			// Logic for extending an existing SA alignment not yet complete. Need to:
-			// - only realign bases not in any existing SA alignment
-			// - update all SA record (requires queryname sorted input file)
-			if (r.getAttribute(SAMTag.SA.name()) != null) continue;
-			if (r.getSupplementaryAlignmentFlag()) continue;
-			if (r.getNotPrimaryAlignmentFlag() && !processSecondaryAlignments) {
-				continue;
-			}
-			for (FastqRecord fqr : SplitReadIdentificationHelper.getSplitReadRealignments(r, isSplit, eidgen)) {
-				if (fqr.length() < minSoftClipLength) continue;
-				if (averageBaseQuality(fqr) < minClipQuality) continue;
-				buffer.add(fqr);
-			}
+			buffer.addAll(extract(r, isSplit, minSoftClipLength, minClipQuality, processSecondaryAlignments, eidgen));
 		}
 	}
+	/**
+	 * Extracts the split read fastq records for a single alignment record
+	 * @param r alignment record
+	 * @return realignment fastq records for the given record
+	 */
+	public static List<FastqRecord> extract(
+			SAMRecord r,
+			boolean isSplit,
+			int minSoftClipLength,
+			float minClipQuality,
+			boolean processSecondaryAlignments,
+			EvidenceIdentifierGenerator eidgen) {
+		if (r.getReadUnmappedFlag()) return Collections.emptyList();
+		// Logic for extending an existing SA alignment not yet complete. Need to:
+		// - only realign bases not in any existing SA alignment
+		// - update all SA record (requires queryname sorted input file)
+		if (r.getAttribute(SAMTag.SA.name()) != null) return Collections.emptyList();
+		if (r.getSupplementaryAlignmentFlag()) return Collections.emptyList();
+		if (r.getNotPrimaryAlignmentFlag() && !processSecondaryAlignments) {
+			return Collections.emptyList();
+		}
+		List<FastqRecord> result = new ArrayList<>(2);
+		for (FastqRecord fqr : SplitReadIdentificationHelper.getSplitReadRealignments(r, isSplit, eidgen)) {
+			if (fqr.length() < minSoftClipLength) continue;
+			if (averageBaseQuality(fqr) < minClipQuality) continue;
+			result.add(fqr);
+		}
+		return result;
+	}
 	private static double averageBaseQuality(FastqRecord fqr) {
 		long sum = 0;
 		for (byte v : SAMUtils.fastqToPhred(fqr.getBaseQualityString())) {
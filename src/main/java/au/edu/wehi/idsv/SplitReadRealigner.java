@@ -2,9 +2,13 @@ package au.edu.wehi.idsv;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -12,21 +16,31 @@ import com.google.common.collect.PeekingIterator;
 import com.google.common.io.Files;
 
 import au.edu.wehi.idsv.alignment.FastqAligner;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
 import au.edu.wehi.idsv.sam.NmTagIterator;
+import au.edu.wehi.idsv.sam.ParallelSAMFileWriterFactory;
 import au.edu.wehi.idsv.sam.SAMFileUtil;
+import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import htsjdk.samtools.BAMRecordCodec;
 import htsjdk.samtools.SAMFileHeader;
-import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordComparator;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
+import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.fastq.FastqReader;
+import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.fastq.FastqWriter;
 import htsjdk.samtools.fastq.FastqWriterFactory;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.SortingCollection;
 
 public class SplitReadRealigner {
 	private static final Log log = Log.getInstance(SplitReadRealigner.class);
@@ -35,10 +49,15 @@ public class SplitReadRealigner {
 	private float minSoftClipQuality = 0;
 	private int workerThreads = Runtime.getRuntime().availableProcessors();
 	private SamReaderFactory readerFactory = SamReaderFactory.make();
-	private SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+	private SAMFileWriterFactory writerFactory = new ParallelSAMFileWriterFactory();
 	private FastqWriterFactory fastqWriterFactory = new FastqWriterFactory();
 	private boolean processSecondaryAlignments = false;
 	private FastqAligner aligner;
+	private StreamingAligner streamingAligner = null;
+	/**
+	 * Maximum number of input records held in memory awaiting realignment
+	 */
+	private int maxBufferedRecords = 1 << 18;
 	/**
 	 * Alignment-unique read identifier must be hashed to ensure that the read names
 	 * written to the fastq files do not exceed the BAM limit of 254 even when the
@@ -94,15 +113,56 @@ public class SplitReadRealigner {
 	public void setProcessSecondaryAlignments(boolean processSecondaryAlignments) {
 		this.processSecondaryAlignments = processSecondaryAlignments;
 	}
+	public StreamingAligner getStreamingAligner() {
+		return streamingAligner;
+	}
+	/**
+	 * Sets the aligner to stream soft clips to. If set, soft clip realignment is performed
+	 * directly from the input without writing intermediate fastq and aligner output files.
+	 */
+	public void setStreamingAligner(StreamingAligner streamingAligner) {
+		this.streamingAligner = streamingAligner;
+	}
+	public int getMaxBufferedRecords() {
+		return maxBufferedRecords;
+	}
+	public void setMaxBufferedRecords(int maxBufferedRecords) {
+		this.maxBufferedRecords = maxBufferedRecords;
+	}
 	public void createSupplementaryAlignments(File input, File output) throws IOException {
+		createSupplementaryAlignments(input, output, null);
+	}
+	/**
+	 * Creates split read alignments from the soft clipped reads in the input file.
+	 * @param input input alignments
+	 * @param output output alignments
+	 * @param initialFastq soft clip realignment fastq for the input file
+	 * previously generated in a streaming pass over the input. If null,
+	 * the fastq is generated from the input file. Not used when streaming
+	 * to a streaming aligner.
+	 */
+	public void createSupplementaryAlignments(File input, File output, File initialFastq) throws IOException {
 		try {
+			if (streamingAligner != null) {
+				streamSupplementaryAlignments(input, output);
+				return;
+			}
 			int iteration = 0;
-			File fq = pc.getFileSystemContext().getRealignmentFastq(input, iteration);
-			File tmpfq = FileSystemContext.getWorkingFileFor(fq, "gridss.tmp.SplitReadRealigner.");
-			int recordsWritten = createSupplementaryAlignmentFastq(input, tmpfq, false);
-			Files.move(tmpfq, fq);
-			tmpFiles.add(fq);
-			tmpFiles.add(tmpfq);
+			File fq;
+			int recordsWritten;
+			if (initialFastq != null) {
+				fq = initialFastq;
+				tmpFiles.add(fq);
+				recordsWritten = countFastqRecords(initialFastq);
+			} else {
+				fq = pc.getFileSystemContext().getRealignmentFastq(input, iteration);
+				File tmpfq = FileSystemContext.getWorkingFileFor(fq, "gridss.tmp.SplitReadRealigner.");
+				recordsWritten = createSupplementaryAlignmentFastq(input, tmpfq, false);
+				Files.move(tmpfq, fq);
+				tmpFiles.add(fq);
+				tmpFiles.add(tmpfq);
+			}
+			File tmpfq;
 			List<File> aligned = new ArrayList<>();
 			while (recordsWritten > 0) {
 				// Align
@@ -133,12 +193,21 @@ public class SplitReadRealigner {
 			}
 		}
 	}
+	private static int countFastqRecords(File fastq) {
+		int count = 0;
+		try (FastqReader reader = new FastqReader(fastq)) {
+			while (reader.hasNext()) {
+				reader.next();
+				count++;
+			}
+		}
+		return count;
+	}
 	private void mergeSupplementaryAlignment(File input, List<File> aligned, File output) throws IOException {
 		log.info("Merging split read alignments for ", output);
-		File suppMerged = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.SplitReadAligner.sa.");
 		File tmpoutput = FileSystemContext.getWorkingFileFor(output);
-		tmpFiles.add(suppMerged);
 		tmpFiles.add(tmpoutput);
+		SortingCollection<SAMRecord> suppCollection = null;
 		List<SamReader> suppReaders = new ArrayList<>();
 		List<PeekingIterator<SAMRecord>> suppIt = new ArrayList<>();
 		SAMFileHeader header;
@@ -149,13 +218,21 @@ public class SplitReadRealigner {
 				suppReaders.add(suppReader);
 				suppIt.add(new AsyncBufferedIterator<>(new NmTagIterator(suppReader.iterator(), pc.getReference()), sf.getName()));
 			}
+			suppCollection = createSupplementaryAlignmentCollection(header);
 			try (SAMFileWriter inputWriter = writerFactory.makeSAMOrBAMWriter(header, true, tmpoutput)) {
-				try (SAMFileWriter suppWriter = writerFactory.makeSAMOrBAMWriter(header, false, suppMerged)) {
-					try (AsyncBufferedIterator<SAMRecord> bufferedIt = new AsyncBufferedIterator<>(new NmTagIterator(reader.iterator(), pc.getReference()), input.getName())) {
-						mergeSupplementaryAlignment(bufferedIt, suppIt, inputWriter, suppWriter);
-					}
+				try (AsyncBufferedIterator<SAMRecord> bufferedIt = new AsyncBufferedIterator<>(new NmTagIterator(reader.iterator(), pc.getReference()), input.getName())) {
+					mergeSupplementaryAlignment(bufferedIt, suppIt, inputWriter, suppCollection);
 				}
 			}
+			for (Iterator<SAMRecord> it : suppIt) {
+				CloserUtil.close(it);
+			}
+			for (SamReader sr : suppReaders) {
+				sr.close();
+			}
+			suppIt.clear();
+			suppReaders.clear();
+			mergeSupplementaryAlignments(header, tmpoutput, suppCollection, output);
 		} finally {
 			for (Iterator<SAMRecord> it : suppIt) {
 				CloserUtil.close(it);
@@ -163,16 +240,46 @@ public class SplitReadRealigner {
 			for (SamReader sr : suppReaders) {
 				sr.close();
 			}
+			if (suppCollection != null) {
+				suppCollection.cleanup();
+			}
 		}
-		if (header.getSortOrder() != null && header.getSortOrder() != SortOrder.unsorted) {
-			File suppMergedsorted = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.SplitReadAligner.sorted.sa.");
-			tmpFiles.add(suppMergedsorted);
-			SAMFileUtil.sort(pc.getFileSystemContext(), suppMerged, suppMergedsorted, header.getSortOrder());
-			FileHelper.move(suppMergedsorted, suppMerged, true);
+	}
+	/**
+	 * Supplementary alignments are spilled to disk in sorted runs as they are generated
+	 * so the output can be written in a single merge pass.
+	 */
+	private SortingCollection<SAMRecord> createSupplementaryAlignmentCollection(SAMFileHeader header) {
+		SAMRecordComparator comparator = header.getSortOrder() == null ? null : header.getSortOrder().getComparatorInstance();
+		if (comparator == null) {
+			// output is unsorted so any ordering will do
+			comparator = new SAMRecordCoordinateComparator();
 		}
-		SAMFileUtil.merge(ImmutableList.of(tmpoutput, suppMerged), output);
+		return SortingCollection.newInstance(
+				SAMRecord.class,
+				new BAMRecordCodec(header),
+				comparator,
+				pc.getFileSystemContext().getMaxBufferedRecordsPerFile(),
+				pc.getFileSystemContext().getTemporaryDirectory());
 	}
-	private void mergeSupplementaryAlignment(Iterator<SAMRecord> it, List<PeekingIterator<SAMRecord>> alignments, SAMFileWriter out, SAMFileWriter saout) {
+	/**
+	 * Merges the supplementary alignments into the rewritten input records.
+	 * @param header output header
+	 * @param primary input records in input order
+	 * @param suppCollection supplementary alignments
+	 * @param output output file
+	 */
+	private void mergeSupplementaryAlignments(SAMFileHeader header, File primary, SortingCollection<SAMRecord> suppCollection, File output) throws IOException {
+		suppCollection.doneAdding();
+		try (SamReader reader = readerFactory.open(primary)) {
+			try (SAMRecordIterator primaryIt = reader.iterator()) {
+				try (CloseableIterator<SAMRecord> suppIt = suppCollection.iterator()) {
+					SAMFileUtil.merge(header, ImmutableList.of(primaryIt, suppIt), output, writerFactory);
+				}
+			}
+		}
+	}
+	private void mergeSupplementaryAlignment(Iterator<SAMRecord> it, List<PeekingIterator<SAMRecord>> alignments, SAMFileWriter out, SortingCollection<SAMRecord> saout) {
 		List<SAMRecord> salist = Lists.newArrayList();
 		while (it.hasNext()) {
 			salist.clear();
@@ -194,7 +301,121 @@ public class SplitReadRealigner {
 			out.addAlignment(r);
 			for (SAMRecord sar : salist) {
 				if (!sar.getReadUnmappedFlag()) {
-					saout.addAlignment(sar);
+					sar.setHeaderStrict(out.getFileHeader());
+					saout.add(sar);
+				}
+			}
+		}
+	}
+	/**
+	 * Input record awaiting the realignment of its soft clips
+	 */
+	private static class PendingRecord {
+		private final SAMRecord record;
+		private final List<SAMRecord> salist = new ArrayList<>(2);
+		private int outstanding = 0;
+		public PendingRecord(SAMRecord record) {
+			this.record = record;
+		}
+	}
+	private void streamSupplementaryAlignments(File input, File output) throws IOException {
+		log.info("Streaming split read alignments for ", output);
+		File tmpoutput = FileSystemContext.getWorkingFileFor(output);
+		tmpFiles.add(tmpoutput);
+		SortingCollection<SAMRecord> suppCollection = null;
+		try {
+			SAMFileHeader header;
+			try (SamReader reader = readerFactory.open(input)) {
+				header = reader.getFileHeader();
+				suppCollection = createSupplementaryAlignmentCollection(header);
+				try (SAMFileWriter inputWriter = writerFactory.makeSAMOrBAMWriter(header, true, tmpoutput)) {
+					try (AsyncBufferedIterator<SAMRecord> bufferedIt = new AsyncBufferedIterator<>(new NmTagIterator(reader.iterator(), pc.getReference()), input.getName())) {
+						streamSupplementaryAlignments(bufferedIt, inputWriter, suppCollection);
+					}
+				}
+			}
+			mergeSupplementaryAlignments(header, tmpoutput, suppCollection, output);
+		} finally {
+			if (suppCollection != null) {
+				suppCollection.cleanup();
+			}
+		}
+	}
+	/**
+	 * Realigns the soft clips of each input record. Recursive realignments are sent to the
+	 * aligner as soon as the alignment they originate from has been returned.
+	 * Input records are written in input order once all their realignments are complete.
+	 */
+	private void streamSupplementaryAlignments(Iterator<SAMRecord> it, SAMFileWriter out, SortingCollection<SAMRecord> saout) throws IOException {
+		Deque<PendingRecord> pending = new ArrayDeque<>();
+		Map<String, PendingRecord> lookup = new HashMap<>();
+		while (it.hasNext()) {
+			SAMRecord r = it.next();
+			PendingRecord pr = new PendingRecord(r);
+			List<FastqRecord> fqs = SplitReadFastqExtractionIterator.extract(r, false, minSoftClipLength, minSoftClipQuality, isProcessSecondaryAlignments(), eidgen);
+			if (!fqs.isEmpty()) {
+				String name = eidgen.getAlignmentUniqueName(r);
+				while (lookup.containsKey(name)) {
+					// alignments are matched by name so we need to wait for the earlier record to complete
+					processNextAlignment(lookup);
+				}
+				lookup.put(name, pr);
+				for (FastqRecord fq : fqs) {
+					streamingAligner.asyncAlign(fq);
+					pr.outstanding++;
+				}
+			}
+			pending.add(pr);
+			while (streamingAligner.hasAlignmentRecord()) {
+				processNextAlignment(lookup);
+			}
+			writeCompleted(pending, out, saout);
+			while (pending.size() >= maxBufferedRecords) {
+				processNextAlignment(lookup);
+				writeCompleted(pending, out, saout);
+			}
+		}
+		while (!pending.isEmpty()) {
+			processNextAlignment(lookup);
+			writeCompleted(pending, out, saout);
+		}
+	}
+	private void processNextAlignment(Map<String, PendingRecord> lookup) throws IOException {
+		if (!streamingAligner.hasAlignmentRecord()) {
+			streamingAligner.flush();
+		}
+		SAMRecord supp = streamingAligner.getAlignment();
+		if (supp.getSupplementaryAlignmentFlag() || supp.getNotPrimaryAlignmentFlag()) {
+			// only consider the best mapping location reported by the aligner
+			return;
+		}
+		String name = SplitReadIdentificationHelper.getOriginatingAlignmentUniqueName(supp);
+		PendingRecord pr = lookup.get(name);
+		if (pr == null) {
+			throw new IllegalStateException(String.format("Aligner returned unexpected read %s", supp.getReadName()));
+		}
+		SAMRecordUtil.ensureNmTag(pc.getReference(), supp);
+		pr.salist.add(supp);
+		pr.outstanding--;
+		for (FastqRecord fq : SplitReadFastqExtractionIterator.extract(supp, true, minSoftClipLength, minSoftClipQuality, false, eidgen)) {
+			streamingAligner.asyncAlign(fq);
+			pr.outstanding++;
+		}
+		if (pr.outstanding == 0) {
+			lookup.remove(name);
+		}
+	}
+	private static void writeCompleted(Deque<PendingRecord> pending, SAMFileWriter out, SortingCollection<SAMRecord> saout) {
+		while (!pending.isEmpty() && pending.peek().outstanding == 0) {
+			PendingRecord pr = pending.poll();
+			if (pr.salist.size() > 0) {
+				SplitReadIdentificationHelper.convertToSplitRead(pr.record, pr.salist);
+			}
+			out.addAlignment(pr.record);
+			for (SAMRecord sar : pr.salist) {
+				if (!sar.getReadUnmappedFlag()) {
+					sar.setHeaderStrict(out.getFileHeader());
+					saout.add(sar);
 				}
 			}
 		}
@@ -1,101 +1,283 @@
 package au.edu.wehi.idsv;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.function.Supplier;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import au.edu.wehi.idsv.util.AsyncFanOutIterator;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
 /**
  * Calls breakpoints from the given evidence
- * 
+ *
+ * Evidence is read in a single pass with the maximal cliques of each
+ * breakend direction pair calculated concurrently. The first direction pair
+ * is called on the consuming thread and the calls of the remaining direction
+ * pairs are buffered until all calls of the preceding direction pairs have been
+ * returned. Calls are returned in direction pair order and variant identifiers
+ * are assigned as calls are returned so the output does not depend on thread scheduling.
+ *
  * @author Daniel Cameron
  */
 public class VariantCallIterator implements CloseableIterator<VariantContextDirectedBreakpoint> {
+	private static final Log log = Log.getInstance(VariantCallIterator.class);
 	private static final List<Pair<BreakendDirection, BreakendDirection>> DIRECTION_ORDER = ImmutableList.of(
 			Pair.of(BreakendDirection.Forward, BreakendDirection.Forward),
 			Pair.of(BreakendDirection.Forward, BreakendDirection.Backward),
 			Pair.of(BreakendDirection.Backward, BreakendDirection.Forward),
 			Pair.of(BreakendDirection.Backward, BreakendDirection.Backward));
+	/**
+	 * Number of direction pairs called on the background thread pool
+	 */
+	private static final int BACKGROUND_DIRECTIONS = DIRECTION_ORDER.size() - 1;
+	/**
+	 * End of direction pair sentinel
+	 */
+	private static final Object EOS = new Object();
+	private static int concurrentIteratorCount = Runtime.getRuntime().availableProcessors();
+	private static int activeIteratorCount = 0;
+	private static ThreadPoolExecutor directionExecutor = null;
 	private final ProcessingContext processContext;
 	private final VariantIdGenerator idGenerator;
-	private final Supplier<Iterator<DirectedEvidence>> iteratorGenerator;
 	private final QueryInterval[] filterInterval;
-	private Iterator<VariantContextDirectedBreakpoint> currentIterator;
-	private Iterator<DirectedEvidence> currentUnderlyingIterator;
-	private int currentDirectionOrdinal;
+	private final AsyncFanOutIterator<DirectedEvidence> fanout;
+	private final Iterator<VariantContextDirectedBreakpoint> firstDirection;
+	/**
+	 * Buffered calls of the background direction pairs
+	 */
+	private final List<BlockingQueue<Object>> buffered = new ArrayList<>();
+	private final AtomicInteger backgroundRemaining = new AtomicInteger(BACKGROUND_DIRECTIONS);
+	private final AtomicReference<Throwable> backgroundException = new AtomicReference<>(null);
+	private int currentDirectionOrdinal = 0;
+	private Iterator<VariantContextDirectedBreakpoint> currentEvent = ImmutableList.<VariantContextDirectedBreakpoint>of().iterator();
+	private VariantContextDirectedBreakpoint next = null;
+	private volatile boolean closed = false;
+	/**
+	 * Calls of a single maximal clique. Each clique consumes a variant identifier
+	 * even if all calls are filtered.
+	 */
+	private static class BufferedEvent {
+		private final BreakpointSummary breakpoint;
+		private final List<VariantContextDirectedBreakpoint> calls = new ArrayList<>(2);
+		public BufferedEvent(BreakpointSummary breakpoint) {
+			this.breakpoint = breakpoint;
+		}
+	}
+	/**
+	 * Sets the number of iterators that can concurrently call direction pairs in the background.
+	 *
+	 * Thread pool size changes should be made before any iterators are created.
+	 * @param iterators number of concurrent iterators
+	 */
+	public static synchronized void setThreadCount(int iterators) {
+		if (iterators < 1) iterators = 1;
+		if (directionExecutor != null && iterators != concurrentIteratorCount) {
+			int threads = iterators * BACKGROUND_DIRECTIONS;
+			if (iterators > concurrentIteratorCount) {
+				directionExecutor.setMaximumPoolSize(threads);
+				directionExecutor.setCorePoolSize(threads);
+			} else {
+				directionExecutor.setCorePoolSize(threads);
+				directionExecutor.setMaximumPoolSize(threads);
+			}
+		}
+		concurrentIteratorCount = iterators;
+		VariantCallIterator.class.notifyAll();
+	}
+	/**
+	 * Reserves a thread for each background direction pair of an iterator.
+	 *
+	 * The direction pairs of an iterator share a single pass over the evidence so they
+	 * must all be running for any of them to make progress. Iterators are admitted only
+	 * when each of their direction pairs can be allocated a pool thread.
+	 */
+	private static synchronized ExecutorService acquireExecutor() throws InterruptedException {
+		while (activeIteratorCount >= concurrentIteratorCount) {
+			VariantCallIterator.class.wait();
+		}
+		activeIteratorCount++;
+		if (directionExecutor == null) {
+			log.debug(String.format("Using %d direction pair calling threads", concurrentIteratorCount * BACKGROUND_DIRECTIONS));
+			directionExecutor = (ThreadPoolExecutor)Executors.newFixedThreadPool(concurrentIteratorCount * BACKGROUND_DIRECTIONS, new ThreadFactoryBuilder()
+					.setDaemon(true)
+					.setNameFormat("call-%d")
+					.build());
+		}
+		return directionExecutor;
+	}
+	private static synchronized void releaseExecutor() {
+		activeIteratorCount--;
+		VariantCallIterator.class.notifyAll();
+	}
 	public VariantCallIterator(ProcessingContext processContext, Iterable<DirectedEvidence> evidence) throws InterruptedException {
-		this.processContext = processContext;
-		this.idGenerator = new SequentialIdGenerator("gridss");
-		this.iteratorGenerator = () -> evidence.iterator();
-		this.filterInterval = null;
-		this.currentDirectionOrdinal = 0;
-		reinitialiseIterator();
+		this(processContext, evidence.iterator(), "gridss", null, "VariantCallIterator");
 	}
 	public VariantCallIterator(AggregateEvidenceSource source) {
-		this.processContext = source.getContext();
-		this.idGenerator = new SequentialIdGenerator("gridss");
-		this.iteratorGenerator = () -> source.iterator();
-		this.filterInterval = null;
-		this.currentDirectionOrdinal = 0;
-		reinitialiseIterator();
+		this(source.getContext(), source.summaryIterator(), "gridss", null, "VariantCallIterator");
 	}
 	public VariantCallIterator(AggregateEvidenceSource source, QueryInterval[] interval, int intervalNumber) {
-		this.processContext = source.getContext();
-		this.idGenerator = new SequentialIdGenerator(String.format("gridss%d_", intervalNumber));
-		int expandBy = source.getMaxConcordantFragmentSize() + 1;
-		QueryInterval[] expanded = QueryIntervalUtil.padIntervals(processContext.getDictionary(), interval, expandBy);
-		this.iteratorGenerator = () -> source.iterator(expanded);
-		this.filterInterval = interval;
-		this.currentDirectionOrdinal = 0;
-		reinitialiseIterator();
-	}
-	private void reinitialiseIterator() {
-		assert(currentIterator == null || !currentIterator.hasNext());
-		CloserUtil.close(currentIterator);
-		CloserUtil.close(currentUnderlyingIterator);
-		if (currentDirectionOrdinal >= DIRECTION_ORDER.size()) return;
-		currentUnderlyingIterator = iteratorGenerator.get();
-		currentIterator = new MaximalEvidenceCliqueIterator(
-				processContext,
-				currentUnderlyingIterator,
-				DIRECTION_ORDER.get(currentDirectionOrdinal).getLeft(),
-				DIRECTION_ORDER.get(currentDirectionOrdinal).getRight(),
-				idGenerator);
-		if (filterInterval != null) {
-			currentIterator = Iterators.filter(currentIterator, v -> {
-				BreakpointSummary bs = v.getBreakendSummary();
-				return QueryIntervalUtil.overlaps(filterInterval, bs.referenceIndex, bs.start) || 
-						QueryIntervalUtil.overlaps(filterInterval, bs.referenceIndex2, bs.start2);
-			});
+		this(source.getContext(),
+				source.summaryIterator(QueryIntervalUtil.padIntervals(source.getContext().getDictionary(), interval, source.getMaxConcordantFragmentSize() + 1)),
+				String.format("gridss%d_", intervalNumber),
+				interval,
+				String.format("call%d", intervalNumber));
+	}
+	private VariantCallIterator(ProcessingContext processContext, Iterator<DirectedEvidence> evidence, String idPrefix, QueryInterval[] filterInterval, String description) {
+		this.processContext = processContext;
+		this.idGenerator = new SequentialIdGenerator(idPrefix);
+		this.filterInterval = filterInterval;
+		ExecutorService executor;
+		try {
+			executor = acquireExecutor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		// Single pass over the evidence: each breakpoint is routed to the clique calculation of its direction pair
+		this.fanout = new AsyncFanOutIterator<>(evidence, DIRECTION_ORDER.size(), e -> directionOrdinal(e),
+				description + "-input", gridss.Defaults.ASYNC_BUFFERS, gridss.Defaults.ASYNC_BUFFER_SIZE);
+		this.firstDirection = createCliqueIterator(0, idGenerator);
+		for (int i = 1; i < DIRECTION_ORDER.size(); i++) {
+			int ordinal = i;
+			BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+			buffered.add(queue);
+			executor.execute(() -> callDirection(ordinal, queue));
+		}
+	}
+	private MaximalEvidenceCliqueIterator createCliqueIterator(int directionOrdinal, VariantIdGenerator generator) {
+		Pair<BreakendDirection, BreakendDirection> dir = DIRECTION_ORDER.get(directionOrdinal);
+		return new MaximalEvidenceCliqueIterator(processContext, fanout.getOutput(directionOrdinal), dir.getLeft(), dir.getRight(), generator);
+	}
+	/**
+	 * Gets the DIRECTION_ORDER index of the given evidence
+	 * @return direction pair index, -1 if the evidence is not a breakpoint
+	 */
+	private static int directionOrdinal(DirectedEvidence e) {
+		BreakendSummary bs = e.getBreakendSummary();
+		if (!(bs instanceof BreakpointSummary)) return -1;
+		BreakpointSummary bp = (BreakpointSummary)bs;
+		for (int i = 0; i < DIRECTION_ORDER.size(); i++) {
+			if (DIRECTION_ORDER.get(i).getLeft() == bp.direction && DIRECTION_ORDER.get(i).getRight() == bp.direction2) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	private boolean shouldOutput(VariantContextDirectedBreakpoint v) {
+		if (filterInterval == null) return true;
+		BreakpointSummary bs = v.getBreakendSummary();
+		return QueryIntervalUtil.overlaps(filterInterval, bs.referenceIndex, bs.start) ||
+				QueryIntervalUtil.overlaps(filterInterval, bs.referenceIndex2, bs.start2);
+	}
+	/**
+	 * Calls the given direction pair, buffering the calls of each maximal clique.
+	 * Calls are given placeholder identifiers which are replaced when the calls are returned.
+	 */
+	private void callDirection(int directionOrdinal, BlockingQueue<Object> queue) {
+		try {
+			Iterator<VariantContextDirectedBreakpoint> it = createCliqueIterator(directionOrdinal, new SequentialIdGenerator(""));
+			while (!closed && it.hasNext()) {
+				// both breakends of each clique are returned consecutively
+				VariantContextDirectedBreakpoint low = it.next();
+				VariantContextDirectedBreakpoint high = it.next();
+				BufferedEvent event = new BufferedEvent(low.getBreakendSummary());
+				if (shouldOutput(low)) event.calls.add(low);
+				if (shouldOutput(high)) event.calls.add(high);
+				queue.add(event);
+			}
+		} catch (Throwable t) {
+			backgroundException.compareAndSet(null, t);
+			// unblock the other directions
+			fanout.close();
+		} finally {
+			queue.add(EOS);
+			if (backgroundRemaining.decrementAndGet() == 0) {
+				releaseExecutor();
+			}
 		}
 	}
 	@Override
 	public boolean hasNext() {
-		if (currentDirectionOrdinal >= DIRECTION_ORDER.size()) return false;
-		if (!currentIterator.hasNext()) {
-			currentDirectionOrdinal++;
-			reinitialiseIterator();
-			return hasNext();
+		try {
+			while (next == null && !closed) {
+				throwBackgroundException();
+				if (currentEvent.hasNext()) {
+					next = currentEvent.next();
+				} else if (currentDirectionOrdinal == 0) {
+					if (firstDirection.hasNext()) {
+						VariantContextDirectedBreakpoint v = firstDirection.next();
+						if (shouldOutput(v)) {
+							next = v;
+						}
+					} else {
+						currentDirectionOrdinal++;
+					}
+				} else if (currentDirectionOrdinal < DIRECTION_ORDER.size()) {
+					Object o = buffered.get(currentDirectionOrdinal - 1).take();
+					if (o == EOS) {
+						currentDirectionOrdinal++;
+					} else {
+						BufferedEvent event = (BufferedEvent)o;
+						String id = idGenerator.generate(event.breakpoint);
+						List<VariantContextDirectedBreakpoint> calls = new ArrayList<>(event.calls.size());
+						for (VariantContextDirectedBreakpoint v : event.calls) {
+							calls.add(MaximalEvidenceCliqueIterator.withEventId(processContext, v, id));
+						}
+						currentEvent = calls.iterator();
+					}
+				} else {
+					break;
+				}
+			}
+			throwBackgroundException();
+		} catch (InterruptedException e) {
+			close();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (RuntimeException | Error e) {
+			close();
+			throw e;
+		}
+		return next != null;
+	}
+	private void throwBackgroundException() {
+		Throwable t = backgroundException.get();
+		if (t != null) {
+			Throwables.throwIfUnchecked(t);
+			throw new RuntimeException(t);
 		}
-		return true;
 	}
 	@Override
 	public VariantContextDirectedBreakpoint next() {
 		if (!hasNext()) throw new NoSuchElementException();
-		return currentIterator.next();
+		VariantContextDirectedBreakpoint result = next;
+		next = null;
+		return result;
 	}
 	@Override
 	public void close() {
-		CloserUtil.close(currentIterator);
-		CloserUtil.close(currentUnderlyingIterator);
+		if (closed) return;
+		closed = true;
+		next = null;
+		// background direction pairs stop once the fan-out ends their input
+		fanout.close();
+		for (BlockingQueue<Object> queue : buffered) {
+			queue.clear();
+		}
 	}
 }
- 
\ No newline at end of file
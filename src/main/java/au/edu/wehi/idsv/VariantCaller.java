@@ -13,6 +13,8 @@ import com.google.common.util.concurrent.MoreExecutors;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.vcf.VcfFileUtil;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry.Counter;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.Log;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -39,18 +41,20 @@ public class VariantCaller {
 		if (threadpool == null) {
 			threadpool = MoreExecutors.newDirectExecutorService();
 		}
-		AggregateEvidenceSource es = new AggregateEvidenceSource(
-				processContext,
-				processContext.getVariantCallingParameters().callOnlyAssemblies ? Collections.emptyList() : samEvidence, assemblyEvidence);
-		List<QueryInterval[]> chunks = processContext.getReference().getIntervals(processContext.getConfig().chunkSize, processContext.getConfig().chunkSequenceChangePenalty);
+		List<SAMEvidenceSource> evidence = processContext.getVariantCallingParameters().callOnlyAssemblies ? Collections.emptyList() : samEvidence;
+		AggregateEvidenceSource es = new AggregateEvidenceSource(processContext, evidence, assemblyEvidence);
+		AdaptiveChunkScheduler scheduler = AdaptiveChunkScheduler.forVariantCalling(processContext, samEvidence, assemblyEvidence);
+		List<QueryInterval[]> chunks = scheduler.getChunks();
 		List<File> calledChunk = new ArrayList<>();
 		List<Future<Void>> tasks = new ArrayList<>();
-		
 		for (int i = 0; i < chunks.size(); i++) {
+			calledChunk.add(processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, scheduler.getChunkName(i)));
+		}
+		// most expensive chunks first so they are not left running alone at the end
+		for (int i : scheduler.getExecutionOrder()) {
 			QueryInterval[] chunck = chunks.get(i);
-			File f = processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i);
+			File f = calledChunk.get(i);
 			int chunkNumber = i;
-			calledChunk.add(f);
 			if (!f.exists()) {
 				tasks.add(threadpool.submit(() -> { callChunk(f, es, chunkNumber, chunck); return null; }));
 			}
@@ -62,7 +66,8 @@ public class VariantCaller {
 		VcfFileUtil.concat(processContext.getReference().getSequenceDictionary(), calledChunk, mergedOut);
 		
 		log.info("Sorting identified breakpoints");
-		VcfFileUtil.sort(processContext, mergedOut, vcf);
+		// indexed so evidence allocation can process the calls in parallel
+		VcfFileUtil.sort(processContext, mergedOut, vcf, true);
 		// clean up chunked
 		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 			for (File f : calledChunk) {
@@ -97,9 +102,11 @@ public class VariantCaller {
 		try (VariantCallIterator rawit = new VariantCallIterator(es, chunk, chunkNumber)) {
 			try (VariantContextWriter vcfWriter = processContext.getVariantContextWriter(tmp, false)) {
 				log.info("Start ", msg);
+				Counter callCount = MetricsRegistry.Current.records("calling");
 				try (AsyncBufferedIterator<VariantContextDirectedBreakpoint> it = new AsyncBufferedIterator<>(rawit, "VariantCaller " + chunkMsg)) {
 					while (it.hasNext()) {
 						VariantContextDirectedBreakpoint loc = it.next();
+						callCount.inc();
 						if (loc.getBreakendQual() >= processContext.getVariantCallingParameters().minScore || processContext.getVariantCallingParameters().writeFiltered) {
 							// If we're under min score with all possible evidence allocated, we're definitely going to fail
 							// when we restrict evidence to single breakpoint support
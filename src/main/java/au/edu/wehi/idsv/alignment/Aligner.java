@@ -2,10 +2,26 @@ package au.edu.wehi.idsv.alignment;
 
 public interface Aligner {
 	/**
-	 * Performs Smith-Waterman alignment of the given sequence against the given reference 
+	 * Performs Smith-Waterman alignment of the given sequence against the given reference
 	 * @param seq sequence to align
 	 * @param ref reference sequence
 	 * @return Alignment of sequence relative to reference
 	 */
 	public Alignment align_smith_waterman(byte[] seq, byte[] ref);
+	/**
+	 * Performs Smith-Waterman alignment of each sequence against the corresponding reference
+	 * @param seq sequences to align
+	 * @param ref reference sequences. Must be the same length as seq
+	 * @return Alignment of each sequence relative to the corresponding reference
+	 */
+	public default Alignment[] align_smith_waterman(byte[][] seq, byte[][] ref) {
+		if (seq.length != ref.length) {
+			throw new IllegalArgumentException("seq and ref must contain the same number of sequences");
+		}
+		Alignment[] result = new Alignment[seq.length];
+		for (int i = 0; i < seq.length; i++) {
+			result[i] = align_smith_waterman(seq[i], ref[i]);
+		}
+		return result;
+	}
 }
@@ -57,7 +57,7 @@ public class AlignerFactory {
         	}
         }
         if (!sswjniLoaded) {
-        	log.error("Unable to use sswjni library - inexact homology annotation will be very slow. Please ensure libsswjni for your OS and architecture can be found on java.library.path");
+        	log.warn("Unable to use sswjni library - falling back to java Smith-Waterman implementation. Please ensure libsswjni for your OS and architecture can be found on java.library.path");
         }
     }
     private static void unpacksswjni(File destination) throws IOException {
@@ -80,7 +80,7 @@ public class AlignerFactory {
 		if (sswjniLoaded) {
 			return new SswJniAligner(match, mismatch, ambiguous, gapOpen, gapExtend);
 		} else {
-			return new JAlignerAligner(match, mismatch, ambiguous, gapOpen, gapExtend);
+			return new JavaSmithWatermanAligner(match, mismatch, ambiguous, gapOpen, gapExtend);
 		}
 	}
 	public static Aligner create() {
@@ -59,26 +59,44 @@ public class BreakpointHomology {
 		// localSeq           remoteSeq
 		//      >>>>       >>>>
 		//      localRef   remoteRef
-		String localSeq = getAnchorSeq(lookup, bs, refLength);
-		String localBsSeq = getAnchorSeq(lookup, bs, seqLength);
-		String localRef = getAnchorSeq(lookup, advance(bs, refLength), refLength);
-		String remoteSeq = SequenceUtil.reverseComplement(getAnchorSeq(lookup, bs.remoteBreakend(), refLength));
-		String remoteBsSeq = SequenceUtil.reverseComplement(getAnchorSeq(lookup, bs.remoteBreakend(), seqLength));
-		String remoteRef = SequenceUtil.reverseComplement(getAnchorSeq(lookup, advance(bs.remoteBreakend(), refLength), refLength));
-		byte[] breakend = (localBsSeq + insertedSequence + remoteBsSeq).getBytes(StandardCharsets.US_ASCII);
-		byte[] local = (localSeq + localRef).getBytes(StandardCharsets.US_ASCII);
-		byte[] remote = (remoteRef + remoteSeq).getBytes(StandardCharsets.US_ASCII);
-		Aligner aligner = AlignerFactory.create();
+		byte[] localSeq = getAnchorSeq(lookup, bs, refLength);
+		byte[] localBsSeq = getAnchorSeq(lookup, bs, seqLength);
+		byte[] localRef = getAnchorSeq(lookup, advance(bs, refLength), refLength);
+		byte[] remoteSeq = getAnchorSeq(lookup, bs.remoteBreakend(), refLength);
+		byte[] remoteBsSeq = getAnchorSeq(lookup, bs.remoteBreakend(), seqLength);
+		byte[] remoteRef = getAnchorSeq(lookup, advance(bs.remoteBreakend(), refLength), refLength);
+		SequenceUtil.reverseComplement(remoteSeq);
+		SequenceUtil.reverseComplement(remoteBsSeq);
+		SequenceUtil.reverseComplement(remoteRef);
+		byte[] breakend = concat(localBsSeq, insertedSequence.getBytes(StandardCharsets.US_ASCII), remoteBsSeq);
+		byte[] local = concat(localSeq, localRef);
+		byte[] remote = concat(remoteRef, remoteSeq);
 		int localHomologyBaseCount = 0;
 		int remoteHomologyBaseCount = 0;
-		if (breakend != null && breakend.length > 0) {
-			if (local != null && local.length > 0) {
-				Alignment localAlignment = aligner.align_smith_waterman(breakend, local);
-				remoteHomologyBaseCount = remoteBsSeq.length() - SAMRecordUtil.getEndSoftClipLength(TextCigarCodec.decode(localAlignment.getCigar()).getCigarElements());
+		if (breakend.length > 0) {
+			boolean alignLocal = local.length > 0;
+			boolean alignRemote = remote.length > 0;
+			byte[][] seqs = new byte[(alignLocal ? 1 : 0) + (alignRemote ? 1 : 0)][];
+			byte[][] refs = new byte[seqs.length][];
+			int offset = 0;
+			if (alignLocal) {
+				seqs[offset] = breakend;
+				refs[offset] = local;
+				offset++;
 			}
-			if (remote != null && remote.length > 0) {
-				Alignment remoteAlignment = aligner.align_smith_waterman(breakend, remote);
-				localHomologyBaseCount = localBsSeq.length() - SAMRecordUtil.getStartSoftClipLength(TextCigarCodec.decode(remoteAlignment.getCigar()).getCigarElements());
+			if (alignRemote) {
+				seqs[offset] = breakend;
+				refs[offset] = remote;
+			}
+			Alignment[] alignments = AlignerFactory.create().align_smith_waterman(seqs, refs);
+			offset = 0;
+			if (alignLocal) {
+				Alignment localAlignment = alignments[offset++];
+				remoteHomologyBaseCount = remoteBsSeq.length - SAMRecordUtil.getEndSoftClipLength(TextCigarCodec.decode(localAlignment.getCigar()).getCigarElements());
+			}
+			if (alignRemote) {
+				Alignment remoteAlignment = alignments[offset];
+				localHomologyBaseCount = localBsSeq.length - SAMRecordUtil.getStartSoftClipLength(TextCigarCodec.decode(remoteAlignment.getCigar()).getCigarElements());
 			}
 		}
 		return new BreakpointHomology(localHomologyBaseCount, remoteHomologyBaseCount);
@@ -93,7 +111,20 @@ public class BreakpointHomology {
 		}
 		return new BreakendSummary(bs.referenceIndex, bs.direction, bs.nominal + offset, bs.start + offset, bs.end + offset);
 	}
-	private static String getAnchorSeq(final ReferenceLookup lookup, final BreakendSummary bs, final int length) {
+	private static byte[] concat(byte[]... seqs) {
+		int length = 0;
+		for (byte[] b : seqs) {
+			length += b.length;
+		}
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (byte[] b : seqs) {
+			System.arraycopy(b, 0, result, offset, b.length);
+			offset += b.length;
+		}
+		return result;
+	}
+	private static byte[] getAnchorSeq(final ReferenceLookup lookup, final BreakendSummary bs, final int length) {
 		final SAMSequenceRecord refseq = lookup.getSequenceDictionary().getSequence(bs.referenceIndex);
 		int start;
 		int end;
@@ -108,14 +139,14 @@ public class BreakpointHomology {
 		end = Math.min(refseq.getSequenceLength(), end);
 		if (start > end) {
 			// anchor is outside of contig bounds
-			return "";
+			return new byte[0];
 		}
-		byte[] bseq = lookup.getSubsequenceAt(refseq.getSequenceName(), start, end).getBases();
+		byte[] bseq = new byte[end - start + 1];
+		lookup.getBases(bs.referenceIndex, start, bseq, 0, bseq.length);
 		if (bs.direction == BreakendDirection.Backward) {
 			SequenceUtil.reverseComplement(bseq);
 		}
-		String seq = new String(bseq);
-		return seq;
+		return bseq;
 	}
 	public int getLocalHomologyLength() {
 		return localHomologyLength;
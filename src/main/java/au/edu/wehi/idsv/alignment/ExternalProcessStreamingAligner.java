@@ -0,0 +1,318 @@
+package au.edu.wehi.idsv.alignment;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Strings;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * Streams reads to a long-running external aligner process.
+ *
+ * Reads are written in fastq format to the stdin of the aligner and the SAM
+ * records written by the aligner to stdout are parsed on a background thread.
+ *
+ * Aligners such as bwa only start aligning once a full batch of reads has been
+ * received. Since closing stdin would terminate the aligner, queued reads
+ * are flushed through the aligner by padding the current batch with
+ * sequences of Ns which are discarded from the aligner output.
+ * 
+ * The batch boundaries of the aligner are tracked so padding is only written
+ * to complete the current partial batch, and only once the aligner has
+ * returned the alignments of all completed batches. This requires the batch
+ * size of the aligner to be fixed on the command line (bwa mem -K).
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class ExternalProcessStreamingAligner implements StreamingAligner {
+	private static final Log log = Log.getInstance(ExternalProcessStreamingAligner.class);
+	/**
+	 * Number of seconds to wait for the external aligner to shut down
+	 */
+	private static final int SHUTDOWN_GRACE_PERIOD = 10;
+	/**
+	 * Fastq file argument instructing the aligner to read from stdin
+	 */
+	private static final String STDIN = "-";
+	private static final String FLUSH_READ_NAME_PREFIX = "gridss_flush_";
+	private static final int FLUSH_READ_LENGTH = 1000;
+	private static final String FLUSH_READ = "+\n" + Strings.repeat("#", FLUSH_READ_LENGTH) + "\n";
+	private static final String FLUSH_BASES = Strings.repeat("N", FLUSH_READ_LENGTH);
+	/**
+	 * Command line argument specifying the aligner batch size
+	 */
+	private static final String BATCH_SIZE_ARGUMENT = "-K";
+	/**
+	 * Number of milliseconds to wait for an alignment before checking whether the aligner requires flushing
+	 */
+	private static final int POLL_INTERVAL = 100;
+	private final List<String> commandline;
+	private final SamReaderFactory readerFactory;
+	private final File workingDirectory;
+	private final int batchSize;
+	private final BlockingQueue<SAMRecord> buffer = new LinkedBlockingQueue<>();
+	private final AtomicInteger outstanding = new AtomicInteger(0);
+	private final AtomicReference<Throwable> ex = new AtomicReference<Throwable>(null);
+	private Process aligner;
+	private Writer toAligner;
+	private Thread reader;
+	/**
+	 * Number of bases written in the current partial aligner batch
+	 */
+	private long batchBases = 0;
+	/**
+	 * Number of records written in the current partial aligner batch
+	 */
+	private int batchRecords = 0;
+	/**
+	 * Number of queued reads in the current partial aligner batch
+	 */
+	private int batchReads = 0;
+	private boolean flushRequested = false;
+	private int flushReadsWritten = 0;
+	/**
+	 * Creates a new streaming aligner. The aligner process is not started until the first read is queued.
+	 * @param readerFactory SAM reader factory used to parse the aligner output
+	 * @param commandline aligner command line template.
+	 * Java argument formatting is used with %1$s being the fastq file to align,
+	 * %2$s the reference genome, and %3$d the number of threads to use.
+	 * @param reference reference genome
+	 * @param threads number of aligner threads
+	 * @param batchSize number of bases the aligner reads before aligning a batch of reads.
+	 * Must match the batch size specified on the command line.
+	 */
+	public ExternalProcessStreamingAligner(
+			final SamReaderFactory readerFactory,
+			final List<String> commandline,
+			final File reference,
+			final int threads,
+			final int batchSize) {
+		this.readerFactory = readerFactory;
+		this.commandline = commandline.stream()
+				.map(s -> String.format(s, STDIN, reference.getAbsolutePath(), threads))
+				.collect(Collectors.toList());
+		this.workingDirectory = reference.getAbsoluteFile().getParentFile();
+		this.batchSize = batchSize;
+		long commandLineBatchSize = getBatchSize(this.commandline);
+		if (commandLineBatchSize != batchSize) {
+			throw new IllegalArgumentException(String.format(
+					"Streaming alignment requires the aligner batch size to be specified with %s %d. Aligner command line: \"%s\"",
+					BATCH_SIZE_ARGUMENT, batchSize, this.commandline.stream().collect(Collectors.joining(" "))));
+		}
+	}
+	/**
+	 * Gets the aligner batch size specified on the given command line
+	 * @param commandline aligner command line
+	 * @return batch size, -1 if the batch size is not specified
+	 */
+	public static long getBatchSize(List<String> commandline) {
+		for (int i = 0; i < commandline.size(); i++) {
+			String arg = commandline.get(i);
+			String value = null;
+			if (arg.equals(BATCH_SIZE_ARGUMENT) && i + 1 < commandline.size()) {
+				value = commandline.get(i + 1);
+			} else if (arg.startsWith(BATCH_SIZE_ARGUMENT) && arg.length() > BATCH_SIZE_ARGUMENT.length()) {
+				value = arg.substring(BATCH_SIZE_ARGUMENT.length());
+			}
+			if (value != null) {
+				try {
+					return Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+	private void ensureStarted() throws IOException {
+		if (aligner != null) return;
+		log.info("Starting external aligner");
+		log.info(commandline.stream().collect(Collectors.joining(" ")));
+		aligner = new ProcessBuilder(commandline)
+				.redirectError(Redirect.INHERIT)
+				.directory(workingDirectory)
+				.start();
+		toAligner = new BufferedWriter(new OutputStreamWriter(aligner.getOutputStream(), StandardCharsets.US_ASCII));
+		reader = new Thread(() -> readAlignerOutput(), "ExternalProcessStreamingAligner");
+		reader.setDaemon(true);
+		reader.start();
+	}
+	private void readAlignerOutput() {
+		try (SamReader samReader = readerFactory.open(SamInputResource.of(aligner.getInputStream()))) {
+			for (SAMRecord r : samReader) {
+				if (r.getReadName().startsWith(FLUSH_READ_NAME_PREFIX)) continue;
+				buffer.put(r);
+				if (!r.getNotPrimaryAlignmentFlag() && !r.getSupplementaryAlignmentFlag()) {
+					outstanding.decrementAndGet();
+				}
+			}
+		} catch (Throwable t) {
+			ex.set(t);
+		}
+	}
+	private void throwOnCallingThread() {
+		final Throwable t = this.ex.get();
+		if (t != null) {
+			if (t instanceof Error) throw (Error) t;
+			if (t instanceof RuntimeException) throw (RuntimeException) t;
+			else throw new RuntimeException(t);
+		}
+	}
+	@Override
+	public synchronized void asyncAlign(FastqRecord fq) throws IOException {
+		throwOnCallingThread();
+		ensureStarted();
+		outstanding.incrementAndGet();
+		toAligner.write('@');
+		toAligner.write(fq.getReadHeader());
+		toAligner.write('\n');
+		toAligner.write(fq.getReadString());
+		toAligner.write("\n+\n");
+		toAligner.write(fq.getBaseQualityString());
+		toAligner.write('\n');
+		batchReads++;
+		onRecordWritten(fq.getReadString().length());
+	}
+	/**
+	 * Tracks the batch boundaries of the aligner.
+	 * bwa completes a batch once at least batchSize bases and an even number of reads have been read.
+	 */
+	private void onRecordWritten(int bases) {
+		batchBases += bases;
+		batchRecords++;
+		if (batchBases >= batchSize && batchRecords % 2 == 0) {
+			batchBases = 0;
+			batchRecords = 0;
+			batchReads = 0;
+		}
+	}
+	/**
+	 * Requests that the current partial batch be flushed through the aligner.
+	 * Padding is deferred until the caller is waiting for an alignment that
+	 * will not be returned without it. 
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		throwOnCallingThread();
+		if (aligner == null) return;
+		toAligner.flush();
+		flushRequested = batchReads > 0;
+	}
+	/**
+	 * Pads the current partial batch if a flush has been requested and
+	 * the aligner has returned the alignments of all completed batches.
+	 */
+	private synchronized void flushIfBlocked() throws IOException {
+		if (!flushRequested) return;
+		if (batchReads == 0) {
+			// batch has been completed by reads queued since the flush request
+			flushRequested = false;
+			return;
+		}
+		if (outstanding.get() > batchReads) {
+			// aligner is still processing a completed batch
+			return;
+		}
+		while (batchReads > 0) {
+			toAligner.write('@');
+			toAligner.write(FLUSH_READ_NAME_PREFIX);
+			toAligner.write(Integer.toString(flushReadsWritten++));
+			toAligner.write('\n');
+			toAligner.write(FLUSH_BASES);
+			toAligner.write('\n');
+			toAligner.write(FLUSH_READ);
+			onRecordWritten(FLUSH_READ_LENGTH);
+		}
+		toAligner.flush();
+		flushRequested = false;
+	}
+	/**
+	 * Number of padding reads written to the aligner
+	 */
+	synchronized int getFlushReadsWritten() {
+		return flushReadsWritten;
+	}
+	@Override
+	public int outstandingAlignmentRecord() {
+		return outstanding.get();
+	}
+	@Override
+	public boolean hasAlignmentRecord() {
+		throwOnCallingThread();
+		return !buffer.isEmpty();
+	}
+	@Override
+	public SAMRecord getAlignment() {
+		try {
+			while (true) {
+				SAMRecord r = buffer.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if (r != null) return r;
+				throwOnCallingThread();
+				flushIfBlocked();
+				if (reader == null || (!reader.isAlive() && buffer.isEmpty())) {
+					throw new IllegalStateException(String.format("External aligner terminated with %d reads outstanding", outstanding.get()));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+	@Override
+	public synchronized void close() throws IOException {
+		if (aligner == null) return;
+		if (outstanding.get() > 0) {
+			log.warn(String.format("Closing external aligner with %d reads outstanding", outstanding.get()));
+		}
+		try {
+			toAligner.close();
+			reader.join();
+			aligner.waitFor(SHUTDOWN_GRACE_PERIOD, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			// Restore the interrupted status
+			Thread.currentThread().interrupt();
+		} finally {
+			CloserUtil.close(aligner.getInputStream());
+		}
+		if (aligner.isAlive()) {
+			log.error("External process still alive after alignment");
+			aligner.destroy();
+			return;
+		}
+		if (aligner.exitValue() != 0) {
+			String msg = String.format(
+					"Subprocess terminated with with exit status %1$d. "
+					+ "Alignment failed executing \"%2$s\". "
+					+ "Can you run the alignment command from the command line? "
+					+ "Is the aligner on PATH? "
+					+ "Does the aligner support reading from stdin?",
+					aligner.exitValue(),
+					commandline.stream().collect(Collectors.joining(" ")));
+			log.error(msg);
+			throw new RuntimeException(msg);
+		}
+	}
+}
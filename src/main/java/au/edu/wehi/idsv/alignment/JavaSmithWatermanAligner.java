@@ -0,0 +1,214 @@
+package au.edu.wehi.idsv.alignment;
+
+import htsjdk.samtools.util.SequenceUtil;
+
+/**
+ * Pure java Smith-Waterman-Gotoh local aligner with affine gap penalties.
+ *
+ * Scores are calculated one query row at a time using primitive arrays that
+ * are reused across alignments on the same thread, and traceback is performed
+ * from a packed single byte per cell traceback matrix.
+ *
+ * This aligner is used when the sswjni library is not available.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class JavaSmithWatermanAligner implements Aligner {
+	private static final int MATRIX_SIZE = 128;
+	private static final int NEG_INF = Integer.MIN_VALUE / 2;
+	private static final byte DIR_NONE = 0;
+	private static final byte DIR_DIAG = 1;
+	private static final byte DIR_E = 2;
+	private static final byte DIR_F = 3;
+	private static final byte DIR_MASK = 3;
+	private static final byte E_EXTEND = 4;
+	private static final byte F_EXTEND = 8;
+	private final int gapOpen;
+	private final int gapExtend;
+	private final int[][] matrix;
+	private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(() -> new Buffers());
+	private static class Buffers {
+		private int[] h = new int[0];
+		private int[] f = new int[0];
+		private byte[] traceback = new byte[0];
+		private char[] ops = new char[0];
+		private void ensureCapacity(int queryLength, int refLength) {
+			if (h.length < refLength + 1) {
+				h = new int[refLength + 1];
+				f = new int[refLength + 1];
+			}
+			int cells = (queryLength + 1) * (refLength + 1);
+			if (traceback.length < cells) {
+				traceback = new byte[cells];
+			}
+			if (ops.length < queryLength + refLength) {
+				ops = new char[queryLength + refLength];
+			}
+		}
+	}
+	/**
+	 * Creates a new aligner
+	 * @param match match score
+	 * @param mismatch mismatch score
+	 * @param ambiguous score of any base that is not A, C, G, nor T
+	 * @param gapOpen penalty of the first base of a gap
+	 * @param gapExtend penalty of each subsequent base of a gap
+	 */
+	public JavaSmithWatermanAligner(int match, int mismatch, int ambiguous, int gapOpen, int gapExtend) {
+		this.gapOpen = gapOpen;
+		this.gapExtend = gapExtend;
+		this.matrix = createMatrix(match, mismatch, ambiguous);
+	}
+	private static int[][] createMatrix(int match, int mismatch, int ambiguous) {
+		int[][] scores = new int[MATRIX_SIZE][MATRIX_SIZE];
+		for (int i = 0; i < MATRIX_SIZE; i++) {
+			for (int j = 0; j < MATRIX_SIZE; j++) {
+				if (Character.toUpperCase(i) == Character.toUpperCase(j)) {
+					scores[i][j] = match;
+				} else if (SequenceUtil.isValidBase((byte) i) && SequenceUtil.isValidBase((byte) j)) {
+					scores[i][j] = mismatch;
+				} else {
+					scores[i][j] = ambiguous;
+				}
+			}
+		}
+		return scores;
+	}
+	@Override
+	public Alignment align_smith_waterman(byte[] seq, byte[] ref) {
+		if (seq == null || seq.length == 0) {
+			throw new IllegalArgumentException("seq must be non-zero size");
+		}
+		if (ref == null || ref.length == 0) {
+			throw new IllegalArgumentException("ref must be non-zero size");
+		}
+		Buffers buf = buffers.get();
+		buf.ensureCapacity(seq.length, ref.length);
+		final int m = ref.length;
+		final int width = m + 1;
+		final int[] h = buf.h;
+		final int[] f = buf.f;
+		final byte[] tb = buf.traceback;
+		for (int j = 0; j <= m; j++) {
+			h[j] = 0;
+			f[j] = NEG_INF;
+			tb[j] = DIR_NONE;
+		}
+		int bestScore = 0;
+		int bestQueryEnd = -1;
+		int bestRefEnd = -1;
+		for (int i = 1; i <= seq.length; i++) {
+			final int[] scoreRow = matrix[seq[i - 1] & 0x7f];
+			int diagH = h[0]; // H[i-1][j-1]
+			int leftH = 0; // H[i][j-1]
+			int e = NEG_INF;
+			int rowOffset = i * width;
+			tb[rowOffset] = DIR_NONE;
+			h[0] = 0;
+			for (int j = 1; j <= m; j++) {
+				byte dir = 0;
+				// E: gap in sequence (deletion)
+				int eOpen = leftH - gapOpen;
+				int eExtend = e - gapExtend;
+				if (eExtend > eOpen) {
+					e = eExtend;
+					dir |= E_EXTEND;
+				} else {
+					e = eOpen;
+				}
+				// F: gap in reference (insertion)
+				int upH = h[j];
+				int fOpen = upH - gapOpen;
+				int fExtend = f[j] - gapExtend;
+				int fj;
+				if (fExtend > fOpen) {
+					fj = fExtend;
+					dir |= F_EXTEND;
+				} else {
+					fj = fOpen;
+				}
+				f[j] = fj;
+				int score = diagH + scoreRow[ref[j - 1] & 0x7f];
+				byte source = DIR_DIAG;
+				if (e > score) {
+					score = e;
+					source = DIR_E;
+				}
+				if (fj > score) {
+					score = fj;
+					source = DIR_F;
+				}
+				if (score <= 0) {
+					score = 0;
+					source = DIR_NONE;
+				}
+				tb[rowOffset + j] = (byte)(dir | source);
+				diagH = upH;
+				h[j] = score;
+				leftH = score;
+				// ties are resolved to the first cell in reference-major order to
+				// match the alignment reported by the other aligner implementations
+				if (score > bestScore || (score == bestScore && score > 0 && j < bestRefEnd)) {
+					bestScore = score;
+					bestQueryEnd = i;
+					bestRefEnd = j;
+				}
+			}
+		}
+		if (bestScore == 0) {
+			// no bases aligned
+			return new Alignment(0, Integer.toString(seq.length) + "S");
+		}
+		return traceback(buf, seq.length, width, bestQueryEnd, bestRefEnd);
+	}
+	private static Alignment traceback(Buffers buf, int queryLength, int width, int queryEnd, int refEnd) {
+		final byte[] tb = buf.traceback;
+		final char[] ops = buf.ops;
+		int opCount = 0;
+		int i = queryEnd;
+		int j = refEnd;
+		byte state = DIR_NONE;
+		while (i > 0 && j > 0) {
+			byte cell = tb[i * width + j];
+			if (state == DIR_E) {
+				ops[opCount++] = 'D';
+				state = (cell & E_EXTEND) != 0 ? DIR_E : DIR_NONE;
+				j--;
+			} else if (state == DIR_F) {
+				ops[opCount++] = 'I';
+				state = (cell & F_EXTEND) != 0 ? DIR_F : DIR_NONE;
+				i--;
+			} else {
+				byte source = (byte)(cell & DIR_MASK);
+				if (source == DIR_NONE) break;
+				if (source == DIR_DIAG) {
+					ops[opCount++] = 'M';
+					i--;
+					j--;
+				} else {
+					state = source;
+				}
+			}
+		}
+		StringBuilder cigar = new StringBuilder();
+		if (i > 0) {
+			cigar.append(i).append('S');
+		}
+		// ops were written in reverse order
+		int k = opCount - 1;
+		while (k >= 0) {
+			char op = ops[k];
+			int length = 0;
+			while (k >= 0 && ops[k] == op) {
+				length++;
+				k--;
+			}
+			cigar.append(length).append(op);
+		}
+		if (queryEnd < queryLength) {
+			cigar.append(queryLength - queryEnd).append('S');
+		}
+		return new Alignment(j, cigar.toString());
+	}
+}
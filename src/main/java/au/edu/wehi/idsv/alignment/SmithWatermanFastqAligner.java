@@ -3,9 +3,9 @@ package au.edu.wehi.idsv.alignment;
 import java.io.File;
 import java.io.IOException;
 
+import au.edu.wehi.idsv.sam.ParallelSAMFileWriterFactory;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
-import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMUtils;
 import htsjdk.samtools.fastq.FastqReader;
@@ -31,7 +31,7 @@ public class SmithWatermanFastqAligner implements FastqAligner {
 			header.setSequenceDictionary(ref.getSequenceDictionary());
 			byte[] bases = ref.getSequence(ref.getSequenceDictionary().getSequence(referenceIndex).getSequenceName()).getBases();
 			try (FastqReader reader = new FastqReader(fastq)) {
-				try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, output)) {
+				try (SAMFileWriter writer = new ParallelSAMFileWriterFactory().makeSAMOrBAMWriter(header, true, output)) {
 					for (FastqRecord fqr : reader) {
 						Alignment aln = aligner.align_smith_waterman(fqr.getReadString().getBytes(), bases);
 						SAMRecord r = new SAMRecord(header);
@@ -0,0 +1,63 @@
+package au.edu.wehi.idsv.alignment;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMUtils;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+
+/**
+ * Performs full Smith-Waterman align across an entire chromosome. Only suitable for very small chromosomes.
+ *
+ * Reads are aligned synchronously when queued.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class SmithWatermanStreamingAligner implements StreamingAligner {
+	private final Aligner aligner;
+	private final int referenceIndex;
+	private final SAMFileHeader header;
+	private final byte[] bases;
+	private final Queue<SAMRecord> buffer = new ArrayDeque<>();
+	public SmithWatermanStreamingAligner(Aligner aligner, ReferenceSequenceFile reference, int referenceIndex) {
+		this.aligner = aligner;
+		this.referenceIndex = referenceIndex;
+		this.header = new SAMFileHeader();
+		this.header.setSequenceDictionary(reference.getSequenceDictionary());
+		this.bases = reference.getSequence(reference.getSequenceDictionary().getSequence(referenceIndex).getSequenceName()).getBases();
+	}
+	@Override
+	public void asyncAlign(FastqRecord fqr) {
+		Alignment aln = aligner.align_smith_waterman(fqr.getReadString().getBytes(), bases);
+		SAMRecord r = new SAMRecord(header);
+		r.setReadName(fqr.getReadHeader());
+		r.setReferenceIndex(referenceIndex);
+		r.setAlignmentStart(aln.getStartPosition() + 1);
+		r.setCigarString(aln.getCigar());
+		r.setReadBases(fqr.getReadString().getBytes());
+		r.setBaseQualities(SAMUtils.fastqToPhred(fqr.getBaseQualityString()));
+		buffer.add(r);
+	}
+	@Override
+	public void flush() {
+	}
+	@Override
+	public int outstandingAlignmentRecord() {
+		return 0;
+	}
+	@Override
+	public boolean hasAlignmentRecord() {
+		return !buffer.isEmpty();
+	}
+	@Override
+	public SAMRecord getAlignment() {
+		return buffer.poll();
+	}
+	@Override
+	public void close() {
+	}
+}
@@ -62,6 +62,30 @@ public class SswJniAligner implements Aligner {
 	private synchronized Alignment sync_do_align_smith_waterman(byte[] seq, byte[] ref) {
 		return do_align_smith_waterman(seq, ref);
 	}
+	@Override
+	public Alignment[] align_smith_waterman(byte[][] seq, byte[][] ref) {
+		if (seq.length != ref.length) {
+			throw new IllegalArgumentException("seq and ref must contain the same number of sequences");
+		}
+		if (Defaults.SINGLE_THREAD_LIBSSW) {
+			return sync_do_align_smith_waterman(seq, ref);
+		} else {
+			return do_align_smith_waterman(seq, ref);
+		}
+	}
+	private Alignment[] do_align_smith_waterman(byte[][] seq, byte[][] ref) {
+		Alignment[] result = new Alignment[seq.length];
+		for (int i = 0; i < seq.length; i++) {
+			result[i] = do_align_smith_waterman(seq[i], ref[i]);
+		}
+		return result;
+	}
+	/**
+	 * Aligns the entire batch with a single lock acquisition
+	 */
+	private synchronized Alignment[] sync_do_align_smith_waterman(byte[][] seq, byte[][] ref) {
+		return do_align_smith_waterman(seq, ref);
+	}
 	/**
 	 * Converts all non-reference bases to Ns
 	 * so we don't crash the JVM if an unexpected character is encountered
@@ -69,6 +93,9 @@ public class SswJniAligner implements Aligner {
 	 * @return equivalent sequence containing only ACGTN
 	 */
 	private static byte[] clean(final byte[] seq) {
+		if (seq == null || isClean(seq)) {
+			return seq;
+		}
 		byte[] s = htsjdk.samtools.util.SequenceUtil.upperCase(Arrays.copyOf(seq,  seq.length));
 		for (int i = 0; i < seq.length; i++) {
 			if (!htsjdk.samtools.util.SequenceUtil.isValidBase(s[i])) {
@@ -77,4 +104,23 @@ public class SswJniAligner implements Aligner {
 		}
 		return s;
 	}
+	/**
+	 * Determines whether the sequence consists only of upper case ACGTN
+	 * thus can be passed to the native library as is.
+	 */
+	private static boolean isClean(final byte[] seq) {
+		for (int i = 0; i < seq.length; i++) {
+			switch (seq[i]) {
+				case 'A':
+				case 'C':
+				case 'G':
+				case 'T':
+				case 'N':
+					break;
+				default:
+					return false;
+			}
+		}
+		return true;
+	}
 }
@@ -0,0 +1,45 @@
+package au.edu.wehi.idsv.alignment;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+
+/**
+ * Aligner that aligns reads as they are streamed to it.
+ * 
+ * Alignments are returned in the order in which the reads were supplied.
+ * 
+ * @author Daniel Cameron
+ *
+ */
+public interface StreamingAligner extends Closeable {
+	/**
+	 * Queues the given read for alignment
+	 * @param fq read to align
+	 */
+	void asyncAlign(FastqRecord fq) throws IOException;
+	/**
+	 * Ensures that alignments for all queued reads will be returned
+	 * without requiring any additional reads to be queued.
+	 */
+	void flush() throws IOException;
+	/**
+	 * Number of queued reads for which a primary alignment record has not yet been returned
+	 * @return number of outstanding reads
+	 */
+	int outstandingAlignmentRecord();
+	/**
+	 * Determines whether an alignment record can be returned without blocking
+	 * @return true if an alignment record is available, false otherwise
+	 */
+	boolean hasAlignmentRecord();
+	/**
+	 * Returns the next alignment record. Secondary and supplementary alignment
+	 * records reported by the aligner are also returned.
+	 * Blocks until an alignment record is available.
+	 * @return alignment record
+	 */
+	SAMRecord getAlignment();
+}
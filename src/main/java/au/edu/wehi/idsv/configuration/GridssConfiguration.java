@@ -67,6 +67,15 @@ public class GridssConfiguration {
 	 * from a single reference sequence.
 	 */
 	public int chunkSequenceChangePenalty;
+	/**
+	 * Chunks with an estimated processing cost exceeding this multiple of the mean
+	 * chunk cost are split into smaller chunks. Zero disables chunk splitting.
+	 */
+	public double chunkSplitCostMultiple;
+	/**
+	 * Minimum number of bases in a chunk created by splitting a high cost chunk.
+	 */
+	public int minChunkSize;
 	/**
 	 * Remove the assembly contribution of a multimapping read from all location except the mapping location with the best assembly
 	 */
@@ -87,6 +96,11 @@ public class GridssConfiguration {
 	 * Use a hashed evidenceID to save space and prevent read names exceeding the 254 character limit imposed by BAM 
 	 */
 	public boolean hashEvidenceID;
+	/**
+	 * Stream soft clipped bases directly to the external aligner when identifying split reads
+	 * instead of writing intermediate fastq and BAM files for each realignment iteration
+	 */
+	public boolean alignerStreaming;
 	public AssemblyConfiguration getAssembly() {
 		return assembly;
 	}
@@ -128,11 +142,14 @@ public class GridssConfiguration {
 		terminateOnFirstError = config.getBoolean("terminateOnFirstError");
 		chunkSize = config.getInt("chunkSize");
 		chunkSequenceChangePenalty = config.getInt("chunkSequenceChangePenalty");
+		chunkSplitCostMultiple = config.getDouble("chunkSplitCostMultiple");
+		minChunkSize = config.getInt("minChunkSize");
 		multimappingUniqueAssemblyAllocation = config.getBoolean("multimappingUniqueAssemblyAllocation");
 		multimappingUniqueVariantAllocation = config.getBoolean("multimappingUniqueVariantAllocation");
 		multimapping = config.getBoolean("multimapping");
 		useReadGroupSampleNameCategoryLabel = config.getBoolean("useReadGroupSampleNameCategoryLabel");
 		hashEvidenceID = config.getBoolean("hashEvidenceID");
+		alignerStreaming = config.getBoolean("alignerStreaming");
 	}
 	public static Configuration LoadConfiguration(File configuration) throws ConfigurationException {
 		CompositeConfiguration config = new CompositeConfiguration();
@@ -6,7 +6,7 @@ import java.util.List;
 
 import com.google.common.primitives.Bytes;
 
-import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 
 
 public class KmerEncodingHelper {
@@ -294,7 +294,7 @@ public class KmerEncodingHelper {
 	 * Sums base counts for the given sequence
 	 * @return
 	 */
-	public static int[] baseCounts(int k, LongArrayList path) {
+	public static int[] baseCounts(int k, LongList path) {
 		int[] counts = new int[4];
 		long startKmer = path.getLong(0);
 		for (int i = 0; i < k; i++) {
@@ -319,7 +319,7 @@ public class KmerEncodingHelper {
 	 * which both sequences are defined are compared 
 	 * @return number of bases different
 	 */
-	public static int partialSequenceBasesDifferent(int k, LongArrayList ref, LongArrayList kmers, int offset, boolean startAnchored) {
+	public static int partialSequenceBasesDifferent(int k, LongList ref, LongList kmers, int offset, boolean startAnchored) {
 		int basesDiff = 0;
 		if (startAnchored) {
 			if (offset == 0) {
@@ -0,0 +1,287 @@
+package au.edu.wehi.idsv.debruijn;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.longs.AbstractLongList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+
+/**
+ * Sequence of kmers in which each kmer is the successor of the previous kmer.
+ *
+ * Only the first kmer is stored in full. Subsequent kmers are stored as their final
+ * base in 2-bit packed form and are derived on demand. Kmers that are not
+ * the successor of the preceeding kmer, or paths with an unknown kmer size,
+ * fall back to storing every kmer explicitly.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class PackedKmerPath {
+	private static final int BITS_PER_BASE = 2;
+	private static final int BASES_PER_WORD = Long.SIZE / BITS_PER_BASE;
+	private static final int ARRAY_SHIFT = Long.SIZE - 1 - Long.numberOfLeadingZeros(BASES_PER_WORD);
+	private static final int ARRAY_OFFSET_MASK = (1 << ARRAY_SHIFT) - 1;
+	private static final long BASE_MASK = (1 << BITS_PER_BASE) - 1;
+	private static final long[] EMPTY = new long[0];
+	/**
+	 * Kmer size. 0 indicates unknown kmer size
+	 */
+	private final int k;
+	private final long kmerMask;
+	private long firstKmer;
+	/**
+	 * Final base of each kmer after the first.
+	 * First base is packed in MSB of first word
+	 */
+	private long[] packed = EMPTY;
+	private int size = 0;
+	/**
+	 * Explicit kmers. null when the path is packed
+	 */
+	private LongArrayList explicit = null;
+	/**
+	 * Creates an empty path
+	 * @param k kmer size. Use 0 if kmer size is not known.
+	 */
+	public PackedKmerPath(int k) {
+		if (k < 0 || k > KmerEncodingHelper.MAX_K) throw new IllegalArgumentException(String.format("Invalid kmer size %d", k));
+		this.k = k;
+		this.kmerMask = k == KmerEncodingHelper.MAX_K ? -1L : (1L << (BITS_PER_BASE * k)) - 1;
+		if (k == 0) {
+			explicit = new LongArrayList(1);
+		}
+	}
+	public PackedKmerPath(PackedKmerPath path) {
+		this.k = path.k;
+		this.kmerMask = path.kmerMask;
+		this.firstKmer = path.firstKmer;
+		this.size = path.size;
+		if (path.explicit != null) {
+			this.explicit = path.explicit.clone();
+		} else {
+			this.packed = Arrays.copyOf(path.packed, wordsRequired(size));
+		}
+	}
+	public int k() {
+		return k;
+	}
+	public int size() {
+		return explicit != null ? explicit.size() : size;
+	}
+	/**
+	 * Indicates whether the path is stored in 2-bit packed form
+	 */
+	public boolean isPacked() {
+		return explicit == null;
+	}
+	public long get(int offset) {
+		if (explicit != null) return explicit.getLong(offset);
+		if (offset < 0 || offset >= size) throw new IndexOutOfBoundsException(Integer.toString(offset));
+		if (offset == 0) return firstKmer;
+		int baseCount = Math.min(offset, k);
+		long kmer = getBases(offset - baseCount, baseCount);
+		if (baseCount < k) {
+			kmer |= (firstKmer << (BITS_PER_BASE * baseCount)) & kmerMask;
+		}
+		return kmer;
+	}
+	public long last() {
+		return get(size() - 1);
+	}
+	public void add(long kmer) {
+		if (explicit != null) {
+			explicit.add(kmer);
+		} else if (size == 0) {
+			firstKmer = kmer;
+			size = 1;
+		} else if (KmerEncodingHelper.isNext(k, last(), kmer)) {
+			ensureCapacity(size);
+			setBase(size - 1, kmer & BASE_MASK);
+			size++;
+		} else {
+			unpack();
+			explicit.add(kmer);
+		}
+	}
+	public void addAll(PackedKmerPath path) {
+		for (int i = 0; i < path.size(); i++) {
+			add(path.get(i));
+		}
+	}
+	/**
+	 * Removes all kmers at or after the given offset
+	 * @param length new path length
+	 */
+	public void truncate(int length) {
+		assert(length <= size());
+		if (explicit != null) {
+			explicit.removeElements(length, explicit.size());
+		} else {
+			size = length;
+			int baseCount = Math.max(0, size - 1);
+			int lastWord = baseCount >> ARRAY_SHIFT;
+			if (lastWord < packed.length) {
+				int basesInLastWord = baseCount & ARRAY_OFFSET_MASK;
+				// clear trailing bases so packed words can be compared directly
+				packed[lastWord] &= basesInLastWord == 0 ? 0 : -1L << (BITS_PER_BASE * (BASES_PER_WORD - basesInLastWord));
+				Arrays.fill(packed, lastWord + 1, packed.length, 0);
+			}
+		}
+	}
+	/**
+	 * Removes the kmer at the given offset
+	 */
+	public void remove(int offset) {
+		if (explicit != null) {
+			explicit.remove(offset);
+		} else if (offset == size - 1) {
+			truncate(offset);
+		} else {
+			PackedKmerPath path = new PackedKmerPath(k);
+			for (int i = 0; i < size; i++) {
+				if (i != offset) {
+					path.add(get(i));
+				}
+			}
+			firstKmer = path.firstKmer;
+			packed = path.packed;
+			size = path.size;
+			explicit = path.explicit;
+		}
+	}
+	/**
+	 * Returns a new path containing the given subsequence of this path
+	 * @param from starting offset (inclusive)
+	 * @param to ending offset (exclusive)
+	 */
+	public PackedKmerPath subPath(int from, int to) {
+		PackedKmerPath path = new PackedKmerPath(k);
+		if (explicit != null) {
+			path.explicit = new LongArrayList(explicit.subList(from, to));
+		} else {
+			if (to > from) {
+				path.ensureCapacity(to - from - 1);
+				path.firstKmer = get(from);
+				for (int i = from + 1; i < to; i++) {
+					path.setBase(i - from - 1, getBases(i - 1, 1));
+				}
+			}
+			path.size = Math.max(0, to - from);
+		}
+		return path;
+	}
+	/**
+	 * Returns the kmers of this path as an unpacked list
+	 * @return copy of the kmers in this path
+	 */
+	public LongArrayList toLongArrayList() {
+		if (explicit != null) return explicit.clone();
+		LongArrayList list = new LongArrayList(size);
+		for (int i = 0; i < size; i++) {
+			list.add(get(i));
+		}
+		return list;
+	}
+	/**
+	 * Returns a read-only view of the kmers of this path.
+	 * Kmers are unpacked on access and the view reflects subsequent changes to this path.
+	 * @return kmers in this path
+	 */
+	public LongList asList() {
+		return new AbstractLongList() {
+			@Override
+			public long getLong(int index) {
+				return PackedKmerPath.this.get(index);
+			}
+			@Override
+			public int size() {
+				return PackedKmerPath.this.size();
+			}
+		};
+	}
+	private void unpack() {
+		explicit = toLongArrayList();
+		packed = EMPTY;
+		size = 0;
+	}
+	private static int wordsRequired(int kmerCount) {
+		return ((Math.max(0, kmerCount - 1)) + BASES_PER_WORD - 1) >> ARRAY_SHIFT;
+	}
+	private void ensureCapacity(int baseCount) {
+		int words = (baseCount >> ARRAY_SHIFT) + 1;
+		if (words > packed.length) {
+			packed = Arrays.copyOf(packed, Math.max(words, packed.length + (packed.length >> 1)));
+		}
+	}
+	private void setBase(final int offset, final long base) {
+		int wordIndex = offset >> ARRAY_SHIFT;
+		int wordOffset = BASES_PER_WORD - 1 - (offset & ARRAY_OFFSET_MASK);
+		long word = packed[wordIndex];
+		word &= ~(BASE_MASK << (BITS_PER_BASE * wordOffset));
+		word |= base << (BITS_PER_BASE * wordOffset);
+		packed[wordIndex] = word;
+	}
+	private long getWordBases(final int wordIndex, final int highBaseIgnoreCount, final int lowBaseIgnoreCount) {
+		long word = packed[wordIndex];
+		word <<= BITS_PER_BASE * highBaseIgnoreCount; // force high bases off the top
+		word >>>= BITS_PER_BASE * (highBaseIgnoreCount + lowBaseIgnoreCount); // and low off the bottom
+		return word;
+	}
+	/**
+	 * Gets the given packed bases
+	 * @param offset offset of first base
+	 * @param length number of bases. Must be between 1 and 32 inclusive
+	 * @return bases encoded in the LSBs
+	 */
+	private long getBases(final int offset, final int length) {
+		int wordIndex = offset >> ARRAY_SHIFT;
+		int basesToSkipInWord = offset & ARRAY_OFFSET_MASK;
+		int basesRemaining = BASES_PER_WORD - basesToSkipInWord;
+		if (length <= basesRemaining) {
+			return getWordBases(wordIndex, basesToSkipInWord, basesRemaining - length);
+		} else {
+			int lengthInNextWord = length - basesRemaining;
+			long bases = getWordBases(wordIndex, basesToSkipInWord, 0);
+			bases <<= lengthInNextWord * BITS_PER_BASE;
+			bases |= getWordBases(wordIndex + 1, 0, BASES_PER_WORD - lengthInNextWord);
+			return bases;
+		}
+	}
+	@Override
+	public int hashCode() {
+		int s = size();
+		if (s == 0) return 0;
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + s;
+		result = prime * result + Long.hashCode(get(0));
+		result = prime * result + Long.hashCode(get(s - 1));
+		return result;
+	}
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		PackedKmerPath other = (PackedKmerPath) obj;
+		int s = size();
+		if (s != other.size())
+			return false;
+		if (explicit == null && other.explicit == null && k == other.k) {
+			if (s == 0) return true;
+			if (firstKmer != other.firstKmer) return false;
+			for (int i = wordsRequired(s) - 1; i >= 0; i--) {
+				if (packed[i] != other.packed[i]) return false;
+			}
+			return true;
+		}
+		for (int i = 0; i < s; i++) {
+			if (get(i) != other.get(i)) return false;
+		}
+		return true;
+	}
+}
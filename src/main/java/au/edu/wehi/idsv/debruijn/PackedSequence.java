@@ -24,6 +24,7 @@ public class PackedSequence {
 	private final int baseCount;
 	public PackedSequence(byte[] bases, boolean reverse, boolean complement) {
 		packed = new long[IntMath.divide(bases.length, BASES_PER_WORD, RoundingMode.CEILING)];
+		baseCount = bases.length;
 		int revMultiplier = 1;
 		int revOffset = 0;
 		if (reverse) {
@@ -72,13 +73,35 @@ public class PackedSequence {
 		return b;
 	}
 	public byte[] getBytes(int offset, int length) {
-		assert(offset + length <= packed.length * BASES_PER_WORD);
 		byte[] seq = new byte[length];
-		for (int i = 0; i < length; i++) {
-			seq[i] = get(offset + i);
-		}
+		getBytes(offset, length, seq, 0);
 		return seq;
 	}
+	/**
+	 * Unpacks the given subsequence into the given buffer
+	 * @param offset 0-based offset of the first base to unpack
+	 * @param length number of bases to unpack
+	 * @param buffer buffer to write the unpacked bases to
+	 * @param bufferOffset buffer offset to write the first base to
+	 */
+	public void getBytes(int offset, int length, byte[] buffer, int bufferOffset) {
+		assert(offset + length <= packed.length * BASES_PER_WORD);
+		int wordIndex = offset >> ARRAY_SHIFT;
+		int basesToSkipInWord = offset & ARRAY_OFFSET_MASK;
+		int i = bufferOffset;
+		final int end = bufferOffset + length;
+		while (i < end) {
+			// decode the word from the MSB down
+			long word = packed[wordIndex] << (BITS_PER_BASE * basesToSkipInWord);
+			int basesInWord = Math.min(BASES_PER_WORD - basesToSkipInWord, end - i);
+			for (int j = 0; j < basesInWord; j++) {
+				buffer[i++] = KmerEncodingHelper.encodedToPicardBase((int)(word >>> (Long.SIZE - BITS_PER_BASE)));
+				word <<= BITS_PER_BASE;
+			}
+			wordIndex++;
+			basesToSkipInWord = 0;
+		}
+	}
 	public long getKmer(final int offset, final int length) {
 		assert(offset + length <= packed.length * BASES_PER_WORD);
 		int wordIndex = offset >> ARRAY_SHIFT;
@@ -4,31 +4,57 @@ import java.util.Iterator;
 import java.util.PriorityQueue;
 
 import com.google.common.collect.Iterators;
-import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
-import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 
 import au.edu.wehi.idsv.Defaults;
-import au.edu.wehi.idsv.debruijn.positional.AggregateNodeIterator.KmerNodeAggregator.KmerNodeAggregatorSnapshot;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 /**
  * Transforms a start position sorted sequence of KmerNodes to a
  * start position sorted sequence of non-overlapping KmerAggregateNodes
+ * 
+ * Kmer support is aggregated using primitive encodings. When the input is a
+ * SupportNodeIterator, kmer support is read directly from the support buffer.
  * @author Daniel Cameron
  *
  */
 public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
+	/**
+	 * Maximum weight able to be encoded in an aggregator entry
+	 */
+	private static final int MAX_WEIGHT = Integer.MAX_VALUE >>> 1;
 	private final PeekingIterator<? extends KmerNode> underlying;
+	private final SupportNodeIterator support;
 	private PriorityQueue<ImmutableKmerNode> outputSortBuffer = new PriorityQueue<ImmutableKmerNode>(1024, KmerNodeUtil.ByFirstStart);
 	private Long2ObjectOpenHashMap<KmerNodeAggregator> byKmer = new Long2ObjectOpenHashMap<KmerNodeAggregator>();
-	private PriorityQueue<KmerNodeAggregatorSnapshot> byEnd = new PriorityQueue<KmerNodeAggregatorSnapshot>(1024, BySnapshotEnd);
+	/**
+	 * Aggregator end position snapshots encoded as end position in the high 32 bits
+	 * and aggregator identifier in the low 32 bits
+	 */
+	private LongHeapPriorityQueue byEnd = new LongHeapPriorityQueue(1024);
+	private ObjectArrayList<KmerNodeAggregator> aggregatorById = new ObjectArrayList<KmerNodeAggregator>();
+	private IntArrayList freeAggregatorIds = new IntArrayList();
 	private int maxWidth = 0;
 	private int inputPosition = Integer.MIN_VALUE;
 	private long consumed = 0;
 	public AggregateNodeIterator(Iterator<? extends KmerNode> it) {
-		this.underlying = Iterators.peekingIterator(it);
+		if (it instanceof SupportNodeIterator) {
+			this.support = (SupportNodeIterator)it;
+			this.underlying = null;
+		} else {
+			this.support = null;
+			this.underlying = Iterators.peekingIterator(it);
+		}
+	}
+	private boolean underlyingHasNext() {
+		return support != null ? support.hasNext() : underlying.hasNext();
+	}
+	private int underlyingPeekFirstStart() {
+		return support != null ? support.peekFirstStart() : underlying.peek().firstStart();
 	}
 	@Override
 	public boolean hasNext() {
@@ -48,12 +74,12 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 	private void ensureBuffer() {
 		// we can emit whenever there are no unprocessed or incomplete intervals
 		// before our current interval
-		while (underlying.hasNext() && (outputSortBuffer.isEmpty() || outputSortBuffer.peek().firstStart() >= earliestPossibleStartOfNodeBeingAggregated())) {
-			inputPosition = underlying.peek().firstStart(); 
+		while (underlyingHasNext() && (outputSortBuffer.isEmpty() || outputSortBuffer.peek().firstStart() >= earliestPossibleStartOfNodeBeingAggregated())) {
+			inputPosition = underlyingPeekFirstStart(); 
 			process();
 			flush();
 		}
-		if (!underlying.hasNext()) {
+		if (!underlyingHasNext()) {
 			// flush everything
 			inputPosition = Integer.MAX_VALUE;
 			flush();
@@ -66,45 +92,82 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		return inputPosition - maxWidth;
 	}
 	private void process() {
-		while (underlying.hasNext() && underlying.peek().firstStart() <= inputPosition) {
-			KmerNode n = underlying.next();
-			consumed++;
-			assert(n.firstStart() == inputPosition || inputPosition == Integer.MAX_VALUE); // input should be sorted by start position
-			long kmer = n.firstKmer();
-			KmerNodeAggregator ag = byKmer.get(kmer);
-			if (ag == null) {
-				ag = new KmerNodeAggregator(kmer);
-				byKmer.put(kmer, ag);
+		if (support != null) {
+			SupportNodeBuffer buffer = support.buffer();
+			while (support.hasNext() && support.peekFirstStart() <= inputPosition) {
+				int slot = support.nextSlot();
+				process(buffer.kmer(slot), buffer.start(slot), buffer.end(slot), buffer.weight(slot), buffer.isReference(slot));
+			}
+		} else {
+			while (underlying.hasNext() && underlying.peek().firstStart() <= inputPosition) {
+				KmerNode n = underlying.next();
+				process(n.firstKmer(), n.firstStart(), n.firstEnd(), n.weight(), n.isReference());
 			}
-			ag.add(n);
-			byEnd.add(ag.new KmerNodeAggregatorSnapshot());
 		}
 	}
+	private void process(long kmer, int start, int end, int weight, boolean reference) {
+		consumed++;
+		assert(start == inputPosition || inputPosition == Integer.MAX_VALUE); // input should be sorted by start position
+		KmerNodeAggregator ag = byKmer.get(kmer);
+		if (ag == null) {
+			ag = createAggregator(kmer);
+			byKmer.put(kmer, ag);
+		}
+		ag.add(start, end, weight, reference);
+		byEnd.enqueue(snapshot(ag));
+	}
+	private KmerNodeAggregator createAggregator(long kmer) {
+		int id;
+		if (freeAggregatorIds.isEmpty()) {
+			id = aggregatorById.size();
+			aggregatorById.add(null);
+		} else {
+			id = freeAggregatorIds.popInt();
+		}
+		KmerNodeAggregator ag = new KmerNodeAggregator(kmer, id);
+		aggregatorById.set(id, ag);
+		return ag;
+	}
+	private void removeAggregator(KmerNodeAggregator ag) {
+		byKmer.remove(ag.kmer);
+		aggregatorById.set(ag.id, null);
+		freeAggregatorIds.add(ag.id);
+	}
+	private static long snapshot(KmerNodeAggregator ag) {
+		return ((long)ag.end() << 32) | ag.id;
+	}
+	private static int snapshotEnd(long snapshot) {
+		return (int)(snapshot >> 32);
+	}
+	private KmerNodeAggregator snapshotAggregator(long snapshot) {
+		return aggregatorById.get((int)snapshot);
+	}
+	/**
+	 * Determines whether the snapshot is still valid
+	 */
+	private boolean isValid(long snapshot) {
+		KmerNodeAggregator ag = snapshotAggregator(snapshot);
+		return ag != null && ag.end() == snapshotEnd(snapshot);
+	}
 	/**
 	 * Flush all aggregate nodes starting before the given position
 	 * @param position
 	 */
 	private void flush() {
-		while (!byEnd.isEmpty() && byEnd.peek().snapshotEnd < inputPosition) {
-			KmerNodeAggregatorSnapshot snapshot = byEnd.poll();
-			if (!snapshot.isValid()) continue;
-			KmerNodeAggregator ag = snapshot.aggregator();
+		while (!byEnd.isEmpty() && snapshotEnd(byEnd.firstLong()) < inputPosition) {
+			long snapshot = byEnd.dequeueLong();
+			if (!isValid(snapshot)) continue;
+			KmerNodeAggregator ag = snapshotAggregator(snapshot);
 			ag.advanceTo(inputPosition - 1);
 			if (ag.isEmpty()) {
-				byKmer.remove(ag.kmer);
+				removeAggregator(ag);
 			} else {
-				KmerNodeAggregatorSnapshot newSnapshot = ag.new KmerNodeAggregatorSnapshot();
-				assert(newSnapshot.snapshotEnd >= inputPosition);
-				byEnd.add(newSnapshot);
+				long newSnapshot = snapshot(ag);
+				assert(snapshotEnd(newSnapshot) >= inputPosition);
+				byEnd.enqueue(newSnapshot);
 			}
 		}
 	}
-	private static final Ordering<KmerNodeAggregatorSnapshot> BySnapshotEnd = new Ordering<KmerNodeAggregatorSnapshot>() {
-		@Override
-		public int compare(KmerNodeAggregatorSnapshot left, KmerNodeAggregatorSnapshot right) {
-			return Ints.compare(left.snapshotEnd, right.snapshotEnd);
-		}
-	};
 	/**
 	 * Generates KmerAggregateNode from an underlying sequence of KmerSupportNodes in ascending starting position
 	 * 
@@ -112,29 +175,17 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 	 *
 	 */
 	class KmerNodeAggregator implements Comparable<KmerNodeAggregator> {
-		public class KmerNodeAggregatorSnapshot {
-			public KmerNodeAggregatorSnapshot() {
-				this.snapshotEnd = KmerNodeAggregator.this.end();
-			}
-			public final int snapshotEnd;
-			/**
-			 * Determines whether the snapshot is still valid
-			 * @return
-			 */
-			public boolean isValid() {
-				return this.snapshotEnd == KmerNodeAggregator.this.end();
-			}
-			// what's the correct syntax for doing this from outside the class?
-			public KmerNodeAggregator aggregator() { return KmerNodeAggregator.this; }
-		}
-		public KmerNodeAggregator(long kmer) {
+		public KmerNodeAggregator(long kmer, int id) {
 			this.kmer = kmer;
+			this.id = id;
 		}
 		public boolean isEmpty() { return active.isEmpty(); }
 		/**
-		 * KmerNodes in the currently active aggregation interval
+		 * Kmer support in the currently active aggregation interval.
+		 * Support is encoded as end position in the high 32 bits,
+		 * weight and reference flag in the low 32 bits.
 		 */
-		private PriorityQueue<KmerNode> active = new PriorityQueue<KmerNode>(8, KmerNodeUtil.ByLastEnd);
+		private LongHeapPriorityQueue active = new LongHeapPriorityQueue(8);
 		/**
 		 * Start position of currently active aggregation interval
 		 */
@@ -147,45 +198,48 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		 * Number of active reference KmerNode 
 		 */
 		private int referenceCount = 0;
-		/**
-		 * Advances to the next node, adding aggregate nodes to the given collection
-		 * @param node next node
-		 * @param emitTo collection to emit aggregate records to
-		 */
 		private final long kmer;
+		private final int id;
 		public int end() {
 			if (active.isEmpty()) return Integer.MAX_VALUE;
-			return active.peek().firstEnd();
+			return activeEnd(active.firstLong());
 		}
-		public void add(KmerNode node) {
-			assert(node.firstKmer() == kmer);
-			assert(node.firstStart() >= start);
-			maxWidth = Math.max(maxWidth, node.width());
-			advanceTo(node.firstStart() - 1);
-			if (weight > 0 && start < node.firstStart()) {
-				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, node.firstStart() - 1, referenceCount > 0, weight));
+		/**
+		 * Adds kmer support to the aggregate
+		 * @param nodeStart support start position
+		 * @param nodeEnd support end position
+		 * @param nodeWeight support weight
+		 * @param nodeReference reference support
+		 */
+		public void add(int nodeStart, int nodeEnd, int nodeWeight, boolean nodeReference) {
+			assert(nodeStart >= start);
+			if (nodeWeight > MAX_WEIGHT) {
+				throw new IllegalArgumentException(String.format("Kmer support weight of %d exceeds maximum of %d", nodeWeight, MAX_WEIGHT));
+			}
+			maxWidth = Math.max(maxWidth, nodeEnd - nodeStart + 1);
+			advanceTo(nodeStart - 1);
+			if (weight > 0 && start < nodeStart) {
+				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, nodeStart - 1, referenceCount > 0, weight));
 			}
-			start = node.firstStart();
-			if (node.isReference()) {
+			start = nodeStart;
+			if (nodeReference) {
 				referenceCount++;
 			}
-			weight += node.weight();
-			active.add(node);
+			weight += nodeWeight;
+			active.enqueue(((long)nodeEnd << 32) | (nodeWeight << 1) | (nodeReference ? 1 : 0));
 		}
 		/**
 		 * Process up to and including the given position
 		 * @param position final processing position
-		 * @param emitTo collection to emit aggregate records to
 		 */
 		public void advanceTo(int position) {
-			while (!active.isEmpty() && active.peek().firstEnd() <= position) {
-				int end = active.peek().firstEnd();
+			while (!active.isEmpty() && activeEnd(active.firstLong()) <= position) {
+				int end = activeEnd(active.firstLong());
 				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, end, referenceCount > 0, weight));
-				while (!active.isEmpty() && active.peek().firstEnd() == end) {
-					KmerNode endingHere = active.poll();
-					assert(endingHere.firstKmer() == kmer);
-					weight -= endingHere.weight();
-					if (endingHere.isReference()) {
+				while (!active.isEmpty() && activeEnd(active.firstLong()) == end) {
+					long endingHere = active.dequeueLong();
+					weight -= (int)endingHere >>> 1;
+					if ((endingHere & 1) != 0) {
 						referenceCount--;
 					}
 				}
@@ -197,6 +251,9 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 			return Longs.compare(kmer, right.kmer);
 		}
 	}
+	private static int activeEnd(long encoded) {
+		return (int)(encoded >> 32);
+	}
 	@Override
 	public void remove() {
 		throw new UnsupportedOperationException();
@@ -208,12 +265,11 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		assert(byKmer.values().stream().allMatch(ag -> !ag.active.isEmpty()));
 		// could have many start position entries, but only one position is valid (and even that could have duplicate entries)
 		assert(byEnd.size() >= byKmer.size());
-		assert(byEnd.stream().allMatch(snapshot -> !snapshot.isValid() || byKmer.containsKey(snapshot.aggregator().kmer)));
 		assert(byKmer.values().stream().allMatch(ag -> ag.end() >= inputPosition));
 		if (outputSortBuffer.isEmpty()) {
 			assert(byKmer.isEmpty());
 			assert(byEnd.isEmpty());
-			assert(!underlying.hasNext());
+			assert(!underlyingHasNext());
 		}	
 		return true;
 	}
@@ -1,83 +1,187 @@
 package au.edu.wehi.idsv.debruijn.positional;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
 import java.util.Set;
 
 import au.edu.wehi.idsv.util.IntervalUtil;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 
 /**
  * Tracks evidence provided to a given graph by wrapping a source iterator
  * and tracking evidence emitted by the iterator 
  * 
+ * Each tracked KmerEvidence is assigned an integer handle. Kmer support is
+ * stored in parallel primitive arrays with each entry linked into both a
+ * per-kmer list and a per-evidence list, allowing constant time removal.
+ * 
  * @author Daniel Cameron
  *
  */
 public class EvidenceTracker {
-	//public static EvidenceTracker TEMP_HACK_CURRENT_TRACKER = null;
-	private final Long2ObjectOpenHashMap<LinkedList<KmerSupportNode>> lookup = new Long2ObjectOpenHashMap<LinkedList<KmerSupportNode>>();
+	private static final int NONE = -1;
+	private static final int INITIAL_CAPACITY = 1024;
+	/**
+	 * First support entry for each kmer
+	 */
+	private final Long2IntOpenHashMap kmerHead = new Long2IntOpenHashMap();
 	private final ObjectOpenHashSet<String> id = new ObjectOpenHashSet<String>();
+	/**
+	 * Evidence handles
+	 */
+	private final Reference2IntOpenHashMap<KmerEvidence> handleLookup = new Reference2IntOpenHashMap<KmerEvidence>();
+	private final ObjectArrayList<KmerEvidence> evidenceByHandle = new ObjectArrayList<KmerEvidence>();
+	private final IntArrayList evidenceHead = new IntArrayList();
+	private final IntArrayList freeHandles = new IntArrayList();
+	/**
+	 * Support entries
+	 */
+	private long[] entryKmer = new long[INITIAL_CAPACITY];
+	private int[] entryHandle = new int[INITIAL_CAPACITY];
+	private int[] entryOffset = new int[INITIAL_CAPACITY];
+	private int[] entryStart = new int[INITIAL_CAPACITY];
+	private int[] entryEnd = new int[INITIAL_CAPACITY];
+	/**
+	 * Doubly linked list of entries with the same kmer
+	 */
+	private int[] entryKmerPrev = new int[INITIAL_CAPACITY];
+	private int[] entryKmerNext = new int[INITIAL_CAPACITY];
+	/**
+	 * Singly linked list of entries from the same evidence.
+	 * Unused entries are chained using this list.
+	 */
+	private int[] entryEvidenceNext = new int[INITIAL_CAPACITY];
+	private int entryCount = 0;
+	private int freeEntry = NONE;
+	private int activeEntries = 0;
 	private long evidenceTotal = 0;
 	/**
 	 * Tracks evidence emitted from the given iterator
 	 * @param it iterator to track
 	 */
 	public EvidenceTracker() {
+		kmerHead.defaultReturnValue(NONE);
+		handleLookup.defaultReturnValue(NONE);
 	}
 	/**
 	 * Tracks the given evidence
 	 * @param evidence
 	 */
 	public KmerSupportNode track(KmerSupportNode support) {
-		long kmer = support.lastKmer();
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list == null) {
-			list = new LinkedList<KmerSupportNode>();
-			lookup.put(kmer, list);
-		}
-		list.add(support);
-		if (id.add(support.evidence().evidence().getEvidenceID())) {
+		track(support.evidence(), support.offset());
+		return support;
+	}
+	/**
+	 * Tracks the kmer support of the given evidence
+	 * @param evidence evidence
+	 * @param offset kmer offset
+	 */
+	public void track(KmerEvidence evidence, int offset) {
+		int handle = handleLookup.getInt(evidence);
+		if (handle == NONE) {
+			handle = allocateHandle(evidence);
+		}
+		long kmer = evidence.kmer(offset);
+		int entry = allocateEntry();
+		entryKmer[entry] = kmer;
+		entryHandle[entry] = handle;
+		entryOffset[entry] = offset;
+		entryStart[entry] = evidence.startPosition() + offset;
+		entryEnd[entry] = evidence.endPosition() + offset;
+		// add to kmer list
+		int head = kmerHead.put(kmer, entry);
+		entryKmerPrev[entry] = NONE;
+		entryKmerNext[entry] = head;
+		if (head != NONE) {
+			entryKmerPrev[head] = entry;
+		}
+		// add to evidence list
+		entryEvidenceNext[entry] = evidenceHead.getInt(handle);
+		evidenceHead.set(handle, entry);
+		activeEntries++;
+	}
+	private int allocateHandle(KmerEvidence evidence) {
+		int handle;
+		if (freeHandles.isEmpty()) {
+			handle = evidenceByHandle.size();
+			evidenceByHandle.add(evidence);
+			evidenceHead.add(NONE);
+		} else {
+			handle = freeHandles.popInt();
+			evidenceByHandle.set(handle, evidence);
+			evidenceHead.set(handle, NONE);
+		}
+		handleLookup.put(evidence, handle);
+		if (id.add(evidence.evidence().getEvidenceID())) {
 			evidenceTotal++;
 		}
-		return support;
+		return handle;
+	}
+	private int allocateEntry() {
+		if (freeEntry != NONE) {
+			int entry = freeEntry;
+			freeEntry = entryEvidenceNext[entry];
+			return entry;
+		}
+		if (entryCount == entryKmer.length) {
+			int capacity = entryKmer.length * 2;
+			entryKmer = Arrays.copyOf(entryKmer, capacity);
+			entryHandle = Arrays.copyOf(entryHandle, capacity);
+			entryOffset = Arrays.copyOf(entryOffset, capacity);
+			entryStart = Arrays.copyOf(entryStart, capacity);
+			entryEnd = Arrays.copyOf(entryEnd, capacity);
+			entryKmerPrev = Arrays.copyOf(entryKmerPrev, capacity);
+			entryKmerNext = Arrays.copyOf(entryKmerNext, capacity);
+			entryEvidenceNext = Arrays.copyOf(entryEvidenceNext, capacity);
+		}
+		return entryCount++;
 	}
 	/**
-	 * Stops tracking all nodes associated with the given evidence 
-	 * @param evidence
+	 * Removes the given entry from its kmer list
 	 */
-	public void remove(KmerEvidence evidence) {
-		for (int i = 0; i < evidence.length(); i++) {
-			long kmer = evidence.kmer(i);
-			remove(kmer, evidence);
+	private void unlinkFromKmer(int entry) {
+		int prev = entryKmerPrev[entry];
+		int next = entryKmerNext[entry];
+		if (next != NONE) {
+			entryKmerPrev[next] = prev;
+		}
+		if (prev != NONE) {
+			entryKmerNext[prev] = next;
+		} else if (next != NONE) {
+			kmerHead.put(entryKmer[entry], next);
+		} else {
+			kmerHead.remove(entryKmer[entry]);
 		}
-		id.remove(evidence.evidence().getEvidenceID());
 	}
 	/**
 	 * Stops tracking all nodes associated with the given evidence 
 	 * @param evidence
 	 */
-	private void remove(long kmer, KmerEvidence evidence) {
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list != null) {
-			ListIterator<KmerSupportNode> it = list.listIterator();
-			while (it.hasNext()) {
-				KmerSupportNode n = it.next();
-				if (n.evidence() == evidence) { 
-					it.remove();
-				}
-			}
-			if (list.size() == 0) {
-				lookup.remove(kmer);
+	public void remove(KmerEvidence evidence) {
+		int handle = handleLookup.removeInt(evidence);
+		if (handle != NONE) {
+			int entry = evidenceHead.getInt(handle);
+			while (entry != NONE) {
+				int next = entryEvidenceNext[entry];
+				unlinkFromKmer(entry);
+				entryEvidenceNext[entry] = freeEntry;
+				freeEntry = entry;
+				activeEntries--;
+				entry = next;
 			}
+			evidenceHead.set(handle, NONE);
+			evidenceByHandle.set(handle, null);
+			freeHandles.add(handle);
 		}
+		id.remove(evidence.evidence().getEvidenceID());
 	}
 	/**
 	 * Identifies evidence supporting the given path
@@ -101,43 +205,35 @@ public class EvidenceTracker {
 			int start = sn.firstStart();
 			int end = sn.firstEnd();
 			for (int i = 0; i < sn.length(); i++) {
-				toCollection(evidence, sn.kmer(i), start + i, end + i, remove);
+				toCollection(evidence, sn.kmer(i), start + i, end + i);
 			}
 			LongArrayList collapsed = sn.node().collapsedKmers();
 			IntArrayList collapsedOffset = sn.node().collapsedKmerOffsets();
 			for (int i = 0; i < collapsed.size(); i++) {
 				int offset = collapsedOffset.getInt(i);
-				toCollection(evidence, collapsed.getLong(i), start + offset, end + offset, remove);
+				toCollection(evidence, collapsed.getLong(i), start + offset, end + offset);
 			}
 		}
 		if (remove) {
 			for (KmerEvidence e : evidence) {
-				// remove any leftover evidence kmers not on the called path   
+				// removes both the kmers on the called path and any leftover kmers not on the called path
 				remove(e);
 			}
 		}
 		return evidence;
 	}
 	/**
-	 * Stops tracking all evidence overlapping the given kmer interval and adds to the given collection
+	 * Adds all evidence overlapping the given kmer interval to the given collection
 	 * 
 	 * @param collection
 	 * @param kmer
 	 * @param start
 	 * @param end
 	 */
-	private void toCollection(Collection<KmerEvidence> collection, long kmer, int start, int end, boolean remove) {
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list != null) {
-			ListIterator<KmerSupportNode> it = list.listIterator();
-			while (it.hasNext()) {
-				KmerSupportNode n = it.next();
-				if (IntervalUtil.overlapsClosed(start, end, n.lastStart(), n.lastEnd())) {
-					if (remove) {
-						it.remove();
-					}
-					collection.add(n.evidence());
-				}
+	private void toCollection(Collection<KmerEvidence> collection, long kmer, int start, int end) {
+		for (int entry = kmerHead.get(kmer); entry != NONE; entry = entryKmerNext[entry]) {
+			if (IntervalUtil.overlapsClosed(start, end, entryStart[entry], entryEnd[entry])) {
+				collection.add(evidenceByHandle.get(entryHandle[entry]));
 			}
 		}
 	}
@@ -159,11 +255,9 @@ public class EvidenceTracker {
 	public boolean matchesExpected(int expectedWidthWeight, LongArrayList kmers, int start, int end) {
 		int evidenceWeight = 0;
 		for (long kmer : kmers) {
-			LinkedList<KmerSupportNode> list = lookup.get(kmer);
-			if (list != null) {
-				for (KmerSupportNode n : list) {
-					evidenceWeight += n.weight() * IntervalUtil.overlapsWidthClosed(start, end, n.lastStart(), n.lastEnd());
-				}
+			for (int entry = kmerHead.get(kmer); entry != NONE; entry = entryKmerNext[entry]) {
+				int weight = evidenceByHandle.get(entryHandle[entry]).weight(entryOffset[entry]);
+				evidenceWeight += weight * IntervalUtil.overlapsWidthClosed(start, end, entryStart[entry], entryEnd[entry]);
 			}
 		}
 		assert(evidenceWeight == expectedWidthWeight);
@@ -217,12 +311,20 @@ public class EvidenceTracker {
 		return id.size();
 	}
 	public int tracking_kmerCount() {
-		return lookup.size();
+		return kmerHead.size();
 	}
 	public int tracking_supportNodeCount() {
-		return lookup.values().stream().mapToInt(x -> x.size()).sum();
+		return activeEntries;
 	}
 	public int tracking_maxKmerSupportNodesCount() {
-		return lookup.values().stream().mapToInt(x -> x.size()).max().orElse(0);
+		int max = 0;
+		for (int head : kmerHead.values()) {
+			int count = 0;
+			for (int entry = head; entry != NONE; entry = entryKmerNext[entry]) {
+				count++;
+			}
+			max = Math.max(max, count);
+		}
+		return max;
 	}
 }
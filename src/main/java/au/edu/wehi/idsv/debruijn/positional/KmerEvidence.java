@@ -47,11 +47,19 @@ public class KmerEvidence extends PackedKmerList {
 	private final int end;
 	private final float score;
 	public KmerSupportNode node(int offset) {
-		if (ambiguous != null && ambiguous.get(offset)) {
+		if (!isSupporting(offset)) {
 			return null;
 		}
 		return new KmerSupportNode(this, offset);
 	}
+	/**
+	 * Determines whether the kmer at the given offset provides kmer support
+	 * @param offset kmer offset
+	 * @return false if the kmer is considered ambiguous, true otherwise
+	 */
+	public boolean isSupporting(int offset) {
+		return ambiguous == null || !ambiguous.get(offset);
+	}
 	public float evidenceQuality() { return score; }
 	public DirectedEvidence evidence() { return evidence; }
 	/**
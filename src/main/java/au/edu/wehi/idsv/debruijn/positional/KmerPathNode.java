@@ -16,11 +16,13 @@ import com.google.common.collect.PeekingIterator;
 import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.debruijn.DeBruijnSequenceGraphNode;
 import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
+import au.edu.wehi.idsv.debruijn.PackedKmerPath;
 import au.edu.wehi.idsv.util.CollectionUtil;
 import au.edu.wehi.idsv.util.IntervalUtil;
 import it.unimi.dsi.fastutil.Hash;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 
 /**
  * Total support for the given kmer over the given interval
@@ -33,7 +35,7 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 	private static final List<KmerPathNode> EMPTY_EDGE_LIST = ImmutableList.of();
 	private static final Ordering<KmerNode> NEXT_SORT_ORDER = KmerNodeUtil.ByFirstStart;
 	private static final Ordering<KmerNode> PREV_SORT_ORDER = KmerNodeUtil.ByLastStart;
-	private LongArrayList kmers; // FIXME: replace with 2-bit encoding of kmer sequence
+	private PackedKmerPath kmers;
 	private LongArrayList additionalKmers = null;
 	private IntArrayList additionalKmerOffsets = null;
 	private IntArrayList weight;
@@ -62,11 +64,20 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 	public int lastEnd() { return endPosition(length() - 1); }
 	public int firstStart() { return start; }
 	public int firstEnd() { return end; }
-	public long kmer(int offset) { return kmers.getLong(offset); }
+	public long kmer(int offset) { return kmers.get(offset); }
 	public int startPosition(int offset) { return start + offset; }
 	public int endPosition(int offset) { return end + offset; }
 	public int weight() { return totalWeight; }
-	public LongArrayList pathKmers() { return kmers; }
+	/**
+	 * Kmers in this path
+	 * @return copy of the path kmers
+	 */
+	public LongArrayList pathKmers() { return kmers.toLongArrayList(); }
+	/**
+	 * Kmers in this path
+	 * @return read-only view of the path kmers
+	 */
+	public LongList pathKmerView() { return kmers.asList(); }
 	public IntArrayList pathWeights() { return weight; }
 	@Override
 	public int weight(int offset) {
@@ -90,7 +101,15 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		return additionalKmerOffsets != null ? additionalKmerOffsets : EMPTY_OFFSET_LIST;
 	}
 	public KmerPathNode(long kmer, int start, int end, boolean reference, int weight) {
-		this.kmers = new LongArrayList(1);
+		this(kmer, 0, start, end, reference, weight);
+	}
+	/**
+	 * Creates a new path node
+	 * @param kmer kmer
+	 * @param k kmer size. Path kmers are stored in 2-bit packed form when the kmer size is known.
+	 */
+	public KmerPathNode(long kmer, int k, int start, int end, boolean reference, int weight) {
+		this.kmers = new PackedKmerPath(k);
 		this.kmers.add(kmer);
 		this.weight = new IntArrayList(1);
 		this.weight.add(weight);
@@ -99,19 +118,27 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		this.end = end;
 		this.reference = reference;
 	}
-	private KmerPathNode(LongArrayList kmer, int start, int end, boolean reference, int totalWeight, IntArrayList weight) {
-		this.kmers = kmer.clone();
+	private KmerPathNode(PackedKmerPath kmer, int start, int end, boolean reference, int totalWeight, IntArrayList weight) {
+		this.kmers = new PackedKmerPath(kmer);
 		this.weight = weight.clone();
 		this.totalWeight = totalWeight;
 		this.start = start;
 		this.end = end;
 		this.reference = reference;
 	}
-	private KmerPathNode(LongArrayList kmer, int start, int end, boolean reference, IntArrayList weight) {
+	private KmerPathNode(PackedKmerPath kmer, int start, int end, boolean reference, IntArrayList weight) {
 		this(kmer, start, end, reference, sumWeights(weight), weight);
 	}
 	public KmerPathNode(KmerNode node) {
-		this(node.lastKmer(), node.lastStart(), node.lastEnd(), node.isReference(), node.weight());
+		this(node, 0);
+	}
+	/**
+	 * Creates a new path node from the given kmer
+	 * @param node initial kmer
+	 * @param k kmer size. Path kmers are stored in 2-bit packed form when the kmer size is known.
+	 */
+	public KmerPathNode(KmerNode node, int k) {
+		this(node.lastKmer(), k, node.lastStart(), node.lastEnd(), node.isReference(), node.weight());
 	}
 	private static int sumWeights(IntArrayList weight) {
 		int sum = 0;
@@ -277,10 +304,12 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 			additionalKmerOffsets.addAll(toMerge.additionalKmerOffsets);
 		}
 		if (additionalKmers == null) {
-			additionalKmers = toMerge.kmers;
+			additionalKmers = toMerge.kmers.toLongArrayList();
 			additionalKmerOffsets = new IntArrayList(toMerge.kmers.size());
 		} else {
-			additionalKmers.addAll(toMerge.kmers);
+			for (int i = 0; i < toMerge.length(); i++) {
+				additionalKmers.add(toMerge.kmer(i));
+			}
 		}
 		for (int i = 0; i < toMerge.length(); i++) {
 			additionalKmerOffsets.add(i);
@@ -518,10 +547,10 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		assert(firstNodeLength > 0);
 		assert(firstNodeLength < length());
 		// copy our new kmers and weights
-		LongArrayList kmerSecond = new LongArrayList(kmers.subList(firstNodeLength, length()));
+		PackedKmerPath kmerSecond = kmers.subPath(firstNodeLength, length());
 		IntArrayList weightSecond = new IntArrayList(weight.subList(firstNodeLength, length()));
 		// let split own our current arrays
-		this.kmers.removeElements(firstNodeLength, this.kmers.size());
+		this.kmers.truncate(firstNodeLength);
 		this.weight.removeElements(firstNodeLength, this.weight.size());
 		KmerPathNode split = new KmerPathNode(
 				this.kmers,
@@ -667,8 +696,8 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		result = prime * result + end;
 		result = prime * result + totalWeight;
 		if (kmers != null) {
-			result = prime * result + Long.hashCode(kmers.getLong(0));
-			result = prime * result + Long.hashCode(kmers.getLong(kmers.size() - 1));
+			result = prime * result + Long.hashCode(kmers.get(0));
+			result = prime * result + Long.hashCode(kmers.last());
 		}
 		// incorporating these adds hash cost whilst giving minimal improvement
 		// to hash collision rate
@@ -1014,7 +1043,7 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		assert(length() <= maxPathLength);
 		assert(end - start <= maxSupportWidth);
 		for (int i = 1; i < length(); i++) {
-			assert(KmerEncodingHelper.isNext(k, kmers.getLong(i - 1), kmers.getLong(i)));
+			assert(KmerEncodingHelper.isNext(k, kmers.get(i - 1), kmers.get(i)));
 		}
 		assert(sumWeights(weight) == totalWeight);
 		if (nextList != null) {
@@ -13,6 +13,7 @@ import com.google.common.collect.Range;
 
 import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 
 /**
  * Collapses leaves and bubbles
@@ -173,7 +174,7 @@ public class LeafBubbleCollapseIterator extends CollapseIterator {
 		return node.traversingWouldCauseSelfIntersection(sn.node());
 	}
 	private int partialSequenceBasesDifferent(LongArrayList toCollapsePathKmers, TraversalNode tn, boolean traversalForward) {
-		LongArrayList nodeKmers = tn.node.node().pathKmers();
+		LongList nodeKmers = tn.node.node().pathKmerView();
 		int basesDifference;
 		if (traversalForward) {
 			basesDifference = KmerEncodingHelper.partialSequenceBasesDifferent(k, toCollapsePathKmers, nodeKmers, tn.pathLength - tn.node.length(), true);
@@ -245,7 +246,7 @@ public class LeafBubbleCollapseIterator extends CollapseIterator {
 	private boolean memoizedCollapse(Set<KmerPathNode> collapseNodes, TraversalNode toCollapse, boolean traversalForward, KmerPathNode terminalNode) {
 		LongArrayList toCollapsePathKmers = new LongArrayList(toCollapse.pathLength);
 		for (KmerPathSubnode sn : traversalForward ? toCollapse.toSubnodeNextPath() : toCollapse.toSubnodePrevPath()) {
-			toCollapsePathKmers.addAll(sn.node().pathKmers());
+			toCollapsePathKmers.addAll(sn.node().pathKmerView());
 		}
 		assert(toCollapsePathKmers.size() == toCollapse.pathLength);
 		if (terminalNode != null) {
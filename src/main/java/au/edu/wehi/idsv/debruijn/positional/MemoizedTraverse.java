@@ -21,6 +21,8 @@ import com.google.common.io.Files;
 import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.util.IntervalUtil;
 import au.edu.wehi.idsv.util.MessageThrottler;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry.Counter;
 import au.edu.wehi.idsv.visualisation.PositionalDeBruijnGraphTracker.MemoizationStats;
 import htsjdk.samtools.util.Log;
 import it.unimi.dsi.fastutil.ints.AbstractInt2ObjectSortedMap;
@@ -34,6 +36,9 @@ import it.unimi.dsi.fastutil.objects.ObjectOpenCustomHashSet;
  */
 public class MemoizedTraverse {
 	private static final Log log = Log.getInstance(MemoizedTraverse.class);
+	private static final Counter pathsRemovedCount = MetricsRegistry.Current.counter("gridss_memoization_paths_removed_total", "Memoized paths removed due to graph node removal");
+	private static final Counter descendentPathsRemovedCount = MetricsRegistry.Current.counter("gridss_memoization_descendent_paths_removed_total", "Memoized descendent paths removed due to graph node removal");
+	private static final Counter pathsResetCount = MetricsRegistry.Current.counter("gridss_memoization_paths_reset_total", "Memoized paths requiring recalculation due to graph node removal");
 	/**
 	 * Since a positional de Bruijn graph is a directed acyclic graph,
 	 * we can calculate maximal weighted paths by a positional traverse
@@ -98,6 +103,9 @@ public class MemoizedTraverse {
 		stats.pathsRemoved = tns.size();
 		stats.descendentPathsRemoved = descendentCount;
 		stats.pathsReset = frontierResetCount;
+		pathsRemovedCount.inc(tns.size());
+		descendentPathsRemovedCount.inc(descendentCount);
+		pathsResetCount.inc(frontierResetCount);
 		if (Defaults.SANITY_CHECK_MEMOIZATION) {
 			assert(sanityCheckAreRemoved(nodes));
 			assert(sanityCheck());
@@ -40,6 +40,8 @@ import au.edu.wehi.idsv.model.Models;
 import au.edu.wehi.idsv.util.IntervalUtil;
 import au.edu.wehi.idsv.util.MessageThrottler;
 import au.edu.wehi.idsv.visualisation.AssemblyTelemetry.AssemblyChunkTelemetry;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry.Counter;
 import au.edu.wehi.idsv.visualisation.PositionalDeBruijnGraphTracker;
 import au.edu.wehi.idsv.visualisation.PositionalDeBruijnGraphTracker.ContigStats;
 import au.edu.wehi.idsv.visualisation.PositionalExporter;
@@ -47,6 +49,7 @@ import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.Log;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.ObjectOpenCustomHashSet;
@@ -60,6 +63,9 @@ import it.unimi.dsi.fastutil.objects.ObjectOpenCustomHashSet;
  */
 public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 	private static final Log log = Log.getInstance(NonReferenceContigAssembler.class);
+	private static final Counter nodesLoadedCount = MetricsRegistry.Current.counter("gridss_assembly_graph_nodes_loaded_total", "Non-reference de Bruijn graph nodes loaded into the assembly graph");
+	private static final Counter nodesDensityFilteredCount = MetricsRegistry.Current.counter("gridss_assembly_graph_nodes_density_filtered_total", "Non-reference de Bruijn graph nodes excluded from assembly due to excessive node density");
+	private static final Counter fullMemoizationRecalculationCount = MetricsRegistry.Current.counter("gridss_memoization_full_recalculations_total", "Number of times the entire assembly graph memoization was recalculated");
 	/**
 	 * Debugging tracker to ensure memoization export files have unique names
 	 */
@@ -393,6 +399,10 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 			toFlush.add(Range.closedOpen(lastNextPosition, nextPosition()));
 			filtered = true;
 		}
+		nodesLoadedCount.inc(count);
+		if (filtered) {
+			nodesDensityFilteredCount.inc(count);
+		}
 		if (getTelemetry() != null) {
 			long currentTime = System.nanoTime();
 			getTelemetry().loadGraph(referenceIndex, lastNextPosition, nextPosition(), count, filtered, currentTime - telemetryLastloadGraphs);
@@ -453,7 +463,11 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		fullContig.addAll(contig);
 		fullContig.addAll(endingAnchor);
 		
-		byte[] bases = KmerEncodingHelper.baseCalls(fullContig.stream().flatMap(sn -> sn.node().pathKmers().stream()).collect(Collectors.toList()), k);
+		LongArrayList contigKmers = new LongArrayList(fullContig.stream().mapToInt(sn -> sn.length()).sum());
+		for (KmerPathSubnode sn : fullContig) {
+			contigKmers.addAll(sn.node().pathKmerView());
+		}
+		byte[] bases = KmerEncodingHelper.baseCalls(contigKmers, k);
 		byte[] quals = DeBruijnGraphBase.kmerWeightsToBaseQuals(k, fullContig.stream().flatMapToInt(sn -> sn.node().pathWeights().stream().mapToInt(Integer::intValue)).toArray());
 		assert(quals.length == bases.length);
 		// left aligned anchor position although it shouldn't matter since anchoring should be a single base wide
@@ -601,6 +615,7 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		}
 		if (toRemove.size() > aes.getContext().getAssemblyParameters().positional.forceFullMemoizationRecalculationAt * graphByPosition.size()) {
 			bestContigCaller = null;
+			fullMemoizationRecalculationCount.inc();
 		}
 		if (bestContigCaller != null) {
 			// removes all KmerPathNodes that need mutation from the memoization 
@@ -352,7 +352,7 @@ public class PathCollapseIterator extends CollapseIterator implements DeBruijnGr
 	}
 	private boolean hasSufficientEntropy(KmerPathNode node) {
 		if (minimumPathNodeEntropy <= 0) return true;
-		double entropy = SequenceUtil.shannonEntropy(KmerEncodingHelper.baseCounts(k, node.pathKmers()));
+		double entropy = SequenceUtil.shannonEntropy(KmerEncodingHelper.baseCounts(k, node.pathKmerView()));
 		return entropy > minimumPathNodeEntropy;
 	}
 	@Override
@@ -222,7 +222,7 @@ public class PathNodeIterator implements Iterator<KmerPathNode> {
 			}
 		}
 		// couldn't merge into a previous path = new path
-		KmerPathNode pn = new KmerPathNode(node);
+		KmerPathNode pn = new KmerPathNode(node, k);
 		lookupReplace(node, pn);
 		firstKmerLookupAdd(pn);
 		pathNodes.add(pn);
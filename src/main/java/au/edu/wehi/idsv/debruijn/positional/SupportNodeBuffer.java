@@ -0,0 +1,140 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import java.util.Arrays;
+
+/**
+ * Start position ordered priority queue of kmer support.
+ *
+ * Support is stored as parallel primitive arrays indexed by slot
+ * so no objects are allocated per kmer. Slots are recycled once
+ * they have been removed from the queue.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class SupportNodeBuffer {
+	private static final int INITIAL_CAPACITY = 1024;
+	private long[] kmer = new long[INITIAL_CAPACITY];
+	private int[] start = new int[INITIAL_CAPACITY];
+	private int[] end = new int[INITIAL_CAPACITY];
+	private int[] weight = new int[INITIAL_CAPACITY];
+	private boolean[] reference = new boolean[INITIAL_CAPACITY];
+	private int[] offset = new int[INITIAL_CAPACITY];
+	private KmerEvidence[] evidence = new KmerEvidence[INITIAL_CAPACITY];
+	/**
+	 * Binary min-heap of slots ordered by start position
+	 */
+	private int[] heap = new int[INITIAL_CAPACITY];
+	private int size = 0;
+	/**
+	 * Unused slots
+	 */
+	private int[] free = new int[INITIAL_CAPACITY];
+	private int freeCount = 0;
+	private int slotCount = 0;
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	public int size() {
+		return size;
+	}
+	/**
+	 * Adds the given kmer of the given evidence to the buffer
+	 * @param e evidence
+	 * @param kmerOffset kmer offset
+	 */
+	public void add(KmerEvidence e, int kmerOffset) {
+		int slot = allocate();
+		kmer[slot] = e.kmer(kmerOffset);
+		start[slot] = e.startPosition() + kmerOffset;
+		end[slot] = e.endPosition() + kmerOffset;
+		weight[slot] = e.weight(kmerOffset);
+		reference[slot] = e.isAnchored(kmerOffset);
+		offset[slot] = kmerOffset;
+		evidence[slot] = e;
+		heap[size] = slot;
+		siftUp(size++);
+	}
+	/**
+	 * Slot at the head of the queue
+	 * @return slot with the lowest start position
+	 */
+	public int peek() {
+		assert(size > 0);
+		return heap[0];
+	}
+	/**
+	 * Removes the head of the queue.
+	 *
+	 * The returned slot remains valid until released.
+	 * @return slot with the lowest start position
+	 */
+	public int poll() {
+		int slot = heap[0];
+		heap[0] = heap[--size];
+		if (size > 0) {
+			siftDown(0);
+		}
+		return slot;
+	}
+	/**
+	 * Releases the given slot for reuse
+	 */
+	public void release(int slot) {
+		evidence[slot] = null;
+		free[freeCount++] = slot;
+	}
+	public long kmer(int slot) { return kmer[slot]; }
+	public int start(int slot) { return start[slot]; }
+	public int end(int slot) { return end[slot]; }
+	public int weight(int slot) { return weight[slot]; }
+	public boolean isReference(int slot) { return reference[slot]; }
+	public int offset(int slot) { return offset[slot]; }
+	public KmerEvidence evidence(int slot) { return evidence[slot]; }
+	private int allocate() {
+		if (freeCount > 0) {
+			return free[--freeCount];
+		}
+		if (slotCount == kmer.length) {
+			int capacity = kmer.length * 2;
+			kmer = Arrays.copyOf(kmer, capacity);
+			start = Arrays.copyOf(start, capacity);
+			end = Arrays.copyOf(end, capacity);
+			weight = Arrays.copyOf(weight, capacity);
+			reference = Arrays.copyOf(reference, capacity);
+			offset = Arrays.copyOf(offset, capacity);
+			evidence = Arrays.copyOf(evidence, capacity);
+			heap = Arrays.copyOf(heap, capacity);
+			free = Arrays.copyOf(free, capacity);
+		}
+		return slotCount++;
+	}
+	private void siftUp(int i) {
+		int slot = heap[i];
+		int key = start[slot];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			int parentSlot = heap[parent];
+			if (start[parentSlot] <= key) break;
+			heap[i] = parentSlot;
+			i = parent;
+		}
+		heap[i] = slot;
+	}
+	private void siftDown(int i) {
+		int slot = heap[i];
+		int key = start[slot];
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < size && start[heap[right]] < start[heap[child]]) {
+				child = right;
+			}
+			if (key <= start[heap[child]]) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = slot;
+	}
+}
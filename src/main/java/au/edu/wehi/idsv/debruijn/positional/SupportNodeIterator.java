@@ -1,9 +1,6 @@
 package au.edu.wehi.idsv.debruijn.positional;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
-import java.util.PriorityQueue;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
@@ -14,10 +11,15 @@ import au.edu.wehi.idsv.SingleReadEvidence;
 import au.edu.wehi.idsv.util.MessageThrottler;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.Log;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 /**
  * Transforms a breakend start DirectedEvidence iterator
  * into a start position sorted kmer support iterator
+ * 
+ * Kmer support is buffered in primitive arrays. Consumers able to
+ * read kmer support directly from the buffer should use {@link #nextSlot()}
+ * to avoid allocating a KmerSupportNode per kmer.
  * @author Daniel Cameron
  *
  */
@@ -37,7 +39,10 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	 */
 	private final int emitOffset;
 	private final int maxSupportStartPositionOffset;
-	private final PriorityQueue<KmerSupportNode> buffer = new PriorityQueue<KmerSupportNode>(1024, KmerNodeUtil.ByFirstStart);
+	private final SupportNodeBuffer buffer = new SupportNodeBuffer();
+	private final IntArrayList supportOffsets = new IntArrayList();
+	private final IntArrayList anchorSupportOffsets = new IntArrayList();
+	private int lastSlot = -1;
 	private final EvidenceTracker tracker;
 	private final int disallowMismatch;
 	private int inputPosition = Integer.MIN_VALUE;
@@ -105,9 +110,10 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 		if (e == null) {
 			return;
 		}
-		List<KmerSupportNode> supportNodes = new ArrayList<KmerSupportNode>(e.length() + (e2 == null ? 0 : e2.length()));
-		boolean hasNonReference = addSupport(supportNodes, de, e);
-		addSupport(supportNodes, de, e2);
+		supportOffsets.clear();
+		anchorSupportOffsets.clear();
+		boolean hasNonReference = addSupport(supportOffsets, de, e);
+		addSupport(anchorSupportOffsets, de, e2);
 		if (hasNonReference) {
 			// only add evidence that provides support for an SV
 			// If we have no non-reference kmers then we might
@@ -115,22 +121,33 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 			// never remove it from the graph
 			// SC or RPs with no non-reference kmers can occur when
 			// an ambiguous base case exist in the soft clip/mate  
-			buffer.addAll(supportNodes);
+			addToBuffer(supportOffsets, e);
+			addToBuffer(anchorSupportOffsets, e2);
+		}
+	}
+	private void addToBuffer(IntArrayList offsets, KmerEvidence e) {
+		for (int i = 0; i < offsets.size(); i++) {
+			int offset = offsets.getInt(i);
+			buffer.add(e, offset);
 			if (tracker != null) {
-				for (KmerSupportNode sn : supportNodes) {
-					tracker.track(sn);
-				}
+				tracker.track(e, offset);
 			}
 		}
 	}
-	private boolean addSupport(List<KmerSupportNode> supportNodes, DirectedEvidence de, KmerEvidence e) {
+	/**
+	 * Determines the kmers of the given evidence that provide support
+	 * @param supportOffsets offsets of supporting kmers
+	 * @return true if any supporting kmer is not anchored to the reference
+	 */
+	private boolean addSupport(IntArrayList supportOffsets, DirectedEvidence de, KmerEvidence e) {
 		boolean hasNonReference = false;
 		if (e != null) {
 			for (int i = 0; i < e.length(); i++) {
-				KmerSupportNode support = e.node(i); 
-				if (support != null) {
+				if (e.isSupporting(i)) {
+					int supportStart = e.startPosition() + i;
+					int supportWeight = e.weight(i);
 					// make sure that we are actually able to resort into kmer order
-					if (support.firstStart() < de.getBreakendSummary().start - maxSupportStartPositionOffset) {
+					if (supportStart < de.getBreakendSummary().start - maxSupportStartPositionOffset) {
 						SAMRecord read = null;
 						if (de instanceof SingleReadEvidence) {
 							read = ((SingleReadEvidence)de).getSAMRecord(); 
@@ -148,17 +165,17 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 								+ " Kmer support starts at %d which is more than %d before the breakpoint start position at %s",
 								de.getEvidenceID(),
 								readString,
-								support.firstStart(), maxSupportStartPositionOffset, de.getBreakendSummary());
+								supportStart, maxSupportStartPositionOffset, de.getBreakendSummary());
 						log.error(msg);
 						// Try to continue
 						//throw new RuntimeException(msg);
-					} else if (support.weight() <= 0) {
-						String msg = String.format("Invalid support weight of %d for evidence %s", support.weight(), de.getEvidenceID());
+					} else if (supportWeight <= 0) {
+						String msg = String.format("Invalid support weight of %d for evidence %s", supportWeight, de.getEvidenceID());
 						log.error(msg);
 						throw new RuntimeException(msg);
 					} else {
-						supportNodes.add(support);
-						hasNonReference |= !support.isReference();
+						supportOffsets.add(i);
+						hasNonReference |= !e.isAnchored(i);
 					}
 				}
 			}
@@ -172,19 +189,45 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	}
 	@Override
 	public KmerSupportNode next() {
-		ensureBuffer();
-		KmerSupportNode node = buffer.poll();
-		assert(node.lastStart() >= lastPosition);
-		lastPosition = node.lastStart();		
-		return node;
+		int slot = nextSlot();
+		return new KmerSupportNode(buffer.evidence(slot), buffer.offset(slot));
 	}
 	@Override
 	public KmerSupportNode peek() {
 		ensureBuffer();
-		return buffer.peek();
+		int slot = buffer.peek();
+		return new KmerSupportNode(buffer.evidence(slot), buffer.offset(slot));
+	}
+	/**
+	 * Start position of the next kmer support
+	 */
+	int peekFirstStart() {
+		ensureBuffer();
+		return buffer.start(buffer.peek());
+	}
+	/**
+	 * Advances to the next kmer support without allocating a KmerSupportNode.
+	 * 
+	 * @return slot in {@link #buffer()} of the kmer support.
+	 * The slot is valid until the next call to this iterator.
+	 */
+	int nextSlot() {
+		ensureBuffer();
+		int slot = buffer.poll();
+		assert(buffer.start(slot) >= lastPosition);
+		lastPosition = buffer.start(slot);
+		lastSlot = slot;
+		return slot;
+	}
+	SupportNodeBuffer buffer() {
+		return buffer;
 	}
 	private void ensureBuffer() {
-		while (underlying.hasNext() && (buffer.isEmpty() || buffer.peek().lastStart() > inputPosition - emitOffset)) {
+		if (lastSlot >= 0) {
+			buffer.release(lastSlot);
+			lastSlot = -1;
+		}
+		while (underlying.hasNext() && (buffer.isEmpty() || buffer.start(buffer.peek()) > inputPosition - emitOffset)) {
 			inputPosition = underlying.peek().getBreakendSummary().start;
 			advance();
 		}
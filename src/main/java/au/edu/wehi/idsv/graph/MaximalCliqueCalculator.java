@@ -0,0 +1,22 @@
+package au.edu.wehi.idsv.graph;
+
+import java.util.List;
+
+/**
+ * Streaming maximal clique calculator of a rectangle graph
+ *
+ * @author Daniel Cameron
+ */
+public interface MaximalCliqueCalculator {
+	/**
+	 * Adds the given node to the graph.
+	 * @param node node to add. Nodes must be added in ByStartXY order
+	 * @return maximal cliques that can no longer be extended by subsequent nodes
+	 */
+	List<RectangleGraphNode> next(RectangleGraphNode node);
+	/**
+	 * Completes processing of the graph
+	 * @return all remaining maximal cliques
+	 */
+	List<RectangleGraphNode> complete();
+}
@@ -0,0 +1,463 @@
+package au.edu.wehi.idsv.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import au.edu.wehi.idsv.Defaults;
+
+/**
+ * Calculates all maximal cliques of a rectangle graph.
+ *
+ * This is an array-based implementation of the {@link RectangleGraphMaximalCliqueCalculator}
+ * scanline algorithm. Active nodes are held in pooled primitive arrays indexed by
+ * binary heaps keyed on end X and end Y, and scanline intervals are a linked list
+ * of pooled array slots. No allocation is performed per event other than for the called cliques.
+ *
+ * @author Daniel Cameron
+ */
+public class PrimitiveRectangleGraphMaximalCliqueCalculator implements MaximalCliqueCalculator {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int NIL = -1;
+	private long lastStartX = Long.MIN_VALUE;
+	private long lastStartY = Long.MIN_VALUE;
+	private List<RectangleGraphNode> outBuffer;
+	// Active node pool
+	private long[] nodeEndX = new long[INITIAL_CAPACITY];
+	private long[] nodeStartY = new long[INITIAL_CAPACITY];
+	private long[] nodeEndY = new long[INITIAL_CAPACITY];
+	private long[] nodeWeight = new long[INITIAL_CAPACITY];
+	private int[] nodeFree = new int[INITIAL_CAPACITY];
+	private int nodeFreeCount = 0;
+	private int nodeAllocated = 0;
+	/**
+	 * Binary heap of node pool indexes ordered by endX, startY, endY
+	 */
+	private int[] activeEndingX = new int[INITIAL_CAPACITY];
+	private int activeEndingXSize = 0;
+	/**
+	 * Binary heap of nodes of which the start Y has been processed but the end Y has not yet been encountered.
+	 * Only the end Y and weight are required so these are stored directly in the heap.
+	 */
+	private long[] activeScanlineEndingY = new long[INITIAL_CAPACITY];
+	private long[] activeScanlineEndingYWeight = new long[INITIAL_CAPACITY];
+	private int activeScanlineEndingYSize = 0;
+	/**
+	 * Nodes ending on the current scanline
+	 */
+	private int[] endingCurrentScanline = new int[INITIAL_CAPACITY];
+	// Scanline interval pool
+	// Scanline coordinates use half-open intervals.
+	private long[] intervalStartY = new long[INITIAL_CAPACITY];
+	/**
+	 * Long.MAX_VALUE indicates this interval is not maximal
+	 */
+	private long[] intervalStartX = new long[INITIAL_CAPACITY];
+	private long[] intervalWeight = new long[INITIAL_CAPACITY];
+	private int[] intervalStartHere = new int[INITIAL_CAPACITY];
+	private int[] intervalEndHere = new int[INITIAL_CAPACITY];
+	private int[] intervalNext = new int[INITIAL_CAPACITY];
+	private int intervalFreeHead = NIL;
+	private int intervalAllocated = 0;
+	private final int activeScanlineStart;
+	private int activeScanlineCurrentPosition;
+	private long activeScanlineActiveWeight = 0;
+	private long scanlineX = Long.MIN_VALUE;
+	public PrimitiveRectangleGraphMaximalCliqueCalculator() {
+		int sentinel = allocateInterval(Long.MAX_VALUE - 1, 0, 0, NIL);
+		activeScanlineStart = allocateInterval(Long.MIN_VALUE, 0, 0, sentinel);
+		activeScanlineCurrentPosition = activeScanlineStart;
+		assert(sanityCheckScanlineComplete());
+	}
+	private int allocateNode(RectangleGraphNode node) {
+		int i;
+		if (nodeFreeCount > 0) {
+			i = nodeFree[--nodeFreeCount];
+		} else {
+			i = nodeAllocated++;
+			if (i >= nodeEndX.length) {
+				int size = nodeEndX.length * 2;
+				nodeEndX = Arrays.copyOf(nodeEndX, size);
+				nodeStartY = Arrays.copyOf(nodeStartY, size);
+				nodeEndY = Arrays.copyOf(nodeEndY, size);
+				nodeWeight = Arrays.copyOf(nodeWeight, size);
+				nodeFree = Arrays.copyOf(nodeFree, size);
+			}
+		}
+		nodeEndX[i] = node.endX;
+		nodeStartY[i] = node.startY;
+		nodeEndY[i] = node.endY;
+		nodeWeight[i] = node.weight;
+		return i;
+	}
+	private void freeNode(int i) {
+		nodeFree[nodeFreeCount++] = i;
+	}
+	private int allocateInterval(long startY, long weight, int endHere, int next) {
+		int i;
+		if (intervalFreeHead != NIL) {
+			i = intervalFreeHead;
+			intervalFreeHead = intervalNext[i];
+		} else {
+			i = intervalAllocated++;
+			if (i >= intervalStartY.length) {
+				int size = intervalStartY.length * 2;
+				intervalStartY = Arrays.copyOf(intervalStartY, size);
+				intervalStartX = Arrays.copyOf(intervalStartX, size);
+				intervalWeight = Arrays.copyOf(intervalWeight, size);
+				intervalStartHere = Arrays.copyOf(intervalStartHere, size);
+				intervalEndHere = Arrays.copyOf(intervalEndHere, size);
+				intervalNext = Arrays.copyOf(intervalNext, size);
+			}
+		}
+		intervalStartY[i] = startY;
+		intervalStartX[i] = Long.MAX_VALUE;
+		intervalWeight[i] = weight;
+		intervalStartHere[i] = 0;
+		intervalEndHere[i] = endHere;
+		intervalNext[i] = next;
+		return i;
+	}
+	private void freeInterval(int i) {
+		intervalNext[i] = intervalFreeHead;
+		intervalFreeHead = i;
+	}
+	/**
+	 * End coordinate of the half-open interval
+	 */
+	private long getEndY(int interval) {
+		int next = intervalNext[interval];
+		if (next == NIL) return Long.MAX_VALUE;
+		return intervalStartY[next];
+	}
+	/**
+	 * Splits the given interval so an interval starts at the given position
+	 * @param interval interval containing y
+	 * @param y start y to ensure
+	 */
+	private void splitAt(int interval, long y) {
+		assert(y >= intervalStartY[interval]);
+		assert(y < getEndY(interval));
+		if (y == intervalStartY[interval]) return;
+		int newNode = allocateInterval(y, intervalWeight[interval], intervalEndHere[interval], intervalNext[interval]);
+		intervalEndHere[interval] = 0;
+		intervalNext[interval] = newNode;
+		intervalStartX[interval] = Long.MAX_VALUE;
+	}
+	private void mergeWithNext(int interval) {
+		int next = intervalNext[interval];
+		assert(next != NIL);
+		assert(intervalNext[next] != NIL); // can't merge with the end sentinal
+		assert(intervalWeight[interval] == intervalWeight[next]);
+		intervalEndHere[interval] = intervalEndHere[next];
+		intervalNext[interval] = intervalNext[next];
+		freeInterval(next);
+	}
+	private boolean endingXLessThan(int a, int b) {
+		if (nodeEndX[a] != nodeEndX[b]) return nodeEndX[a] < nodeEndX[b];
+		if (nodeStartY[a] != nodeStartY[b]) return nodeStartY[a] < nodeStartY[b];
+		return nodeEndY[a] < nodeEndY[b];
+	}
+	private void endingXAdd(int node) {
+		if (activeEndingXSize == activeEndingX.length) {
+			activeEndingX = Arrays.copyOf(activeEndingX, activeEndingX.length * 2);
+		}
+		int i = activeEndingXSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!endingXLessThan(node, activeEndingX[parent])) break;
+			activeEndingX[i] = activeEndingX[parent];
+			i = parent;
+		}
+		activeEndingX[i] = node;
+	}
+	private int endingXPoll() {
+		int result = activeEndingX[0];
+		int node = activeEndingX[--activeEndingXSize];
+		int i = 0;
+		int half = activeEndingXSize >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < activeEndingXSize && endingXLessThan(activeEndingX[child + 1], activeEndingX[child])) {
+				child++;
+			}
+			if (!endingXLessThan(activeEndingX[child], node)) break;
+			activeEndingX[i] = activeEndingX[child];
+			i = child;
+		}
+		activeEndingX[i] = node;
+		return result;
+	}
+	private void endingYAdd(long endY, long weight) {
+		if (activeScanlineEndingYSize == activeScanlineEndingY.length) {
+			activeScanlineEndingY = Arrays.copyOf(activeScanlineEndingY, activeScanlineEndingY.length * 2);
+			activeScanlineEndingYWeight = Arrays.copyOf(activeScanlineEndingYWeight, activeScanlineEndingYWeight.length * 2);
+		}
+		int i = activeScanlineEndingYSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (activeScanlineEndingY[parent] <= endY) break;
+			activeScanlineEndingY[i] = activeScanlineEndingY[parent];
+			activeScanlineEndingYWeight[i] = activeScanlineEndingYWeight[parent];
+			i = parent;
+		}
+		activeScanlineEndingY[i] = endY;
+		activeScanlineEndingYWeight[i] = weight;
+	}
+	/**
+	 * Removes the head of the end Y heap
+	 */
+	private void endingYRemoveHead() {
+		int last = --activeScanlineEndingYSize;
+		long endY = activeScanlineEndingY[last];
+		long weight = activeScanlineEndingYWeight[last];
+		int i = 0;
+		int half = activeScanlineEndingYSize >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < activeScanlineEndingYSize && activeScanlineEndingY[child + 1] < activeScanlineEndingY[child]) {
+				child++;
+			}
+			if (activeScanlineEndingY[child] >= endY) break;
+			activeScanlineEndingY[i] = activeScanlineEndingY[child];
+			activeScanlineEndingYWeight[i] = activeScanlineEndingYWeight[child];
+			i = child;
+		}
+		activeScanlineEndingY[i] = endY;
+		activeScanlineEndingYWeight[i] = weight;
+	}
+	private List<RectangleGraphNode> getCalledCliques() {
+		List<RectangleGraphNode> result = outBuffer == null ? ImmutableList.<RectangleGraphNode>of() : outBuffer;
+		outBuffer = null;
+		return result;
+	}
+	@Override
+	public List<RectangleGraphNode> next(RectangleGraphNode node) {
+		assert(node.startX <= node.endX);
+		assert(node.startY <= node.endY);
+		assert(node.weight > 0);
+		assert(node.startX >= scanlineX);
+		assert(node.startX > lastStartX || (node.startX == lastStartX && node.startY >= lastStartY));
+		lastStartX = node.startX;
+		lastStartY = node.startY;
+		if (node.startX != scanlineX) {
+			scanlineCompleteProcessing(1);
+			// advance scanline
+			processEndXBefore(node.startX);
+			scanlineX = node.startX;
+		}
+		incorporateInCurrentScanline(node.startY, node.endY, node.weight, 1);
+		endingXAdd(allocateNode(node));
+		return getCalledCliques();
+	}
+	private void mergeIntervals() {
+		assert(activeScanlineEndingYSize == 0); // can't merge in the middle of processing
+		// (make sure we don't merge our end sentinal
+		for (int si = activeScanlineStart; si != NIL && intervalNext[si] != NIL && intervalNext[intervalNext[si]] != NIL; si = intervalNext[si]) {
+			// merge consecutive nodes
+			while (intervalEndHere[si] == 0 && intervalStartHere[intervalNext[si]] == 0 && intervalNext[intervalNext[si]] != NIL) {
+				// we can merge these together since the separating node is no longer around
+				mergeWithNext(si);
+			}
+		}
+	}
+	/**
+	 * Advances the current scanline position to the starting interval
+	 * of the given node and adds the given node to the scanline active set
+	 * @Param multiplier 1 indicates we are incorporating the start of the node to the current scanline
+	 * -1 indicates we are incorporating the end of the node to the current scanline
+	 */
+	private void incorporateInCurrentScanline(long startY, long endY, long weight, int multiplier) {
+		assert(multiplier == -1 || multiplier == 1);
+		assert(intervalStartY[activeScanlineCurrentPosition] <= startY);
+		scanlineProcessYEndBefore(startY, multiplier);
+		if (intervalStartY[activeScanlineCurrentPosition] != startY) {
+			splitAt(activeScanlineCurrentPosition, startY);
+			scanlineProcessYEndBefore(startY, multiplier);
+		}
+		activeScanlineActiveWeight += weight;
+		intervalStartHere[activeScanlineCurrentPosition] += multiplier;
+		endingYAdd(endY, weight);
+		assert(intervalStartY[activeScanlineCurrentPosition] == startY);
+		assert(sanityCheckScanlineActive());
+	}
+	/**
+	 * Advances the current scanline position to the half-open interval containing the given y position.
+	 * @param endYBefore position to advance to
+	 */
+	private void scanlineProcessYEndBefore(long endYBefore, int multiplier) {
+		while (activeScanlineEndingYSize > 0 && activeScanlineEndingY[0] < endYBefore) {
+			long endYexclusive = activeScanlineEndingY[0] + 1;
+			int yendCount = 0;
+			long yendWeight = 0;
+			while (activeScanlineEndingYSize > 0 && activeScanlineEndingY[0] + 1 == endYexclusive) {
+				yendCount++;
+				yendWeight += activeScanlineEndingYWeight[0];
+				endingYRemoveHead();
+			}
+			advanceScanlineToIntervalContaining(endYexclusive - 1, multiplier);
+			if (getEndY(activeScanlineCurrentPosition) > endYexclusive) {
+				splitAt(activeScanlineCurrentPosition, endYexclusive);
+			}
+			// no need to advance here since our current position is correct
+			intervalEndHere[activeScanlineCurrentPosition] += yendCount * multiplier;
+			advanceScanlineToIntervalContaining(endYexclusive, multiplier); // move on past our closing position
+			activeScanlineActiveWeight -= yendWeight;
+		}
+		// advance position to node containing endYBefore
+		advanceScanlineToIntervalContaining(endYBefore, multiplier);
+	}
+	/**
+	 * Advances the current scanline to the interval containing the given position,
+	 * updating scanline weights based on activeScanlineActiveWeight
+	 * @param y included in half-open interval to advance scanline to
+	 */
+	private void advanceScanlineToIntervalContaining(long y, int multiplier) {
+		assert(intervalStartY[activeScanlineCurrentPosition] <= y); // can't advance backwards
+		int current = activeScanlineCurrentPosition;
+		while (getEndY(current) <= y) {
+			intervalWeight[current] += activeScanlineActiveWeight * multiplier;
+			if (activeScanlineActiveWeight != 0) {
+				// could be maximal if we're adding new evidence
+				// if we're removing evidence then we're now definitely not maximal
+				// if we're doing neither then there is no change from the previous scanline
+				intervalStartX[current] = Long.MAX_VALUE;
+				if (multiplier == 1 && intervalStartHere[current] > 0 && intervalEndHere[current] > 0) {
+					intervalStartX[current] = scanlineX;
+				}
+			}
+			current = intervalNext[current];
+		}
+		activeScanlineCurrentPosition = current;
+	}
+	/**
+	 * Calls maximum cliques
+	 * @param endingCount number of nodes in endingCurrentScanline. Maximum cliques will always occur within one of these intervals
+	 */
+	private void callMaximumCliques(int endingCount) {
+		int interval = activeScanlineStart;
+		int index = 0;
+		while (index < endingCount) {
+			long startY = nodeStartY[endingCurrentScanline[index]];
+			long endYexclusive = nodeEndY[endingCurrentScanline[index]] + 1;
+			index++;
+			while (index < endingCount && nodeStartY[endingCurrentScanline[index]] <= endYexclusive) {
+				// expand the current calling interval due to overlap
+				endYexclusive = Math.max(endYexclusive, nodeEndY[endingCurrentScanline[index]] + 1);
+				index++;
+			}
+			// advance to interval
+			while (getEndY(interval) <= startY) {
+				interval = intervalNext[interval];
+			}
+			// call cliques in interval
+			assert(intervalStartY[interval] == startY);
+			while (intervalStartY[interval] < endYexclusive) {
+				if (intervalStartX[interval] != Long.MAX_VALUE) {
+					outBuffer.add(new RectangleGraphNode(
+							intervalStartX[interval], scanlineX,
+							intervalStartY[interval], getEndY(interval) - 1, // convert back from half-open to close interval
+							intervalWeight[interval]));
+				}
+				interval = intervalNext[interval];
+			}
+			assert(intervalStartY[interval] == endYexclusive);
+		}
+	}
+	private void scanlineCompleteProcessing(int multiplier) {
+		scanlineProcessYEndBefore(Long.MAX_VALUE - 1, multiplier);
+		// reset ready for next scanline
+		activeScanlineCurrentPosition = activeScanlineStart;
+		if (multiplier == -1) {
+			// removal of nodes can result in adjacent intervals requiring merge
+			mergeIntervals();
+		}
+		assert(sanityCheckScanlineComplete());
+	}
+	private boolean sanityCheckScanlineActive() {
+		if (!Defaults.SANITY_CHECK_CLIQUE) return true;
+		assert(sanityCheck());
+		assert(activeScanlineEndingYSize > 0);
+		assert(activeScanlineActiveWeight > 0);
+		assert(activeScanlineCurrentPosition != NIL);
+		assert(intervalStartY[activeScanlineCurrentPosition] < Long.MAX_VALUE - 1);
+		assert(getEndY(activeScanlineCurrentPosition) < Long.MAX_VALUE);
+		return true;
+	}
+	private boolean sanityCheckScanlineComplete() {
+		if (!Defaults.SANITY_CHECK_CLIQUE) return true;
+		assert(sanityCheck());
+		assert(activeScanlineCurrentPosition == activeScanlineStart);
+		assert(activeScanlineEndingYSize == 0);
+		assert(activeScanlineActiveWeight == 0);
+		for (int si = intervalNext[activeScanlineStart]; si != NIL && intervalNext[si] != NIL; si = intervalNext[si]) {
+			if (intervalNext[intervalNext[si]] != NIL) {
+				// something should be splitting this node from the previous one
+				assert(intervalEndHere[si] > 0 || intervalStartHere[intervalNext[si]] > 0);
+			}
+		}
+		return true;
+	}
+	private boolean sanityCheck() {
+		if (!Defaults.SANITY_CHECK_CLIQUE) return true;
+		assert(activeScanlineStart != NIL);
+		assert(intervalStartY[activeScanlineStart] == Long.MIN_VALUE);
+		assert(intervalWeight[activeScanlineStart] == 0);
+		assert(intervalStartHere[activeScanlineStart] == 0);
+		assert(intervalEndHere[activeScanlineStart] == 0);
+		// check activeScanline is ordered
+		for (int lastsi = NIL, si = activeScanlineStart; si != NIL; lastsi = si, si = intervalNext[si]) {
+			assert(intervalStartY[si] < getEndY(si));
+			if (lastsi != NIL) {
+				assert(intervalStartY[lastsi] < intervalStartY[si]);
+				assert(getEndY(lastsi) == intervalStartY[si]);
+			}
+			if (intervalNext[si] == NIL) {
+				// sentinel
+				assert(intervalStartY[si] == Long.MAX_VALUE - 1);
+				assert(intervalWeight[si] == 0);
+				assert(intervalStartHere[si] == 0);
+				assert(intervalEndHere[si] == 0);
+			}
+		}
+		long weight = 0;
+		for (int i = 0; i < activeScanlineEndingYSize; i++) {
+			assert(activeScanlineEndingY[i] >= intervalStartY[activeScanlineCurrentPosition]);
+			weight += activeScanlineEndingYWeight[i];
+		}
+		assert(activeScanlineActiveWeight == weight);
+		return true;
+	}
+	private void processEndXBefore(long endBeforeX) {
+		outBuffer = new ArrayList<RectangleGraphNode>();
+		while (activeEndingXSize > 0 && nodeEndX[activeEndingX[0]] < endBeforeX) {
+			scanlineX = nodeEndX[activeEndingX[0]];
+			processEndingXOnCurrentScanline();
+		}
+	}
+	private void processEndingXOnCurrentScanline() {
+		assert(activeScanlineEndingYSize == 0);
+		int endingCount = 0;
+		while (activeEndingXSize > 0 && nodeEndX[activeEndingX[0]] == scanlineX) {
+			if (endingCount == endingCurrentScanline.length) {
+				endingCurrentScanline = Arrays.copyOf(endingCurrentScanline, endingCurrentScanline.length * 2);
+			}
+			endingCurrentScanline[endingCount++] = endingXPoll();
+		}
+		callMaximumCliques(endingCount);
+		for (int i = 0; i < endingCount; i++) {
+			int node = endingCurrentScanline[i];
+			incorporateInCurrentScanline(nodeStartY[node], nodeEndY[node], nodeWeight[node], -1);
+			freeNode(node);
+		}
+		scanlineCompleteProcessing(-1);
+	}
+	@Override
+	public List<RectangleGraphNode> complete() {
+		scanlineCompleteProcessing(1);
+		processEndXBefore(Long.MAX_VALUE);
+		return outBuffer;
+	}
+}
@@ -25,7 +25,7 @@ import au.edu.wehi.idsv.Defaults;
  * 
  * @author Daniel Cameron
  */
-public class RectangleGraphMaximalCliqueCalculator {
+public class RectangleGraphMaximalCliqueCalculator implements MaximalCliqueCalculator {
 	private RectangleGraphNode lastNode = null;
 	private List<RectangleGraphNode> outBuffer;
 	private final PriorityQueue<RectangleGraphNode> activeEndingX = new PriorityQueue<RectangleGraphNode>(11, RectangleGraphNode.ByEndXStartYEndY); // sorted by endX
@@ -146,6 +146,7 @@ public class RectangleGraphMaximalCliqueCalculator {
 	 * @param node
 	 * @return
 	 */
+	@Override
 	public List<RectangleGraphNode> next(RectangleGraphNode node) {
 		assert(node.startX <= node.endX);
 		assert(node.startY <= node.endY);
@@ -375,6 +376,7 @@ public class RectangleGraphMaximalCliqueCalculator {
 		}
 		scanlineCompleteProcessing(-1);
 	}
+	@Override
 	public List<RectangleGraphNode> complete() {
 		scanlineCompleteProcessing(1);
 		processEndXBefore(Long.MAX_VALUE);
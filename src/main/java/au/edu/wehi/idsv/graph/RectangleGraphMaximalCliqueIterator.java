@@ -6,6 +6,8 @@ import java.util.Queue;
 
 import com.google.common.collect.AbstractIterator;
 
+import au.edu.wehi.idsv.Defaults;
+
 /**
  * Streaming maximal clique caller wrapper
  * 
@@ -13,7 +15,7 @@ import com.google.common.collect.AbstractIterator;
  */
 public class RectangleGraphMaximalCliqueIterator extends AbstractIterator<RectangleGraphNode> {
 	private final Queue<RectangleGraphNode> buffer = new ArrayDeque<RectangleGraphNode>();
-	private RectangleGraphMaximalCliqueCalculator calc = new RectangleGraphMaximalCliqueCalculator();
+	private MaximalCliqueCalculator calc = Defaults.LEGACY_CLIQUE_CALCULATOR ? new RectangleGraphMaximalCliqueCalculator() : new PrimitiveRectangleGraphMaximalCliqueCalculator();
 	private Iterator<RectangleGraphNode> it;
 	public RectangleGraphMaximalCliqueIterator(Iterator<RectangleGraphNode> it) {
 		this.it = it;
@@ -10,7 +10,8 @@ import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.util.Log;
 
 /**
- * Buffers entire reference to enable efficient random lookup of sequences
+ * Buffers entire reference to enable efficient random lookup of sequences.
+ * Ambiguous bases are replaced with N.
  * @author Daniel Cameron
  *
  */
@@ -27,13 +28,20 @@ public class BufferedReferenceSequenceFile implements ReferenceSequenceFile, Ref
 		this.referenceIndexLookup = new ReferenceSequence[underlying.getSequenceDictionary().getSequences().size()];
 	}
 	public byte getBase(int referenceIndex, int position) {
+		return getCachedSequence(referenceIndex).getBases()[position - 1];
+	}
+	@Override
+	public void getBases(int referenceIndex, int start, byte[] buffer, int offset, int length) {
+		System.arraycopy(getCachedSequence(referenceIndex).getBases(), start - 1, buffer, offset, length);
+	}
+	private ReferenceSequence getCachedSequence(int referenceIndex) {
 		ReferenceSequence seq = referenceIndexLookup[referenceIndex];
 		if (seq == null) {
 			synchronized (referenceIndexLookup) {
 				seq = addToCache(underlying.getSequenceDictionary().getSequence(referenceIndex).getSequenceName());
 			}
 		}
-		return seq.getBases()[position - 1];
+		return seq;
 	}
 	@Override
 	public SAMSequenceDictionary getSequenceDictionary() {
@@ -64,6 +72,10 @@ public class BufferedReferenceSequenceFile implements ReferenceSequenceFile, Ref
 		}
 		log.debug("Caching reference genome contig ", contig);
 		seq = underlying.getSequence(contig);
+		byte[] bases = ReferenceLookup.maskAmbiguousBases(seq.getBases());
+		if (bases != seq.getBases()) {
+			seq = new ReferenceSequence(seq.getName(), seq.getContigIndex(), bases);
+		}
 		cache = ImmutableMap.<String, ReferenceSequence>builder()
 				.putAll(cache)
 				.put(contig, seq)
@@ -8,6 +8,7 @@ import htsjdk.samtools.reference.ReferenceSequence;
 
 /**
  * Reference genome stored only in memory and not backed by a fasta file.
+ * Ambiguous bases are replaced with N.
  * 
  * @author Daniel Cameron
  *
@@ -21,7 +22,10 @@ public class InMemoryReferenceSequenceFile implements ReferenceLookup {
 		for (int i = 0; i < contigNames.length; i++) {
 			dictionary.addSequence(new SAMSequenceRecord(contigNames[i], sequences[i].length));	
 		}
-		this.sequences = sequences;
+		this.sequences = new byte[sequences.length][];
+		for (int i = 0; i < sequences.length; i++) {
+			this.sequences[i] = ReferenceLookup.maskAmbiguousBases(sequences[i]);
+		}
 	}
 	@Override
 	public SAMSequenceDictionary getSequenceDictionary() {
@@ -61,4 +65,8 @@ public class InMemoryReferenceSequenceFile implements ReferenceLookup {
 	public byte getBase(int referenceIndex, int position) {
 		return sequences[referenceIndex][position - 1];
 	}
+	@Override
+	public void getBases(int referenceIndex, int start, byte[] buffer, int offset, int length) {
+		System.arraycopy(sequences[referenceIndex], start - 1, buffer, offset, length);
+	}
 }
@@ -0,0 +1,327 @@
+package au.edu.wehi.idsv.picard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import au.edu.wehi.idsv.FileSystemContext;
+import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
+import au.edu.wehi.idsv.util.FileHelper;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.util.Log;
+
+/**
+ * Read-only memory mapped 2bit encoded reference genome image.
+ *
+ * The image is written once next to the reference fasta and contains the
+ * sequence dictionary, the 2bit packed bases, and an ambiguous base mask
+ * for each contig. Since the image is memory mapped, the reference genome
+ * does not need to be loaded into the heap, and concurrent processes
+ * on the same machine share the same page cache copy of the image.
+ *
+ * Bases are packed in the same format as PackedSequence: first base
+ * in the most significant bits of the first word. Bit i of mask word j is
+ * set if base 64*j+i is ambiguous.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class MemoryMappedReferenceSequenceFile implements ReferenceLookup {
+	private static final Log log = Log.getInstance(MemoryMappedReferenceSequenceFile.class);
+	public static final String IMAGE_SUFFIX = ".gridss.2bit";
+	private static final String MAGIC = "GRIDSS2B";
+	private static final int VERSION = 1;
+	private static final int BASES_PER_WORD = Long.SIZE / 2;
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+	private static final byte[] ENCODED_TO_BASE = new byte[] {
+			KmerEncodingHelper.encodedToPicardBase(0),
+			KmerEncodingHelper.encodedToPicardBase(1),
+			KmerEncodingHelper.encodedToPicardBase(2),
+			KmerEncodingHelper.encodedToPicardBase(3) };
+	private final File file;
+	private final SAMSequenceDictionary dictionary;
+	private final int[] contigLength;
+	private final long[] basesOffset;
+	private final long[] maskOffset;
+	/**
+	 * Image file mapped in segments since a single mapping is limited to 2GB
+	 */
+	private final MappedByteBuffer[] segments;
+	private int nextSequenceIndex = 0;
+	/**
+	 * Opens an existing reference genome image
+	 * @param file reference image
+	 */
+	public MemoryMappedReferenceSequenceFile(File file) throws IOException {
+		this.file = file;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			readMagic(in, file);
+			in.readLong(); // fasta length
+			in.readLong(); // fasta last modified
+			int contigCount = in.readInt();
+			this.dictionary = new SAMSequenceDictionary();
+			this.contigLength = new int[contigCount];
+			this.basesOffset = new long[contigCount];
+			this.maskOffset = new long[contigCount];
+			for (int i = 0; i < contigCount; i++) {
+				SAMSequenceRecord ssr = new SAMSequenceRecord(in.readUTF(), in.readInt());
+				int attributeCount = in.readInt();
+				for (int j = 0; j < attributeCount; j++) {
+					ssr.setAttribute(in.readUTF(), in.readUTF());
+				}
+				dictionary.addSequence(ssr);
+				contigLength[i] = ssr.getSequenceLength();
+				basesOffset[i] = in.readLong();
+				maskOffset[i] = in.readLong();
+			}
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			long size = channel.size();
+			segments = new MappedByteBuffer[(int)((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = (long)i << SEGMENT_SHIFT;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+			}
+		}
+	}
+	/**
+	 * Gets the reference genome image file for the given reference genome
+	 */
+	public static File getImageFile(File fasta) {
+		return new File(fasta.getAbsolutePath() + IMAGE_SUFFIX);
+	}
+	private static void readMagic(DataInputStream in, File file) throws IOException {
+		byte[] magic = new byte[MAGIC.length()];
+		in.readFully(magic);
+		int version = in.readInt();
+		if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII)) || version != VERSION) {
+			throw new IOException(String.format("%s is not a version %d reference genome image", file, VERSION));
+		}
+	}
+	/**
+	 * Determines whether the given image exists and was created from the current version of the given fasta
+	 */
+	public static boolean isCurrent(File fasta, File image) {
+		if (!image.exists()) return false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(image)))) {
+			readMagic(in, image);
+			return in.readLong() == fasta.length() && in.readLong() == fasta.lastModified();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	/**
+	 * Writes a reference genome image. Contigs are loaded one at a time.
+	 * @param fasta reference genome fasta
+	 * @param reference reference genome
+	 * @param image output image file
+	 */
+	public static void write(File fasta, ReferenceSequenceFile reference, File image) throws IOException {
+		List<SAMSequenceRecord> contigs = reference.getSequenceDictionary().getSequences();
+		// offsets are fixed size so the header size is known before the offsets are
+		long headerSize = writeHeader(new DataOutputStream(new ByteArrayOutputStream()), fasta, contigs, null, null);
+		long[] basesOffset = new long[contigs.size()];
+		long[] maskOffset = new long[contigs.size()];
+		// word align the packed data
+		long dataStart = (headerSize + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+		long offset = dataStart;
+		for (int i = 0; i < contigs.size(); i++) {
+			int length = contigs.get(i).getSequenceLength();
+			basesOffset[i] = offset;
+			offset += (long)packedWords(length) * Long.BYTES;
+			maskOffset[i] = offset;
+			offset += (long)maskWords(length) * Long.BYTES;
+		}
+		// unique working file as concurrent processes could be creating the same image
+		File tmp = FileSystemContext.getWorkingFileFor(image, "gridss.tmp." + UUID.randomUUID().toString() + ".");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			for (long written = writeHeader(out, fasta, contigs, basesOffset, maskOffset); written < dataStart; written++) {
+				out.writeByte(0);
+			}
+			for (SAMSequenceRecord ssr : contigs) {
+				byte[] bases = reference.getSequence(ssr.getSequenceName()).getBases();
+				if (bases.length != ssr.getSequenceLength()) {
+					throw new IOException(String.format("Length of %s does not match sequence dictionary", ssr.getSequenceName()));
+				}
+				long word = 0;
+				for (int i = 0; i < bases.length; i++) {
+					word = (word << 2) | KmerEncodingHelper.picardBaseToEncoded(bases[i]);
+					if (i % BASES_PER_WORD == BASES_PER_WORD - 1) {
+						out.writeLong(word);
+						word = 0;
+					}
+				}
+				if (bases.length % BASES_PER_WORD != 0) {
+					out.writeLong(word << (2 * (BASES_PER_WORD - bases.length % BASES_PER_WORD)));
+				}
+				long mask = 0;
+				for (int i = 0; i < bases.length; i++) {
+					if (KmerEncodingHelper.isAmbiguous(bases[i])) {
+						mask |= 1L << (i % Long.SIZE);
+					}
+					if (i % Long.SIZE == Long.SIZE - 1) {
+						out.writeLong(mask);
+						mask = 0;
+					}
+				}
+				if (bases.length % Long.SIZE != 0) {
+					out.writeLong(mask);
+				}
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		FileHelper.move(tmp, image, false);
+		log.info("Created reference genome image ", image);
+	}
+	private static long writeHeader(DataOutputStream out, File fasta, List<SAMSequenceRecord> contigs, long[] basesOffset, long[] maskOffset) throws IOException {
+		out.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+		out.writeInt(VERSION);
+		out.writeLong(fasta.length());
+		out.writeLong(fasta.lastModified());
+		out.writeInt(contigs.size());
+		for (int i = 0; i < contigs.size(); i++) {
+			SAMSequenceRecord ssr = contigs.get(i);
+			out.writeUTF(ssr.getSequenceName());
+			out.writeInt(ssr.getSequenceLength());
+			out.writeInt(ssr.getAttributes().size());
+			for (Entry<String, String> attr : ssr.getAttributes()) {
+				out.writeUTF(attr.getKey());
+				out.writeUTF(attr.getValue());
+			}
+			out.writeLong(basesOffset == null ? 0 : basesOffset[i]);
+			out.writeLong(maskOffset == null ? 0 : maskOffset[i]);
+		}
+		out.flush();
+		return out.size();
+	}
+	private static int packedWords(int length) {
+		return (length + BASES_PER_WORD - 1) / BASES_PER_WORD;
+	}
+	private static int maskWords(int length) {
+		return (length + Long.SIZE - 1) / Long.SIZE;
+	}
+	private long getWord(long byteOffset) {
+		return segments[(int)(byteOffset >>> SEGMENT_SHIFT)].getLong((int)(byteOffset & SEGMENT_MASK));
+	}
+	@Override
+	public byte getBase(int referenceIndex, int position) {
+		int offset = position - 1;
+		if (offset < 0 || offset >= contigLength[referenceIndex]) {
+			throw new IllegalArgumentException(String.format("Position %d outside of bounds of %s", position, dictionary.getSequence(referenceIndex).getSequenceName()));
+		}
+		long mask = getWord(maskOffset[referenceIndex] + (long)(offset / Long.SIZE) * Long.BYTES);
+		if ((mask & (1L << (offset % Long.SIZE))) != 0) {
+			return 'N';
+		}
+		long word = getWord(basesOffset[referenceIndex] + (long)(offset / BASES_PER_WORD) * Long.BYTES);
+		return ENCODED_TO_BASE[(int)(word >>> (2 * (BASES_PER_WORD - 1 - offset % BASES_PER_WORD))) & 3];
+	}
+	@Override
+	public void getBases(int referenceIndex, int start, byte[] buffer, int offset, int length) {
+		if (length <= 0) return;
+		int first = start - 1;
+		int end = first + length;
+		if (first < 0 || end > contigLength[referenceIndex]) {
+			throw new IllegalArgumentException(String.format("%s:%d-%d outside of contig bounds", dictionary.getSequence(referenceIndex).getSequenceName(), start, start + length - 1));
+		}
+		// unpack a word at a time
+		int i = offset;
+		int wordIndex = first / BASES_PER_WORD;
+		int basesToSkipInWord = first % BASES_PER_WORD;
+		while (i < offset + length) {
+			long word = getWord(basesOffset[referenceIndex] + (long)wordIndex * Long.BYTES) << (2 * basesToSkipInWord);
+			int basesInWord = Math.min(BASES_PER_WORD - basesToSkipInWord, offset + length - i);
+			for (int j = 0; j < basesInWord; j++) {
+				buffer[i++] = ENCODED_TO_BASE[(int)(word >>> (Long.SIZE - 2))];
+				word <<= 2;
+			}
+			wordIndex++;
+			basesToSkipInWord = 0;
+		}
+		// mask ambiguous bases a word at a time
+		for (int w = first / Long.SIZE; w <= (end - 1) / Long.SIZE; w++) {
+			long bits = getWord(maskOffset[referenceIndex] + (long)w * Long.BYTES);
+			if (bits == 0) continue;
+			int wordStart = w * Long.SIZE;
+			if (first > wordStart) {
+				bits &= -1L << (first - wordStart);
+			}
+			if (end - wordStart < Long.SIZE) {
+				bits &= (1L << (end - wordStart)) - 1;
+			}
+			while (bits != 0) {
+				int position = wordStart + Long.numberOfTrailingZeros(bits);
+				buffer[offset + position - first] = 'N';
+				bits &= bits - 1;
+			}
+		}
+	}
+	@Override
+	public SAMSequenceDictionary getSequenceDictionary() {
+		return dictionary;
+	}
+	@Override
+	public synchronized ReferenceSequence nextSequence() {
+		if (nextSequenceIndex >= contigLength.length) return null;
+		return getSequence(dictionary.getSequence(nextSequenceIndex++).getSequenceName());
+	}
+	@Override
+	public synchronized void reset() {
+		nextSequenceIndex = 0;
+	}
+	@Override
+	public boolean isIndexed() {
+		return true;
+	}
+	@Override
+	public ReferenceSequence getSequence(String contig) {
+		SAMSequenceRecord ssr = getSequenceRecord(contig);
+		return getSubsequenceAt(contig, 1, ssr.getSequenceLength());
+	}
+	@Override
+	public ReferenceSequence getSubsequenceAt(String contig, long start, long stop) {
+		SAMSequenceRecord ssr = getSequenceRecord(contig);
+		int length = (int)(stop - start + 1);
+		if (length < 0) {
+			throw new IllegalArgumentException("start after stop");
+		}
+		byte[] bases = new byte[length];
+		getBases(ssr.getSequenceIndex(), (int)start, bases, 0, length);
+		return new ReferenceSequence(ssr.getSequenceName(), ssr.getSequenceIndex(), bases);
+	}
+	private SAMSequenceRecord getSequenceRecord(String contig) {
+		SAMSequenceRecord ssr = dictionary.getSequence(contig);
+		if (ssr == null) {
+			throw new IllegalArgumentException(String.format("Contig %s not found in %s", contig, file));
+		}
+		return ssr;
+	}
+	@Override
+	public void close() {
+		// mappings are released when garbage collected
+	}
+	@Override
+	public String toString() {
+		return file.toString();
+	}
+}
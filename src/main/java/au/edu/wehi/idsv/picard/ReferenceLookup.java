@@ -3,11 +3,51 @@ package au.edu.wehi.idsv.picard;
 import java.util.ArrayList;
 import java.util.List;
 
+import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
 import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
 
 public interface ReferenceLookup extends ReferenceSequenceFile {
 	public byte getBase(int referenceIndex, int position);
+	/**
+	 * Writes the reference bases of the given window into the supplied buffer.
+	 * Ambiguous bases are returned as N.
+	 * @param referenceIndex contig
+	 * @param start 1-based position of the first base of the window
+	 * @param buffer buffer to write bases to
+	 * @param offset buffer offset to write the first base to
+	 * @param length number of bases to write. The window must be within the contig bounds.
+	 */
+	default void getBases(int referenceIndex, int start, byte[] buffer, int offset, int length) {
+		if (length <= 0) return;
+		SAMSequenceRecord refseq = getSequenceDictionary().getSequence(referenceIndex);
+		byte[] bases = getSubsequenceAt(refseq.getSequenceName(), start, start + length - 1).getBases();
+		System.arraycopy(bases, 0, buffer, offset, length);
+		for (int i = offset; i < offset + length; i++) {
+			if (KmerEncodingHelper.isAmbiguous(buffer[i])) {
+				buffer[i] = 'N';
+			}
+		}
+	}
+	/**
+	 * Replaces ambiguous bases with N
+	 * @param bases reference bases
+	 * @return bases with all ambiguous bases replaced with N. The given array
+	 * is returned unchanged if it contains no ambiguous bases other than N.
+	 */
+	static byte[] maskAmbiguousBases(byte[] bases) {
+		byte[] masked = bases;
+		for (int i = 0; i < bases.length; i++) {
+			if (bases[i] != 'N' && KmerEncodingHelper.isAmbiguous(bases[i])) {
+				if (masked == bases) {
+					masked = bases.clone();
+				}
+				masked[i] = 'N';
+			}
+		}
+		return masked;
+	}
 	/**
 	 * Gets a list of intervals generated by splitting each contig
 	 * into intervals of the given size
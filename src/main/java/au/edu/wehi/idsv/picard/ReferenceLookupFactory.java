@@ -0,0 +1,55 @@
+package au.edu.wehi.idsv.picard;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import au.edu.wehi.idsv.Defaults;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.Log;
+
+/**
+ * Loads reference genomes for random access lookup
+ * 
+ * @author Daniel Cameron
+ *
+ */
+public class ReferenceLookupFactory {
+	private static final Log log = Log.getInstance(ReferenceLookupFactory.class);
+	/**
+	 * Opens the given reference genome. The memory mapped reference genome
+	 * image is used if possible, otherwise the reference genome is loaded into memory.
+	 * @param fasta indexed reference genome fasta
+	 * @return reference genome
+	 */
+	public static ReferenceLookup open(File fasta) throws FileNotFoundException {
+		ReferenceLookup lookup = openMemoryMapped(fasta);
+		if (lookup == null) {
+			lookup = new TwoBitBufferedReferenceSequenceFile(new IndexedFastaSequenceFile(fasta));
+		}
+		return lookup;
+	}
+	/**
+	 * Opens the memory mapped reference genome image of the given reference genome,
+	 * creating the image if it does not exist or is out of date.
+	 * @param fasta indexed reference genome fasta
+	 * @return memory mapped reference genome, null if memory mapping is disabled or
+	 * the image could not be created.
+	 */
+	public static ReferenceLookup openMemoryMapped(File fasta) {
+		if (!Defaults.MEMORY_MAPPED_REFERENCE) return null;
+		File image = MemoryMappedReferenceSequenceFile.getImageFile(fasta);
+		try {
+			if (!MemoryMappedReferenceSequenceFile.isCurrent(fasta, image)) {
+				log.info("Creating reference genome image ", image);
+				try (IndexedFastaSequenceFile underlying = new IndexedFastaSequenceFile(fasta)) {
+					MemoryMappedReferenceSequenceFile.write(fasta, underlying, image);
+				}
+			}
+			return new MemoryMappedReferenceSequenceFile(image);
+		} catch (IOException e) {
+			log.warn(e, "Unable to use reference genome image ", image, ". Loading reference genome into memory.");
+			return null;
+		}
+	}
+}
@@ -62,4 +62,14 @@ public class SynchronousReferenceLookupAdapter implements ReferenceLookup {
 		if (isClosed) throw new IllegalStateException("Underlying reference has closed");
 		return getSubsequenceAt(getSequenceDictionary().getSequence(referenceIndex).getSequenceName(), position, position).getBases()[0];
 	}
+
+	@Override
+	public synchronized void getBases(int referenceIndex, int start, byte[] buffer, int offset, int length) {
+		if (isClosed) throw new IllegalStateException("Underlying reference has closed");
+		if (underlying instanceof ReferenceLookup) {
+			((ReferenceLookup)underlying).getBases(referenceIndex, start, buffer, offset, length);
+		} else {
+			ReferenceLookup.super.getBases(referenceIndex, start, buffer, offset, length);
+		}
+	}
 }
@@ -1,7 +1,6 @@
 package au.edu.wehi.idsv.picard;
 
 import java.io.IOException;
-import java.util.BitSet;
 
 import com.google.common.collect.ImmutableMap;
 
@@ -30,46 +29,84 @@ public class TwoBitBufferedReferenceSequenceFile implements ReferenceSequenceFil
 		this.referenceIndexLookup = new PackedReferenceSequence[underlying.getSequenceDictionary().getSequences().size()];
 	}
 	public byte getBase(int referenceIndex, int position) {
+		PackedReferenceSequence seq = getCachedSequence(referenceIndex);
+		if (seq.isAmbiguous(position - 1)) {
+			return 'N';
+		}
+		return seq.get(position - 1);
+	}
+	@Override
+	public void getBases(int referenceIndex, int start, byte[] buffer, int offset, int length) {
+		getCachedSequence(referenceIndex).getBases(start - 1, buffer, offset, length);
+	}
+	private PackedReferenceSequence getCachedSequence(int referenceIndex) {
 		PackedReferenceSequence seq = referenceIndexLookup[referenceIndex];
 		if (seq == null) {
 			seq = addToCache(underlying.getSequenceDictionary().getSequence(referenceIndex).getSequenceName());
 		}
-		if (seq.ambiguous.get(position - 1)) {
-			return 'N';
-		}
-		return seq.get(position - 1);
+		return seq;
 	}
 	private class PackedReferenceSequence extends PackedSequence {
 		private final String name;
 	    private final int contigIndex;
 	    private final long length;
-	    private final BitSet ambiguous; 
+	    /**
+	     * Ambiguous base bit vector. Bit i of word j is set if base 64*j+i is ambiguous
+	     */
+	    private final long[] ambiguous;
 		public PackedReferenceSequence(ReferenceSequence seq) {
 			super(seq.getBases(), false, false);
 			this.name = seq.getName();
 			this.contigIndex = seq.getContigIndex();
 			this.length = seq.length();
-			this.ambiguous = new BitSet(seq.length());
+			this.ambiguous = new long[(seq.length() + Long.SIZE - 1) / Long.SIZE];
 			byte[] seqBases = seq.getBases();
 			for (int i = 0; i < length; i++) {
 				if (KmerEncodingHelper.isAmbiguous(seqBases[i])) {
-					ambiguous.set(i);
+					ambiguous[i / Long.SIZE] |= 1L << (i % Long.SIZE);
 				}
 			}
 		}
+		public boolean isAmbiguous(int offset) {
+			return (ambiguous[offset / Long.SIZE] & (1L << (offset % Long.SIZE))) != 0;
+		}
 		public ReferenceSequence getSequence() {
 			return getSubsequenceAt(1, length);
 		}
 		public ReferenceSequence getSubsequenceAt(long start, long stop) {
 			int length = (int)(stop - start + 1);
-			ReferenceSequence seq = new ReferenceSequence(name, contigIndex, getBytes((int)(start - 1), length));
-			byte[] seqBases = seq.getBases();
-			for (int i = 0; i < length; i++) {
-				if (ambiguous.get((int)start - 1 + i)) {
-					seqBases[i] = 'N';
+			byte[] bases = new byte[length];
+			getBases((int)(start - 1), bases, 0, length);
+			return new ReferenceSequence(name, contigIndex, bases);
+		}
+		/**
+		 * Unpacks the given subsequence into the given buffer 
+		 * @param start 0-based contig offset of the first base
+		 */
+		public void getBases(int start, byte[] buffer, int offset, int length) {
+			if (length <= 0) return;
+			if (start < 0 || start + length > this.length) {
+				throw new IllegalArgumentException(String.format("%s:%d-%d outside of contig bounds", name, start + 1, start + length));
+			}
+			getBytes(start, length, buffer, offset);
+			// mask ambiguous bases a word at a time
+			int end = start + length;
+			for (int word = start / Long.SIZE; word <= (end - 1) / Long.SIZE; word++) {
+				long bits = ambiguous[word];
+				if (bits == 0) continue;
+				int wordStart = word * Long.SIZE;
+				if (start > wordStart) {
+					bits &= -1L << (start - wordStart);
+				}
+				if (end - wordStart < Long.SIZE) {
+					bits &= (1L << (end - wordStart)) - 1;
+				}
+				while (bits != 0) {
+					int position = wordStart + Long.numberOfTrailingZeros(bits);
+					buffer[offset + position - start] = 'N';
+					bits &= bits - 1;
 				}
 			}
-			return seq;
 		}
 	}
 	@Override
@@ -0,0 +1,119 @@
+package au.edu.wehi.idsv.sam;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import au.edu.wehi.idsv.util.ParallelBlockCompressedInputStream;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.DefaultSAMRecordFactory;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.StringLineReader;
+
+/**
+ * Sequentially reads a BAM file in batches of records.
+ *
+ * BGZF decompression is performed in parallel ahead of the consumer. Records
+ * are returned undecoded so the caller can decode each batch on a worker thread
+ * by calling {@link SAMRecord#eagerDecode()}.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class BAMRecordBatchIterator implements CloseableIterator<List<SAMRecord>> {
+	private static final byte[] BAM_MAGIC = "BAM\1".getBytes(StandardCharsets.US_ASCII);
+	private final ParallelBlockCompressedInputStream stream;
+	private final BAMRecordCodec codec;
+	private final SAMFileHeader header;
+	private final int batchSize;
+	private List<SAMRecord> nextBatch = null;
+	private boolean eof = false;
+	public BAMRecordBatchIterator(File bam, int batchSize) {
+		if (batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1");
+		this.batchSize = batchSize;
+		try {
+			this.stream = new ParallelBlockCompressedInputStream(new BufferedInputStream(new FileInputStream(bam)), bam.getName());
+			this.header = readHeader(stream, bam.getName());
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		this.codec = new BAMRecordCodec(header, new DefaultSAMRecordFactory());
+		this.codec.setInputStream(stream, bam.getName());
+	}
+	private static SAMFileHeader readHeader(ParallelBlockCompressedInputStream stream, String source) throws IOException {
+		BinaryCodec bc = new BinaryCodec(stream);
+		byte[] magic = new byte[BAM_MAGIC.length];
+		bc.readBytes(magic);
+		if (!Arrays.equals(magic, BAM_MAGIC)) {
+			throw new SAMFormatException(String.format("Invalid BAM file header in %s", source));
+		}
+		String text = bc.readString(bc.readInt());
+		SAMFileHeader header = new SAMTextHeaderCodec().decode(new StringLineReader(text), source);
+		int sequenceCount = bc.readInt();
+		List<SAMSequenceRecord> sequences = new ArrayList<>(sequenceCount);
+		for (int i = 0; i < sequenceCount; i++) {
+			String name = bc.readString(bc.readInt());
+			// strip null terminator
+			name = name.substring(0, name.length() - 1);
+			sequences.add(new SAMSequenceRecord(name, bc.readInt()));
+		}
+		if (header.getSequenceDictionary().isEmpty()) {
+			header.setSequenceDictionary(new SAMSequenceDictionary(sequences));
+		}
+		return header;
+	}
+	public SAMFileHeader getFileHeader() {
+		return header;
+	}
+	@Override
+	public boolean hasNext() {
+		ensureNext();
+		return nextBatch != null;
+	}
+	@Override
+	public List<SAMRecord> next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		List<SAMRecord> batch = nextBatch;
+		nextBatch = null;
+		return batch;
+	}
+	private void ensureNext() {
+		if (nextBatch != null || eof) return;
+		List<SAMRecord> batch = new ArrayList<>(batchSize);
+		while (batch.size() < batchSize) {
+			SAMRecord r = codec.decode();
+			if (r == null) {
+				eof = true;
+				break;
+			}
+			batch.add(r);
+		}
+		if (!batch.isEmpty()) {
+			nextBatch = batch;
+		}
+	}
+	@Override
+	public void close() {
+		eof = true;
+		nextBatch = null;
+		try {
+			stream.close();
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package au.edu.wehi.idsv.sam;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import au.edu.wehi.idsv.util.ParallelBlockCompressedOutputStream;
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileSource;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordComparator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.ProgressLoggerInterface;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * BAM writer performing BGZF compression on the shared block compression pool.
+ *
+ * Records are encoded on the calling thread with only the block compression
+ * performed in parallel. When an index is requested, the index is built while
+ * writing. As virtual file offsets are not known until the preceeding blocks
+ * have been compressed, records are added to the index once the blocks
+ * containing them have been written.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class ParallelBAMFileWriter implements SAMFileWriter {
+	private static final byte[] BAM_MAGIC = "BAM\1".getBytes(StandardCharsets.US_ASCII);
+	private final SAMFileHeader header;
+	private final File file;
+	private final ParallelBlockCompressedOutputStream stream;
+	private final BAMRecordCodec codec;
+	private final BAMIndexer indexer;
+	/**
+	 * Records written but not yet indexed as the compressed offset of their blocks is not yet known
+	 */
+	private final Deque<PendingIndexRecord> pendingIndex = new ArrayDeque<>();
+	/**
+	 * Compressed file offset of each written block starting from block number firstBlockAddress
+	 */
+	private final LongArrayList blockAddresses = new LongArrayList();
+	private long firstBlockAddress = 0;
+	private SortingCollection<SAMRecord> sorter = null;
+	private ProgressLoggerInterface progress = null;
+	private boolean closed = false;
+	/**
+	 * Creates a new BAM writer
+	 * @param header BAM header
+	 * @param presorted records will be added in the order specified by the header sort order
+	 * @param file output file
+	 * @param compressionLevel deflate compression level
+	 * @param maxRecordsInRam maximum records to buffer in memory when sorting is required
+	 * @param tmpDir temporary directory used when sorting is required
+	 * @param createIndex create a BAM index if the output is coordinate sorted
+	 */
+	public ParallelBAMFileWriter(SAMFileHeader header, boolean presorted, File file, int compressionLevel, int maxRecordsInRam, File tmpDir, boolean createIndex) {
+		this.header = header;
+		this.file = file;
+		try {
+			this.stream = new ParallelBlockCompressedOutputStream(new FileOutputStream(file), compressionLevel,
+					ParallelBlockCompressedOutputStream.getDefaultExecutor(), 2 * ParallelBlockCompressedOutputStream.getDefaultThreadCount() + 2);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		if (createIndex && header.getSortOrder() == SortOrder.coordinate) {
+			this.indexer = new BAMIndexer(getIndexFile(file), header);
+			blockAddresses.add(0);
+			stream.setBlockWrittenListener(address -> {
+				blockAddresses.add(address);
+				indexWrittenRecords();
+			});
+		} else {
+			this.indexer = null;
+		}
+		this.codec = new BAMRecordCodec(header);
+		this.codec.setOutputStream(stream, file.getName());
+		SAMRecordComparator comparator = header.getSortOrder() == null ? null : header.getSortOrder().getComparatorInstance();
+		if (!presorted && comparator != null) {
+			sorter = SortingCollection.newInstance(SAMRecord.class, new BAMRecordCodec(header), comparator, maxRecordsInRam, tmpDir);
+		}
+		writeHeader();
+	}
+	private void writeHeader() {
+		StringWriter headerText = new StringWriter();
+		new SAMTextHeaderCodec().encode(headerText, header);
+		BinaryCodec bc = new BinaryCodec(stream);
+		bc.writeBytes(BAM_MAGIC);
+		bc.writeString(headerText.toString(), true, false);
+		bc.writeInt(header.getSequenceDictionary().size());
+		for (SAMSequenceRecord seq : header.getSequenceDictionary().getSequences()) {
+			bc.writeString(seq.getSequenceName(), true, true);
+			bc.writeInt(seq.getSequenceLength());
+		}
+	}
+	@Override
+	public void addAlignment(SAMRecord alignment) {
+		alignment.setHeaderStrict(header);
+		if (sorter != null) {
+			sorter.add(alignment);
+		} else {
+			encode(alignment);
+		}
+		if (progress != null) {
+			progress.record(alignment);
+		}
+	}
+	private void encode(SAMRecord record) {
+		if (indexer == null) {
+			codec.encode(record);
+			return;
+		}
+		long start = stream.getBlockPosition();
+		codec.encode(record);
+		long end = stream.getBlockPosition();
+		pendingIndex.add(new PendingIndexRecord(header, record, start, end));
+		indexWrittenRecords();
+		releaseBlockAddresses();
+	}
+	/**
+	 * Adds the records contained in written blocks to the index 
+	 */
+	private void indexWrittenRecords() {
+		long blocksWithKnownAddress = firstBlockAddress + blockAddresses.size();
+		while (!pendingIndex.isEmpty() && (pendingIndex.peek().end >>> 16) < blocksWithKnownAddress) {
+			PendingIndexRecord r = pendingIndex.poll();
+			long start = toVirtualFilePointer(r.start);
+			long end = toVirtualFilePointer(r.end);
+			r.record.setFileSource(new SAMFileSource(null, new BAMFileSpan(new Chunk(start, end))));
+			indexer.processAlignment(r.record);
+		}
+	}
+	/**
+	 * Removes the addresses of blocks that no pending or subsequent record can start in.
+	 * Must not be called while a record is being encoded.
+	 */
+	private void releaseBlockAddresses() {
+		long firstRequiredBlock = (pendingIndex.isEmpty() ? stream.getBlockPosition() : pendingIndex.peek().start) >>> 16;
+		int toRemove = (int)Math.min(firstRequiredBlock - firstBlockAddress, blockAddresses.size() - 1);
+		if (toRemove > 0) {
+			blockAddresses.removeElements(0, toRemove);
+			firstBlockAddress += toRemove;
+		}
+	}
+	private long toVirtualFilePointer(long blockPosition) {
+		long address = blockAddresses.getLong((int)((blockPosition >>> 16) - firstBlockAddress));
+		return (address << 16) | (blockPosition & 0xffff);
+	}
+	/**
+	 * Copy of the record fields required for indexing.
+	 * A copy is made as the caller is free to modify the record once it has been written. 
+	 */
+	private static class PendingIndexRecord {
+		private final SAMRecord record;
+		private final long start;
+		private final long end;
+		public PendingIndexRecord(SAMFileHeader header, SAMRecord r, long start, long end) {
+			this.record = new SAMRecord(header);
+			this.record.setFlags(r.getFlags());
+			this.record.setReferenceIndex(r.getReferenceIndex());
+			this.record.setAlignmentStart(r.getAlignmentStart());
+			this.record.setCigar(r.getCigar());
+			this.start = start;
+			this.end = end;
+		}
+	}
+	@Override
+	public SAMFileHeader getFileHeader() {
+		return header;
+	}
+	@Override
+	public void setProgressLogger(ProgressLoggerInterface progress) {
+		this.progress = progress;
+	}
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		try {
+			if (sorter != null) {
+				sorter.doneAdding();
+				try (CloseableIterator<SAMRecord> it = sorter.iterator()) {
+					while (it.hasNext()) {
+						encode(it.next());
+					}
+				}
+				sorter.cleanup();
+			}
+			stream.close();
+			if (indexer != null) {
+				indexWrittenRecords();
+				if (!pendingIndex.isEmpty()) {
+					throw new IllegalStateException("Sanity check failure: records not indexed after all blocks written");
+				}
+				indexer.finish();
+			}
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+	private static File getIndexFile(File file) {
+		String path = file.getAbsolutePath();
+		String indexBase = path.endsWith(".bam") ? path.substring(0, path.length() - ".bam".length()) : path;
+		return new File(indexBase + BAMIndex.BAMIndexSuffix);
+	}
+}
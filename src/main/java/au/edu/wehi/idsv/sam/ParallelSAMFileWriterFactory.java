@@ -0,0 +1,65 @@
+package au.edu.wehi.idsv.sam;
+
+import java.io.File;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMFileWriterImpl;
+import htsjdk.samtools.util.IOUtil;
+
+/**
+ * SAMFileWriterFactory creating BAM writers that perform block compression
+ * in parallel on the shared block compression pool.
+ *
+ * SAM and CRAM output, and BAM output requiring MD5 generation are delegated
+ * to the underlying htsjdk implementation.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class ParallelSAMFileWriterFactory extends SAMFileWriterFactory {
+	private boolean createIndex = SAMFileWriterFactory.getDefaultCreateIndexWhileWriting();
+	private boolean createMd5File = false;
+	private int maxRecordsInRam = SAMFileWriterImpl.getDefaultMaxRecordsInRam();
+	private File tmpDir = null;
+	@Override
+	public SAMFileWriterFactory setCreateIndex(boolean createIndex) {
+		this.createIndex = createIndex;
+		return super.setCreateIndex(createIndex);
+	}
+	@Override
+	public SAMFileWriterFactory setCreateMd5File(boolean createMd5File) {
+		this.createMd5File = createMd5File;
+		return super.setCreateMd5File(createMd5File);
+	}
+	@Override
+	public SAMFileWriterFactory setMaxRecordsInRam(int maxRecordsInRam) {
+		this.maxRecordsInRam = maxRecordsInRam;
+		return super.setMaxRecordsInRam(maxRecordsInRam);
+	}
+	@Override
+	public SAMFileWriterFactory setTempDirectory(File tmpDir) {
+		this.tmpDir = tmpDir;
+		return super.setTempDirectory(tmpDir);
+	}
+	@Override
+	public SAMFileWriter makeBAMWriter(SAMFileHeader header, boolean presorted, File outputFile) {
+		return makeBAMWriter(header, presorted, outputFile, htsjdk.samtools.Defaults.COMPRESSION_LEVEL);
+	}
+	@Override
+	public SAMFileWriter makeBAMWriter(SAMFileHeader header, boolean presorted, File outputFile, int compressionLevel) {
+		if (createMd5File) {
+			return super.makeBAMWriter(header, presorted, outputFile, compressionLevel);
+		}
+		return new ParallelBAMFileWriter(header, presorted, outputFile, compressionLevel, maxRecordsInRam,
+				tmpDir == null ? new File(System.getProperty("java.io.tmpdir")) : tmpDir, createIndex);
+	}
+	@Override
+	public SAMFileWriter makeSAMOrBAMWriter(SAMFileHeader header, boolean presorted, File outputFile) {
+		if (outputFile.getName().endsWith(IOUtil.SAM_FILE_EXTENSION)) {
+			return super.makeSAMOrBAMWriter(header, presorted, outputFile);
+		}
+		return makeBAMWriter(header, presorted, outputFile);
+	}
+}
@@ -14,6 +14,8 @@ import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.function.Function;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.io.Files;
 
@@ -22,6 +24,7 @@ import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.IntermediateFileUtil;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.ParallelSortingCollection;
 import au.edu.wehi.idsv.validation.OrderAssertingIterator;
 import htsjdk.samtools.BAMRecordCodec;
 import htsjdk.samtools.SAMFileHeader;
@@ -36,7 +39,6 @@ import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
-import htsjdk.samtools.util.SortingCollection;
 
 public class SAMFileUtil {
 	private static final Log log = Log.getInstance(SAMFileUtil.class);
@@ -105,7 +107,7 @@ public class SAMFileUtil {
 			this.sortOrder = sortOrder;
 			this.headerCallback = headerCallback;
 			this.readerFactory = readerFactory == null ? SamReaderFactory.makeDefault() : readerFactory;
-			this.writerFactory = writerFactory == null ? new SAMFileWriterFactory() : writerFactory;
+			this.writerFactory = writerFactory == null ? new ParallelSAMFileWriterFactory() : writerFactory;
 			if (this.sortComparator == null) {
 				throw new IllegalArgumentException("Sort order not specified");
 			}
@@ -116,13 +118,13 @@ public class SAMFileUtil {
 				log.info("Not sorting as output already exists: " + output);
 				return null;
 			}
-			File tmpFile = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.sorting.SAMFileUtil.");
 			SortOrder existingSortOrder = getSortOrder(readerFactory, unsorted);  
 			switch (existingSortOrder) {
 				case coordinate:
 				case queryname:
 					if (sortOrder.equals(existingSortOrder)) {
 						log.info(unsorted + " already sorted by " + sortOrder);
+						File tmpFile = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.sorting.SAMFileUtil.");
 						FileHelper.copy(unsorted, tmpFile, true);
 						FileHelper.move(tmpFile, output, true);
 						return null;
@@ -132,48 +134,64 @@ public class SAMFileUtil {
 					break;
 			}
 			log.info("Sorting " + unsorted);
-			SortingCollection<SAMRecord> collection = null;
-			if (tmpFile.exists()) FileHelper.delete(tmpFile, true);
+			ParallelSortingCollection<SAMRecord> collection = null;
+			File inOrderFile = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.sorting.inorder.SAMFileUtil.");
 			try {
 				SAMFileHeader header = null;
+				long outOfOrderCount = 0;
 				try (SamReader reader = readerFactory.open(unsorted)) {
 					header = reader.getFileHeader().clone();
 					header.setSortOrder(sortOrder);
 					if (headerCallback != null) {
 						header = headerCallback.apply(header);
 					}
+					collection = new ParallelSortingCollection<>(
+							new BAMRecordCodec(header),
+							sortComparator,
+							fsc.getMaxBufferedRecordsPerFile(),
+							fsc.getTemporaryDirectory());
+					// Records already in order are streamed directly to the output.
+					// Only the remaining records need to be sorted.
 					try (CloseableIterator<SAMRecord> rit = reader.iterator()) {
-						collection = SortingCollection.newInstance(
-								SAMRecord.class,
-								new BAMRecordCodec(header),
-								sortComparator,
-								fsc.getMaxBufferedRecordsPerFile(),
-								fsc.getTemporaryDirectory());
-						while (rit.hasNext()) {
-							collection.add(rit.next());
+						try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, inOrderFile)) {
+							writer.setProgressLogger(new ProgressLogger(log, 10000000));
+							SAMRecord last = null;
+							while (rit.hasNext()) {
+								SAMRecord r = rit.next();
+								if (last == null || sortComparator.compare(last, r) <= 0) {
+									writer.addAlignment(r);
+									last = r;
+								} else {
+									collection.add(r);
+									outOfOrderCount++;
+								}
+							}
 						}
 					}
 				}
 				collection.doneAdding();
-				try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpFile)) {
-					writer.setProgressLogger(new ProgressLogger(log, 10000000));
-					try (CloseableIterator<SAMRecord> wit = collection.iterator()) {
-						@SuppressWarnings("resource") // bad eclipse warning 
-						Iterator<SAMRecord> it = wit;
-				    	if (Defaults.SANITY_CHECK_ITERATORS) {
-							it = new OrderAssertingIterator<SAMRecord>(wit, sortComparator);
-						}
-						while (it.hasNext()) {
-							writer.addAlignment(it.next());
+				if (outOfOrderCount == 0) {
+					log.info(unsorted + " already in order");
+					FileHelper.move(inOrderFile, output, true);
+				} else {
+					try (SamReader inOrderReader = readerFactory.open(inOrderFile)) {
+						try (CloseableIterator<SAMRecord> inOrderIt = inOrderReader.iterator()) {
+							try (CloseableIterator<SAMRecord> sortedIt = collection.iterator()) {
+								@SuppressWarnings("resource") // bad eclipse warning 
+								Iterator<SAMRecord> it = sortedIt;
+						    	if (Defaults.SANITY_CHECK_ITERATORS) {
+									it = new OrderAssertingIterator<SAMRecord>(sortedIt, sortComparator);
+								}
+								merge(header, ImmutableList.of(inOrderIt, it), output, writerFactory, sortComparator);
+							}
 						}
 					}
 				}
 				collection.cleanup();
 				collection = null;
-				FileHelper.move(tmpFile, output, true);
 			} finally {
 				if (collection != null) collection.cleanup();
-				if (tmpFile.exists()) FileHelper.delete(tmpFile, true);
+				if (inOrderFile.exists()) FileHelper.delete(inOrderFile, true);
 			}
 			return null;
 		}
@@ -184,7 +202,7 @@ public class SAMFileUtil {
 		}
 	}
 	public static void merge(Collection<File> input, File output) throws IOException {
-		merge(input, output, SamReaderFactory.makeDefault(), new SAMFileWriterFactory());
+		merge(input, output, SamReaderFactory.makeDefault(), new ParallelSAMFileWriterFactory());
 	}
 	/**
 	 * Merges a set of SAM files into a single file.
@@ -201,7 +219,6 @@ public class SAMFileUtil {
 			Files.copy(input.iterator().next(), output);
 			return;
 		}
-		File tmpFile = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.merging.SAMFileUtil.");
 		Map<SamReader, AsyncBufferedIterator<SAMRecord>> map = new HashMap<>(input.size());
 		SAMFileHeader header = null;
 		try {
@@ -221,11 +238,42 @@ public class SAMFileUtil {
 				}
 				map.put(r, new AsyncBufferedIterator<>(r.iterator(), in.getName()));
 			}
+			merge(header, map.values(), output, writerFactory);
+		} finally {
+			for (Entry<SamReader, AsyncBufferedIterator<SAMRecord>> entry : map.entrySet()) {
+				CloserUtil.close(entry.getValue());
+				CloserUtil.close(entry.getKey());
+			}
+		}
+	}
+	/**
+	 * Merges sorted record streams into a single file in a single pass.
+	 * @param header output header. Records in each input are ordered according to the sort order of this header.
+	 * @param input records to merge
+	 * @param output output file.
+	 * @param writerFactory
+	 * @throws IOException 
+	 */
+	public static void merge(SAMFileHeader header, Collection<? extends Iterator<SAMRecord>> input, File output, SAMFileWriterFactory writerFactory) throws IOException {
+		merge(header, input, output, writerFactory, header.getSortOrder() == null ? null : header.getSortOrder().getComparatorInstance());
+	}
+	/**
+	 * Merges sorted record streams into a single file in a single pass.
+	 * @param header output header.
+	 * @param input records to merge
+	 * @param output output file.
+	 * @param writerFactory
+	 * @param comparator sort order of the input records. If null, the inputs are concatenated.
+	 * @throws IOException 
+	 */
+	public static void merge(SAMFileHeader header, Collection<? extends Iterator<SAMRecord>> input, File output, SAMFileWriterFactory writerFactory, Comparator<SAMRecord> comparator) throws IOException {
+		File tmpFile = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.merging.SAMFileUtil.");
+		try {
 			try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpFile)) {
-				Queue<PeekingIterator<SAMRecord>> queue = createMergeQueue(header.getSortOrder());
-				for (PeekingIterator<SAMRecord> it : map.values()) {
+				Queue<PeekingIterator<SAMRecord>> queue = createMergeQueue(comparator);
+				for (Iterator<SAMRecord> it : input) {
 					if (it.hasNext()) {
-						queue.add(it);
+						queue.add(Iterators.peekingIterator(it));
 					}
 				}
 				while (!queue.isEmpty()) {
@@ -237,23 +285,14 @@ public class SAMFileUtil {
 					}
 				}
 			}
-			for (Entry<SamReader, AsyncBufferedIterator<SAMRecord>> entry : map.entrySet()) {
-				CloserUtil.close(entry.getValue());
-				CloserUtil.close(entry.getKey());
-			}
 			FileHelper.move(tmpFile, output, true);
 		} finally {
-			for (Entry<SamReader, AsyncBufferedIterator<SAMRecord>> entry : map.entrySet()) {
-				CloserUtil.close(entry.getValue());
-				CloserUtil.close(entry.getKey());
-			}
 			if (tmpFile.exists()) {
 				FileHelper.delete(tmpFile, true);
 			}
 		}
 	}
-	private static Queue<PeekingIterator<SAMRecord>> createMergeQueue(SortOrder sortOrder) {
-		SAMRecordComparator comparator = sortOrder == null ? null : sortOrder.getComparatorInstance();
+	private static Queue<PeekingIterator<SAMRecord>> createMergeQueue(Comparator<SAMRecord> comparator) {
 		if (comparator == null) return new ArrayDeque<>();
 		return new PriorityQueue<>(Comparator.<PeekingIterator<SAMRecord>, SAMRecord>comparing(it -> it.peek(), comparator));
 	}
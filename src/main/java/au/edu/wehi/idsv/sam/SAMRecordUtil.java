@@ -215,6 +215,27 @@ public class SAMRecordUtil {
 		return seq;
 	}
 
+	/**
+	 * Maximum size of the per-thread reference buffer retained between calls
+	 */
+	private static final int MAX_RETAINED_REFERENCE_BUFFER_SIZE = 1 << 16;
+	private static final ThreadLocal<byte[]> referenceBuffer = ThreadLocal.withInitial(() -> new byte[0]);
+	/**
+	 * Gets a per-thread reference base buffer of at least the given size.
+	 * The buffer is reused by subsequent calls on the same thread.
+	 * Buffers larger than MAX_RETAINED_REFERENCE_BUFFER_SIZE are not retained.
+	 */
+	private static byte[] getReferenceBuffer(int length) {
+		if (length > MAX_RETAINED_REFERENCE_BUFFER_SIZE) {
+			return new byte[length];
+		}
+		byte[] buffer = referenceBuffer.get();
+		if (buffer.length < length) {
+			buffer = new byte[Math.min(MAX_RETAINED_REFERENCE_BUFFER_SIZE, Math.max(length, 2 * buffer.length))];
+			referenceBuffer.set(buffer);
+		}
+		return buffer;
+	}
 	public static SAMRecord ensureNmTag(ReferenceSequenceFile ref, SAMRecord record) {
 		if (record == null)
 			return record;
@@ -226,9 +247,16 @@ public class SAMRecordUtil {
 			return record;
 		if (record.getReadUnmappedFlag())
 			return record;
-		byte[] refSeq = ref
+		byte[] refSeq;
+		if (ref instanceof ReferenceLookup) {
+			int length = record.getAlignmentEnd() - record.getAlignmentStart() + 1;
+			refSeq = getReferenceBuffer(length);
+			((ReferenceLookup)ref).getBases(record.getReferenceIndex(), record.getAlignmentStart(), refSeq, 0, length);
+		} else {
+			refSeq = ref
 				.getSubsequenceAt(record.getReferenceName(), record.getAlignmentStart(), record.getAlignmentEnd())
 				.getBases();
+		}
 		final int actualNucleotideDiffs = SequenceUtil.calculateSamNmTag(record, refSeq,
 				record.getAlignmentStart() - 1);
 		record.setAttribute(SAMTag.NM.name(), actualNucleotideDiffs);
@@ -639,10 +667,11 @@ public class SAMRecordUtil {
 		end = Math.min(refSeq.getSequenceLength(), end);
 
 		byte[] ass = read.getReadBases();
-		byte[] ref = reference.getSubsequenceAt(refSeq.getSequenceName(), start, end).getBases();
-		if (ass == null || ref == null || ass.length == 0 || ref.length == 0) {
+		if (ass == null || ass.length == 0 || end < start) {
 			return read;
 		}
+		byte[] ref = new byte[end - start + 1];
+		reference.getBases(read.getReferenceIndex(), start, ref, 0, ref.length);
 		// defensive checks so we don't crash the JVM if an unexpected character
 		// is encountered
 		for (int i = 0; i < ass.length; i++) {
@@ -1344,10 +1373,18 @@ public class SAMRecordUtil {
 		SAMSequenceRecord refseq = ref.getSequenceDictionary().getSequence(refIndex);
 		int startunclip = 0;
 		int startclip = getStartSoftClipLength(read);
+		int endcliplength = getEndSoftClipLength(read);
+		byte[] refBases = getReferenceBuffer(Math.max(startclip, endcliplength));
+		// reference bases before the alignment start
+		int startWindowStart = Math.max(1, read.getAlignmentStart() - startclip);
+		int startWindowEnd = Math.min(refseq.getSequenceLength(), read.getAlignmentStart() - 1);
+		if (startWindowStart <= startWindowEnd) {
+			ref.getBases(refIndex, startWindowStart, refBases, 0, startWindowEnd - startWindowStart + 1);
+		}
 		for (int i = startclip - 1; i >= 0; i--) {
 			int pos = read.getAlignmentStart() - startclip + i;
 			if (pos >= 1 && pos <= refseq.getSequenceLength()) {
-				byte refbase = ref.getBase(refIndex, pos);
+				byte refbase = refBases[pos - startWindowStart];
 				byte readbase = seq[i];
 				if (SequenceUtil.basesEqual(refbase, readbase) && !SequenceUtil.basesEqual(SequenceUtil.N, readbase)) {
 					startunclip++;
@@ -1357,11 +1394,16 @@ public class SAMRecordUtil {
 			}
 		}
 		int endunclip = 0;
-		int endcliplength = getEndSoftClipLength(read);
+		// reference bases after the alignment end
+		int endWindowStart = Math.max(1, read.getAlignmentEnd() + 1);
+		int endWindowEnd = Math.min(refseq.getSequenceLength(), read.getAlignmentEnd() + endcliplength);
+		if (endWindowStart <= endWindowEnd) {
+			ref.getBases(refIndex, endWindowStart, refBases, 0, endWindowEnd - endWindowStart + 1);
+		}
 		for (int i = 0; i < endcliplength; i++) {
 			int pos = read.getAlignmentEnd() + i + 1;
 			if (pos >= 1 && pos <= refseq.getSequenceLength()) {
-				byte refbase = ref.getBase(refIndex, read.getAlignmentEnd() + i + 1);
+				byte refbase = refBases[pos - endWindowStart];
 				byte readbase = seq[read.getReadLength() - endcliplength + i];
 				if (SequenceUtil.basesEqual(refbase, readbase)) {
 					endunclip++;
@@ -0,0 +1,224 @@
+package au.edu.wehi.idsv.util;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+
+/**
+ * Reads a source iterator on a background thread and partitions the
+ * records across multiple output iterators. Each output can be consumed
+ * on a separate thread.
+ *
+ * Each output must be consumed (or this iterator closed) as the background thread
+ * blocks when the buffer of any output is full.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class AsyncFanOutIterator<T> implements Closeable {
+	private static final Log log = Log.getInstance(AsyncFanOutIterator.class);
+	private static final Object eos = new Object(); // End of stream sentinel
+	private final Iterator<T> underlying;
+	private final ToIntFunction<T> partition;
+	private final List<BlockingQueue<List<Object>>> buffers = new ArrayList<>();
+	private final List<Output> outputs = new ArrayList<>();
+	private final AtomicReference<Throwable> ex = new AtomicReference<Throwable>(null);
+	private final int batchSize;
+	private final Thread reader;
+	private volatile boolean closeCalled = false;
+	private static int consumerThreadCount = Runtime.getRuntime().availableProcessors();
+	private static ThreadPoolExecutor consumerExecutor = null;
+	/**
+	 * Sets the number of threads in the shared consumer thread pool
+	 * @param threads maximum number of concurrently executing consumers
+	 */
+	public static synchronized void setConsumerThreadCount(int threads) {
+		if (threads < 1) threads = 1;
+		if (consumerExecutor != null && threads != consumerThreadCount) {
+			// resize in-place as callers may hold a reference to the pool
+			if (threads > consumerThreadCount) {
+				consumerExecutor.setMaximumPoolSize(threads);
+				consumerExecutor.setCorePoolSize(threads);
+			} else {
+				consumerExecutor.setCorePoolSize(threads);
+				consumerExecutor.setMaximumPoolSize(threads);
+			}
+		}
+		consumerThreadCount = threads;
+	}
+	public static synchronized int getConsumerThreadCount() {
+		return consumerThreadCount;
+	}
+	/**
+	 * Gets the thread pool shared by all fan-out consumers.
+	 * 
+	 * Consumer tasks must not wait on other tasks in this pool. A consumer
+	 * queued behind running consumers will start once they complete as the
+	 * remaining outputs of each fan-out are consumed by the submitting thread.
+	 * @return shared consumer thread pool
+	 */
+	public static synchronized ExecutorService getConsumerExecutor() {
+		if (consumerExecutor == null) {
+			log.debug(String.format("Using %d fan-out consumer threads", consumerThreadCount));
+			consumerExecutor = (ThreadPoolExecutor)Executors.newFixedThreadPool(consumerThreadCount, new ThreadFactoryBuilder()
+					.setDaemon(true)
+					.setNameFormat("fanout-%d")
+					.build());
+		}
+		return consumerExecutor;
+	}
+	/**
+	 * Creates a new iterator
+	 * @param iterator source iterator
+	 * @param outputCount number of output iterators
+	 * @param partition output each record is to be written to. Records with a negative partition are discarded.
+	 * @param description background thread name
+	 * @param bufferCount number of read-ahead buffers per output
+	 * @param batchSize size of each read-ahead buffer
+	 */
+	public AsyncFanOutIterator(Iterator<T> iterator, int outputCount, ToIntFunction<T> partition, String description, int bufferCount, int batchSize) {
+		if (iterator == null) throw new IllegalArgumentException();
+		if (bufferCount <= 0 || batchSize <= 0) throw new IllegalArgumentException("Buffer size must be at least 1.");
+		this.underlying = iterator;
+		this.partition = partition;
+		this.batchSize = batchSize;
+		for (int i = 0; i < outputCount; i++) {
+			buffers.add(new ArrayBlockingQueue<List<Object>>(bufferCount));
+			outputs.add(new Output(buffers.get(i)));
+		}
+		this.reader = new Thread(() -> read(), description);
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+	/**
+	 * Gets the given output iterator
+	 * @param i output
+	 * @return records partitioned to the given output
+	 */
+	public CloseableIterator<T> getOutput(int i) {
+		return outputs.get(i);
+	}
+	@Override
+	public void close() {
+		closeCalled = true;
+		reader.interrupt();
+		// flush buffers so EOS indicator can be written if reader is blocking
+		for (BlockingQueue<List<Object>> buffer : buffers) {
+			buffer.clear();
+		}
+		try {
+			reader.join();
+		} catch (InterruptedException ie) { }
+		for (BlockingQueue<List<Object>> buffer : buffers) {
+			buffer.clear();
+			buffer.offer(ImmutableList.of(eos));
+		}
+	}
+	private void read() {
+		List<List<Object>> readAhead = new ArrayList<>();
+		for (int i = 0; i < buffers.size(); i++) {
+			readAhead.add(new ArrayList<>(batchSize));
+		}
+		try {
+			while (underlying.hasNext()) {
+				T record = underlying.next();
+				int p = partition.applyAsInt(record);
+				if (p >= 0) {
+					List<Object> batch = readAhead.get(p);
+					batch.add(record);
+					if (batch.size() >= batchSize) {
+						buffers.get(p).put(batch);
+						readAhead.set(p, new ArrayList<>(batchSize));
+					}
+				}
+			}
+			for (int i = 0; i < buffers.size(); i++) {
+				if (!readAhead.get(i).isEmpty()) {
+					buffers.get(i).put(readAhead.get(i));
+				}
+			}
+		} catch (InterruptedException ie) {
+		} catch (Throwable t) {
+			ex.set(t);
+		} finally {
+			CloserUtil.close(underlying);
+			Thread.interrupted(); // clear thread interrupt flag so we can write the eos indicator
+			for (BlockingQueue<List<Object>> buffer : buffers) {
+				try {
+					if (closeCalled) {
+						buffer.clear();
+					}
+					buffer.put(ImmutableList.of(eos));
+				} catch (InterruptedException e) {
+					log.warn("Thread interrupt received whilst writing end of stream indicator");
+				}
+			}
+		}
+	}
+	private class Output implements CloseableIterator<T> {
+		private final BlockingQueue<List<Object>> buffer;
+		private Iterator<Object> current = ImmutableList.of().iterator();
+		private Object next = null;
+		private boolean eosReached = false;
+		public Output(BlockingQueue<List<Object>> buffer) {
+			this.buffer = buffer;
+		}
+		@Override
+		public boolean hasNext() {
+			while (next == null && !eosReached) {
+				if (!current.hasNext()) {
+					try {
+						current = buffer.take().iterator();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					continue;
+				}
+				Object o = current.next();
+				if (o == eos) {
+					eosReached = true;
+				} else {
+					next = o;
+				}
+			}
+			throwOnCallingThread();
+			return next != null;
+		}
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			T result = (T)next;
+			next = null;
+			return result;
+		}
+		@Override
+		public void close() {
+			// outputs are consumed independently: the source is closed when the fan-out iterator is closed
+		}
+	}
+	private void throwOnCallingThread() {
+		final Throwable t = this.ex.get();
+		if (t != null) {
+			if (t instanceof Error) throw (Error) t;
+			if (t instanceof RuntimeException) throw (RuntimeException) t;
+			else throw new RuntimeException(t);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package au.edu.wehi.idsv.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import htsjdk.samtools.util.Log;
+
+/**
+ * Shared thread pools used when reading input files.
+ *
+ * BGZF decompression and record decoding use separate pools so that decoding
+ * tasks waiting on decompressed records cannot starve the decompression tasks,
+ * and neither competes with the pools used to write output.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class InputThreadPools {
+	private static final Log log = Log.getInstance(InputThreadPools.class);
+	private static int threadCount = Runtime.getRuntime().availableProcessors();
+	private static ThreadPoolExecutor inflatePool = null;
+	private static ThreadPoolExecutor decodePool = null;
+	private InputThreadPools() { }
+	/**
+	 * Sets the number of threads in each input thread pool
+	 * @param threads number of threads
+	 */
+	public static synchronized void setThreadCount(int threads) {
+		if (threads < 1) threads = 1;
+		if (threads != threadCount) {
+			// resize in-place as existing readers hold a reference to the pool
+			resize(inflatePool, threads);
+			resize(decodePool, threads);
+		}
+		threadCount = threads;
+	}
+	private static void resize(ThreadPoolExecutor pool, int threads) {
+		if (pool == null) return;
+		if (threads > threadCount) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+	public static synchronized int getThreadCount() {
+		return threadCount;
+	}
+	/**
+	 * Pool used to decompress BGZF blocks
+	 * @return decompression thread pool
+	 */
+	public static synchronized ExecutorService getInflateExecutor() {
+		if (inflatePool == null) {
+			log.debug(String.format("Using %d block decompression threads", threadCount));
+			inflatePool = (ThreadPoolExecutor)Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("inflate-%d").build());
+		}
+		return inflatePool;
+	}
+	/**
+	 * Pool used to decode and transform batches of input records
+	 * @return record decoding thread pool
+	 */
+	public static synchronized ExecutorService getDecodeExecutor() {
+		if (decodePool == null) {
+			log.debug(String.format("Using %d record decoding threads", threadCount));
+			decodePool = (ThreadPoolExecutor)Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("decode-%d").build());
+		}
+		return decodePool;
+	}
+}
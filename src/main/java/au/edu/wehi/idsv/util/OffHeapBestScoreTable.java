@@ -0,0 +1,293 @@
+package au.edu.wehi.idsv.util;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.openhft.chronicle.bytes.NativeBytesStore;
+
+/**
+ * Fixed capacity off-heap open addressing hash table retaining the best scoring
+ * (event, score, alignment) value for each 96-bit key.
+ *
+ * Keys and values are stored in fixed size slots in native memory and collisions
+ * are resolved by linear probing. Each slot has a state word that is used to
+ * claim empty slots and to lock the slot value using compare-and-set so
+ * concurrent writers only contend when updating the same key. No objects are
+ * allocated on the java heap per operation.
+ *
+ * Slots are stored in fixed size segments of native memory that are allocated
+ * the first time a key is written to the segment so sparsely populated tables
+ * only use native memory for the segments that contain keys.
+ *
+ * Native memory is not released until close() is called.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class OffHeapBestScoreTable implements Closeable {
+	private static final boolean AVAILABLE = checkAvailable();
+	private static final float MAX_LOAD_FACTOR = 0.75f;
+	private static final long MIN_CAPACITY = 1 << 10;
+	/**
+	 * Maximum number of slots in each native memory segment
+	 */
+	private static final long SEGMENT_SLOTS = 1 << 14;
+	private static final int SLOT_SIZE = 48;
+	private static final int STATE_OFFSET = 0;
+	private static final int KEY2_OFFSET = 4;
+	private static final int KEY1_OFFSET = 8;
+	private static final int SCORE_OFFSET = 16;
+	private static final int EVENT2_OFFSET = 20;
+	private static final int EVENT1_OFFSET = 24;
+	private static final int ALIGNMENT2_OFFSET = 32;
+	private static final int ALIGNMENT1_OFFSET = 40;
+	/**
+	 * Slot has never been written to
+	 */
+	private static final int EMPTY = 0;
+	/**
+	 * Slot has been claimed and the key is being written
+	 */
+	private static final int CLAIMED = 1;
+	/**
+	 * Slot key and value can be read
+	 */
+	private static final int READY = 2;
+	/**
+	 * Slot value is being read or written. The key can be read.
+	 */
+	private static final int LOCKED = 3;
+	private final long capacity;
+	private final long segmentSlots;
+	private final int segmentShift;
+	private final AtomicReferenceArray<NativeBytesStore<Void>> segments;
+	private final LongAdder size = new LongAdder();
+	private volatile boolean closed = false;
+	private static boolean checkAvailable() {
+		try {
+			NativeBytesStore.nativeStoreWithFixedCapacity(SLOT_SIZE).release();
+			return true;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+	/**
+	 * Indicates whether off-heap tables are supported by this JVM
+	 */
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+	/**
+	 * Creates a new table
+	 * @param expectedEntries maximum number of keys expected to be stored in the table.
+	 * The table capacity is fixed and insertion fails once the table is full.
+	 */
+	public OffHeapBestScoreTable(long expectedEntries) {
+		if (!isAvailable()) throw new UnsupportedOperationException("Off-heap memory access not supported by this JVM");
+		long minCapacity = Math.max(MIN_CAPACITY, (long)Math.ceil(expectedEntries / MAX_LOAD_FACTOR));
+		this.capacity = Long.highestOneBit(minCapacity - 1) << 1;
+		this.segmentSlots = Math.min(capacity, SEGMENT_SLOTS);
+		this.segmentShift = Long.numberOfTrailingZeros(segmentSlots);
+		this.segments = new AtomicReferenceArray<>((int)(capacity / segmentSlots));
+	}
+	private long slotIndex(long key1, int key2) {
+		long h = key1 ^ (key2 * 0x9E3779B97F4A7C15L);
+		h ^= h >>> 32;
+		return h & (capacity - 1);
+	}
+	/**
+	 * Gets the segment containing the given slot
+	 * @param create allocate the segment if it has not yet been written to
+	 * @return segment, null if the segment has not been allocated and create is false
+	 */
+	private NativeBytesStore<Void> segment(long index, boolean create) {
+		if (closed) throw new IllegalStateException("Table has been closed");
+		int i = (int)(index >>> segmentShift);
+		NativeBytesStore<Void> segment = segments.get(i);
+		if (segment == null && create) {
+			// native memory is zeroed on allocation so all slots start EMPTY
+			NativeBytesStore<Void> allocated = NativeBytesStore.nativeStoreWithFixedCapacity(segmentSlots * SLOT_SIZE);
+			if (segments.compareAndSet(i, null, allocated)) {
+				segment = allocated;
+			} else {
+				// another thread allocated the segment first
+				allocated.release();
+				segment = segments.get(i);
+			}
+		}
+		return segment;
+	}
+	private long slotOffset(long index) {
+		return (index & (segmentSlots - 1)) * SLOT_SIZE;
+	}
+	private static int waitForKey(NativeBytesStore<Void> segment, long slot) {
+		int state;
+		while ((state = segment.readVolatileInt(slot + STATE_OFFSET)) == CLAIMED) {
+			Thread.yield();
+		}
+		return state;
+	}
+	private static boolean isKey(NativeBytesStore<Void> segment, long slot, long key1, int key2) {
+		return segment.readLong(slot + KEY1_OFFSET) == key1 && segment.readInt(slot + KEY2_OFFSET) == key2;
+	}
+	private static void lock(NativeBytesStore<Void> segment, long slot) {
+		while (!segment.compareAndSwapInt(slot + STATE_OFFSET, READY, LOCKED)) {
+			Thread.yield();
+		}
+	}
+	private static void unlock(NativeBytesStore<Void> segment, long slot) {
+		segment.writeVolatileInt(slot + STATE_OFFSET, READY);
+	}
+	private static void writeValue(NativeBytesStore<Void> segment, long slot, long event1, int event2, float score, long alignment1, int alignment2) {
+		segment.writeFloat(slot + SCORE_OFFSET, score);
+		segment.writeLong(slot + EVENT1_OFFSET, event1);
+		segment.writeInt(slot + EVENT2_OFFSET, event2);
+		segment.writeLong(slot + ALIGNMENT1_OFFSET, alignment1);
+		segment.writeInt(slot + ALIGNMENT2_OFFSET, alignment2);
+	}
+	/**
+	 * Finds the slot containing the given key
+	 * @return slot index, -1 if the key is not in the table
+	 */
+	private long find(long key1, int key2) {
+		long index = slotIndex(key1, key2);
+		for (long probes = 0; probes < capacity; probes++) {
+			NativeBytesStore<Void> segment = segment(index, false);
+			// slots in unallocated segments are empty
+			if (segment == null) return -1;
+			long slot = slotOffset(index);
+			int state = waitForKey(segment, slot);
+			if (state == EMPTY) return -1;
+			if (isKey(segment, slot, key1, key2)) return index;
+			index = (index + 1) & (capacity - 1);
+		}
+		return -1;
+	}
+	/**
+	 * Sets the value of the given key if the key is not in the table
+	 * or the given score is greater than the current score of the key.
+	 * @return true if the value was written, false if the existing value has at least the given score
+	 */
+	public boolean putIfBetter(long key1, int key2, long event1, int event2, float score, long alignment1, int alignment2) {
+		long index = slotIndex(key1, key2);
+		for (long probes = 0; probes < capacity; probes++) {
+			NativeBytesStore<Void> segment = segment(index, true);
+			long slot = slotOffset(index);
+			int state = segment.readVolatileInt(slot + STATE_OFFSET);
+			if (state == EMPTY) {
+				if (segment.compareAndSwapInt(slot + STATE_OFFSET, EMPTY, CLAIMED)) {
+					segment.writeLong(slot + KEY1_OFFSET, key1);
+					segment.writeInt(slot + KEY2_OFFSET, key2);
+					writeValue(segment, slot, event1, event2, score, alignment1, alignment2);
+					unlock(segment, slot);
+					size.increment();
+					return true;
+				}
+				// lost the race to claim this slot: check if it was claimed for our key
+			}
+			waitForKey(segment, slot);
+			if (isKey(segment, slot, key1, key2)) {
+				lock(segment, slot);
+				try {
+					if (score > segment.readFloat(slot + SCORE_OFFSET)) {
+						writeValue(segment, slot, event1, event2, score, alignment1, alignment2);
+						return true;
+					}
+					return false;
+				} finally {
+					unlock(segment, slot);
+				}
+			}
+			index = (index + 1) & (capacity - 1);
+		}
+		throw new IllegalStateException(String.format("Unable to add key: all %,d slots are in use", capacity));
+	}
+	/**
+	 * Determines whether the best scoring value of the given key has the given event
+	 * @return true if the key is in the table and has the given event, false otherwise
+	 */
+	public boolean isBestEvent(long key1, int key2, long event1, int event2) {
+		long index = find(key1, key2);
+		if (index < 0) return false;
+		NativeBytesStore<Void> segment = segment(index, false);
+		long slot = slotOffset(index);
+		lock(segment, slot);
+		try {
+			return segment.readLong(slot + EVENT1_OFFSET) == event1 && segment.readInt(slot + EVENT2_OFFSET) == event2;
+		} finally {
+			unlock(segment, slot);
+		}
+	}
+	/**
+	 * Determines whether the best scoring value of the given key has the given alignment
+	 * @return true if the key is in the table and has the given alignment, false otherwise
+	 */
+	public boolean isBestAlignment(long key1, int key2, long alignment1, int alignment2) {
+		long index = find(key1, key2);
+		if (index < 0) return false;
+		NativeBytesStore<Void> segment = segment(index, false);
+		long slot = slotOffset(index);
+		lock(segment, slot);
+		try {
+			return segment.readLong(slot + ALIGNMENT1_OFFSET) == alignment1 && segment.readInt(slot + ALIGNMENT2_OFFSET) == alignment2;
+		} finally {
+			unlock(segment, slot);
+		}
+	}
+	/**
+	 * Gets the best score of the given key
+	 * @return best score, NaN if the key is not in the table
+	 */
+	public float getScore(long key1, int key2) {
+		long index = find(key1, key2);
+		if (index < 0) return Float.NaN;
+		NativeBytesStore<Void> segment = segment(index, false);
+		long slot = slotOffset(index);
+		lock(segment, slot);
+		try {
+			return segment.readFloat(slot + SCORE_OFFSET);
+		} finally {
+			unlock(segment, slot);
+		}
+	}
+	/**
+	 * Number of keys in the table
+	 */
+	public long size() {
+		return size.sum();
+	}
+	/**
+	 * Maximum number of keys that can be stored in the table
+	 */
+	public long capacity() {
+		return capacity;
+	}
+	/**
+	 * Number of bytes of native memory allocated by this table
+	 */
+	public long allocatedBytes() {
+		long bytes = 0;
+		for (int i = 0; i < segments.length(); i++) {
+			if (segments.get(i) != null) {
+				bytes += segmentSlots * SLOT_SIZE;
+			}
+		}
+		return bytes;
+	}
+	/**
+	 * Releases the native memory used by this table.
+	 * The table must not be accessed concurrently with or after close.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		for (int i = 0; i < segments.length(); i++) {
+			NativeBytesStore<Void> segment = segments.getAndSet(i, null);
+			if (segment != null) {
+				segment.release();
+			}
+		}
+	}
+}
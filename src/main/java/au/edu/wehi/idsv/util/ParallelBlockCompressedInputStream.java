@@ -0,0 +1,192 @@
+package au.edu.wehi.idsv.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * Sequential BGZF input stream that inflates blocks ahead of the consumer on a shared worker pool.
+ * By default, blocks are inflated on the shared input decompression pool.
+ *
+ * Compressed blocks are read from the underlying stream on the calling thread,
+ * with only the decompression performed in parallel. Random access is not supported.
+ *
+ * This class is not thread-safe.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class ParallelBlockCompressedInputStream extends InputStream {
+	private static final int BLOCK_HEADER_LENGTH = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+	private static final int BLOCK_FOOTER_LENGTH = 8;
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+	private final InputStream in;
+	private final ExecutorService pool;
+	private final int maxBlocksInFlight;
+	private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+	private final String source;
+	private byte[] current = new byte[0];
+	private int currentOffset = 0;
+	private boolean eof = false;
+	/**
+	 * Creates a new BGZF input stream
+	 * @param in underlying stream
+	 * @param source description of stream used in error messages
+	 */
+	public ParallelBlockCompressedInputStream(InputStream in, String source) {
+		this(in, source, InputThreadPools.getInflateExecutor(), 2 * InputThreadPools.getThreadCount() + 2);
+	}
+	/**
+	 * Creates a new BGZF input stream
+	 * @param in underlying stream
+	 * @param source description of stream used in error messages
+	 * @param pool pool to perform block decompression on
+	 * @param maxBlocksInFlight maximum number of blocks decompressing or waiting to be read
+	 */
+	public ParallelBlockCompressedInputStream(InputStream in, String source, ExecutorService pool, int maxBlocksInFlight) {
+		if (maxBlocksInFlight < 1) throw new IllegalArgumentException("At least one block must be able to be in flight");
+		this.in = in;
+		this.source = source;
+		this.pool = pool;
+		this.maxBlocksInFlight = maxBlocksInFlight;
+	}
+	@Override
+	public int read() throws IOException {
+		if (!ensureAvailable()) return -1;
+		return current[currentOffset++] & 0xff;
+	}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		int read = 0;
+		while (read < len && ensureAvailable()) {
+			int toCopy = Math.min(len - read, current.length - currentOffset);
+			System.arraycopy(current, currentOffset, b, off + read, toCopy);
+			currentOffset += toCopy;
+			read += toCopy;
+		}
+		return read == 0 ? -1 : read;
+	}
+	@Override
+	public int available() throws IOException {
+		return current.length - currentOffset;
+	}
+	@Override
+	public void close() throws IOException {
+		for (Future<byte[]> f : inFlight) {
+			f.cancel(false);
+		}
+		inFlight.clear();
+		in.close();
+	}
+	/**
+	 * Ensures uncompressed data is available to be read
+	 * @return false if the end of the stream has been reached
+	 */
+	private boolean ensureAvailable() throws IOException {
+		while (currentOffset >= current.length) {
+			dispatch();
+			if (inFlight.isEmpty()) return false;
+			try {
+				current = inFlight.poll().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				throw new IOException(String.format("Error decompressing %s", source), e.getCause());
+			}
+			currentOffset = 0;
+			dispatch();
+		}
+		return true;
+	}
+	private void dispatch() throws IOException {
+		while (!eof && inFlight.size() < maxBlocksInFlight) {
+			final byte[] block = readBlock();
+			if (block == null) {
+				eof = true;
+			} else {
+				inFlight.add(pool.submit(() -> inflateBlock(block, source)));
+			}
+		}
+	}
+	/**
+	 * Reads the next compressed block from the underlying stream
+	 * @return compressed block, null if the end of the stream has been reached
+	 */
+	private byte[] readBlock() throws IOException {
+		byte[] header = new byte[BLOCK_HEADER_LENGTH];
+		int headerRead = readFully(header, 0, header.length);
+		if (headerRead == 0) return null;
+		if (headerRead < header.length) {
+			throw new EOFException(String.format("Truncated BGZF block header in %s", source));
+		}
+		if (header[0] != 31 || (header[1] & 0xff) != 139 || header[3] != 4 || header[12] != 66 || header[13] != 67) {
+			throw new IOException(String.format("Invalid BGZF block header in %s", source));
+		}
+		int blockLength = readShort(header, 16) + 1;
+		if (blockLength < BLOCK_HEADER_LENGTH + BLOCK_FOOTER_LENGTH) {
+			throw new IOException(String.format("Invalid BGZF block size in %s", source));
+		}
+		byte[] block = new byte[blockLength];
+		System.arraycopy(header, 0, block, 0, header.length);
+		if (readFully(block, header.length, blockLength - header.length) < blockLength - header.length) {
+			throw new EOFException(String.format("Truncated BGZF block in %s", source));
+		}
+		return block;
+	}
+	private int readFully(byte[] buffer, int offset, int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = in.read(buffer, offset + read, length - read);
+			if (count < 0) break;
+			read += count;
+		}
+		return read;
+	}
+	/**
+	 * Decompresses the given BGZF block
+	 * @param block compressed block including BGZF header and footer
+	 * @param source description of stream used in error messages
+	 * @return uncompressed data
+	 */
+	public static byte[] inflateBlock(byte[] block, String source) throws IOException {
+		int footerOffset = block.length - BLOCK_FOOTER_LENGTH;
+		int expectedCrc = readInt(block, footerOffset);
+		int uncompressedLength = readInt(block, footerOffset + 4);
+		byte[] data = new byte[uncompressedLength];
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(block, BLOCK_HEADER_LENGTH, footerOffset - BLOCK_HEADER_LENGTH);
+		try {
+			int inflated = inflater.inflate(data, 0, uncompressedLength);
+			if (inflated != uncompressedLength) {
+				throw new IOException(String.format("Did not inflate expected amount in %s", source));
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(String.format("Corrupt BGZF block in %s", source), e);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, uncompressedLength);
+		if ((int)crc.getValue() != expectedCrc) {
+			throw new IOException(String.format("CRC mismatch in %s", source));
+		}
+		return data;
+	}
+	private static int readShort(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+	}
+	private static int readInt(byte[] buffer, int offset) {
+		return readShort(buffer, offset) | (readShort(buffer, offset + 2) << 16);
+	}
+}
@@ -0,0 +1,286 @@
+package au.edu.wehi.idsv.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.Log;
+
+/**
+ * BGZF output stream that deflates blocks on a shared worker pool.
+ *
+ * Compressed blocks are written to the underlying stream in the order in which
+ * the uncompressed data was written to this stream. The output is byte-for-byte
+ * compatible with BlockCompressedOutputStream except for the block boundaries.
+ *
+ * This class is not thread-safe. Only the compression is performed in parallel.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+	private static final Log log = Log.getInstance(ParallelBlockCompressedOutputStream.class);
+	/**
+	 * Uncompressed block size. This matches the samtools BGZF_BLOCK_SIZE and ensures
+	 * that even incompressible blocks fit within the maximum BGZF block size.
+	 */
+	public static final int UNCOMPRESSED_BLOCK_SIZE = 0xff00;
+	private static final int BLOCK_HEADER_LENGTH = 18;
+	private static final int BLOCK_FOOTER_LENGTH = 8;
+	private static final int MAX_COMPRESSED_BLOCK_SIZE = 64 * 1024;
+	/**
+	 * Per-thread deflaters for each compression level (offset by one to allow for DEFAULT_COMPRESSION)
+	 */
+	private static final ThreadLocal<Deflater[]> deflaters = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 2]);
+	private static int defaultThreadCount = Runtime.getRuntime().availableProcessors();
+	private static ThreadPoolExecutor defaultPool = null;
+	private final OutputStream out;
+	private final ExecutorService pool;
+	private final int compressionLevel;
+	private final int maxBlocksInFlight;
+	private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+	private byte[] buffer = new byte[UNCOMPRESSED_BLOCK_SIZE];
+	private int bufferLength = 0;
+	private long blocksSubmitted = 0;
+	private long compressedBytesWritten = 0;
+	private LongConsumer blockWrittenListener = null;
+	private boolean closed = false;
+	public ParallelBlockCompressedOutputStream(File file) throws IOException {
+		this(new FileOutputStream(file));
+	}
+	public ParallelBlockCompressedOutputStream(OutputStream out) {
+		this(out, htsjdk.samtools.Defaults.COMPRESSION_LEVEL, getDefaultExecutor(), 2 * getDefaultThreadCount() + 2);
+	}
+	/**
+	 * Creates a new BGZF output stream
+	 * @param out underlying output stream
+	 * @param compressionLevel deflate compression level
+	 * @param pool pool to perform block compression on
+	 * @param maxBlocksInFlight maximum number of blocks compressing or waiting to be written
+	 */
+	public ParallelBlockCompressedOutputStream(OutputStream out, int compressionLevel, ExecutorService pool, int maxBlocksInFlight) {
+		if (maxBlocksInFlight < 1) throw new IllegalArgumentException("At least one block must be able to be in flight");
+		this.out = out;
+		this.compressionLevel = compressionLevel;
+		this.pool = pool;
+		this.maxBlocksInFlight = maxBlocksInFlight;
+	}
+	/**
+	 * Sets the number of threads used by the shared block compression pool.
+	 * @param threads number of compression threads
+	 */
+	public static synchronized void setDefaultThreadCount(int threads) {
+		if (threads < 1) threads = 1;
+		if (defaultPool != null && threads != defaultThreadCount) {
+			// resize in-place as existing streams hold a reference to the pool
+			if (threads > defaultThreadCount) {
+				defaultPool.setMaximumPoolSize(threads);
+				defaultPool.setCorePoolSize(threads);
+			} else {
+				defaultPool.setCorePoolSize(threads);
+				defaultPool.setMaximumPoolSize(threads);
+			}
+		}
+		defaultThreadCount = threads;
+	}
+	public static synchronized int getDefaultThreadCount() {
+		return defaultThreadCount;
+	}
+	/**
+	 * Shared BGZF pool used by GRIDSS BAM and VCF writers
+	 * @return block compression thread pool
+	 */
+	public static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultPool == null) {
+			log.debug(String.format("Using %d block compression threads", defaultThreadCount));
+			defaultPool = (ThreadPoolExecutor)Executors.newFixedThreadPool(defaultThreadCount, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bgzf-%d").build());
+		}
+		return defaultPool;
+	}
+	/**
+	 * Gets the position of the next byte written to this stream.
+	 * 
+	 * As the compressed size of blocks still being compressed is not known, the
+	 * position is encoded as the block number in the upper 48 bits and the offset
+	 * within the uncompressed block in the lower 16 bits. The BGZF virtual file
+	 * offset is obtained by replacing the block number with the compressed file
+	 * offset of the block once it has been written.
+	 * @return block number and offset of the next byte written 
+	 */
+	public long getBlockPosition() {
+		return (blocksSubmitted << 16) | bufferLength;
+	}
+	/**
+	 * Sets the listener notified each time a compressed block is written.
+	 * Blocks are written in block number order and the listener is passed the
+	 * compressed file offset at which the next block starts. 
+	 * @param listener listener called on the thread writing to this stream
+	 */
+	public void setBlockWrittenListener(LongConsumer listener) {
+		this.blockWrittenListener = listener;
+	}
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		buffer[bufferLength++] = (byte)b;
+		if (bufferLength == buffer.length) {
+			submitBlock();
+		}
+	}
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			int toCopy = Math.min(len, buffer.length - bufferLength);
+			System.arraycopy(b, off, buffer, bufferLength, toCopy);
+			bufferLength += toCopy;
+			off += toCopy;
+			len -= toCopy;
+			if (bufferLength == buffer.length) {
+				submitBlock();
+			}
+		}
+	}
+	/**
+	 * Compresses any buffered data and waits for all outstanding blocks to be written.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		flushBlocks();
+	}
+	private void flushBlocks() throws IOException {
+		if (bufferLength > 0) {
+			submitBlock();
+		}
+		writeCompletedBlocks(0);
+		out.flush();
+	}
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			flushBlocks();
+			out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+		} finally {
+			for (Future<byte[]> f : inFlight) {
+				f.cancel(false);
+			}
+			inFlight.clear();
+			out.close();
+		}
+	}
+	private void ensureOpen() throws IOException {
+		if (closed) throw new IOException("Stream closed");
+	}
+	private void submitBlock() throws IOException {
+		final byte[] data = buffer;
+		final int length = bufferLength;
+		final int level = compressionLevel;
+		buffer = new byte[UNCOMPRESSED_BLOCK_SIZE];
+		bufferLength = 0;
+		blocksSubmitted++;
+		inFlight.add(pool.submit(() -> compressBlock(data, length, level)));
+		writeCompletedBlocks(maxBlocksInFlight);
+	}
+	/**
+	 * Writes completed blocks in order
+	 * @param maxOutstanding number of blocks allowed to still be in flight on return
+	 */
+	private void writeCompletedBlocks(int maxOutstanding) throws IOException {
+		while (!inFlight.isEmpty() && (inFlight.size() > maxOutstanding || inFlight.peek().isDone())) {
+			Future<byte[]> f = inFlight.poll();
+			try {
+				byte[] block = f.get();
+				out.write(block);
+				compressedBytesWritten += block.length;
+				if (blockWrittenListener != null) {
+					blockWrittenListener.accept(compressedBytesWritten);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+	/**
+	 * Compresses the given data into a BGZF block
+	 * @param data uncompressed data
+	 * @param length number of bytes of data to compress
+	 * @param level compression level
+	 * @return BGZF block
+	 */
+	public static byte[] compressBlock(byte[] data, int length, int level) {
+		byte[] block = new byte[MAX_COMPRESSED_BLOCK_SIZE];
+		int maxCompressedLength = MAX_COMPRESSED_BLOCK_SIZE - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH;
+		int compressedLength = deflate(data, length, level, block, maxCompressedLength);
+		if (compressedLength < 0) {
+			// Incompressible data: deflate in stored mode
+			compressedLength = deflate(data, length, Deflater.NO_COMPRESSION, block, maxCompressedLength);
+			if (compressedLength < 0) {
+				throw new IllegalStateException("Unable to fit uncompressed data into BGZF block");
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		int blockLength = BLOCK_HEADER_LENGTH + compressedLength + BLOCK_FOOTER_LENGTH;
+		// gzip header with BGZF extra field
+		block[0] = 31; // ID1
+		block[1] = (byte)139; // ID2
+		block[2] = 8; // CM = deflate
+		block[3] = 4; // FLG = FEXTRA
+		// MTIME = 0, XFL = 0
+		block[9] = (byte)255; // OS unknown
+		writeShort(block, 10, 6); // XLEN
+		block[12] = 66; // SI1
+		block[13] = 67; // SI2
+		writeShort(block, 14, 2); // SLEN
+		writeShort(block, 16, blockLength - 1); // BSIZE
+		int footerOffset = BLOCK_HEADER_LENGTH + compressedLength;
+		writeInt(block, footerOffset, (int)crc.getValue());
+		writeInt(block, footerOffset + 4, length);
+		return Arrays.copyOf(block, blockLength);
+	}
+	private static int deflate(byte[] data, int length, int level, byte[] block, int maxCompressedLength) {
+		Deflater[] cache = deflaters.get();
+		Deflater d = cache[level + 1];
+		if (d == null) {
+			d = new Deflater(level, true);
+			cache[level + 1] = d;
+		}
+		d.reset();
+		d.setInput(data, 0, length);
+		d.finish();
+		int compressedLength = d.deflate(block, BLOCK_HEADER_LENGTH, maxCompressedLength);
+		if (!d.finished()) {
+			return -1;
+		}
+		return compressedLength;
+	}
+	private static void writeShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte)(value & 0xff);
+		buffer[offset + 1] = (byte)((value >> 8) & 0xff);
+	}
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		writeShort(buffer, offset, value & 0xffff);
+		writeShort(buffer, offset + 2, (value >> 16) & 0xffff);
+	}
+}
@@ -0,0 +1,412 @@
+package au.edu.wehi.idsv.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * External sort in which in-memory runs are sorted, encoded and spilled to disk
+ * on a worker pool whilst records continue to be added on the calling thread.
+ *
+ * Runs that are already in sort order are not resorted, and no records are spilled
+ * to disk if all records fit within a single run.
+ *
+ * The in-memory record limit is divided into a fixed number of runs so the run size
+ * does not depend on the number of worker threads. When more runs are spilled than
+ * can be merged at once, groups of runs are merged into larger runs before iteration.
+ *
+ * Unlike htsjdk SortingCollection, records with equal sort keys are returned in the order
+ * they were added.
+ *
+ * @author Daniel Cameron
+ *
+ * @param <T>
+ */
+public class ParallelSortingCollection<T> implements Iterable<T> {
+	private static final Log log = Log.getInstance(ParallelSortingCollection.class);
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Number of runs the in-memory record limit is divided between:
+	 * the run being added to and the runs being sorted and written by worker threads.
+	 */
+	private static final int RUNS_IN_RAM = 4;
+	/**
+	 * Default maximum number of runs merged at once
+	 */
+	public static final int DEFAULT_MAX_MERGE_FAN_IN = 128;
+	private static ExecutorService defaultPool = null;
+	private final SortingCollection.Codec<T> codec;
+	private final Comparator<T> comparator;
+	private final int maxRecordsPerRun;
+	private final File tmpDir;
+	private final ExecutorService pool;
+	private final int maxRunsInFlight;
+	private final int maxMergeFanIn;
+	private final Deque<Future<File>> inFlight = new ArrayDeque<>();
+	private final List<File> runs = new ArrayList<>();
+	private List<T> current;
+	private boolean currentIsSorted = true;
+	private boolean doneAdding = false;
+	private boolean cleanedUp = false;
+	/**
+	 * Creates a new sorting collection using the default worker pool
+	 * @param codec record encoder/decoder
+	 * @param comparator sort order
+	 * @param maxRecordsInRam maximum number of records to hold in memory. This limit includes records
+	 * held in the runs being sorted by worker threads.
+	 * @param tmpDir directory to spill sorted runs to
+	 */
+	public ParallelSortingCollection(SortingCollection.Codec<T> codec, Comparator<T> comparator, int maxRecordsInRam, File tmpDir) {
+		this(codec, comparator, maxRecordsInRam, tmpDir, getDefaultExecutor(), ParallelBlockCompressedOutputStream.getDefaultThreadCount());
+	}
+	/**
+	 * Creates a new sorting collection
+	 * @param codec record encoder/decoder
+	 * @param comparator sort order
+	 * @param maxRecordsInRam maximum number of records to hold in memory. This limit includes records
+	 * held in the runs being sorted by worker threads.
+	 * @param tmpDir directory to spill sorted runs to
+	 * @param pool worker pool to sort and spill runs on
+	 * @param maxRunsInFlight maximum number of runs being sorted concurrently.
+	 * At most 3 runs are in flight so the in-memory record limit is not exceeded.
+	 */
+	public ParallelSortingCollection(SortingCollection.Codec<T> codec, Comparator<T> comparator, int maxRecordsInRam, File tmpDir, ExecutorService pool, int maxRunsInFlight) {
+		this(codec, comparator, maxRecordsInRam, tmpDir, pool, maxRunsInFlight, DEFAULT_MAX_MERGE_FAN_IN);
+	}
+	/**
+	 * Creates a new sorting collection
+	 * @param codec record encoder/decoder
+	 * @param comparator sort order
+	 * @param maxRecordsInRam maximum number of records to hold in memory. This limit includes records
+	 * held in the runs being sorted by worker threads.
+	 * @param tmpDir directory to spill sorted runs to
+	 * @param pool worker pool to sort, spill, and merge runs on
+	 * @param maxRunsInFlight maximum number of runs being sorted concurrently.
+	 * At most 3 runs are in flight so the in-memory record limit is not exceeded.
+	 * @param maxMergeFanIn maximum number of runs to open at once when merging
+	 */
+	public ParallelSortingCollection(SortingCollection.Codec<T> codec, Comparator<T> comparator, int maxRecordsInRam, File tmpDir, ExecutorService pool, int maxRunsInFlight, int maxMergeFanIn) {
+		if (maxRunsInFlight < 1) throw new IllegalArgumentException("At least one run must be able to be in flight");
+		if (maxMergeFanIn < 2) throw new IllegalArgumentException("At least two runs must be able to be merged");
+		this.codec = codec;
+		this.comparator = comparator;
+		this.maxRecordsPerRun = Math.max(1, maxRecordsInRam / RUNS_IN_RAM);
+		this.tmpDir = tmpDir;
+		this.pool = pool;
+		this.maxRunsInFlight = Math.min(maxRunsInFlight, RUNS_IN_RAM - 1);
+		this.maxMergeFanIn = maxMergeFanIn;
+		this.current = new ArrayList<>(Math.min(maxRecordsPerRun, 1 << 16));
+	}
+	/**
+	 * Shared pool used to sort and spill runs
+	 * @return sort thread pool
+	 */
+	public static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultPool == null) {
+			int threads = ParallelBlockCompressedOutputStream.getDefaultThreadCount();
+			log.debug(String.format("Using %d sort threads", threads));
+			defaultPool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sort-%d").build());
+		}
+		return defaultPool;
+	}
+	public void add(T record) {
+		if (doneAdding) throw new IllegalStateException("Cannot add after calling doneAdding()");
+		if (currentIsSorted && !current.isEmpty() && comparator.compare(current.get(current.size() - 1), record) > 0) {
+			currentIsSorted = false;
+		}
+		current.add(record);
+		if (current.size() >= maxRecordsPerRun) {
+			spill();
+		}
+	}
+	/**
+	 * Sorts and writes the current run on the worker pool
+	 */
+	private void spill() {
+		final List<T> run = current;
+		final boolean isSorted = currentIsSorted;
+		current = new ArrayList<>(maxRecordsPerRun);
+		currentIsSorted = true;
+		while (inFlight.size() >= maxRunsInFlight) {
+			runs.add(waitFor(inFlight.removeFirst()));
+		}
+		inFlight.addLast(pool.submit(() -> writeRun(run, isSorted)));
+	}
+	private File writeRun(List<T> run, boolean isSorted) throws IOException {
+		if (!isSorted) {
+			// stable sort to retain input order of equal records
+			Collections.sort(run, comparator);
+		}
+		File file = writeRun(run.iterator());
+		MetricsRegistry.Current.sortSpill("parallel", run.size());
+		return file;
+	}
+	private File writeRun(Iterator<T> it) throws IOException {
+		File file = File.createTempFile("gridss.tmp.sortrun.", ".tmp", tmpDir);
+		file.deleteOnExit();
+		SortingCollection.Codec<T> runCodec = codec.clone();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (OutputStream os = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE), deflater, IO_BUFFER_SIZE)) {
+			runCodec.setOutputStream(os);
+			while (it.hasNext()) {
+				runCodec.encode(it.next());
+			}
+		} catch (IOException | RuntimeException e) {
+			file.delete();
+			throw e;
+		} finally {
+			deflater.end();
+		}
+		return file;
+	}
+	/**
+	 * Merges the given runs into a single run
+	 */
+	private File mergeRuns(List<File> group) throws IOException {
+		File file;
+		try (MergingIterator it = new MergingIterator(group)) {
+			file = writeRun(it);
+		}
+		for (File f : group) {
+			f.delete();
+		}
+		return file;
+	}
+	/**
+	 * Merges consecutive groups of runs until all runs can be merged at once.
+	 * Runs are merged in order so the sort remains stable.
+	 */
+	private void reduceRunCount() {
+		while (runs.size() > maxMergeFanIn) {
+			log.debug(String.format("Merging %d sorted runs in groups of %d", runs.size(), maxMergeFanIn));
+			List<List<File>> groups = new ArrayList<>();
+			for (int i = 0; i < runs.size(); i += maxMergeFanIn) {
+				groups.add(new ArrayList<>(runs.subList(i, Math.min(runs.size(), i + maxMergeFanIn))));
+			}
+			List<Future<File>> merges = new ArrayList<>();
+			for (List<File> group : groups) {
+				if (group.size() == 1) {
+					merges.add(null);
+				} else {
+					merges.add(pool.submit(() -> mergeRuns(group)));
+				}
+			}
+			List<File> merged = new ArrayList<>();
+			RuntimeException failure = null;
+			for (int i = 0; i < groups.size(); i++) {
+				if (merges.get(i) == null) {
+					merged.addAll(groups.get(i));
+					continue;
+				}
+				try {
+					merged.add(waitFor(merges.get(i)));
+				} catch (RuntimeException e) {
+					// retain the unmerged runs so they are removed by cleanup()
+					merged.addAll(groups.get(i));
+					if (failure == null) failure = e;
+				}
+			}
+			runs.clear();
+			runs.addAll(merged);
+			if (failure != null) throw failure;
+		}
+	}
+	private File waitFor(Future<File> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw new RuntimeIOException(e.getCause());
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	/**
+	 * Indicates that all records have been added.
+	 */
+	public void doneAdding() {
+		if (doneAdding) return;
+		doneAdding = true;
+		if (runs.isEmpty() && inFlight.isEmpty()) {
+			// everything fits in memory
+			if (!currentIsSorted) {
+				Collections.sort(current, comparator);
+			}
+			return;
+		}
+		if (!current.isEmpty()) {
+			spill();
+		}
+		current = null;
+		while (!inFlight.isEmpty()) {
+			runs.add(waitFor(inFlight.removeFirst()));
+		}
+		reduceRunCount();
+	}
+	/**
+	 * Number of sorted runs on disk
+	 */
+	public int getRunCount() {
+		return runs.size();
+	}
+	/**
+	 * Returns the records in sorted order. Can only be called after doneAdding().
+	 */
+	@Override
+	public CloseableIterator<T> iterator() {
+		if (!doneAdding) throw new IllegalStateException("Cannot iterate before calling doneAdding()");
+		if (cleanedUp) throw new IllegalStateException("Cannot iterate after calling cleanup()");
+		if (current != null) {
+			return new InMemoryIterator<>(current.iterator());
+		}
+		return new MergingIterator(runs);
+	}
+	/**
+	 * Deletes all temporary files.
+	 */
+	public void cleanup() {
+		cleanedUp = true;
+		while (!inFlight.isEmpty()) {
+			Future<File> future = inFlight.removeFirst();
+			try {
+				runs.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// already failed; nothing to clean up
+			}
+		}
+		for (File f : runs) {
+			f.delete();
+		}
+		runs.clear();
+		current = null;
+	}
+	private static class InMemoryIterator<T> implements CloseableIterator<T> {
+		private final Iterator<T> it;
+		public InMemoryIterator(Iterator<T> it) {
+			this.it = it;
+		}
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+		@Override
+		public T next() {
+			return it.next();
+		}
+		@Override
+		public void close() {
+		}
+	}
+	/**
+	 * Reads a single spilled run
+	 */
+	private class RunIterator {
+		private final int ordinal;
+		private final Inflater inflater = new Inflater();
+		private final InputStream is;
+		private final SortingCollection.Codec<T> runCodec;
+		private T next;
+		public RunIterator(File file, int ordinal) throws IOException {
+			this.ordinal = ordinal;
+			this.is = new InflaterInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE), inflater, IO_BUFFER_SIZE);
+			this.runCodec = codec.clone();
+			this.runCodec.setInputStream(is);
+			advance();
+		}
+		private void advance() {
+			next = runCodec.decode();
+			if (next == null) {
+				close();
+			}
+		}
+		public T peek() {
+			return next;
+		}
+		public T next() {
+			T result = next;
+			advance();
+			return result;
+		}
+		public void close() {
+			CloserUtil.close(is);
+			inflater.end();
+		}
+	}
+	private class MergingIterator implements CloseableIterator<T> {
+		private final List<RunIterator> open = new ArrayList<>();
+		private final PriorityQueue<RunIterator> queue;
+		public MergingIterator(List<File> runs) {
+			// Runs are ordered by addition so ties are broken on run ordinal for a stable sort
+			Comparator<RunIterator> runComparator = Comparator.comparing(RunIterator::peek, comparator);
+			this.queue = new PriorityQueue<>(Math.max(1, runs.size()), runComparator.thenComparingInt(rit -> rit.ordinal));
+			try {
+				for (int i = 0; i < runs.size(); i++) {
+					RunIterator rit = new RunIterator(runs.get(i), i);
+					open.add(rit);
+					if (rit.peek() != null) {
+						queue.add(rit);
+					}
+				}
+			} catch (IOException e) {
+				close();
+				throw new RuntimeIOException(e);
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+		@Override
+		public T next() {
+			RunIterator rit = queue.poll();
+			if (rit == null) throw new NoSuchElementException();
+			T result = rit.next();
+			if (rit.peek() != null) {
+				queue.add(rit);
+			}
+			return result;
+		}
+		@Override
+		public void close() {
+			for (RunIterator rit : open) {
+				rit.close();
+			}
+			open.clear();
+			queue.clear();
+		}
+	}
+}
@@ -7,6 +7,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Ordering;
 
 /**
@@ -14,6 +15,9 @@ import com.google.common.collect.Ordering;
  * The transform is applied to multiple iterator elements in parallel with
  * the order of the resultant iteration unchanged.
  * 
+ * Exceptions thrown by the transform are rethrown by next() when
+ * the record that caused the exception is reached.
+ * 
  * This class is not thread-safe and access from multiple threads should
  * be synchronised.
  * 
@@ -22,12 +26,17 @@ import com.google.common.collect.Ordering;
  */
 public class ParallelTransformIterator<T, U> implements Iterator<U> {
 	private static class TransformResult<U> {
-		public TransformResult(final long ordinal, final U result) {
+		public TransformResult(final long ordinal, final U result, final Throwable error) {
 			this.ordinal = ordinal;
 			this.result = result;
+			this.error = error;
 		}
 		public final long ordinal;
 		public final U result;
+		/**
+		 * Exception thrown by the transform function
+		 */
+		public final Throwable error;
 		@SuppressWarnings("rawtypes")
 		public static Ordering<TransformResult> byOrdinal = Ordering.natural().onResultOf((TransformResult tr) -> tr.ordinal);
 	}
@@ -88,11 +97,16 @@ public class ParallelTransformIterator<T, U> implements Iterator<U> {
 			}
 			results.add(record);
 		}
-		U result = results.poll().result;
+		TransformResult<U> record = results.poll();
 		dispatched--;
 		lastOrdinal++;
+		if (record.error != null) {
+			// rethrow on the consuming thread
+			Throwables.throwIfUnchecked(record.error);
+			throw new RuntimeException(record.error);
+		}
 		dispatch();
-		return result;
+		return record.result;
 	}
 	/**
 	 * Dispatches records until we have lookahead records.
@@ -106,7 +120,15 @@ public class ParallelTransformIterator<T, U> implements Iterator<U> {
 	}
 	private void dispatch(final long ordinal, final T record) {
 		threadpool.execute(() -> {
-			completed.add(new TransformResult<U>(ordinal, f.apply(record)));
+			U result = null;
+			Throwable error = null;
+			try {
+				result = f.apply(record);
+			} catch (Throwable e) {
+				// always report completion so the consumer does not block waiting for this record
+				error = e;
+			}
+			completed.add(new TransformResult<U>(ordinal, result, error));
 		});
 	}
 }
@@ -19,8 +19,8 @@ import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 
 import au.edu.wehi.idsv.ProgressLoggingSAMRecordIterator;
+import au.edu.wehi.idsv.sam.ParallelSAMFileWriterFactory;
 import htsjdk.samtools.SAMFileWriter;
-import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
@@ -66,7 +66,7 @@ public class SubsetToMissing extends picard.cmdline.CommandLineProgram {
 		
 		Iterator<SAMRecord> intputit = new AsyncBufferedIterator<SAMRecord>(input.iterator(), 2, 16384);
 		
-		SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(input.getFileHeader(), true, OUTPUT);
+		SAMFileWriter out = new ParallelSAMFileWriterFactory().makeSAMOrBAMWriter(input.getFileHeader(), true, OUTPUT);
 		
 		LongSet hashtable;
 		if (PREALLOCATE != null) {
@@ -1,9 +1,22 @@
 package au.edu.wehi.idsv.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import com.google.common.base.Function;
 import com.google.common.collect.AbstractIterator;
@@ -13,35 +26,54 @@ import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.primitives.Longs;
 
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
 import au.edu.wehi.idsv.visualisation.TrackedBuffer;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
 
 /**
  * Sorts a mostly-sorted input sequence.
- * 
+ *
  * As SAM/BAM input is sorted by alignment start position, sorting on evidence
  * position does not require a full sort as the difference between breakend
  * start position and the alignment start position is bounded by the fragment size
  * for read pair evidence, and the read length for soft clip evidence.
- * 
+ *
+ * If a codec is supplied, the number of records held in memory is bounded. When the
+ * sort window contains more than the in-memory limit, the buffered records are written
+ * to a sorted temporary run which is merged back into the output. Only the head record
+ * of each run is held in memory.
+ *
  * @author Daniel Cameron
  *
  * @param <T>
  */
-public class WindowedSortingIterator<T> extends AbstractIterator<T> implements TrackedBuffer {
+public class WindowedSortingIterator<T> extends AbstractIterator<T> implements TrackedBuffer, CloseableIterator<T> {
 	private static final Log log = Log.getInstance(WindowedSortingIterator.class);
-	private final PriorityQueue<T> calls; 
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+	private final PriorityQueue<T> calls;
 	private final long windowSize;
 	private final PeekingIterator<T> it;
 	private final Function<T, Long> toCoordinate;
 	private long lastPosition = Long.MIN_VALUE;
 	private final Comparator<T> sortOrder;
 	private T lastEmitted = null;
+	private final SortingCollection.Codec<T> codec;
+	private final int maxRecordsInRam;
+	private final File tmpDir;
+	private final PriorityQueue<SpilledRun> runs;
+	private final List<SpilledRun> openRuns = new ArrayList<>();
+	private long spilledRecords = 0;
+	private long spilledRecordsRemaining = 0;
+	private int runOrdinal = 0;
 	/**
 	 * Creates a new sorted iterator from a mostly-sorted sequence
 	 * @param it mostly-sorted sequence. Records cannot be out of order by more than windowSize
 	 * @param transform Coordinate transform for position of record.
-	 * @param windowSize Maximum coordinate-space length that records can deviate from a sorted sequence 
+	 * @param windowSize Maximum coordinate-space length that records can deviate from a sorted sequence
 	 */
 	public WindowedSortingIterator(final Iterator<T> it, final Function<T, Long> transform, final long windowSize) {
 		this(it, transform, windowSize, new Ordering<T>() {
@@ -51,17 +83,38 @@ public class WindowedSortingIterator<T> extends AbstractIterator<T> implements T
 		});
 	}
 	public WindowedSortingIterator(final Iterator<T> it, final Function<T, Long> transform, final long windowSize, final Comparator<T> sortOrder) {
+		this(it, transform, windowSize, sortOrder, null, Integer.MAX_VALUE, null);
+	}
+	/**
+	 * Creates a new sorted iterator from a mostly-sorted sequence that holds at most
+	 * maxRecordsInRam records in memory
+	 * @param it mostly-sorted sequence. Records cannot be out of order by more than windowSize
+	 * @param transform Coordinate transform for position of record.
+	 * @param windowSize Maximum coordinate-space length that records can deviate from a sorted sequence
+	 * @param sortOrder sort order
+	 * @param codec record encoder/decoder used to spill records to disk. If null, all records in the
+	 * sort window are held in memory.
+	 * @param maxRecordsInRam maximum number of buffered records to hold in memory before spilling to disk
+	 * @param tmpDir directory to spill sorted runs to
+	 */
+	public WindowedSortingIterator(final Iterator<T> it, final Function<T, Long> transform, final long windowSize, final Comparator<T> sortOrder,
+			final SortingCollection.Codec<T> codec, final int maxRecordsInRam, final File tmpDir) {
 		this.windowSize = windowSize;
 		this.it = Iterators.peekingIterator(it);
 		this.toCoordinate = transform;
 		this.calls = new PriorityQueue<T>(32, sortOrder);
 		this.sortOrder = sortOrder;
+		this.codec = codec;
+		this.maxRecordsInRam = Math.max(1, maxRecordsInRam);
+		this.tmpDir = tmpDir;
+		Comparator<SpilledRun> runComparator = Comparator.comparing(SpilledRun::peek, sortOrder);
+		this.runs = new PriorityQueue<>(4, runComparator.thenComparingInt(run -> run.ordinal));
 	}
 	@Override
 	protected T computeNext() {
 		advanceUnderlying();
-		if (calls.isEmpty()) return endOfData();
-		T next = calls.poll();
+		T next = pollBuffer();
+		if (next == null) return endOfData();
 		long nextPos = toCoordinate.apply(next);
 		if (nextPos < lastPosition) {
 			log.error("Sanity check failure: sorting window size too small: evidence out of order at linear coordinate" + nextPos);
@@ -73,25 +126,152 @@ public class WindowedSortingIterator<T> extends AbstractIterator<T> implements T
 		return next;
 	}
 	private void advanceUnderlying() {
-		while (it.hasNext() && (calls.isEmpty() || nextRecordCouldBeAtStartOfWindow())) {
+		while (it.hasNext() && (isBufferEmpty() || nextRecordCouldBeAtStartOfWindow())) {
 			T next = it.next();
 			calls.add(next);
+			if (codec != null && calls.size() > maxRecordsInRam) {
+				spill();
+			}
+		}
+	}
+	private boolean isBufferEmpty() {
+		return calls.isEmpty() && runs.isEmpty();
+	}
+	/**
+	 * First record in sort order across the in-memory buffer and the spilled runs
+	 */
+	private T peekBuffer() {
+		T inMemory = calls.peek();
+		SpilledRun run = runs.peek();
+		if (run == null) return inMemory;
+		if (inMemory == null || sortOrder.compare(run.peek(), inMemory) < 0) return run.peek();
+		return inMemory;
+	}
+	private T pollBuffer() {
+		T inMemory = calls.peek();
+		SpilledRun run = runs.peek();
+		if (run == null || (inMemory != null && sortOrder.compare(run.peek(), inMemory) >= 0)) {
+			return calls.poll();
 		}
+		runs.poll();
+		T next = run.next();
+		spilledRecordsRemaining--;
+		if (run.peek() != null) {
+			runs.add(run);
+		} else {
+			run.close();
+			openRuns.remove(run);
+		}
+		return next;
 	}
 	private boolean nextRecordCouldBeAtStartOfWindow() {
-		long bufferPosition = toCoordinate.apply(calls.peek());
+		long bufferPosition = toCoordinate.apply(peekBuffer());
 		long nextPosition = toCoordinate.apply(it.peek());
 		return nextPosition <= bufferPosition + windowSize;
 	}
+	/**
+	 * Writes the in-memory buffer to a sorted temporary run
+	 */
+	private void spill() {
+		int count = calls.size();
+		if (spilledRecords == 0) {
+			log.info(String.format("More than %,d records in sort window at linear coordinate %d. Spilling to disk.", maxRecordsInRam, toCoordinate.apply(peekBuffer())));
+		}
+		try {
+			File file = File.createTempFile("gridss.tmp.windowedSort.", ".tmp", tmpDir);
+			file.deleteOnExit();
+			SortingCollection.Codec<T> runCodec = codec.clone();
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try (OutputStream os = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE), deflater, IO_BUFFER_SIZE)) {
+				runCodec.setOutputStream(os);
+				while (!calls.isEmpty()) {
+					runCodec.encode(calls.poll());
+				}
+			} finally {
+				deflater.end();
+			}
+			SpilledRun run = new SpilledRun(file, runCodec, runOrdinal++);
+			openRuns.add(run);
+			if (run.peek() != null) {
+				runs.add(run);
+			} else {
+				run.close();
+				openRuns.remove(run);
+			}
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		spilledRecords += count;
+		spilledRecordsRemaining += count;
+		MetricsRegistry.Current.sortSpill("windowed", count);
+	}
+	/**
+	 * Total number of records spilled to disk
+	 */
+	public long getSpilledRecordCount() {
+		return spilledRecords;
+	}
+	/**
+	 * Closes and deletes any remaining temporary runs. The underlying iterator is not closed.
+	 */
+	@Override
+	public void close() {
+		for (SpilledRun run : openRuns) {
+			run.close();
+		}
+		openRuns.clear();
+		runs.clear();
+		calls.clear();
+		spilledRecordsRemaining = 0;
+	}
+	/**
+	 * Reads a single spilled run. The run file is deleted once closed.
+	 */
+	private class SpilledRun {
+		private final File file;
+		private final int ordinal;
+		private final Inflater inflater = new Inflater();
+		private final InputStream is;
+		private final SortingCollection.Codec<T> runCodec;
+		private T next;
+		private boolean closed = false;
+		public SpilledRun(File file, SortingCollection.Codec<T> runCodec, int ordinal) throws IOException {
+			this.file = file;
+			this.ordinal = ordinal;
+			this.is = new InflaterInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE), inflater, IO_BUFFER_SIZE);
+			this.runCodec = runCodec;
+			this.runCodec.setInputStream(is);
+			next = runCodec.decode();
+		}
+		public T peek() {
+			return next;
+		}
+		public T next() {
+			T result = next;
+			next = runCodec.decode();
+			return result;
+		}
+		public void close() {
+			if (closed) return;
+			closed = true;
+			next = null;
+			CloserUtil.close(is);
+			inflater.end();
+			file.delete();
+		}
+	}
 	private String trackedBufferName_calls = "windowedSort";
+	private String trackedBufferName_spilled = "windowedSort.spilled";
 	@Override
 	public void setTrackedBufferContext(String context) {
 		this.trackedBufferName_calls = context + ".windowedSort";
+		this.trackedBufferName_spilled = context + ".windowedSort.spilled";
 	}
 	@Override
 	public List<NamedTrackedBuffer> currentTrackedBufferSizes() {
 		return ImmutableList.of(
-				new NamedTrackedBuffer(trackedBufferName_calls, calls.size())
+				new NamedTrackedBuffer(trackedBufferName_calls, calls.size() + runs.size()),
+				new NamedTrackedBuffer(trackedBufferName_spilled, (int)Math.min(Integer.MAX_VALUE, spilledRecordsRemaining))
 				);
 	}
 }
@@ -3,19 +3,27 @@ package au.edu.wehi.idsv.vcf;
 import java.io.File;
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+
 import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.IdsvVariantContext;
 import au.edu.wehi.idsv.IntermediateFileUtil;
 import au.edu.wehi.idsv.ProcessingContext;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.ParallelBlockCompressedOutputStream;
+import au.edu.wehi.idsv.util.ParallelSortingCollection;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
-import htsjdk.samtools.util.SortingCollection;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -42,8 +50,17 @@ public class VcfFileUtil {
 		}
 	}
 	public static void sort(ProcessingContext processContext, File input, File output) {
+		sort(processContext, input, output, false);
+	}
+	/**
+	 * Sorts a VCF by location
+	 * @param input unsorted input
+	 * @param output sorted output to write
+	 * @param writeIndex create an index for the output file
+	 */
+	public static void sort(ProcessingContext processContext, File input, File output, boolean writeIndex) {
 		try {
-			new SortCallable(processContext, input, output).call();
+			new SortCallable(processContext, input, output, writeIndex).call();
 		} catch (IOException e) {
 			log.error(log);
 			throw new RuntimeException(e);
@@ -61,7 +78,10 @@ public class VcfFileUtil {
 		private final Comparator<VariantContext> sortComparator;
 		private final boolean indexed;
 		public SortCallable(ProcessingContext processContext, File input, File output) {
-			this(processContext, input, output, IdsvVariantContext.VariantContextByLocationStart(processContext.getDictionary()));
+			this(processContext, input, output, false);
+		}
+		public SortCallable(ProcessingContext processContext, File input, File output, boolean writeIndex) {
+			this(processContext, input, output, IdsvVariantContext.VariantContextByLocationStart(processContext.getDictionary()), writeIndex);
 		}
 		public SortCallable(ProcessingContext processContext, File input, File output, Comparator<VariantContext> sortComparator) {
 			this(processContext, input, output, sortComparator, false);
@@ -80,46 +100,108 @@ public class VcfFileUtil {
 				return null;
 			}
 			log.info("Sorting to " + output);
-			SortingCollection<VariantContext> collection = null;
+			ParallelSortingCollection<VariantContext> collection = null;
 			File tmpout = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.sorting.");
+			File inOrderFile = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.sorting.inorder.");
 			if (tmpout.exists()) {
 				FileHelper.delete(tmpout, true);
 			}
 			try {
+				long outOfOrderCount = 0;
 				try (VCFFileReader reader = new VCFFileReader(input, false)) {
 					VCFHeader header = reader.getFileHeader();
+					collection = new ParallelSortingCollection<>(
+							new VCFRecordCodec(header),
+							sortComparator,
+							processContext.getFileSystemContext().getMaxBufferedRecordsPerFile(),
+							processContext.getFileSystemContext().getTemporaryDirectory());
+					// Records already in order are streamed directly to the output.
+					// Only the remaining records need to be sorted.
 					try (CloseableIterator<VariantContext> rit = reader.iterator()) {
-						collection = SortingCollection.newInstance(
-								VariantContext.class,
-								new VCFRecordCodec(header),
-								sortComparator,
-								processContext.getFileSystemContext().getMaxBufferedRecordsPerFile(),
-								processContext.getFileSystemContext().getTemporaryDirectory());
-						while (rit.hasNext()) {
-							collection.add(rit.next());
+						try (VariantContextWriter writer = processContext.getVariantContextWriter(inOrderFile, indexed)) {
+							VariantContext last = null;
+							while (rit.hasNext()) {
+								VariantContext vc = rit.next();
+								if (last == null || sortComparator.compare(last, vc) <= 0) {
+									writer.add(vc);
+									last = vc;
+								} else {
+									collection.add(vc);
+									outOfOrderCount++;
+								}
+							}
 						}
 					}
 				}
 				collection.doneAdding();
-				try (VariantContextWriter writer = processContext.getVariantContextWriter(tmpout, indexed)) {
-			    	try (CloseableIterator<VariantContext> wit = collection.iterator()) {
-						while (wit.hasNext()) {
-							writer.add(wit.next());
+				if (outOfOrderCount == 0) {
+					FileHelper.move(inOrderFile, output, true);
+				} else {
+					try (VCFFileReader inOrderReader = new VCFFileReader(inOrderFile, false)) {
+						try (VariantContextWriter writer = processContext.getVariantContextWriter(tmpout, indexed)) {
+							try (CloseableIterator<VariantContext> inOrderIt = inOrderReader.iterator()) {
+								try (CloseableIterator<VariantContext> sortedIt = collection.iterator()) {
+									Iterator<VariantContext> it = Iterators.mergeSorted(ImmutableList.of(inOrderIt, sortedIt), sortComparator);
+									while (it.hasNext()) {
+										writer.add(it.next());
+									}
+								}
+							}
 						}
-			    	}
+					}
+					FileHelper.move(tmpout, output, true);
 				}
 				collection.cleanup();
 				collection = null;
-				FileHelper.move(tmpout, output, true);
 			} finally {
 				if (collection != null) collection.cleanup();
 				if (tmpout.exists()) {
 					FileHelper.delete(tmpout, true);
 				}
+				if (inOrderFile.exists()) {
+					FileHelper.delete(inOrderFile, true);
+				}
 			}
 			return null;
 		}
 	}
+	/**
+	 * Creates a VCF writer builder for the given output file.
+	 * Unindexed block compressed output is compressed in parallel on
+	 * the shared block compression pool. The output file is not opened
+	 * until the writer is built.
+	 * @param output output file
+	 * @param createIndex true if an index will be created for the output file 
+	 * @return builder
+	 */
+	public static VariantContextWriterBuilder createWriterBuilder(File output, boolean createIndex) {
+		if (!createIndex && AbstractFeatureReader.hasBlockCompressedExtension(output.getName())) {
+			return new ParallelCompressionVariantContextWriterBuilder(output);
+		}
+		return new VariantContextWriterBuilder().setOutputFile(output);
+	}
+	private static class ParallelCompressionVariantContextWriterBuilder extends VariantContextWriterBuilder {
+		private final File output;
+		public ParallelCompressionVariantContextWriterBuilder(File output) {
+			this.output = output;
+		}
+		@Override
+		public VariantContextWriter build() {
+			ParallelBlockCompressedOutputStream os;
+			try {
+				os = new ParallelBlockCompressedOutputStream(output);
+			} catch (IOException e) {
+				throw new RuntimeIOException(e);
+			}
+			try {
+				setOutputVCFStream(os);
+				return super.build();
+			} catch (RuntimeException e) {
+				CloserUtil.close(os);
+				throw e;
+			}
+		}
+	}
 	/**
 	 * Concatenates the input files in order.
 	 * @param input input files.
@@ -127,12 +209,25 @@ public class VcfFileUtil {
 	 * @throws IOException
 	 */
 	public static void concat(SAMSequenceDictionary dictionary, List<File> input, File output) throws IOException {
+		concat(dictionary, input, output, false);
+	}
+	/**
+	 * Concatenates the input files in order.
+	 * @param input input files.
+	 * @param output output file
+	 * @param createIndex index the output file. Input files must be coordinate sorted and in coordinate order
+	 * @throws IOException
+	 */
+	public static void concat(SAMSequenceDictionary dictionary, List<File> input, File output, boolean createIndex) throws IOException {
 		File tmpout = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.concat.");
-		try (VariantContextWriter writer = new VariantContextWriterBuilder()
-				.setOutputFile(tmpout)
-				.setReferenceDictionary(dictionary)
-				.unsetOption(Options.INDEX_ON_THE_FLY)
-				.build()) {
+		VariantContextWriterBuilder builder = createWriterBuilder(tmpout, createIndex)
+				.setReferenceDictionary(dictionary);
+		if (createIndex) {
+			builder.setOption(Options.INDEX_ON_THE_FLY);
+		} else {
+			builder.unsetOption(Options.INDEX_ON_THE_FLY);
+		}
+		try (VariantContextWriter writer = builder.build()) {
 			for (int i = 0; i < input.size(); i++) {
 				try (VCFFileReader reader = new VCFFileReader(input.get(i), false)) {
 					if (i == 0) {
@@ -0,0 +1,88 @@
+package au.edu.wehi.idsv.visualisation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import htsjdk.samtools.util.Log;
+
+/**
+ * Serves the current metrics on the loopback interface so long-running
+ * jobs can be monitored while they are running.
+ *
+ * Metrics are available from http://localhost:port/metrics
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class MetricsHttpServer {
+	private static final Log log = Log.getInstance(MetricsHttpServer.class);
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static MetricsHttpServer current = null;
+	private final MetricsRegistry registry;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	public MetricsHttpServer(MetricsRegistry registry, int port) throws IOException {
+		this.registry = registry;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("MetricsHttpServer").build());
+		server.setExecutor(executor);
+		server.createContext("/metrics", this::handle);
+	}
+	/**
+	 * Starts the metrics server for the current registry if it is not already running.
+	 * Failure to start the server is logged and does not prevent processing.
+	 * @param port port to listen on
+	 */
+	public static synchronized void ensureStarted(int port) {
+		if (current != null) return;
+		try {
+			current = new MetricsHttpServer(MetricsRegistry.Current, port);
+			current.start();
+			log.info(String.format("Metrics available from http://localhost:%d/metrics", current.getPort()));
+		} catch (IOException e) {
+			log.warn(e, String.format("Unable to start metrics server on port %d", port));
+		}
+	}
+	public void start() {
+		server.start();
+	}
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			StringWriter sw = new StringWriter();
+			registry.write(sw);
+			byte[] body = sw.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
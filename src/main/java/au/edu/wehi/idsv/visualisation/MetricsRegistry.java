@@ -0,0 +1,306 @@
+package au.edu.wehi.idsv.visualisation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import au.edu.wehi.idsv.visualisation.TrackedBuffer.NamedTrackedBuffer;
+
+/**
+ * In-process registry of live metrics.
+ *
+ * Counters and histograms are updated without locking and can be safely
+ * updated from any thread. Registered tracked buffers are sampled when the
+ * metrics are written.
+ *
+ * Metrics are written in the Prometheus text exposition format.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class MetricsRegistry {
+	public static final MetricsRegistry Current = new MetricsRegistry();
+	public static final String BUFFER_SIZE = "gridss_buffer_size";
+	private static final String BUFFER_SIZE_HELP = "Number of records held in the named buffer";
+	public static final String RECORDS = "gridss_records_total";
+	private static final String RECORDS_HELP = "Number of records processed by each processing stage";
+	public static final String SORT_SPILLS = "gridss_sort_spills_total";
+	private static final String SORT_SPILLS_HELP = "Number of sorted runs written to disk";
+	public static final String SORT_SPILLED_RECORDS = "gridss_sort_spilled_records_total";
+	private static final String SORT_SPILLED_RECORDS_HELP = "Number of records written to disk in sorted runs";
+	private enum Type { counter, gauge, histogram };
+	private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<>();
+	private final List<WeakReference<TrackedBuffer>> buffers = new ArrayList<>();
+	private class Family {
+		private final String name;
+		private final String help;
+		private final Type type;
+		private final ConcurrentSkipListMap<String, Metric> children = new ConcurrentSkipListMap<>();
+		public Family(String name, String help, Type type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+		private void write(Writer writer) throws IOException {
+			if (children.isEmpty()) return;
+			writeHeader(writer, name, help, type);
+			for (Map.Entry<String, Metric> entry : children.entrySet()) {
+				entry.getValue().write(writer, name, entry.getKey());
+			}
+		}
+	}
+	private static interface Metric {
+		void write(Writer writer, String name, String labels) throws IOException;
+	}
+	/**
+	 * Monotonically increasing count
+	 */
+	public static class Counter implements Metric {
+		private final LongAdder value = new LongAdder();
+		public void inc() {
+			value.increment();
+		}
+		public void inc(long n) {
+			value.add(n);
+		}
+		public long get() {
+			return value.sum();
+		}
+		@Override
+		public void write(Writer writer, String name, String labels) throws IOException {
+			writeSample(writer, name, labels, value.sum());
+		}
+	}
+	/**
+	 * Distribution of observed values
+	 */
+	public static class Histogram implements Metric {
+		private final double[] upperBounds;
+		private final LongAdder[] counts;
+		private final LongAdder count = new LongAdder();
+		private final DoubleAdder sum = new DoubleAdder();
+		public Histogram(double... upperBounds) {
+			this.upperBounds = upperBounds.clone();
+			Arrays.sort(this.upperBounds);
+			this.counts = new LongAdder[this.upperBounds.length];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = new LongAdder();
+			}
+		}
+		public void observe(double value) {
+			int bucket = Arrays.binarySearch(upperBounds, value);
+			if (bucket < 0) {
+				bucket = -bucket - 1;
+			}
+			if (bucket < counts.length) {
+				counts[bucket].increment();
+			}
+			count.increment();
+			sum.add(value);
+		}
+		public long getCount() {
+			return count.sum();
+		}
+		public double getSum() {
+			return sum.sum();
+		}
+		@Override
+		public void write(Writer writer, String name, String labels) throws IOException {
+			long cumulative = 0;
+			for (int i = 0; i < upperBounds.length; i++) {
+				cumulative += counts[i].sum();
+				writeSample(writer, name + "_bucket", appendLabel(labels, "le", Double.toString(upperBounds[i])), cumulative);
+			}
+			long total = count.sum();
+			writeSample(writer, name + "_bucket", appendLabel(labels, "le", "+Inf"), Math.max(cumulative, total));
+			writeSample(writer, name + "_sum", labels, sum.sum());
+			writeSample(writer, name + "_count", labels, total);
+		}
+	}
+	private static class Gauge implements Metric {
+		private final DoubleSupplier value;
+		public Gauge(DoubleSupplier value) {
+			this.value = value;
+		}
+		@Override
+		public void write(Writer writer, String name, String labels) throws IOException {
+			writeSample(writer, name, labels, value.getAsDouble());
+		}
+	}
+	private Family getFamily(String name, String help, Type type) {
+		Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+		if (family.type != type) {
+			throw new IllegalArgumentException(String.format("Metric %s already registered as a %s", name, family.type));
+		}
+		return family;
+	}
+	/**
+	 * Gets the counter with the given name and labels, creating it if required
+	 * @param name metric name
+	 * @param help metric description
+	 * @param labels label name and value pairs
+	 * @return counter
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter)getFamily(name, help, Type.counter).children.computeIfAbsent(formatLabels(labels), l -> new Counter());
+	}
+	/**
+	 * Gets the counter of records processed by the given processing stage
+	 * @param stage processing stage
+	 * @return counter
+	 */
+	public Counter records(String stage) {
+		return counter(RECORDS, RECORDS_HELP, "stage", stage);
+	}
+	/**
+	 * Records a sorted run being written to disk
+	 * @param sorter sort implementation
+	 * @param records number of records in the run
+	 */
+	public void sortSpill(String sorter, long records) {
+		counter(SORT_SPILLS, SORT_SPILLS_HELP, "sorter", sorter).inc();
+		counter(SORT_SPILLED_RECORDS, SORT_SPILLED_RECORDS_HELP, "sorter", sorter).inc(records);
+	}
+	/**
+	 * Gets the histogram with the given name and labels, creating it if required
+	 * @param name metric name
+	 * @param help metric description
+	 * @param upperBounds bucket upper bounds. Ignored if the histogram already exists.
+	 * @param labels label name and value pairs
+	 * @return histogram
+	 */
+	public Histogram histogram(String name, String help, double[] upperBounds, String... labels) {
+		return (Histogram)getFamily(name, help, Type.histogram).children.computeIfAbsent(formatLabels(labels), l -> new Histogram(upperBounds));
+	}
+	/**
+	 * Registers a gauge whose value is calculated when the metrics are written.
+	 * Any existing gauge with the same name and labels is replaced.
+	 * @param name metric name
+	 * @param help metric description
+	 * @param value gauge value
+	 * @param labels label name and value pairs
+	 */
+	public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+		getFamily(name, help, Type.gauge).children.put(formatLabels(labels), new Gauge(value));
+	}
+	/**
+	 * Removes the metric with the given name and labels
+	 */
+	public void remove(String name, String... labels) {
+		Family family = families.get(name);
+		if (family != null) {
+			family.children.remove(formatLabels(labels));
+		}
+	}
+	/**
+	 * Reports the sizes of the given buffer. The buffer is held by weak reference
+	 * and reporting stops once the buffer has been garbage collected.
+	 * @param buffer buffer to report
+	 */
+	public void register(TrackedBuffer buffer) {
+		synchronized (buffers) {
+			buffers.add(new WeakReference<TrackedBuffer>(buffer));
+		}
+	}
+	private SortedMap<String, Long> getBufferSizes() {
+		SortedMap<String, Long> sizes = new TreeMap<>();
+		synchronized (buffers) {
+			Iterator<WeakReference<TrackedBuffer>> it = buffers.iterator();
+			while (it.hasNext()) {
+				TrackedBuffer buffer = it.next().get();
+				if (buffer == null) {
+					it.remove();
+				} else {
+					for (NamedTrackedBuffer bufferSize : buffer.currentTrackedBufferSizes()) {
+						// buffers with the same name are reported as a single buffer
+						sizes.merge(bufferSize.name, (long)bufferSize.size, Long::sum);
+					}
+				}
+			}
+		}
+		return sizes;
+	}
+	/**
+	 * Writes all metrics in the Prometheus text exposition format
+	 * @param writer output
+	 */
+	public void write(Writer writer) throws IOException {
+		for (Family family : families.values()) {
+			family.write(writer);
+		}
+		SortedMap<String, Long> bufferSizes = getBufferSizes();
+		if (!bufferSizes.isEmpty()) {
+			writeHeader(writer, BUFFER_SIZE, BUFFER_SIZE_HELP, Type.gauge);
+			for (Map.Entry<String, Long> entry : bufferSizes.entrySet()) {
+				writeSample(writer, BUFFER_SIZE, formatLabels("buffer", entry.getKey()), entry.getValue());
+			}
+		}
+	}
+	private static void writeHeader(Writer writer, String name, String help, Type type) throws IOException {
+		writer.write("# HELP ");
+		writer.write(name);
+		writer.write(' ');
+		writer.write(help.replace("\\", "\\\\").replace("\n", "\\n"));
+		writer.write('\n');
+		writer.write("# TYPE ");
+		writer.write(name);
+		writer.write(' ');
+		writer.write(type.name());
+		writer.write('\n');
+	}
+	private static void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+		writer.write(name);
+		writer.write(labels);
+		writer.write(' ');
+		if (value == (long)value) {
+			writer.write(Long.toString((long)value));
+		} else if (Double.isNaN(value)) {
+			writer.write("NaN");
+		} else if (Double.isInfinite(value)) {
+			writer.write(value > 0 ? "+Inf" : "-Inf");
+		} else {
+			writer.write(Double.toString(value));
+		}
+		writer.write('\n');
+	}
+	private static String formatLabels(String... labels) {
+		if (labels == null || labels.length == 0) return "";
+		if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name value pairs");
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0) sb.append(',');
+			appendLabel(sb, labels[i], labels[i + 1]);
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+	private static String appendLabel(String labels, String name, String value) {
+		StringBuilder sb = new StringBuilder();
+		if (labels.isEmpty()) {
+			sb.append('{');
+		} else {
+			sb.append(labels, 0, labels.length() - 1);
+			sb.append(',');
+		}
+		appendLabel(sb, name, value);
+		sb.append('}');
+		return sb.toString();
+	}
+	private static void appendLabel(StringBuilder sb, String name, String value) {
+		sb.append(name);
+		sb.append("=\"");
+		sb.append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+		sb.append('"');
+	}
+}
@@ -1,8 +1,13 @@
 package gridss;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
@@ -11,18 +16,22 @@ import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.DirectedEvidence;
 import au.edu.wehi.idsv.DirectedEvidenceOrder;
 import au.edu.wehi.idsv.GreedyVariantAllocationCache;
+import au.edu.wehi.idsv.QueryIntervalUtil;
 import au.edu.wehi.idsv.SAMEvidenceSource;
 import au.edu.wehi.idsv.SequentialEvidenceAllocator;
 import au.edu.wehi.idsv.SequentialEvidenceAllocator.VariantEvidenceSupport;
 import au.edu.wehi.idsv.StructuralVariationCallBuilder;
 import au.edu.wehi.idsv.VariantContextDirectedBreakpoint;
+import au.edu.wehi.idsv.configuration.GridssConfiguration;
 import au.edu.wehi.idsv.configuration.VariantCallingConfiguration;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.validation.OrderAssertingIterator;
 import au.edu.wehi.idsv.validation.PairedEvidenceTracker;
 import gridss.cmdline.VcfTransformCommandLineProgram;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import picard.cmdline.CommandLineProgramProperties;
@@ -45,14 +54,17 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 		GREEDY,
 	}
 	private GreedyVariantAllocationCache cache;
-	public CloseableIterator<DirectedEvidence> getEvidenceIterator() {
-		CloseableIterator<DirectedEvidence> evidenceIt;
+	private List<SAMEvidenceSource> getAllocationSources() {
 		boolean assemblyOnly = getContext().getVariantCallingParameters().callOnlyAssemblies;
 		if (assemblyOnly) {
-			evidenceIt = SAMEvidenceSource.mergedIterator(ImmutableList.of(getAssemblySource()), true);
-		} else {
-			evidenceIt = SAMEvidenceSource.mergedIterator(ImmutableList.<SAMEvidenceSource>builder().addAll(getSamEvidenceSources()).add(getAssemblySource()).build(), true);
+			return ImmutableList.of(getAssemblySource());
 		}
+		return ImmutableList.<SAMEvidenceSource>builder().addAll(getSamEvidenceSources()).add(getAssemblySource()).build();
+	}
+	public CloseableIterator<DirectedEvidence> getEvidenceIterator() {
+		return sanityCheck(SAMEvidenceSource.mergedIterator(getAllocationSources(), true));
+	}
+	private CloseableIterator<DirectedEvidence> sanityCheck(CloseableIterator<DirectedEvidence> evidenceIt) {
 		if (Defaults.SANITY_CHECK_ITERATORS) {
 			evidenceIt = new AutoClosingIterator<>(
 					new PairedEvidenceTracker<>("Evidence",
@@ -63,6 +75,41 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 	}
 	@Override
 	public CloseableIterator<VariantContextDirectedBreakpoint> iterator(CloseableIterator<VariantContextDirectedBreakpoint> calls, ExecutorService threadpool) {
+		ensureCache(threadpool);
+		log.info("Allocating evidence"); 
+		CloseableIterator<DirectedEvidence> evidence = new AsyncBufferedIterator<>(getEvidenceIterator(), "mergedEvidence-allocation");
+		Iterator<VariantContextDirectedBreakpoint> it = allocate(calls, evidence);
+		return new AutoClosingIterator<>(it, calls, evidence, cache);
+	}
+	/**
+	 * Allocates evidence to the calls starting in the given chunk.
+	 * {@link #ensureCache(ExecutorService)} must have been called beforehand.
+	 * @param calls calls ordered by evidence start. To ensure evidence is allocated to
+	 * the same breakpoint as when allocating genome-wide, calls within twice the
+	 * maximum evidence window size of the chunk must be included. 
+	 * @param chunk intervals to allocate evidence for 
+	 * @return calls starting in the given chunk
+	 */
+	public CloseableIterator<VariantContextDirectedBreakpoint> iterator(Iterator<VariantContextDirectedBreakpoint> calls, QueryInterval[] chunk) {
+		QueryInterval[] evidenceInterval = QueryIntervalUtil.padIntervals(getContext().getDictionary(), chunk, getWindowSize());
+		CloseableIterator<DirectedEvidence> evidence = sanityCheck(SAMEvidenceSource.mergedIterator(getAllocationSources(), evidenceInterval));
+		Iterator<VariantContextDirectedBreakpoint> it = allocate(calls, evidence);
+		it = Iterators.filter(it, v -> QueryIntervalUtil.overlaps(chunk, v.getReferenceIndex(), v.getStart()));
+		return new AutoClosingIterator<>(it, evidence);
+	}
+	private Iterator<VariantContextDirectedBreakpoint> allocate(Iterator<VariantContextDirectedBreakpoint> calls, Iterator<DirectedEvidence> evidence) {
+		Iterator<VariantEvidenceSupport> annotator = new SequentialEvidenceAllocator(getContext(), calls, evidence, getWindowSize(), true);
+		Iterator<VariantContextDirectedBreakpoint> it = Iterators.transform(annotator, bp -> annotate(bp));
+		return Iterators.filter(it, v -> v != null);
+	}
+	private int getWindowSize() {
+		return SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource());
+	}
+	/**
+	 * Populates the multimapping read allocation cache if required
+	 */
+	public void ensureCache(ExecutorService threadpool) {
+		if (cache != null) return;
 		boolean multimapping = Iterables.any(getSamEvidenceSources(), ses -> ses.getMetrics().getIdsvMetrics().SECONDARY_NOT_SPLIT > 0);
 		if (multimapping) {
 			if (!getContext().getConfig().multimapping) {
@@ -71,29 +118,20 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 				log.info("Not performing unique variant allocation of multimapping reads as the configuration setting multimappingUniqueVariantAllocation is set to false.");
 			} else {
 				log.info("Multimapping mode invoked due to existence of at least one BAM file with a non-split secondary alignment.");
-				populateCache();
+				populateCache(threadpool);
 			}
 		}
-		log.info("Allocating evidence"); 
-		CloseableIterator<DirectedEvidence> evidence = new AsyncBufferedIterator<>(getEvidenceIterator(), "mergedEvidence-allocation");
-		Iterator<VariantEvidenceSupport> annotator = new SequentialEvidenceAllocator(getContext(), calls, evidence, SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), true);
-		Iterator<VariantContextDirectedBreakpoint> it = Iterators.transform(annotator, bp -> annotate(bp));
-		it = Iterators.filter(it, v -> v != null);
-		return new AutoClosingIterator<>(it, calls, evidence, cache);
 	}
-	public void populateCache() {
-		IOUtil.assertFileIsReadable(INPUT_VCF);
-		try (CloseableIterator<VariantContextDirectedBreakpoint> calls = getBreakpoints(INPUT_VCF)) {
-			// Parallel populate cache requires
-			// - indexed BCF/VCF OUTPUT.vcf.breakpoint.vcf
-			// - (DONE) thread-safe cache 
-			// Cache loading can then be performed in parallel per chunk
-			populateCache_single_threaded(calls);
-		}
+	/**
+	 * Releases the multimapping read allocation cache
+	 */
+	public void closeCache() {
+		CloserUtil.close(cache);
+		cache = null;
 	}
-	private void populateCache_single_threaded(CloseableIterator<VariantContextDirectedBreakpoint> calls) {
+	public void populateCache(ExecutorService threadpool) {
+		IOUtil.assertFileIsReadable(INPUT_VCF);
 		log.info("Loading variant evidence support");
-		// TODO: resize this
 		long readPairCount = getSamEvidenceSources().stream()
 				.mapToLong(ses -> ses.getSVMetrics().STRUCTURAL_VARIANT_READ_PAIRS)
 				.sum();
@@ -101,10 +139,62 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 				.mapToLong(ses -> ses.getSVMetrics().STRUCTURAL_VARIANT_READS)
 				.sum();
 		cache = new GreedyVariantAllocationCache(true, readPairCount, true, readCount, false, 0);
-		try (CloseableIterator<DirectedEvidence> evidence = new AsyncBufferedIterator<>(getEvidenceIterator(), "mergedEvidence-cache")) {
-			Iterator<VariantEvidenceSupport> annotator = new SequentialEvidenceAllocator(getContext(), calls, evidence, SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), true);
+		if (threadpool == null || !isIndexed(INPUT_VCF)) {
+			if (threadpool != null) {
+				log.info("Loading variant evidence support single-threaded as " + INPUT_VCF + " is not indexed.");
+			}
+			try (CloseableIterator<VariantContextDirectedBreakpoint> calls = getBreakpoints(INPUT_VCF)) {
+				populateCache(calls, getEvidenceIterator(), null);
+			}
+			return;
+		}
+		GridssConfiguration config = getContext().getConfig();
+		List<QueryInterval[]> chunks = getContext().getReference().getIntervals(config.chunkSize, config.chunkSequenceChangePenalty);
+		List<Future<Void>> tasks = new ArrayList<>();
+		for (QueryInterval[] chunk : chunks) {
+			tasks.add(threadpool.submit(() -> { populateCache(chunk); return null; }));
+		}
+		for (Future<Void> f : tasks) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				Throwables.throwIfUnchecked(e.getCause());
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+	/**
+	 * Loads the variant evidence support of the calls starting in the given chunk.
+	 * 
+	 * Evidence is allocated to the best breakpoint it supports so calls are loaded from
+	 * a window large enough to include every call that evidence supporting a call in this chunk
+	 * could be allocated to, but only the support of calls starting in the chunk is cached. 
+	 */
+	private void populateCache(QueryInterval[] chunk) {
+		int windowSize = getWindowSize();
+		QueryInterval[] evidenceInterval = QueryIntervalUtil.padIntervals(getContext().getDictionary(), chunk, windowSize);
+		QueryInterval[] callInterval = QueryIntervalUtil.padIntervals(getContext().getDictionary(), chunk, 2 * windowSize);
+		Iterator<VariantContextDirectedBreakpoint> calls = getBreakpoints(getCalls(INPUT_VCF, callInterval));
+		CloseableIterator<DirectedEvidence> evidenceIt = sanityCheck(SAMEvidenceSource.mergedIterator(getAllocationSources(), evidenceInterval));
+		populateCache(calls, evidenceIt, chunk);
+	}
+	/**
+	 * Adds the multimapping evidence support of the given calls to the cache
+	 * @param calls calls to allocate evidence to
+	 * @param evidence evidence to allocate
+	 * @param filterInterval only cache the support of calls starting in these intervals. Null to cache all calls
+	 */
+	private void populateCache(Iterator<VariantContextDirectedBreakpoint> calls, CloseableIterator<DirectedEvidence> evidenceIt, QueryInterval[] filterInterval) {
+		try (CloseableIterator<DirectedEvidence> evidence = new AsyncBufferedIterator<>(evidenceIt, "mergedEvidence-cache")) {
+			Iterator<VariantEvidenceSupport> annotator = new SequentialEvidenceAllocator(getContext(), calls, evidence, getWindowSize(), true);
 			while (annotator.hasNext()) {
 				VariantEvidenceSupport ves = annotator.next();
+				if (filterInterval != null && !QueryIntervalUtil.overlaps(filterInterval, ves.variant.getReferenceIndex(), ves.variant.getStart())) {
+					continue;
+				}
 				for (DirectedEvidence e : ves.support) {
 					if (e.isFromMultimappingFragment()) {
 						cache.addBreakpoint((VariantContextDirectedBreakpoint)ves.variant, e);
@@ -1,14 +1,19 @@
 package gridss;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import com.google.common.util.concurrent.MoreExecutors;
+
 import au.edu.wehi.idsv.AssemblyEvidenceSource;
 import au.edu.wehi.idsv.ProcessingContext;
+import au.edu.wehi.idsv.QueryIntervalUtil;
 import au.edu.wehi.idsv.SAMEvidenceSource;
 import au.edu.wehi.idsv.SequentialCoverageAnnotator;
 import au.edu.wehi.idsv.VariantContextDirectedBreakpoint;
 import gridss.cmdline.VcfTransformCommandLineProgram;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.CloseableIterator;
 
 public class AnnotateReferenceCoverage extends VcfTransformCommandLineProgram {
@@ -24,6 +29,20 @@ public class AnnotateReferenceCoverage extends VcfTransformCommandLineProgram {
 		int windowSize = SAMEvidenceSource.maximumWindowSize(context, sources, asm);
 		return new SequentialCoverageAnnotator<VariantContextDirectedBreakpoint>(context, sources, calls, 2 * windowSize + WINDOW_SIZE_SAFETY_MARGIN, threadpool);
 	}
+	/**
+	 * Annotates the given calls using only the reads around the given chunk
+	 * @param calls calls in the given chunk
+	 * @param chunk intervals containing the calls
+	 */
+	public CloseableIterator<VariantContextDirectedBreakpoint> iterator(Iterator<VariantContextDirectedBreakpoint> calls, QueryInterval[] chunk) {
+		ProcessingContext context = getContext();
+		List<SAMEvidenceSource> sources = getSamEvidenceSources();
+		AssemblyEvidenceSource asm = getAssemblySource();
+		int windowSize = 2 * SAMEvidenceSource.maximumWindowSize(context, sources, asm) + WINDOW_SIZE_SAFETY_MARGIN;
+		QueryInterval[] readIntervals = QueryIntervalUtil.padIntervals(context.getDictionary(), chunk, windowSize);
+		// chunks are already being processed in parallel
+		return new SequentialCoverageAnnotator<VariantContextDirectedBreakpoint>(context, sources, calls, windowSize, MoreExecutors.newDirectExecutorService(), readIntervals);
+	}
 	public static void main(String[] argv) {
         System.exit(new AnnotateReferenceCoverage().instanceMain(argv));
     }
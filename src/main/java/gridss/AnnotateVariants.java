@@ -5,19 +5,42 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
 
+import au.edu.wehi.idsv.AdaptiveChunkScheduler;
 import au.edu.wehi.idsv.AssemblyEvidenceSource;
 import au.edu.wehi.idsv.BreakendDirection;
 import au.edu.wehi.idsv.DirectedEvidence;
 import au.edu.wehi.idsv.FileSystemContext;
+import au.edu.wehi.idsv.IdsvVariantContext;
+import au.edu.wehi.idsv.QueryIntervalUtil;
+import au.edu.wehi.idsv.ReferenceCoverageTrack;
+import au.edu.wehi.idsv.SAMEvidenceSource;
 import au.edu.wehi.idsv.SingleReadEvidence;
 import au.edu.wehi.idsv.VariantContextDirectedBreakpoint;
+import au.edu.wehi.idsv.VariantContextWindowedSortingIterator;
+import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.vcf.VcfFileUtil;
 import gridss.cmdline.VcfTransformCommandLineProgram;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import picard.cmdline.CommandLineProgramProperties;
 
 @CommandLineProgramProperties(
@@ -66,6 +89,113 @@ public class AnnotateVariants extends VcfTransformCommandLineProgram {
 		calls = ihom.iterator(calls, threadpool);
 		return calls;
 	}
+	/**
+	 * Annotates each genomic chunk in parallel when the breakpoint calls and input files are indexed
+	 */
+	@Override
+	public int doWork(ExecutorService threadpool) throws IOException, InterruptedException, ExecutionException {
+		if (threadpool == null || !isIndexed(INPUT_VCF) || !getSamEvidenceSources().stream().allMatch(ses -> isIndexed(ses))) {
+			if (threadpool != null) {
+				log.info("Annotating genome in a single pass as " + INPUT_VCF + " or input files without a coverage track are not indexed.");
+			}
+			return super.doWork(threadpool);
+		}
+		IOUtil.assertFileIsReadable(ASSEMBLY);
+		IOUtil.assertFileIsReadable(INPUT_VCF);
+		IOUtil.assertFileIsWritable(OUTPUT_VCF);
+		log.info("Annotating variants in " + INPUT_VCF);
+		AllocateEvidence ae = new AllocateEvidence();
+		AnnotateReferenceCoverage arc = new AnnotateReferenceCoverage();
+		AnnotateInexactHomology ihom = new AnnotateInexactHomology();
+		copyInputs(ae);
+		copyInputs(arc);
+		copyInputs(ihom);
+		ae.INPUT_VCF = INPUT_VCF;
+		// ensure evidence sources are created before they are used by multiple threads
+		for (VcfTransformCommandLineProgram p : new VcfTransformCommandLineProgram[] { this, ae, arc, ihom }) {
+			p.getAssemblySource();
+		}
+		// same chunks as variant calling
+		AdaptiveChunkScheduler scheduler = AdaptiveChunkScheduler.forVariantCalling(getContext(), getSamEvidenceSources(), getAssemblySource());
+		List<QueryInterval[]> chunks = scheduler.getChunks();
+		List<File> annotatedChunk = new ArrayList<>();
+		for (int i = 0; i < chunks.size(); i++) {
+			annotatedChunk.add(getContext().getFileSystemContext().getAnnotationChunkVcf(OUTPUT_VCF, i));
+		}
+		try {
+			ae.ensureCache(threadpool);
+			List<Future<Void>> tasks = new ArrayList<>();
+			// most expensive chunks first so they are not left running alone at the end
+			for (int i : scheduler.getExecutionOrder()) {
+				QueryInterval[] chunk = chunks.get(i);
+				File f = annotatedChunk.get(i);
+				tasks.add(threadpool.submit(() -> { annotateChunk(f, chunk, ae, arc, ihom); return null; }));
+			}
+			for (Future<Void> f : tasks) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					Throwables.propagateIfPossible(e.getCause(), IOException.class);
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			ae.closeCache();
+		}
+		VcfFileUtil.concat(getContext().getDictionary(), annotatedChunk, OUTPUT_VCF, true);
+		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
+			for (File f : annotatedChunk) {
+				FileHelper.delete(f, true);
+			}
+		}
+		log.info("Annotated variants written to " + OUTPUT_VCF);
+		return 0;
+	}
+	/**
+	 * Determines whether the reference coverage of the given input can be calculated for a single chunk
+	 */
+	private boolean isIndexed(SAMEvidenceSource ses) {
+		if (ses.getFile() == null) return false;
+		if (ReferenceCoverageTrack.isCurrent(getContext().getFileSystemContext().getCoverageTrack(ses.getFile()), ses.getFile())) {
+			// coverage is read from the track instead of the input file
+			return true;
+		}
+		try (SamReader reader = SamReaderFactory.makeDefault().open(ses.getFile())) {
+			return reader.hasIndex();
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+	/**
+	 * Annotates the calls starting in the given chunk
+	 */
+	private void annotateChunk(File output, QueryInterval[] chunk, AllocateEvidence ae, AnnotateReferenceCoverage arc, AnnotateInexactHomology ihom) throws IOException {
+		int windowSize = SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource());
+		// evidence can be allocated to any breakpoint within the window of evidence supporting calls in this chunk
+		QueryInterval[] callInterval = QueryIntervalUtil.padIntervals(getContext().getDictionary(), chunk, 2 * windowSize);
+		List<IdsvVariantContext> variants = getCalls(INPUT_VCF, callInterval);
+		try (CloseableIterator<VariantContextDirectedBreakpoint> allocated = ae.iterator(getBreakpoints(variants), chunk)) {
+			try (CloseableIterator<VariantContextDirectedBreakpoint> coverage = arc.iterator(allocated, chunk)) {
+				// chunks are already being processed in parallel
+				try (CloseableIterator<VariantContextDirectedBreakpoint> calls = ihom.iterator(coverage, MoreExecutors.newDirectExecutorService())) {
+					// sort back to nominal VCF position
+					Iterator<VariantContextDirectedBreakpoint> bpit = new VariantContextWindowedSortingIterator<>(getContext(), windowSize, calls);
+					Iterator<IdsvVariantContext> nonbpIt = variants.stream()
+							.filter(v -> !(v instanceof VariantContextDirectedBreakpoint))
+							.filter(v -> QueryIntervalUtil.overlaps(chunk, v.getReferenceIndex(), v.getStart()))
+							.iterator();
+					Iterator<IdsvVariantContext> it = Iterators.mergeSorted(ImmutableList.of(bpit, nonbpIt), IdsvVariantContext.ByLocationStart);
+					File tmp = FileSystemContext.getWorkingFileFor(output);
+					try (VariantContextWriter writer = getContext().getVariantContextWriter(tmp, false)) {
+						while (it.hasNext()) {
+							writer.add(it.next());
+						}
+					}
+					FileHelper.move(tmp, output, true);
+				}
+			}
+		}
+	}
 	public static void main(String[] argv) {
         System.exit(new AnnotateVariants().instanceMain(argv));
     }
@@ -11,6 +11,7 @@ import com.google.common.collect.Sets;
 import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.sam.NmTagIterator;
+import au.edu.wehi.idsv.sam.ParallelSAMFileWriterFactory;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.sam.SamTags;
 import au.edu.wehi.idsv.sam.TemplateTagsIterator;
@@ -74,7 +75,7 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
     	java.util.Locale.setDefault(Locale.ROOT);
     	validateParameters();
     	SamReaderFactory readerFactory = SamReaderFactory.make();
-    	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+    	SAMFileWriterFactory writerFactory = new ParallelSAMFileWriterFactory();
     	try {
     		try (SamReader reader = readerFactory.open(INPUT)) {
     			SAMFileHeader header = reader.getFileHeader();
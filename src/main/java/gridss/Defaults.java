@@ -12,6 +12,36 @@ public class Defaults {
 	 * See http://stackoverflow.com/questions/2972986/how-to-unmap-a-file-from-memory-mapped-using-filechannel-in-java
 	 */
 	public static final boolean DEFENSIVE_GC;
+	/**
+	 * Compute SAM tags and soft clip realignment fastq during read extraction
+	 * when a queryname sorted input file is available. This removes the
+	 * extracted and queryname sorted intermediate files.
+	 */
+	public static final boolean STREAMING_EXTRACTION;
+	/**
+	 * Decompress, decode and filter BAM records in parallel when iterating
+	 * over an entire evidence source.
+	 */
+	public static final boolean PARALLEL_BAM_DECODING;
+	/**
+	 * Write a binary evidence cache for each input once extraction is complete
+	 * and call variants from the cached evidence instead of the SV BAM.
+	 */
+	public static final boolean EVIDENCE_CACHE;
+	/**
+	 * Calculate library metrics in the same pass as the SV read extraction
+	 * when extracting from the coordinate sorted input file.
+	 */
+	public static final boolean SINGLE_PASS_METRICS;
+	/**
+	 * Use open addressing off-heap tables for the multimapping allocation caches
+	 * instead of ChronicleMap.
+	 */
+	public static final boolean OFF_HEAP_ALLOCATION_CACHE;
+	/**
+	 * Port to serve live metrics from. Metrics are not served if zero.
+	 */
+	public static final int METRICS_PORT;
 	static {
 		IGNORE_FILE_TIMESTAMPS = Boolean.valueOf(System.getProperty("gridss.ignoreTimestamps", "true"));
 		ASYNC_BUFFERS = Integer.parseInt(System.getProperty("gridss.async.buffers", "2"));
@@ -20,5 +50,11 @@ public class Defaults {
 		SUPPRESS_DATA_ERROR_MESSAGES_AFTER = Integer.parseInt(System.getProperty("gridss.logSpamLimit", "100"));
 		WRITE_ZERO_OR_EMTPY_VCF_FIELDS = Boolean.valueOf(System.getProperty("gridss.writeZeroOrEmptyVcfFields", "true"));
 		DEFENSIVE_GC = Boolean.valueOf(System.getProperty("gridss.defensiveGC", "false"));
+		STREAMING_EXTRACTION = Boolean.valueOf(System.getProperty("gridss.streamingExtraction", "true"));
+		PARALLEL_BAM_DECODING = Boolean.valueOf(System.getProperty("gridss.parallelBamDecoding", "true"));
+		EVIDENCE_CACHE = Boolean.valueOf(System.getProperty("gridss.evidenceCache", "true"));
+		SINGLE_PASS_METRICS = Boolean.valueOf(System.getProperty("gridss.singlePassMetrics", "true"));
+		OFF_HEAP_ALLOCATION_CACHE = Boolean.valueOf(System.getProperty("gridss.offHeapAllocationCache", "true"));
+		METRICS_PORT = Integer.parseInt(System.getProperty("gridss.metrics.port", "0"));
 	}
 }
@@ -4,15 +4,27 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
+import au.edu.wehi.idsv.DeferredReadPairConcordanceCalculator;
+import au.edu.wehi.idsv.EvidenceIdentifierGenerator;
 import au.edu.wehi.idsv.FileSystemContext;
+import au.edu.wehi.idsv.HashedEvidenceIdentifierGenerator;
 import au.edu.wehi.idsv.ReadPairConcordanceCalculator;
+import au.edu.wehi.idsv.ReadPairConcordanceMethod;
+import au.edu.wehi.idsv.ReferenceCoverageTrack;
+import au.edu.wehi.idsv.SplitReadFastqExtractionIterator;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
+import au.edu.wehi.idsv.sam.ParallelSAMFileWriterFactory;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.util.FileHelper;
 import gridss.analysis.CollectStructuralVariantReadMetrics;
+import gridss.analysis.GridssMetricsCollector;
+import gridss.analysis.InsertSizeDistribution;
 import gridss.cmdline.ProcessStructuralVariantReadsCommandLineProgram;
 import gridss.filter.ClippedReadFilter;
 import gridss.filter.FixedFilter;
@@ -28,9 +40,18 @@ import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTag;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.fastq.FastqWriter;
+import htsjdk.samtools.fastq.FastqWriterFactory;
 import htsjdk.samtools.filter.AlignedFilter;
 import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import picard.cmdline.CommandLineProgramProperties;
 import picard.cmdline.Option;
 
@@ -45,26 +66,113 @@ public class ExtractSVReads extends ProcessStructuralVariantReadsCommandLineProg
 	private static final Log log = Log.getInstance(ExtractSVReads.class);
     @Option(shortName="MO", doc="Output file containing SV metrics", optional=true)
     public File METRICS_OUTPUT;
+    @Option(doc="Computed SAM tags to populate on the extracted reads. Tags are calculated as per ComputeSamTags"
+    		+ " (including softening of hard clips and fixing of mate information) and"
+    		+ " require that all records with the same read name are consecutive in the input file."
+    		+ " Computing tags during extraction removes the need to queryname sort and rewrite the extracted reads.", optional=true)
+    public Set<String> TAGS = new HashSet<>();
+    @Option(doc="Soft clip realignment fastq. If specified, the soft clipped bases of the extracted reads are written to this file"
+    		+ " as per the first realignment iteration of SoftClipsToSplitReads.", optional=true)
+    public File REALIGNMENT_FASTQ = null;
+    @Option(doc="Minimum bases clipped for inclusion in REALIGNMENT_FASTQ.", optional=true)
+    public int REALIGNMENT_MIN_CLIP_LENGTH = SoftClipsToSplitReads.DEFAULT_MIN_CLIP_LENGTH;
+    @Option(doc="Minimum average base quality score of clipped bases for inclusion in REALIGNMENT_FASTQ.", optional=true)
+    public float REALIGNMENT_MIN_CLIP_QUAL = SoftClipsToSplitReads.DEFAULT_MIN_CLIP_QUAL;
+    @Option(doc="Reference coverage track. If specified and the input is coordinate sorted, the per-position read and read pair"
+    		+ " reference coverage of the input is written to this file. This removes the need to reread the input file"
+    		+ " when annotating variant calls with reference coverage.", optional=true)
+    public File COVERAGE_OUTPUT = null;
+    @Option(doc="Exclude reads flagged as duplicates from COVERAGE_OUTPUT.", optional=true)
+    public boolean COVERAGE_IGNORE_DUPLICATES = true;
+    @Option(doc="Output prefix for the metrics calculated by CollectGridssMetrics. If specified, the idsv, cigar, mapq, tag,"
+    		+ " and insert size metrics are calculated in the same pass as the extraction."
+    		+ " If the PERCENTAGE read pair concordance method is used and INSERT_SIZE_METRICS does not yet exist,"
+    		+ " read pairs whose concordance depends on the insert size distribution are classified once the distribution is known."
+    		+ " In this case, OUTPUT is unsorted."
+    		+ " If the provisional concordance bounds used during extraction are not contained within the final bounds,"
+    		+ " only the metrics are written and OUTPUT is not created."
+    		+ " In this case, reading of INPUT stops once the metrics are complete.", optional=true)
+    public File GRIDSS_METRICS_OUTPUT = null;
+    @Option(doc="Only include the first N records in GRIDSS_METRICS_OUTPUT.", optional=true)
+    public long METRICS_STOP_AFTER = 0;
+    @Option(doc="Threshold coverage to report in GRIDSS_METRICS_OUTPUT as per ReportThresholdCoverage. Only reported for coordinate sorted input.", optional=true)
+    public Integer THRESHOLD_COVERAGE = null;
+    @Option(doc="Include insert size metrics in GRIDSS_METRICS_OUTPUT.", optional=true)
+    public boolean COLLECT_INSERT_SIZE_METRICS = true;
     private CollectStructuralVariantReadMetrics metricsCollector;
+    private GridssMetricsCollector gridssMetrics;
+    private DeferredReadPairConcordanceCalculator deferredRpcc;
+    private File tmpdeferred;
+    private SAMFileWriter deferredWriter;
+    private IntArrayList deferredFragmentSize;
+    private boolean extractionAbandoned;
+    private boolean metricsFinished;
+    private ReferenceLookup lookup;
+    private ReferenceCoverageTrack.Writer coverageWriter;
     private File tmpoutput;
     private SAMFileWriter writer;
+    private File tmpfastq;
+    private FastqWriter fastqWriter;
+    private final EvidenceIdentifierGenerator eidgen = new HashedEvidenceIdentifierGenerator();
     private SamRecordFilter readfilter;
     private SamRecordFilter pairfilter;
     private int count;
     @Override
     protected void setup(SAMFileHeader header, File samFile) {
+    	deferredRpcc = null;
+    	deferredFragmentSize = new IntArrayList();
+    	extractionAbandoned = false;
+    	metricsFinished = false;
+    	if (GRIDSS_METRICS_OUTPUT != null) {
+    		gridssMetrics = new GridssMetricsCollector(header, samFile, GRIDSS_METRICS_OUTPUT, THRESHOLD_COVERAGE, COLLECT_INSERT_SIZE_METRICS, METRICS_STOP_AFTER);
+    		if (READ_PAIR_CONCORDANCE_METHOD == ReadPairConcordanceMethod.PERCENTAGE
+    				&& COLLECT_INSERT_SIZE_METRICS
+    				&& (INSERT_SIZE_METRICS == null || !INSERT_SIZE_METRICS.exists())) {
+    			log.info("Deferring read pair concordance calculation until the insert size distribution is known.");
+    			deferredRpcc = new DeferredReadPairConcordanceCalculator(READ_PAIR_CONCORDANT_PERCENT, DeferredReadPairConcordanceCalculator.DEFAULT_MIN_PAIRS);
+    			setReadPairConcordanceCalculator(deferredRpcc);
+    			SAMFileHeader deferredHeader = header.clone();
+    			deferredHeader.setSortOrder(SortOrder.unsorted);
+    			tmpdeferred = FileSystemContext.getWorkingFileFor(OUTPUT, "gridss.tmp.ExtractSVReads.deferred.");
+    			deferredWriter = new SAMFileWriterFactory().makeBAMWriter(deferredHeader, true, tmpdeferred);
+    		}
+    	}
     	if (METRICS_OUTPUT != null) {
     		metricsCollector = new CollectStructuralVariantReadMetrics();
     		copyInput(metricsCollector);
     		metricsCollector.OUTPUT = METRICS_OUTPUT;
+    		if (deferredRpcc != null) {
+    			metricsCollector.setReadPairConcordanceCalculator(deferredRpcc);
+    		}
     		metricsCollector.setup(header, samFile);
     	}
-    	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+    	if (COVERAGE_OUTPUT != null) {
+    		if (deferredRpcc != null) {
+    			log.info("Not generating reference coverage track as read pair concordance is not known during extraction.");
+    		} else if (header.getSortOrder() == SortOrder.coordinate) {
+    			coverageWriter = new ReferenceCoverageTrack.Writer(COVERAGE_OUTPUT, INPUT, getReadPairConcordanceCalculator(), COVERAGE_IGNORE_DUPLICATES);
+    		} else {
+    			log.info("Not generating reference coverage track as the input file is not coordinate sorted.");
+    		}
+    	}
+    	SAMFileWriterFactory writerFactory = new ParallelSAMFileWriterFactory();
     	if (header.getSortOrder() != SortOrder.queryname) {
 			log.info("Not considering multiple read alignments as the input file is not queryname sorted.");
 		}
     	tmpoutput = FileSystemContext.getWorkingFileFor(OUTPUT, "gridss.tmp.ExtractSVReads.");
-    	writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpoutput);
+    	if (deferredRpcc != null) {
+    		// deferred reads are written after subsequent reads so the output is no longer in input order.
+    		// GRIDSS queryname sorts the extracted reads so sorting here would be wasted work.
+    		SAMFileHeader unsortedHeader = header.clone();
+    		unsortedHeader.setSortOrder(SortOrder.unsorted);
+    		writer = writerFactory.makeSAMOrBAMWriter(unsortedHeader, true, tmpoutput);
+    	} else {
+    		writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpoutput);
+    	}
+    	if (REALIGNMENT_FASTQ != null) {
+    		tmpfastq = FileSystemContext.getWorkingFileFor(REALIGNMENT_FASTQ, "gridss.tmp.ExtractSVReads.");
+    		fastqWriter = new FastqWriterFactory().newWriter(tmpfastq);
+    	}
     	
     	IndelReadFilter indelFilter = new IndelReadFilter(INDELS ? MIN_INDEL_SIZE : Integer.MAX_VALUE);
 		ClippedReadFilter softClipFilter = new ClippedReadFilter(CLIPPED ? MIN_CLIP_LENGTH : Integer.MAX_VALUE); 
@@ -194,21 +302,171 @@ public class ExtractSVReads extends ProcessStructuralVariantReadsCommandLineProg
 	}
 	@Override
 	protected void acceptFragment(List<SAMRecord> records, ReferenceLookup lookup) {
+		this.lookup = lookup;
+		if (gridssMetrics != null && !gridssMetrics.isComplete()) {
+			for (SAMRecord r : records) {
+				gridssMetrics.acceptRecord(r);
+			}
+		}
+		if (extractionAbandoned) return;
+		if (deferredRpcc != null && !deferredRpcc.isResolved()) {
+			for (SAMRecord r : records) {
+				deferredRpcc.acceptRead(r);
+			}
+			if (isConcordanceDecidable(records)) {
+				extractFragment(records, lookup);
+			} else {
+				for (SAMRecord r : records) {
+					deferredWriter.addAlignment(r);
+				}
+				deferredFragmentSize.add(records.size());
+			}
+		} else {
+			extractFragment(records, lookup);
+		}
+		if (gridssMetrics != null && gridssMetrics.isComplete()) {
+			finishMetrics();
+		}
+	}
+	/**
+	 * No further records are required once the metrics are written if extraction has been abandoned
+	 */
+	@Override
+	protected boolean isComplete() {
+		return extractionAbandoned && (gridssMetrics == null || metricsFinished);
+	}
+	/**
+	 * Determines whether the extraction of the given fragment can be performed
+	 * without knowing the final insert size distribution.
+	 */
+	private boolean isConcordanceDecidable(List<SAMRecord> records) {
+		for (SAMRecord r1 : records) {
+			if (!deferredRpcc.isDecidable(primaryAlignmentForSupplementary(r1), null)) return false;
+			if (r1.getReadUnmappedFlag() || !r1.getReadPairedFlag() || !r1.getFirstOfPairFlag()) continue;
+			for (SAMRecord r2 : records) {
+				if (r2.getReadUnmappedFlag() || !r2.getReadPairedFlag() || !r2.getSecondOfPairFlag()) continue;
+				if (!deferredRpcc.isDecidable(r1, r2)) return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Writes the GRIDSS metrics and extracts any fragments that were
+	 * waiting on the insert size distribution.
+	 */
+	private void finishMetrics() {
+		if (metricsFinished) return;
+		metricsFinished = true;
+		gridssMetrics.finish(getMetricsFile());
+		if (deferredRpcc == null || deferredRpcc.isResolved() || extractionAbandoned) return;
+		deferredWriter.close();
+		InsertSizeDistribution isd = InsertSizeDistribution.create(gridssMetrics.getInsertSizeMetricsFile());
+		ReadPairConcordanceCalculator rpcc = isd == null ? null : ReadPairConcordanceCalculator.create(
+				READ_PAIR_CONCORDANCE_METHOD,
+				FIXED_READ_PAIR_CONCORDANCE_MIN_FRAGMENT_SIZE,
+				FIXED_READ_PAIR_CONCORDANCE_MAX_FRAGMENT_SIZE,
+				READ_PAIR_CONCORDANT_PERCENT,
+				isd,
+				null);
+		if (rpcc == null) {
+			log.warn("Unable to determine read pair concordance from " + gridssMetrics.getInsertSizeMetricsFile() + ". Not extracting SV reads.");
+			extractionAbandoned = true;
+		} else if (!deferredRpcc.resolve(rpcc)) {
+			log.warn(String.format("Provisional concordant fragment size bounds [%d, %d] not contained within final bounds [%d, %d]. Not extracting SV reads.",
+					deferredRpcc.getProvisionalMin(), deferredRpcc.getProvisionalMax(), rpcc.minConcordantFragmentSize(), rpcc.maxConcordantFragmentSize()));
+			extractionAbandoned = true;
+		} else {
+			log.info(String.format("Extracting from %d fragments deferred until the insert size distribution was known", deferredFragmentSize.size()));
+			extractDeferred();
+		}
+		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
+			try {
+				FileHelper.delete(tmpdeferred, true);
+			} catch (IOException e) {
+				log.warn(e, "Unable to delete " + tmpdeferred);
+			}
+		}
+	}
+	private void extractDeferred() {
+		SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(tmpdeferred);
+		try {
+			Iterator<SAMRecord> it = reader.iterator();
+			for (int i = 0; i < deferredFragmentSize.size(); i++) {
+				int size = deferredFragmentSize.getInt(i);
+				List<SAMRecord> records = new ArrayList<>(size);
+				for (int j = 0; j < size; j++) {
+					records.add(it.next());
+				}
+				extractFragment(records, lookup);
+			}
+		} finally {
+			CloserUtil.close(reader);
+		}
+	}
+	private void extractFragment(List<SAMRecord> records, ReferenceLookup lookup) {
+		if (coverageWriter != null) {
+			for (SAMRecord r : records) {
+				coverageWriter.accept(r);
+			}
+		}
 		boolean[] extract = shouldExtract(records, lookup);
+		List<SAMRecord> extracted = new ArrayList<>(records.size());
 		for (int i = 0; i < records.size(); i++) {
 			SAMRecord r = records.get(i);
 			if (extract[i]) {
-				writer.addAlignment(r);
-				count++;
+				extracted.add(r);
 			} else {
 				// ignore remaining reads
 			}
 		}
+		if (extracted.isEmpty()) return;
+		if (!TAGS.isEmpty()) {
+			computeTags(extracted, lookup);
+		}
+		for (SAMRecord r : extracted) {
+			if (fastqWriter != null) {
+				for (FastqRecord fqr : SplitReadFastqExtractionIterator.extract(r, false, REALIGNMENT_MIN_CLIP_LENGTH, REALIGNMENT_MIN_CLIP_QUAL, false, eidgen)) {
+					fastqWriter.write(fqr);
+				}
+			}
+			writer.addAlignment(r);
+			count++;
+		}
+	}
+	/**
+	 * Populates computed tags in-place as per ComputeSamTags.
+	 * Since the input is grouped by read name, each fragment contains
+	 * the complete set of extracted records for that template.  
+	 */
+	private void computeTags(List<SAMRecord> extracted, ReferenceLookup lookup) {
+		if (lookup != null && (TAGS.contains(SAMTag.NM.name()) || TAGS.contains(SAMTag.SA.name()))) {
+			for (SAMRecord r : extracted) {
+				SAMRecordUtil.ensureNmTag(lookup, r);
+			}
+		}
+		SAMRecordUtil.calculateTemplateTags(extracted, TAGS, true, true, true);
 	}
 	@Override
 	protected void finish() {
+		if (gridssMetrics != null) {
+			finishMetrics();
+		}
 		writer.close();
+		if (fastqWriter != null) {
+			fastqWriter.close();
+		}
 		try {
+			if (extractionAbandoned) {
+				FileHelper.delete(tmpoutput, true);
+				if (tmpfastq != null) {
+					FileHelper.delete(tmpfastq, true);
+				}
+				return;
+			}
+			if (fastqWriter != null) {
+				// fastq is moved first since its existence is implied by the existence of the output
+				FileHelper.move(tmpfastq, REALIGNMENT_FASTQ, true);
+			}
 			FileHelper.move(tmpoutput, OUTPUT, true);
 			log.info(String.format("Extracted %d reads from %s", count, INPUT));
 		} catch (IOException e) {
@@ -218,5 +476,13 @@ public class ExtractSVReads extends ProcessStructuralVariantReadsCommandLineProg
 		if (METRICS_OUTPUT != null) {
 			metricsCollector.finish();
 		}
+		if (coverageWriter != null) {
+			try {
+				coverageWriter.close();
+			} catch (IOException e) {
+				log.error(e);
+				throw new RuntimeException(e);
+			}
+		}
 	}
 }
@@ -11,11 +11,16 @@ import com.google.common.collect.Lists;
 import au.edu.wehi.idsv.GenomicProcessingContext;
 import au.edu.wehi.idsv.SplitReadRealigner;
 import au.edu.wehi.idsv.alignment.ExternalProcessFastqAligner;
+import au.edu.wehi.idsv.alignment.ExternalProcessStreamingAligner;
 import au.edu.wehi.idsv.alignment.FastqAligner;
 import au.edu.wehi.idsv.alignment.SequentialExecutionFastqAligner;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
+import au.edu.wehi.idsv.sam.ParallelSAMFileWriterFactory;
+import au.edu.wehi.idsv.util.ParallelBlockCompressedOutputStream;
 import gridss.cmdline.ReferenceCommandLineProgram;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import picard.cmdline.CommandLineProgramProperties;
@@ -29,16 +34,18 @@ import picard.cmdline.StandardOptionDefinitions;
 )
 public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
 	private static final Log log = Log.getInstance(SoftClipsToSplitReads.class);
-	public static final List<String> BWA_COMMAND_LINE = ImmutableList.of("bwa", "mem", "-t", "%3$d", "%2$s", "%1$s");
+	public static final List<String> BWA_COMMAND_LINE = ImmutableList.of("bwa", "mem", "-K", "10000000", "-t", "%3$d", "%2$s", "%1$s");
 	public static final List<String> BOWTIE2_COMMAND_LINE = ImmutableList.of("bowtie2", "--threads", "%3$d", "--local", "--mm", "--reorder", "-x", "%2$s", "-U", "%1$s");
+	public static final int DEFAULT_MIN_CLIP_LENGTH = 15;
+	public static final float DEFAULT_MIN_CLIP_QUAL = 5;
     @Option(shortName=StandardOptionDefinitions.INPUT_SHORT_NAME, doc="Input file", optional=false)
     public File INPUT;
     @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Output file", optional=false)
     public File OUTPUT;
     @Option(doc="Minimum bases clipped. Generally, short read aligners are not able to uniquely align sequences shorter than 18-20 bases.", optional=true)
-    public int MIN_CLIP_LENGTH = 15;
+    public int MIN_CLIP_LENGTH = DEFAULT_MIN_CLIP_LENGTH;
     @Option(doc="Minimum average base quality score of clipped bases. Low quality clipped bases are indicative of sequencing errors.", optional=true)
-    public float MIN_CLIP_QUAL = 5;
+    public float MIN_CLIP_QUAL = DEFAULT_MIN_CLIP_QUAL;
     @Option(doc="Indicates whether to perform split read identification on secondary read alignments.", optional=true)
     public boolean PROCESS_SECONDARY_ALIGNMENTS = false;
     @Option(doc="Number of threads to use for realignment. Defaults to number of cores available."
@@ -49,13 +56,27 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
     		+ "Java argument formatting is used with %1$s being the fastq file to align, "
     		+ "%2$s the reference genome, and %3$d the number of threads to use.", optional=true)
     public List<String> ALIGNER_COMMAND_LINE = Lists.newArrayList(BWA_COMMAND_LINE);
+    @Option(doc="Soft clip realignment fastq for INPUT previously generated by ExtractSVReads. "
+    		+ "If specified, the initial pass over INPUT used to generate the realignment fastq is skipped.", optional=true)
+    public File REALIGNMENT_FASTQ = null;
+    @Option(doc="Stream soft clipped bases directly to a single aligner process instead of writing intermediate fastq and BAM files for each realignment iteration. "
+    		+ "The aligner must read the fastq from stdin when %1$s is \"-\" and write SAM output to stdout. "
+    		+ "Streaming is only used when ALIGNER_COMMAND_LINE fixes the aligner batch size to ALIGNER_BATCH_SIZE (bwa mem -K). "
+    		+ "Other aligners fall back to writing intermediate files.", optional=true)
+    public boolean ALIGNER_STREAMING = true;
+    @Option(doc="Number of bases the aligner reads before performing alignment. "
+    		+ "When streaming, this must match the batch size specified on the aligner command line (bwa mem -K).", optional=true)
+    public int ALIGNER_BATCH_SIZE = 10000000;
     private FastqAligner createAligner() {
     	SamReaderFactory readerFactory = SamReaderFactory.make();
-    	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+    	SAMFileWriterFactory writerFactory = new ParallelSAMFileWriterFactory();
     	FastqAligner aligner = new ExternalProcessFastqAligner(readerFactory, writerFactory, ALIGNER_COMMAND_LINE);
     	aligner = new SequentialExecutionFastqAligner(aligner);
     	return aligner;
     }
+    private StreamingAligner createStreamingAligner() {
+    	return new ExternalProcessStreamingAligner(SamReaderFactory.make(), ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS, ALIGNER_BATCH_SIZE);
+    }
     @Override
 	protected int doWork() {
 		log.debug("Setting language-neutral locale");
@@ -71,11 +92,19 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
     	realigner.setMinSoftClipQuality(MIN_CLIP_QUAL);
     	realigner.setProcessSecondaryAlignments(PROCESS_SECONDARY_ALIGNMENTS);
     	realigner.setWorkerThreads(WORKER_THREADS);
+    	ParallelBlockCompressedOutputStream.setDefaultThreadCount(WORKER_THREADS);
+    	StreamingAligner streamingAligner = null;
+    	if (useStreamingAligner()) {
+    		streamingAligner = createStreamingAligner();
+    		realigner.setStreamingAligner(streamingAligner);
+    	}
     	try {
-    		realigner.createSupplementaryAlignments(INPUT, OUTPUT);
+    		realigner.createSupplementaryAlignments(INPUT, OUTPUT, REALIGNMENT_FASTQ);
 		} catch (IOException e) {
 			log.error(e);
 			return -1;
+		} finally {
+			CloserUtil.close(streamingAligner);
 		}
     	return 0;
 	}
@@ -83,10 +112,23 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
 	private void validateParameters() {
     	IOUtil.assertFileIsReadable(INPUT);
     	IOUtil.assertFileIsWritable(OUTPUT);
+    	if (REALIGNMENT_FASTQ != null) {
+    		IOUtil.assertFileIsReadable(REALIGNMENT_FASTQ);
+    	}
 	}
-	@Override
-	protected String[] customCommandLineValidation() {
-		return super.customCommandLineValidation();
+	/**
+	 * Determines whether soft clips can be streamed to the aligner.
+	 * Streaming requires the aligner output to be independent of how the
+	 * input is split into batches so is only used when the aligner command
+	 * line fixes the batch size.
+	 */
+	private boolean useStreamingAligner() {
+		if (!ALIGNER_STREAMING) return false;
+		if (ExternalProcessStreamingAligner.getBatchSize(ALIGNER_COMMAND_LINE) != ALIGNER_BATCH_SIZE) {
+			log.info(String.format("Aligner batch size not fixed to %d on aligner command line. Realigning soft clips using intermediate files.", ALIGNER_BATCH_SIZE));
+			return false;
+		}
+		return true;
 	}
 	public static void main(String[] argv) {
         System.exit(new SoftClipsToSplitReads().instanceMain(argv));
@@ -0,0 +1,134 @@
+package gridss.analysis;
+
+import java.io.File;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.CollectionUtil;
+import picard.analysis.CollectInsertSizeMetrics;
+import picard.analysis.InsertSizeMetrics;
+import picard.analysis.MetricAccumulationLevel;
+import picard.analysis.directed.InsertSizeMetricsCollector;
+
+/**
+ * Collects the metrics calculated by CollectGridssMetrics from records supplied by the caller.
+ * This allows metrics to be calculated as part of another pass over the input file.
+ *
+ * Output files are written to the same locations as CollectGridssMetrics.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class GridssMetricsCollector {
+	public static final String INSERT_SIZE_METRICS_SUFFIX = ".insert_size_metrics";
+	private final String prefix;
+	private final long stopAfter;
+	private final CollectCigarMetrics cigar = new CollectCigarMetrics();
+	private final CollectMapqMetrics mapq = new CollectMapqMetrics();
+	private final CollectTagMetrics tag = new CollectTagMetrics();
+	private final CollectIdsvMetrics idsv = new CollectIdsvMetrics();
+	private final ReportThresholdCoverage threshold;
+	private final InsertSizeMetricsCollector insertSize;
+	private long count = 0;
+	private boolean finished = false;
+	/**
+	 * Creates a new metrics collector
+	 * @param header input file header
+	 * @param input input file
+	 * @param prefix output file prefix
+	 * @param thresholdCoverage coverage threshold to report. ReportThresholdCoverage is run only if
+	 * this is not null and the input is coordinate sorted.
+	 * @param collectInsertSize calculate insert size metrics
+	 * @param stopAfter only calculate metrics on the first stopAfter records. Ignored if not positive.
+	 */
+	public GridssMetricsCollector(SAMFileHeader header, File input, File prefix, Integer thresholdCoverage, boolean collectInsertSize, long stopAfter) {
+		this.prefix = prefix.getPath();
+		this.stopAfter = stopAfter > 0 ? stopAfter : Long.MAX_VALUE;
+		cigar.OUTPUT = new File(this.prefix + CollectCigarMetrics.METRICS_SUFFIX);
+		mapq.OUTPUT = new File(this.prefix + CollectMapqMetrics.METRICS_SUFFIX);
+		tag.OUTPUT = new File(this.prefix + CollectTagMetrics.METRICS_SUFFIX);
+		idsv.OUTPUT = new File(this.prefix + CollectIdsvMetrics.METRICS_SUFFIX);
+		cigar.INPUT = input;
+		mapq.INPUT = input;
+		tag.INPUT = input;
+		idsv.INPUT = input;
+		cigar.setup(header, input);
+		mapq.setup(header, input);
+		tag.setup(header, input);
+		idsv.setup(header, input);
+		if (thresholdCoverage != null && header.getSortOrder() == SortOrder.coordinate) {
+			threshold = new ReportThresholdCoverage();
+			threshold.OUTPUT = new File(this.prefix + ReportThresholdCoverage.SUFFIX);
+			threshold.INPUT = input;
+			threshold.THRESHOLD_COVERAGE = thresholdCoverage;
+			threshold.setup(header, input);
+		} else {
+			threshold = null;
+		}
+		if (collectInsertSize) {
+			// match CollectInsertSizeMetrics defaults
+			CollectInsertSizeMetrics defaults = new CollectInsertSizeMetrics();
+			insertSize = new InsertSizeMetricsCollector(
+					CollectionUtil.makeSet(MetricAccumulationLevel.ALL_READS),
+					header.getReadGroups(),
+					defaults.MINIMUM_PCT,
+					defaults.HISTOGRAM_WIDTH,
+					defaults.DEVIATIONS,
+					defaults.INCLUDE_DUPLICATES);
+		} else {
+			insertSize = null;
+		}
+	}
+	/**
+	 * Adds the given record to the metrics
+	 * @param record record to add
+	 * @return true if metrics are still being collected, false if the record limit has been reached.
+	 */
+	public boolean acceptRecord(SAMRecord record) {
+		if (finished) throw new IllegalStateException("Metrics already written");
+		if (count >= stopAfter) return false;
+		count++;
+		cigar.acceptRead(record, null);
+		mapq.acceptRead(record, null);
+		tag.acceptRead(record, null);
+		idsv.acceptRead(record, null);
+		if (threshold != null) {
+			threshold.acceptRead(record, null);
+		}
+		if (insertSize != null) {
+			insertSize.acceptRecord(record, null);
+		}
+		return count < stopAfter;
+	}
+	/**
+	 * Indicates whether the record limit has been reached and no further records will be included in the metrics.
+	 */
+	public boolean isComplete() {
+		return count >= stopAfter;
+	}
+	public File getInsertSizeMetricsFile() {
+		return new File(prefix + INSERT_SIZE_METRICS_SUFFIX);
+	}
+	/**
+	 * Writes the metrics files
+	 * @param insertSizeMetricsFile metrics file to write the insert size metrics to
+	 */
+	public void finish(MetricsFile<InsertSizeMetrics, Integer> insertSizeMetricsFile) {
+		if (finished) return;
+		finished = true;
+		cigar.finish();
+		mapq.finish();
+		tag.finish();
+		idsv.finish();
+		if (threshold != null) {
+			threshold.finish();
+		}
+		if (insertSize != null) {
+			insertSize.finish();
+			insertSize.addAllLevelsToFile(insertSizeMetricsFile);
+			insertSizeMetricsFile.write(getInsertSizeMetricsFile());
+		}
+	}
+}
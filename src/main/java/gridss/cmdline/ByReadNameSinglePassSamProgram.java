@@ -7,17 +7,19 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.stream.Collectors;
 
 import au.edu.wehi.idsv.picard.ReferenceLookup;
-import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
+import au.edu.wehi.idsv.picard.ReferenceLookupFactory;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry;
+import au.edu.wehi.idsv.visualisation.MetricsRegistry.Counter;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
-import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
@@ -81,7 +83,7 @@ public abstract class ByReadNameSinglePassSamProgram extends ReferenceCommandLin
         	lookup = null;
         } else {
             IOUtil.assertFileIsReadable(referenceSequence);
-            lookup = new TwoBitBufferedReferenceSequenceFile(new IndexedFastaSequenceFile(referenceSequence));
+            lookup = ReferenceLookupFactory.open(referenceSequence);
 
             if (!in.getFileHeader().getSequenceDictionary().isEmpty()) {
                 SequenceUtil.assertSequenceDictionariesEqual(in.getFileHeader().getSequenceDictionary(),
@@ -104,6 +106,9 @@ public abstract class ByReadNameSinglePassSamProgram extends ReferenceCommandLin
             program.setup(in.getFileHeader(), input);
         }
         final ProgressLogger progress = new ProgressLogger(log);
+        final Counter recordCount = MetricsRegistry.Current.records(programs.stream()
+        		.map(p -> p.getClass().getSimpleName())
+        		.collect(Collectors.joining(",")));
         final SAMRecordIterator rawit = in.iterator();
         final CloseableIterator<SAMRecord> it = new AsyncBufferedIterator<SAMRecord>(rawit, "ByReadNameSinglePassSamProgram " + input.getName());
         try {
@@ -124,9 +129,14 @@ public abstract class ByReadNameSinglePassSamProgram extends ReferenceCommandLin
 	        		if (stopAfter > 0 && progress.getCount() >= stopAfter) {
 		                break;
 		            }
+	        		if (programs.stream().allMatch(p -> p.isComplete())) {
+	        			log.info("Stopping early as no further records are required.");
+	        			break;
+	        		}
 	        	}
 	        	currentRecords.add(r);
 	        	progress.record(r);
+	        	recordCount.inc();
 	        }
 	        if (currentRecords.size() > 0) {
 	        	for (final ByReadNameSinglePassSamProgram program : programs) {
@@ -149,6 +159,13 @@ public abstract class ByReadNameSinglePassSamProgram extends ReferenceCommandLin
      * If a reference sequence file was supplied to the program it will be passed as 'ref'. Otherwise 'ref' may be null.
      */
     protected abstract void acceptFragment(final List<SAMRecord> records, ReferenceLookup lookup);
+    /**
+     * Indicates that no further records are required by this program.
+     * The input is no longer read once all programs are complete.
+     */
+    protected boolean isComplete() {
+    	return false;
+    }
     /** Should be implemented by subclasses to do one-time finalization work. */
     protected abstract void finish();
     public void copyInput(ProcessStructuralVariantReadsCommandLineProgram to) {
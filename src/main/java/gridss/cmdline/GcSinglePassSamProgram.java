@@ -30,9 +30,8 @@ import java.io.FileNotFoundException;
 import au.edu.wehi.idsv.ReadPairConcordanceCalculator;
 import au.edu.wehi.idsv.ReadPairConcordanceMethod;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
-import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
+import au.edu.wehi.idsv.picard.ReferenceLookupFactory;
 import gridss.analysis.InsertSizeDistribution;
-import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import picard.analysis.SinglePassSamProgram;
@@ -92,7 +91,7 @@ public abstract class GcSinglePassSamProgram extends SinglePassSamProgram {
 		IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
 		if (reference == null) {
 			try {
-				reference = new TwoBitBufferedReferenceSequenceFile(new IndexedFastaSequenceFile(REFERENCE_SEQUENCE));
+				reference = ReferenceLookupFactory.open(REFERENCE_SEQUENCE);
 			} catch (FileNotFoundException e) {
 				String msg = String.format("Missing reference genome %s", REFERENCE_SEQUENCE);
 				log.error(msg);
@@ -74,6 +74,14 @@ public abstract class ProcessStructuralVariantReadsCommandLineProgram extends By
     	}
     	return rpcc;
     }
+    /**
+     * Overrides the read pair concordance calculator derived from the command line options
+     * @param rpcc read pair concordance calculator to use
+     */
+    public void setReadPairConcordanceCalculator(ReadPairConcordanceCalculator rpcc) {
+    	this.rpcc = rpcc;
+    	this.rpccInitialised = true;
+    }
     public void copyInput(ProcessStructuralVariantReadsCommandLineProgram to) {
     	super.copyInput(to);
     	to.MIN_INDEL_SIZE = MIN_INDEL_SIZE;
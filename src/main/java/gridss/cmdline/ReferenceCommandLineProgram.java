@@ -5,8 +5,7 @@ import java.io.FileNotFoundException;
 
 import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
-import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
-import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import au.edu.wehi.idsv.picard.ReferenceLookupFactory;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import picard.cmdline.CommandLineProgram;
@@ -26,7 +25,7 @@ public abstract class ReferenceCommandLineProgram extends CommandLineProgram {
 		IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
 		if (reference == null) {
 			try {
-				reference = new TwoBitBufferedReferenceSequenceFile(new IndexedFastaSequenceFile(REFERENCE_SEQUENCE));
+				reference = ReferenceLookupFactory.open(REFERENCE_SEQUENCE);
 			} catch (FileNotFoundException e) {
 				String msg = String.format("Missing reference genome %s", REFERENCE_SEQUENCE);
 				log.error(msg);
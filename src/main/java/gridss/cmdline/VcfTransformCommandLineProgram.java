@@ -2,7 +2,9 @@ package gridss.cmdline;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 
@@ -17,10 +19,12 @@ import au.edu.wehi.idsv.VariantContextDirectedBreakpoint;
 import au.edu.wehi.idsv.VariantContextWindowedSortingIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
+import htsjdk.tribble.Tribble;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFFileReader;
@@ -62,6 +66,45 @@ public abstract class VcfTransformCommandLineProgram extends FullEvidenceCommand
 		bpit = new DirectEvidenceWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), bpit);
 		return new AutoClosingIterator<VariantContextDirectedBreakpoint>(bpit, it, vcfReader);
 	}
+	/**
+	 * Loads the calls starting within the given intervals
+	 * @param file indexed VCF
+	 * @param intervals intervals to load
+	 * @return calls in VCF order
+	 */
+	public List<IdsvVariantContext> getCalls(File file, QueryInterval[] intervals) {
+		List<IdsvVariantContext> calls = new ArrayList<>();
+		try (VCFFileReader vcfReader = new VCFFileReader(file, true)) {
+			for (QueryInterval qi : QueryInterval.optimizeIntervals(intervals.clone())) {
+				String contig = getContext().getDictionary().getSequence(qi.referenceIndex).getSequenceName();
+				try (CloseableIterator<VariantContext> it = vcfReader.query(contig, qi.start, qi.end)) {
+					while (it.hasNext()) {
+						VariantContext variant = it.next();
+						// records overlapping the start of the interval start in the previous interval 
+						if (variant.getStart() >= qi.start) {
+							calls.add(IdsvVariantContext.create(getContext(), null, variant));
+						}
+					}
+				}
+			}
+		}
+		return calls;
+	}
+	/**
+	 * Breakpoint calls ordered by evidence start 
+	 * @param calls calls in VCF order
+	 * @return breakpoint calls
+	 */
+	public Iterator<VariantContextDirectedBreakpoint> getBreakpoints(List<IdsvVariantContext> calls) {
+		Iterator<VariantContextDirectedBreakpoint> bpit = Iterators.filter(calls.iterator(), VariantContextDirectedBreakpoint.class);
+		return new DirectEvidenceWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), bpit);
+	}
+	/**
+	 * Determines whether the given VCF has an index that can be used to query calls by genomic interval 
+	 */
+	protected static boolean isIndexed(File vcf) {
+		return Tribble.indexFile(vcf).exists() || Tribble.tabixIndexFile(vcf).exists();
+	}
 	public Iterator<IdsvVariantContext> getAllCalls(File file, CloseableIterator<VariantContextDirectedBreakpoint> breakpointCalls) {
 		VCFFileReader vcfReader = new VCFFileReader(file, false);
 		CloseableIterator<VariantContext> it = vcfReader.iterator();
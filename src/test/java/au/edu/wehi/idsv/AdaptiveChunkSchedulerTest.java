@@ -0,0 +1,83 @@
+package au.edu.wehi.idsv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+
+
+public class AdaptiveChunkSchedulerTest extends IntermediateFilesTest {
+	private ProcessingContext getChunkedContext() {
+		ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().chunkSize = 10000;
+		pc.getConfig().chunkSequenceChangePenalty = 10000;
+		pc.getConfig().minChunkSize = 500;
+		pc.getConfig().chunkSplitCostMultiple = 2;
+		return pc;
+	}
+	@Test
+	public void should_use_reference_chunks_when_no_index_available() {
+		ProcessingContext pc = getChunkedContext();
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		AdaptiveChunkScheduler scheduler = new AdaptiveChunkScheduler(pc, ImmutableList.of(ses));
+		List<QueryInterval[]> expected = pc.getReference().getIntervals(pc.getConfig().chunkSize, pc.getConfig().chunkSequenceChangePenalty);
+		assertEquals(expected.size(), scheduler.getChunks().size());
+		assertEquals(expected.size(), scheduler.getExecutionOrder().size());
+	}
+	@Test
+	public void should_split_high_cost_chunks() {
+		ProcessingContext pc = getChunkedContext();
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		List<SAMRecord> reads = new ArrayList<>();
+		for (int i = 0; i < 50000; i++) {
+			SAMRecord r = Read(2, 1 + i % 9900, "50M50S");
+			r.setReadName("r" + i);
+			reads.add(r);
+		}
+		File svbam = pc.getFileSystemContext().getSVBam(input);
+		svbam.getParentFile().mkdirs();
+		createBAM(svbam, SortOrder.coordinate, reads);
+		AdaptiveChunkScheduler scheduler = new AdaptiveChunkScheduler(pc, ImmutableList.of(ses));
+		List<QueryInterval[]> chunks = scheduler.getChunks();
+		int refChunks = pc.getReference().getIntervals(pc.getConfig().chunkSize, pc.getConfig().chunkSequenceChangePenalty).size();
+		assertTrue(chunks.size() > refChunks);
+		// chunks remain in genomic order and cover the reference
+		long bases = 0;
+		QueryInterval last = null;
+		for (QueryInterval[] chunk : chunks) {
+			for (QueryInterval qi : chunk) {
+				if (last != null) {
+					assertTrue(last.compareTo(qi) < 0);
+					assertTrue(last.referenceIndex != qi.referenceIndex || last.end + 1 == qi.start);
+				}
+				bases += qi.end - qi.start + 1;
+				last = qi;
+			}
+		}
+		assertEquals(pc.getDictionary().getReferenceLength(), bases);
+		// hot chunk is scheduled first
+		assertEquals(2, chunks.get(scheduler.getExecutionOrder().get(0))[0].referenceIndex);
+	}
+	@Test
+	public void chunk_name_should_depend_on_chunk_boundaries() {
+		ProcessingContext pc = getChunkedContext();
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		AdaptiveChunkScheduler scheduler = new AdaptiveChunkScheduler(pc, ImmutableList.of(ses));
+		AdaptiveChunkScheduler sameScheduler = new AdaptiveChunkScheduler(pc, ImmutableList.of(ses));
+		assertEquals(scheduler.getChunkName(0), sameScheduler.getChunkName(0));
+		pc.getConfig().chunkSize = 5000;
+		AdaptiveChunkScheduler rechunked = new AdaptiveChunkScheduler(pc, ImmutableList.of(ses));
+		assertNotEquals(scheduler.getChunkName(0), rechunked.getChunkName(0));
+	}
+}
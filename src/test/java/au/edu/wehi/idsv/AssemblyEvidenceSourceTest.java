@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -293,6 +294,37 @@ public class AssemblyEvidenceSourceTest extends IntermediateFilesTest {
 		assertEquals(100, list.size());
 	}
 	@Test
+	public void concurrent_direction_assembly_should_match_serial_assembly() throws IOException {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 50; i < 150; i++) {
+			in.add(withSequence("AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGA", Read(0, i, "41M58S"))[0]);
+			in.add(withSequence("AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGA", Read(0, i, "58S41M"))[0]);
+		}
+		createInput(in);
+		ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().getAssembly().minReads = 1;
+		pc.getConfig().chunkSize = 100;
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		AssemblyEvidenceSource serial = new AssemblyEvidenceSource(pc, ImmutableList.of(ses), assemblyFile);
+		serial.assembleBreakends(null);
+		File parallelAssemblyFile = new File(super.testFolder.getRoot(), "parallel.breakend.bam");
+		AssemblyEvidenceSource parallel = new AssemblyEvidenceSource(pc, ImmutableList.of(ses), parallelAssemblyFile);
+		// fewer worker threads than chunks so direction assembly cannot rely on the worker pool
+		ExecutorService threadpool = Executors.newFixedThreadPool(2);
+		try {
+			parallel.assembleBreakends(threadpool);
+		} finally {
+			threadpool.shutdown();
+		}
+		List<DirectedEvidence> expected = Lists.newArrayList(serial.iterator());
+		List<DirectedEvidence> result = Lists.newArrayList(parallel.iterator());
+		assertTrue(expected.stream().anyMatch(e -> e.getBreakendSummary().direction == BreakendDirection.Forward));
+		assertTrue(expected.stream().anyMatch(e -> e.getBreakendSummary().direction == BreakendDirection.Backward));
+		assertEquals(
+				expected.stream().map(e -> e.getEvidenceID() + " " + e.getBreakendSummary()).sorted().collect(Collectors.toList()),
+				result.stream().map(e -> e.getEvidenceID() + " " + e.getBreakendSummary()).sorted().collect(Collectors.toList()));
+	}
+	@Test
 	public void should_deduplicate_assembly_with_multimapping_reads() throws IOException {
 		createInput(
 				withReadName("read1", withSequence("AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGA", Read(0, 1, "91M8S"))),
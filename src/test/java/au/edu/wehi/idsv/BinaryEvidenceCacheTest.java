@@ -0,0 +1,118 @@
+package au.edu.wehi.idsv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.util.CloseableIterator;
+
+
+public class BinaryEvidenceCacheTest extends IntermediateFilesTest {
+	private List<DirectedEvidence> evidence(SAMEvidenceSource ses) {
+		List<DirectedEvidence> list = new ArrayList<>();
+		for (int i = 1; i < 5000; i += 7) {
+			list.add(SCE(FWD, ses, withSequence("ACGTACGTAC", Read(0, i, "5M5S"))[0]));
+			list.add(SCE(BWD, ses, withSequence("ACGTACGTAC", Read(1, i, "4S6M"))[0]));
+			list.add(NRRP(ses, withSequence("ACGTACGTAC", DP(0, i, "10M", true, 1, 10000 - i, "10M", false))));
+		}
+		list.sort(DirectedEvidenceOrder.ByNatural);
+		return list;
+	}
+	private BinaryEvidenceCache write(SAMEvidenceSource ses, List<DirectedEvidence> list) throws IOException {
+		File file = new File(testFolder.getRoot(), "test.sv.evidence");
+		assertEquals(list.size(), BinaryEvidenceCache.write(file, 1, list.iterator()));
+		assertTrue(BinaryEvidenceCache.exists(file));
+		return new BinaryEvidenceCache(file, ses);
+	}
+	private static List<DirectedEvidence> toList(CloseableIterator<DirectedEvidence> it) {
+		List<DirectedEvidence> list = Lists.newArrayList(it);
+		it.close();
+		return list;
+	}
+	@Test
+	public void should_round_trip_evidence() throws IOException {
+		SAMEvidenceSource ses = SES();
+		List<DirectedEvidence> expected = evidence(ses);
+		BinaryEvidenceCache cache = write(ses, expected);
+		assertEquals(1, cache.getSourceCategory());
+		assertEquals(expected.size(), cache.size());
+		List<DirectedEvidence> result = toList(cache.iterator());
+		assertEquals(expected.size(), result.size());
+		for (int i = 0; i < expected.size(); i++) {
+			DirectedEvidence e = expected.get(i);
+			DirectedEvidence r = result.get(i);
+			assertEquals(e.getBreakendSummary(), r.getBreakendSummary());
+			assertEquals(e.getEvidenceID(), r.getEvidenceID());
+			assertEquals(e.getBreakendQual(), r.getBreakendQual(), 0);
+			assertEquals(e.getLocalMapq(), r.getLocalMapq());
+			assertEquals(e.isBreakendExact(), r.isBreakendExact());
+			assertEquals(e.isFromMultimappingFragment(), r.isFromMultimappingFragment());
+			assertArrayEquals(e.getBreakendSequence(), r.getBreakendSequence());
+			assertArrayEquals(e.getBreakendQuality(), r.getBreakendQuality());
+			assertArrayEquals(e.getAnchorSequence(), r.getAnchorSequence());
+			assertArrayEquals(e.getAnchorQuality(), r.getAnchorQuality());
+			assertEquals(ses, r.getEvidenceSource());
+			assertEquals(e instanceof DirectedBreakpoint, r instanceof DirectedBreakpoint);
+			if (e instanceof DirectedBreakpoint) {
+				DirectedBreakpoint ebp = (DirectedBreakpoint)e;
+				DirectedBreakpoint rbp = (DirectedBreakpoint)r;
+				assertEquals(ebp.getBreakpointQual(), rbp.getBreakpointQual(), 0);
+				assertEquals(ebp.getRemoteMapq(), rbp.getRemoteMapq());
+				assertEquals(ebp.getRemoteEvidenceID(), rbp.getRemoteEvidenceID());
+				assertEquals(ebp.getUntemplatedSequence(), rbp.getUntemplatedSequence());
+				assertEquals(ebp.getHomologySequence(), rbp.getHomologySequence());
+				assertEquals(ebp.getHomologyAnchoredBaseCount(), rbp.getHomologyAnchoredBaseCount());
+			}
+		}
+	}
+	@Test
+	public void interval_query_should_return_overlapping_evidence() throws IOException {
+		SAMEvidenceSource ses = SES();
+		List<DirectedEvidence> all = evidence(ses);
+		BinaryEvidenceCache cache = write(ses, all);
+		QueryInterval[][] queries = new QueryInterval[][] {
+			{ new QueryInterval(0, 1, 100) },
+			{ new QueryInterval(0, 2000, 2100), new QueryInterval(0, 2050, 4000), new QueryInterval(1, 3000, 3001) },
+			{ new QueryInterval(1, 4990, 10000) },
+			{ new QueryInterval(2, 1, 10000) },
+		};
+		for (QueryInterval[] qi : queries) {
+			List<String> expected = all.stream()
+					.filter(e -> QueryIntervalUtil.overlaps(qi, e.getBreakendSummary()))
+					.map(e -> e.getEvidenceID())
+					.collect(Collectors.toList());
+			List<String> result = toList(cache.iterator(qi)).stream()
+					.map(e -> e.getEvidenceID())
+					.collect(Collectors.toList());
+			assertEquals(expected, result);
+		}
+	}
+	@Test
+	public void should_not_be_current_when_source_file_changes() throws IOException {
+		SAMEvidenceSource ses = SES();
+		File source = new File(testFolder.getRoot(), "test.sv.bam");
+		Files.write(new byte[] { 1, 2, 3 }, source);
+		File file = new File(testFolder.getRoot(), "test.sv.evidence");
+		BinaryEvidenceCache.write(file, 1, source, evidence(ses).iterator());
+		assertTrue(BinaryEvidenceCache.isCurrent(file, source));
+		Files.write(new byte[] { 1, 2, 3, 4 }, source);
+		assertFalse(BinaryEvidenceCache.isCurrent(file, source));
+		BinaryEvidenceCache.write(file, 1, source, evidence(ses).iterator());
+		assertTrue(BinaryEvidenceCache.isCurrent(file, source));
+		assertTrue(source.setLastModified(source.lastModified() - 10000));
+		assertFalse(BinaryEvidenceCache.isCurrent(file, source));
+	}
+}
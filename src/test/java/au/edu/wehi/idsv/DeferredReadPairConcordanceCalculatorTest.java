@@ -0,0 +1,69 @@
+package au.edu.wehi.idsv;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamPairUtil.PairOrientation;
+
+public class DeferredReadPairConcordanceCalculatorTest extends TestHelper {
+	private static DeferredReadPairConcordanceCalculator withProvisionalBounds(int fragmentSize) {
+		DeferredReadPairConcordanceCalculator rpcc = new DeferredReadPairConcordanceCalculator(0.995, 1);
+		for (int i = 0; i < 65536; i++) {
+			rpcc.acceptFragmentSize(fragmentSize);
+		}
+		return rpcc;
+	}
+	@Test
+	public void should_classify_discordantly_oriented_pairs_without_distribution() {
+		DeferredReadPairConcordanceCalculator rpcc = new DeferredReadPairConcordanceCalculator(0.995, 1);
+		SAMRecord[] dp = DP(0, 1, "10M", true, 1, 1, "10M", false);
+		assertTrue(rpcc.isDecidable(dp[0], null));
+		assertTrue(rpcc.isDecidable(dp[0], dp[1]));
+		assertFalse(rpcc.isConcordant(dp[0]));
+		assertFalse(rpcc.isConcordant(dp[0], dp[1]));
+	}
+	@Test
+	public void should_not_classify_concordantly_oriented_pairs_without_distribution() {
+		DeferredReadPairConcordanceCalculator rpcc = new DeferredReadPairConcordanceCalculator(0.995, 1);
+		SAMRecord[] rp = RP(0, 1, 251, 50);
+		assertFalse(rpcc.isDecidable(rp[0], null));
+		assertFalse(rpcc.isDecidable(rp[0], rp[1]));
+	}
+	@Test(expected=IllegalStateException.class)
+	public void isConcordant_should_throw_if_undecidable() {
+		new DeferredReadPairConcordanceCalculator(0.995, 1).isConcordant(RP(0, 1, 251, 50)[0]);
+	}
+	@Test
+	public void should_assume_concordance_within_provisional_bounds() {
+		SAMRecord[] rp = RP(0, 1, 251, 50);
+		int fragSize = SAMRecordUtil.estimateFragmentSize(rp[0], PairOrientation.FR);
+		DeferredReadPairConcordanceCalculator rpcc = withProvisionalBounds(fragSize);
+		assertTrue(rpcc.isDecidable(rp[0], null));
+		assertTrue(rpcc.isConcordant(rp[0]));
+		assertFalse(rpcc.isDecidable(RP(0, 1, 1001, 50)[0], null));
+	}
+	@Test
+	public void resolve_should_check_assumed_concordance() {
+		SAMRecord[] rp = RP(0, 1, 251, 50);
+		int fragSize = SAMRecordUtil.estimateFragmentSize(rp[0], PairOrientation.FR);
+		DeferredReadPairConcordanceCalculator rpcc = withProvisionalBounds(fragSize);
+		assertTrue(rpcc.isConcordant(rp[0]));
+		assertTrue(rpcc.resolve(new FixedSizeReadPairConcordanceCalculator(fragSize - 10, fragSize + 10)));
+
+		rpcc = withProvisionalBounds(fragSize);
+		assertTrue(rpcc.isConcordant(rp[0]));
+		assertFalse(rpcc.resolve(new FixedSizeReadPairConcordanceCalculator(fragSize + 1, fragSize + 10)));
+	}
+	@Test
+	public void resolve_should_use_final_calculator() {
+		DeferredReadPairConcordanceCalculator rpcc = new DeferredReadPairConcordanceCalculator(0.995, 1);
+		assertTrue(rpcc.resolve(new FixedSizeReadPairConcordanceCalculator(1, 10000)));
+		assertTrue(rpcc.isResolved());
+		assertTrue(rpcc.isDecidable(RP(0, 1, 1001, 50)[0], null));
+		assertTrue(rpcc.isConcordant(RP(0, 1, 1001, 50)[0]));
+	}
+}
@@ -6,14 +6,13 @@ import java.util.Random;
 import org.junit.Ignore;
 import org.junit.Test;
 
-import au.edu.wehi.idsv.GreedyAllocationCache.EventAlignmentScoreNode;
 import au.edu.wehi.idsv.GreedyAllocationCache.Hash96bit;
 import htsjdk.samtools.util.Log;
 
 public class GreedyAllocationCacheTest {
 	private static final Log log = Log.getInstance(GreedyAllocationCacheTest.class);
 	public class TestCache extends GreedyAllocationCache {
-		public GreedyAllocationCacheLookup<EventAlignmentScoreNode> cache = createLookup("test", EventAlignmentScoreNode.class, 100000000);
+		public GreedyAllocationCacheLookup cache = createLookup("test", 100000000);
 		@Override
 		public void close() throws IOException {
 			cache.close();
@@ -25,10 +24,10 @@ public class GreedyAllocationCacheTest {
 		Random rnd = new Random();
 		try (TestCache cache = new TestCache()) {
 			for (int i = 0; i < Integer.MAX_VALUE; i++) {
-				cache.cache.put(new Hash96bit(rnd.nextInt(), rnd.nextInt()),
-						new EventAlignmentScoreNode(new Hash96bit(rnd.nextInt(), rnd.nextInt()),
-								rnd.nextInt(10000),
-								new Hash96bit(rnd.nextInt(), rnd.nextInt())));
+				cache.cache.putIfBetter(new Hash96bit(rnd.nextInt(), rnd.nextInt()),
+						new Hash96bit(rnd.nextInt(), rnd.nextInt()),
+						rnd.nextInt(10000),
+						new Hash96bit(rnd.nextInt(), rnd.nextInt()));
 				if (i % 100000 == 0) {
 					log.warn(String.format("Loaded %,d records. Current java heap memory usage is %,d MiB",
 							i,
@@ -0,0 +1,137 @@
+package au.edu.wehi.idsv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
+
+
+public class ReferenceCoverageTrackTest extends IntermediateFilesTest {
+	private ReferenceCoverageTrack write(List<SAMRecord> reads, ReadPairConcordanceCalculator rpcc, boolean ignoreDuplicates) throws IOException {
+		Collections.sort(reads, new SAMRecordCoordinateComparator());
+		File file = new File(testFolder.getRoot(), "test.coverage");
+		try (ReferenceCoverageTrack.Writer writer = new ReferenceCoverageTrack.Writer(file, rpcc, ignoreDuplicates)) {
+			for (SAMRecord r : reads) {
+				writer.accept(r);
+			}
+		}
+		assertTrue(ReferenceCoverageTrack.exists(file));
+		return new ReferenceCoverageTrack(file, 3);
+	}
+	private List<SAMRecord> randomReads(Random rng, int n) {
+		List<SAMRecord> reads = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			int referenceIndex = rng.nextInt(2);
+			int pos = 1 + rng.nextInt(5000);
+			int pos2 = pos + rng.nextInt(500) - 50;
+			SAMRecord[] rp = RP(referenceIndex, pos, Math.max(1, pos2), 1 + rng.nextInt(100));
+			if (rng.nextInt(10) == 0) {
+				rp[0].setDuplicateReadFlag(true);
+				rp[1].setDuplicateReadFlag(true);
+			}
+			reads.add(rp[0]);
+			reads.add(rp[1]);
+			if (rng.nextInt(5) == 0) {
+				reads.add(Read(referenceIndex, 1 + rng.nextInt(5000), (1 + rng.nextInt(50)) + "M" + (1 + rng.nextInt(10)) + "S"));
+			}
+		}
+		return reads;
+	}
+	@Test
+	public void should_report_correct_category() throws IOException {
+		ReferenceCoverageTrack track = write(new ArrayList<>(), null, true);
+		assertEquals(3, track.getCategory());
+		assertEquals(0, track.readsSupportingNoBreakendAfter(0, 1));
+		track.close();
+	}
+	@Test
+	public void should_match_sequential_lookup() throws IOException {
+		Random rng = new Random(0);
+		for (boolean ignoreDuplicates : new boolean[] { true, false }) {
+			List<SAMRecord> reads = randomReads(rng, 2000);
+			ReadPairConcordanceCalculator rpcc = new FixedSizeReadPairConcordanceCalculator(0, 300);
+			ReferenceCoverageTrack track = write(reads, rpcc, ignoreDuplicates);
+			SequentialReferenceCoverageLookup expected = new SequentialReferenceCoverageLookup(reads.iterator(), IDSV(reads), rpcc, 1, 3, ignoreDuplicates);
+			for (int referenceIndex = 0; referenceIndex < 3; referenceIndex++) {
+				for (int pos = 1; pos < 6000; pos++) {
+					assertEquals(expected.readsSupportingNoBreakendAfter(referenceIndex, pos), track.readsSupportingNoBreakendAfter(referenceIndex, pos));
+					assertEquals(expected.readPairsSupportingNoBreakendAfter(referenceIndex, pos), track.readPairsSupportingNoBreakendAfter(referenceIndex, pos));
+				}
+			}
+			expected.close();
+			track.close();
+		}
+	}
+	@Test
+	public void should_allow_random_access() throws IOException {
+		Random rng = new Random(0);
+		List<SAMRecord> reads = randomReads(rng, 5000);
+		ReadPairConcordanceCalculator rpcc = new FixedSizeReadPairConcordanceCalculator(0, 300);
+		ReferenceCoverageTrack track = write(reads, rpcc, true);
+		int[][] readCounts = new int[2][6000];
+		int[][] pairCounts = new int[2][6000];
+		SequentialReferenceCoverageLookup expected = new SequentialReferenceCoverageLookup(reads.iterator(), IDSV(reads), rpcc, 1, 3, true);
+		for (int referenceIndex = 0; referenceIndex < 2; referenceIndex++) {
+			for (int pos = 1; pos < 6000; pos++) {
+				readCounts[referenceIndex][pos] = expected.readsSupportingNoBreakendAfter(referenceIndex, pos);
+				pairCounts[referenceIndex][pos] = expected.readPairsSupportingNoBreakendAfter(referenceIndex, pos);
+			}
+		}
+		expected.close();
+		for (int i = 0; i < 10000; i++) {
+			int referenceIndex = rng.nextInt(2);
+			int pos = 1 + rng.nextInt(5999);
+			assertEquals(readCounts[referenceIndex][pos], track.readsSupportingNoBreakendAfter(referenceIndex, pos));
+			assertEquals(pairCounts[referenceIndex][pos], track.readPairsSupportingNoBreakendAfter(referenceIndex, pos));
+		}
+		track.close();
+	}
+	@Test
+	public void should_run_length_encode_coverage() throws IOException {
+		List<SAMRecord> reads = L(
+				RP(0, 10, 20, 5),
+				RP(0, 11, 21, 5),
+				RP(0, 12, 19, 5));
+		ReferenceCoverageTrack track = write(reads, new FixedSizeReadPairConcordanceCalculator(0, 300), true);
+		// one entry per change in coverage
+		assertTrue(track.size() < 20);
+		for (int i = 1; i < 100; i++) {
+			assertEquals(
+				i < 14 ? 0 :
+				i <= 14 ? 1 :
+				i <= 15 ? 2 :
+				i <= 18 ? 3 :
+				i <= 19 ? 2 :
+				i <= 20 ? 1 :
+				0, track.readPairsSupportingNoBreakendAfter(0, i));
+		}
+		track.close();
+	}
+	@Test
+	public void should_not_be_current_when_source_file_changes() throws IOException {
+		File source = new File(testFolder.getRoot(), "test.bam");
+		Files.write(new byte[] { 1, 2, 3 }, source);
+		File file = new File(testFolder.getRoot(), "test.coverage");
+		new ReferenceCoverageTrack.Writer(file, source, null, true).close();
+		assertTrue(ReferenceCoverageTrack.isCurrent(file, source));
+		Files.write(new byte[] { 1, 2, 3, 4 }, source);
+		assertFalse(ReferenceCoverageTrack.isCurrent(file, source));
+		new ReferenceCoverageTrack.Writer(file, source, null, true).close();
+		assertTrue(ReferenceCoverageTrack.isCurrent(file, source));
+		assertTrue(source.setLastModified(source.lastModified() - 10000));
+		assertFalse(ReferenceCoverageTrack.isCurrent(file, source));
+	}
+}
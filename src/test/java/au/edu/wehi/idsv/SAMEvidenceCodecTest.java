@@ -0,0 +1,47 @@
+package au.edu.wehi.idsv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class SAMEvidenceCodecTest extends TestHelper {
+	private static List<DirectedEvidence> roundTrip(SAMEvidenceSource ses, List<DirectedEvidence> evidence) {
+		SAMEvidenceCodec codec = new SAMEvidenceCodec(ses, 0, getHeader());
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		codec.setOutputStream(os);
+		for (DirectedEvidence e : evidence) {
+			codec.encode(e);
+		}
+		SAMEvidenceCodec decoder = codec.clone();
+		decoder.setInputStream(new ByteArrayInputStream(os.toByteArray()));
+		ImmutableList.Builder<DirectedEvidence> builder = ImmutableList.builder();
+		for (int i = 0; i < evidence.size(); i++) {
+			builder.add(decoder.decode());
+		}
+		assertNull(decoder.decode());
+		return builder.build();
+	}
+	@Test
+	public void should_round_trip_single_read_evidence() {
+		SAMEvidenceSource ses = SES();
+		List<DirectedEvidence> evidence = ImmutableList.of(
+				SCE(FWD, ses, Read(0, 1, "5S5M5S")),
+				SCE(BWD, ses, Read(0, 1, "5S5M5S")),
+				IE(ses, Read(0, 1, "5M5D5M")),
+				SR(ses, Read(0, 1, "5M5S"), Read(1, 10, "5M")));
+		List<DirectedEvidence> result = roundTrip(ses, evidence);
+		for (int i = 0; i < evidence.size(); i++) {
+			assertEquals(evidence.get(i).getClass(), result.get(i).getClass());
+			assertEquals(evidence.get(i).getEvidenceID(), result.get(i).getEvidenceID());
+			assertEquals(evidence.get(i).getBreakendSummary(), result.get(i).getBreakendSummary());
+			assertEquals(ses, result.get(i).getEvidenceSource());
+		}
+	}
+}
@@ -21,9 +21,17 @@ import com.google.common.io.Files;
 import au.edu.wehi.idsv.alignment.StubFastqAligner;
 import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.picard.SynchronousReferenceLookupAdapter;
+import au.edu.wehi.idsv.sam.SAMFileUtil;
+import gridss.SoftClipsToSplitReads;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.metrics.Header;
+import htsjdk.samtools.metrics.StringHeader;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloseableIterator;
+import picard.cmdline.CommandLineProgram;
 
 public class SAMEvidenceSourceTest extends IntermediateFilesTest {
 	@Test
@@ -101,6 +109,27 @@ public class SAMEvidenceSourceTest extends IntermediateFilesTest {
 			e.getBreakendSummary().overlaps(new BreakendSummary(1, BWD, 20, 20, 30))));
 	}
 	@Test
+	public void iterator_close_should_delete_spilled_sort_window_records() {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			in.add(Read(1, 10, "50M50S"));
+		}
+		createInput(in);
+		List<Header> headers = Lists.newArrayList();
+		headers.add(new StringHeader("TestHeader"));
+		ProcessingContext pc = new ProcessingContext(new FileSystemContext(testFolder.getRoot(), 4), reference, SMALL_FA, headers, getConfig(testFolder.getRoot()));
+		SAMEvidenceSource source = new SAMEvidenceSource(pc, input, null, 0);
+		CloseableIterator<DirectedEvidence> it = source.iterator(new QueryInterval[] { new QueryInterval(1, 1, 100) });
+		assertTrue(it.hasNext());
+		it.next();
+		assertTrue(spilledSortWindowFiles().length > 0);
+		it.close();
+		assertEquals(0, spilledSortWindowFiles().length);
+	}
+	private File[] spilledSortWindowFiles() {
+		return testFolder.getRoot().listFiles((dir, name) -> name.startsWith("gridss.tmp.windowedSort."));
+	}
+	@Test
 	public void should_set_evidence_source_to_self() {
 		createInput(Read(0, 1, "50M50S"));
 		SAMEvidenceSource source = new SAMEvidenceSource(getCommandlineContext(), input, null, 0);
@@ -473,4 +502,60 @@ public class SAMEvidenceSourceTest extends IntermediateFilesTest {
 		SAMEvidenceSource ses = permissiveSES();
 		assertFalse(ses.shouldFilter(Read(0, -10, "10S1X1N1X")));
 	}
+	private List<String> ensureExtractedSoftClipsToSplitReadsArgs(ProcessingContext pc, List<FastqRecord> realignmentFastq) throws IOException {
+		File nameSortedInput = new File(input.getAbsolutePath() + ".queryname.bam");
+		SAMFileUtil.sort(getFSContext(), input, nameSortedInput, SortOrder.queryname);
+		List<String> splitReadArgs = new ArrayList<>();
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, nameSortedInput, 0) {
+			@Override
+			protected void execute(CommandLineProgram cmd, List<String> args) {
+				if (!(cmd instanceof SoftClipsToSplitReads)) {
+					super.execute(cmd, args);
+					return;
+				}
+				// no external aligner: record the invocation and pass the reads through unchanged
+				splitReadArgs.addAll(args);
+				String in = null, out = null;
+				for (String arg : args) {
+					if (arg.startsWith("INPUT=")) in = arg.substring("INPUT=".length());
+					if (arg.startsWith("OUTPUT=")) out = arg.substring("OUTPUT=".length());
+					if (arg.startsWith("REALIGNMENT_FASTQ=")) realignmentFastq.addAll(getFastqRecords(new File(arg.substring("REALIGNMENT_FASTQ=".length()))));
+				}
+				try {
+					Files.copy(new File(in), new File(out));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		ses.ensureExtracted();
+		return splitReadArgs;
+	}
+	private static final String CLIPPED_READ_SEQUENCE = "AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGA";
+	@Test
+	public void ensureExtracted_should_generate_realignment_fastq_during_extraction_when_not_streaming() throws IOException {
+		createInput(withSequence(CLIPPED_READ_SEQUENCE, Read(0, 1, "69M30S")));
+		ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().getSoftClip().minAnchorIdentity = 0;
+		pc.getConfig().minAnchorShannonEntropy = 0;
+		pc.getConfig().alignerStreaming = false;
+		List<FastqRecord> fastq = new ArrayList<>();
+		List<String> args = ensureExtractedSoftClipsToSplitReadsArgs(pc, fastq);
+		assertTrue(args.contains("ALIGNER_STREAMING=false"));
+		assertTrue(args.stream().anyMatch(s -> s.startsWith("REALIGNMENT_FASTQ=")));
+		assertEquals(1, fastq.size());
+		assertEquals(CLIPPED_READ_SEQUENCE.substring(69), fastq.get(0).getReadString());
+	}
+	@Test
+	public void ensureExtracted_should_not_generate_realignment_fastq_when_streaming() throws IOException {
+		createInput(withSequence(CLIPPED_READ_SEQUENCE, Read(0, 1, "69M30S")));
+		ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().getSoftClip().minAnchorIdentity = 0;
+		pc.getConfig().minAnchorShannonEntropy = 0;
+		pc.getConfig().alignerStreaming = true;
+		List<String> args = ensureExtractedSoftClipsToSplitReadsArgs(pc, new ArrayList<>());
+		assertTrue(args.contains("ALIGNER_STREAMING=true"));
+		assertFalse(args.stream().anyMatch(s -> s.startsWith("REALIGNMENT_FASTQ=")));
+		assertFalse(pc.getFileSystemContext().getRealignmentFastq(FileSystemContext.getWorkingFileFor(pc.getFileSystemContext().getSVBam(input), SAMEvidenceSource.TAGGED_PREFIX), 0).exists());
+	}
 }
@@ -6,7 +6,9 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -15,6 +17,7 @@ import com.google.common.collect.Ordering;
 
 import au.edu.wehi.idsv.alignment.AlignerFactory;
 import au.edu.wehi.idsv.alignment.SmithWatermanFastqAligner;
+import au.edu.wehi.idsv.alignment.SmithWatermanStreamingAligner;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.fastq.FastqRecord;
@@ -94,6 +97,63 @@ public class SplitReadRealignerTest extends IntermediateFilesTest {
 		result = getRecords(output);
 		assertEquals(3, result.size());
 	}
+	private SplitReadRealigner createStreamingRealigner() {
+		SplitReadRealigner srr = new SplitReadRealigner(getContext(), null);
+		srr.setStreamingAligner(new SmithWatermanStreamingAligner(AlignerFactory.create(), getContext().getReference(), 2));
+		return srr;
+	}
+	@Test
+	public void streaming_should_output_sorted_merge() throws IOException {
+		SAMRecord r = Read(2, 1, "50S50M");
+		r.setReadBases(B(S(RANDOM).substring(100, 150) + S(RANDOM).substring(0, 50)));
+		r.setReadName("r");
+		
+		createBAM(input, SortOrder.coordinate, r);
+		createStreamingRealigner().createSupplementaryAlignments(input, output);
+		
+		List<SAMRecord> result = getRecords(output);
+		assertEquals(2, result.size());
+		assertEquals(1, result.get(0).getAlignmentStart());
+		assertEquals(101, result.get(1).getAlignmentStart());
+	}
+	@Test
+	public void streaming_should_recusively_align() throws IOException {
+		SAMRecord r = Read(2, 1, "50S50M");
+		r.setReadBases(B(S(RANDOM).substring(125, 150) + S(RANDOM).substring(75, 100) + S(RANDOM).substring(0, 50)));
+		r.setReadName("r");
+		
+		createBAM(input, SortOrder.coordinate, r);
+		createStreamingRealigner().createSupplementaryAlignments(input, output);
+		
+		List<SAMRecord> result = getRecords(output);
+		assertEquals(3, result.size());
+		assertEquals(1, result.get(0).getAlignmentStart());
+		assertEquals(76, result.get(1).getAlignmentStart());
+		assertEquals(126, result.get(2).getAlignmentStart());
+	}
+	@Test
+	public void streaming_should_match_file_based_realignment() throws IOException {
+		List<SAMRecord> reads = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			SAMRecord r = Read(2, 1 + i, "25S50M25S");
+			r.setReadBases(B(S(RANDOM).substring(100 + i, 125 + i) + S(RANDOM).substring(i, 50 + i) + S(RANDOM).substring(200 - i, 225 - i)));
+			r.setReadName("r" + i);
+			reads.add(r);
+		}
+		createBAM(input, SortOrder.coordinate, reads.toArray(new SAMRecord[0]));
+		new SplitReadRealigner(getContext(), aligner).createSupplementaryAlignments(input, output);
+		List<SAMRecord> expected = getRecords(output);
+		output.delete();
+		SplitReadRealigner srr = createStreamingRealigner();
+		srr.setMaxBufferedRecords(4);
+		srr.createSupplementaryAlignments(input, output);
+		List<SAMRecord> result = getRecords(output);
+		assertEquals(expected.size(), result.size());
+		assertTrue(Ordering.from(SortOrder.coordinate.getComparatorInstance()).isOrdered(result));
+		assertEquals(
+				expected.stream().map(r -> r.getSAMString()).sorted().collect(Collectors.toList()),
+				result.stream().map(r -> r.getSAMString()).sorted().collect(Collectors.toList()));
+	}
 	@Test
 	public void fastq_keys_should_be_unique() throws IOException {
 		createBAM(input, SortOrder.coordinate, Read(0, 1, "1S1M1S"));
@@ -1,6 +1,7 @@
 package au.edu.wehi.idsv;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -11,6 +12,7 @@ import org.junit.Test;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
+import au.edu.wehi.idsv.vcf.VcfSvConstants;
 import htsjdk.samtools.QueryInterval;
 
 public class VariantCallIteratorTest extends IntermediateFilesTest {
@@ -74,6 +76,55 @@ public class VariantCallIteratorTest extends IntermediateFilesTest {
 		assertEquals(4 * 2, result.size());
 	}
 	@Test
+	public void should_match_calling_each_orientation_separately()  throws InterruptedException {
+		List<DirectedEvidence> list = new ArrayList<DirectedEvidence>();
+		for (int i = 1; i < 1000; i += 3) {
+			list.add(new MockDirectedBreakpoint(new BreakpointSummary(0, i % 2 == 0 ? FWD : BWD, i, i, i + 10, 1, i % 3 == 0 ? FWD : BWD, i, i, i + 10)));
+		}
+		List<String> expected = new ArrayList<>();
+		SequentialIdGenerator idGenerator = new SequentialIdGenerator("gridss");
+		for (BreakendDirection lowDir : new BreakendDirection[] { FWD, BWD }) {
+			for (BreakendDirection highDir : new BreakendDirection[] { FWD, BWD }) {
+				new MaximalEvidenceCliqueIterator(getContext(), list.iterator(), lowDir, highDir, idGenerator)
+					.forEachRemaining(v -> expected.add(v.getID() + " " + v.getAttribute(VcfSvConstants.PARTNER_BREAKEND_ID_KEY) + " " + v.getBreakendSummary()));
+			}
+		}
+		VariantCallIterator ecp = new VariantCallIterator(getContext(), list);
+		List<String> result = new ArrayList<>();
+		ecp.forEachRemaining(v -> result.add(v.getID() + " " + v.getAttribute(VcfSvConstants.PARTNER_BREAKEND_ID_KEY) + " " + v.getBreakendSummary()));
+		ecp.close();
+		assertEquals(expected, result);
+	}
+	@Test
+	public void should_not_block_when_direction_pairs_have_more_calls_than_the_buffer_size() throws InterruptedException {
+		List<DirectedEvidence> list = new ArrayList<DirectedEvidence>();
+		// more calls in a single direction pair than the call buffer can hold
+		for (int i = 1; i < 20 * gridss.Defaults.ASYNC_BUFFER_SIZE; i += 100) {
+			list.add(new MockDirectedBreakpoint(new BreakpointSummary(0, FWD, i, i, i, 1, FWD, i, i, i)));
+			list.add(new MockDirectedBreakpoint(new BreakpointSummary(0, BWD, i, i, i, 1, BWD, i, i, i)));
+		}
+		VariantCallIterator ecp = new VariantCallIterator(getContext(), list);
+		int count = 0;
+		while (ecp.hasNext()) {
+			ecp.next();
+			count++;
+		}
+		ecp.close();
+		assertEquals(2 * list.size(), count);
+	}
+	@Test
+	public void close_should_stop_calling() throws InterruptedException {
+		List<DirectedEvidence> list = new ArrayList<DirectedEvidence>();
+		for (int i = 1; i < 20 * gridss.Defaults.ASYNC_BUFFER_SIZE; i += 100) {
+			list.add(new MockDirectedBreakpoint(new BreakpointSummary(0, FWD, i, i, i, 1, BWD, i, i, i)));
+		}
+		VariantCallIterator ecp = new VariantCallIterator(getContext(), list);
+		assertTrue(ecp.hasNext());
+		ecp.next();
+		ecp.close();
+		assertFalse(ecp.hasNext());
+	}
+	@Test
 	public void interval_caller_should_filter_calls_in_which_neither_breakend_starts_in_interval()  throws InterruptedException {
 		createInput(
 				RP(0, 1, 2, 1),
@@ -1,6 +1,7 @@
 package au.edu.wehi.idsv;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -15,6 +16,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import htsjdk.samtools.SAMRecord;
+import htsjdk.tribble.Tribble;
 
 
 public class VariantCallerTest extends IntermediateFilesTest {
@@ -85,6 +87,7 @@ public class VariantCallerTest extends IntermediateFilesTest {
 		List<IdsvVariantContext> calls = getVcf(output, null);
 		// start/end ramps are not max cliques but the rest are
 		assertEquals(2 * 3, calls.size());
+		assertTrue(Tribble.indexFile(output).exists());
 		for (IdsvVariantContext variant : calls) {
 			assertEquals(3 * ((DirectedBreakpoint)ses.evidence.get(0)).getBreakpointQual(), variant.getPhredScaledQual(), 0.01);
 		}
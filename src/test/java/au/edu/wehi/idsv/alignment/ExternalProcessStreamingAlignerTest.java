@@ -0,0 +1,106 @@
+package au.edu.wehi.idsv.alignment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.fastq.FastqRecord;
+
+public class ExternalProcessStreamingAlignerTest {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	/**
+	 * Emulates the batching behaviour of bwa mem -K: reads are only aligned
+	 * (reported as unmapped) once the batch size has been reached
+	 */
+	private static final String BATCHING_ALIGNER = "awk -v K=\"$2\" '"
+			+ "BEGIN { OFS = \"\\t\"; n = 0; print \"@HD\", \"VN:1.4\"; fflush() } "
+			+ "(NR - 1) == int((NR - 1) / 4) * 4 { name[n] = substr($0, 2) } "
+			+ "(NR - 2) == int((NR - 2) / 4) * 4 { seq[n] = $0; size += length($0); n++ } "
+			+ "NR == int(NR / 4) * 4 && size >= K * 1 && n == int(n / 2) * 2 { "
+			+ "for (i = 0; i < n; i++) print name[i], 4, \"*\", 0, 0, \"*\", \"*\", 0, 0, seq[i], \"*\"; "
+			+ "fflush(); n = 0; size = 0 }'";
+	private ExternalProcessStreamingAligner create(int batchSize) throws IOException {
+		File reference = testFolder.newFile("reference.fa");
+		return new ExternalProcessStreamingAligner(SamReaderFactory.makeDefault(),
+				ImmutableList.of("/bin/sh", "-c", BATCHING_ALIGNER, "aligner", "-K", Integer.toString(batchSize)),
+				reference, 1, batchSize);
+	}
+	private static FastqRecord read(int i, int length) {
+		return new FastqRecord("read" + i, Strings.repeat("A", length), "", Strings.repeat("#", length));
+	}
+	private static List<String> getAlignments(StreamingAligner aligner, int count) {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			names.add(aligner.getAlignment().getReadName());
+		}
+		return names;
+	}
+	@Test
+	public void flush_should_return_partial_batch() throws IOException {
+		try (ExternalProcessStreamingAligner aligner = create(5000)) {
+			aligner.asyncAlign(read(0, 10));
+			aligner.asyncAlign(read(1, 10));
+			aligner.asyncAlign(read(2, 10));
+			aligner.flush();
+			assertEquals(ImmutableList.of("read0", "read1", "read2"), getAlignments(aligner, 3));
+			assertEquals(0, aligner.outstandingAlignmentRecord());
+			// only enough padding to complete the batch
+			assertEquals(5, aligner.getFlushReadsWritten());
+			assertFalse(aligner.hasAlignmentRecord());
+		}
+	}
+	@Test
+	public void flush_should_not_pad_completed_batch() throws IOException {
+		try (ExternalProcessStreamingAligner aligner = create(100)) {
+			for (int i = 0; i < 10; i++) {
+				aligner.asyncAlign(read(i, 10));
+			}
+			aligner.flush();
+			assertEquals(10, getAlignments(aligner, 10).size());
+			assertEquals(0, aligner.getFlushReadsWritten());
+		}
+	}
+	@Test
+	public void flush_should_be_noop_without_new_reads() throws IOException {
+		try (ExternalProcessStreamingAligner aligner = create(5000)) {
+			aligner.asyncAlign(read(0, 10));
+			aligner.asyncAlign(read(1, 10));
+			aligner.flush();
+			assertEquals(2, getAlignments(aligner, 2).size());
+			int padding = aligner.getFlushReadsWritten();
+			aligner.flush();
+			aligner.flush();
+			aligner.asyncAlign(read(2, 10));
+			aligner.flush();
+			assertEquals(ImmutableList.of("read2"), getAlignments(aligner, 1));
+			assertEquals(padding + 5, aligner.getFlushReadsWritten());
+		}
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void should_require_command_line_batch_size() throws IOException {
+		new ExternalProcessStreamingAligner(SamReaderFactory.makeDefault(), ImmutableList.of("bwa", "mem", "%2$s", "%1$s"), testFolder.newFile("reference.fa"), 1, 10000000);
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void should_require_matching_batch_size() throws IOException {
+		new ExternalProcessStreamingAligner(SamReaderFactory.makeDefault(), ImmutableList.of("bwa", "mem", "-K", "100", "%2$s", "%1$s"), testFolder.newFile("reference.fa"), 1, 10000000);
+	}
+	@Test
+	public void getBatchSize_should_parse_command_line() {
+		assertEquals(10000000, ExternalProcessStreamingAligner.getBatchSize(ImmutableList.of("bwa", "mem", "-K", "10000000", "-t", "%3$d")));
+		assertEquals(100, ExternalProcessStreamingAligner.getBatchSize(ImmutableList.of("bwa", "mem", "-K100")));
+		assertEquals(-1, ExternalProcessStreamingAligner.getBatchSize(ImmutableList.of("bowtie2", "-U", "%1$s")));
+	}
+}
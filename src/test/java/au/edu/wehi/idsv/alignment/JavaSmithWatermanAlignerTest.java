@@ -0,0 +1,105 @@
+package au.edu.wehi.idsv.alignment;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.edu.wehi.idsv.TestHelper;
+
+
+public class JavaSmithWatermanAlignerTest extends TestHelper {
+	private final Aligner aligner = new JavaSmithWatermanAligner(1, -4, -4, 6, 1);
+	@Test
+	public void should_align_exact_match() {
+		Alignment aln = aligner.align_smith_waterman(B("ACGTTGCA"), B("TTTACGTTGCATTT"));
+		assertEquals(3, aln.getStartPosition());
+		assertEquals("8M", aln.getCigar());
+	}
+	@Test
+	public void should_soft_clip_unaligned_bases() {
+		Alignment aln = aligner.align_smith_waterman(B("GGGGACGTTGCACCCC"), B("TTTACGTTGCATTT"));
+		assertEquals(3, aln.getStartPosition());
+		assertEquals("4S8M4S", aln.getCigar());
+	}
+	@Test
+	public void should_align_deletion() {
+		Alignment aln = aligner.align_smith_waterman(B("ACGTACGTTGCATGCAAAAACCCCCGGGGGTTTTT"), B("ACGTACGTTGCATGCAAAAATCCCCCGGGGGTTTTT"));
+		assertEquals(0, aln.getStartPosition());
+		assertEquals("20M1D15M", aln.getCigar());
+	}
+	@Test
+	public void should_align_insertion() {
+		Alignment aln = aligner.align_smith_waterman(B("ACGTACGTTGCATGCAAAAAGGCCCCCGGGGGTTTTT"), B("ACGTACGTTGCATGCAAAAACCCCCGGGGGTTTTT"));
+		assertEquals(0, aln.getStartPosition());
+		assertEquals("20M2I15M", aln.getCigar());
+	}
+	@Test
+	public void should_treat_lower_case_as_upper_case() {
+		Alignment aln = aligner.align_smith_waterman(B("acgttgca"), B("TTTACGTTGCATTT"));
+		assertEquals(3, aln.getStartPosition());
+		assertEquals("8M", aln.getCigar());
+	}
+	@Test
+	public void batch_should_match_individual_alignment() {
+		byte[][] seq = new byte[][] { B("ACGTTGCA"), B("GGGGACGTTGCACCCC"), B("ACGTACGTTGCATGCAAAAACCCCCGGGGGTTTTT") };
+		byte[][] ref = new byte[][] { B("TTTACGTTGCATTT"), B("TTTACGTTGCATTT"), B("ACGTACGTTGCATGCAAAAATCCCCCGGGGGTTTTT") };
+		Alignment[] result = aligner.align_smith_waterman(seq, ref);
+		assertEquals(seq.length, result.length);
+		for (int i = 0; i < seq.length; i++) {
+			Alignment expected = aligner.align_smith_waterman(seq[i], ref[i]);
+			assertEquals(expected.getStartPosition(), result[i].getStartPosition());
+			assertEquals(expected.getCigar(), result[i].getCigar());
+		}
+	}
+	@Test
+	public void should_match_jaligner_alignment() {
+		Random rng = new Random(0);
+		int[][] scoring = new int[][] {
+			{ 1, -4, -4, 6, 1 }, // bwa mem
+			{ 2, -6, -1, 5, 3 }, // bowtie2
+		};
+		for (int[] s : scoring) {
+			Aligner expectedAligner = new JAlignerAligner(s[0], s[1], s[2], s[3], s[4]);
+			Aligner javaAligner = new JavaSmithWatermanAligner(s[0], s[1], s[2], s[3], s[4]);
+			for (int n = 0; n < 1000; n++) {
+				String ref = randomBases(rng, 50 + rng.nextInt(150));
+				int start = rng.nextInt(ref.length() / 2);
+				int end = start + 10 + rng.nextInt(ref.length() - start - 10);
+				StringBuilder seq = new StringBuilder(ref.substring(start, end));
+				int mutations = rng.nextInt(4);
+				for (int i = 0; i < mutations; i++) {
+					int pos = rng.nextInt(seq.length());
+					int length = 1 + rng.nextInt(4);
+					switch (rng.nextInt(3)) {
+						case 0:
+							seq.setCharAt(pos, "ACGT".charAt(rng.nextInt(4)));
+							break;
+						case 1:
+							seq.insert(pos, randomBases(rng, length));
+							break;
+						default:
+							seq.delete(pos, Math.min(seq.length() - 1, pos + length));
+							break;
+					}
+				}
+				if (rng.nextBoolean()) {
+					seq.insert(0, randomBases(rng, rng.nextInt(20)));
+				}
+				Alignment expected = expectedAligner.align_smith_waterman(B(seq.toString()), B(ref));
+				Alignment result = javaAligner.align_smith_waterman(B(seq.toString()), B(ref));
+				String msg = seq + " aligned to " + ref;
+				assertEquals(msg, expected.getStartPosition(), result.getStartPosition());
+				assertEquals(msg, expected.getCigar(), result.getCigar());
+			}
+		}
+	}
+	private static String randomBases(Random rng, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append("ACGT".charAt(rng.nextInt(4)));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,124 @@
+package au.edu.wehi.idsv.debruijn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import au.edu.wehi.idsv.TestHelper;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+
+
+public class PackedKmerPathTest extends TestHelper {
+	private static LongArrayList kmers(int k, byte[] seq, int length) {
+		LongArrayList list = new LongArrayList();
+		for (int i = 0; i < length; i++) {
+			list.add(KmerEncodingHelper.picardBaseToEncoded(k, Arrays.copyOfRange(seq, i, i + k)));
+		}
+		return list;
+	}
+	private static PackedKmerPath path(int k, LongArrayList kmers) {
+		PackedKmerPath path = new PackedKmerPath(k);
+		for (long kmer : kmers) {
+			path.add(kmer);
+		}
+		return path;
+	}
+	@Test
+	public void should_round_trip_kmers() {
+		for (int k : new int[] { 1, 4, 25, 31, 32 }) {
+			for (int length : new int[] { 1, 2, k, k + 1, 32, 33, 100 }) {
+				LongArrayList expected = kmers(k, RANDOM, length);
+				PackedKmerPath path = path(k, expected);
+				assertTrue(path.isPacked());
+				assertEquals(expected.size(), path.size());
+				for (int i = 0; i < expected.size(); i++) {
+					assertEquals(expected.getLong(i), path.get(i));
+				}
+				assertEquals(expected, path.toLongArrayList());
+			}
+		}
+	}
+	@Test
+	public void should_fall_back_to_explicit_kmers_when_not_successor() {
+		PackedKmerPath path = path(4, kmers(4, RANDOM, 10));
+		path.add(0);
+		path.add(7);
+		assertFalse(path.isPacked());
+		assertEquals(12, path.size());
+		assertEquals(kmers(4, RANDOM, 10).getLong(9), path.get(9));
+		assertEquals(0, path.get(10));
+		assertEquals(7, path.get(11));
+	}
+	@Test
+	public void unknown_kmer_size_should_store_kmers_explicitly() {
+		PackedKmerPath path = path(0, new LongArrayList(new long[] { 0, 1, 2, 3 }));
+		assertFalse(path.isPacked());
+		assertEquals(new LongArrayList(new long[] { 0, 1, 2, 3 }), path.toLongArrayList());
+	}
+	@Test
+	public void list_view_should_reflect_path_kmers() {
+		LongArrayList expected = kmers(25, RANDOM, 100);
+		PackedKmerPath path = path(25, expected);
+		LongList view = path.asList();
+		assertEquals(expected, view);
+		path.truncate(50);
+		assertEquals(expected.subList(0, 50), view);
+		path.add(0);
+		assertFalse(path.isPacked());
+		assertEquals(51, view.size());
+		assertEquals(0, view.getLong(50));
+	}
+	@Test(expected=UnsupportedOperationException.class)
+	public void list_view_should_be_read_only() {
+		path(25, kmers(25, RANDOM, 10)).asList().add(0);
+	}
+	@Test
+	public void truncate_should_remove_trailing_kmers() {
+		LongArrayList expected = kmers(25, RANDOM, 100);
+		PackedKmerPath path = path(25, expected);
+		path.truncate(40);
+		assertEquals(expected.subList(0, 40), path.toLongArrayList());
+		assertEquals(path(25, new LongArrayList(expected.subList(0, 40))), path);
+	}
+	@Test
+	public void subPath_should_return_kmers() {
+		LongArrayList expected = kmers(25, RANDOM, 100);
+		PackedKmerPath path = path(25, expected);
+		PackedKmerPath sub = path.subPath(37, 91);
+		assertTrue(sub.isPacked());
+		assertEquals(expected.subList(37, 91), sub.toLongArrayList());
+	}
+	@Test
+	public void addAll_should_append_path() {
+		LongArrayList expected = kmers(25, RANDOM, 100);
+		PackedKmerPath path = path(25, new LongArrayList(expected.subList(0, 33)));
+		path.addAll(path(25, new LongArrayList(expected.subList(33, 100))));
+		assertTrue(path.isPacked());
+		assertEquals(expected, path.toLongArrayList());
+	}
+	@Test
+	public void remove_should_remove_first_or_last_kmer() {
+		LongArrayList expected = kmers(25, RANDOM, 50);
+		PackedKmerPath path = path(25, expected);
+		path.remove(0);
+		path.remove(path.size() - 1);
+		assertTrue(path.isPacked());
+		assertEquals(expected.subList(1, 49), path.toLongArrayList());
+	}
+	@Test
+	public void equals_should_compare_kmers() {
+		LongArrayList kmers = kmers(25, RANDOM, 50);
+		PackedKmerPath packed = path(25, kmers);
+		PackedKmerPath explicit = path(0, kmers);
+		assertEquals(packed, explicit);
+		assertEquals(packed.hashCode(), explicit.hashCode());
+		assertEquals(packed, new PackedKmerPath(packed));
+		assertNotEquals(packed, path(25, kmers(25, RANDOM, 49)));
+	}
+}
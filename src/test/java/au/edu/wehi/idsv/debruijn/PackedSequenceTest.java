@@ -54,4 +54,16 @@ public class PackedSequenceTest extends TestHelper {
 		PackedSequence seq = new PackedSequence(B("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAC"), false, false);
 		assertEquals("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAC", S(seq.getBytes(0, 33)));
 	}
+	@Test
+	public void getBytes_should_write_into_buffer() {
+		String seq = "CATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATC";
+		PackedSequence ps = new PackedSequence(B(seq), false, false);
+		byte[] buffer = new byte[seq.length() + 2];
+		for (int start = 0; start < seq.length(); start++) {
+			for (int end = start; end <= seq.length(); end++) {
+				ps.getBytes(start, end - start, buffer, 1);
+				assertEquals(seq.substring(start, end), new String(buffer, 1, end - start));
+			}
+		}
+	}
 }
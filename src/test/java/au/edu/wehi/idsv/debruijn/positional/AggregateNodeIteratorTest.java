@@ -10,6 +10,7 @@ import java.util.List;
 import org.junit.Test;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import au.edu.wehi.idsv.DirectedEvidence;
 import au.edu.wehi.idsv.SAMEvidenceSource;
@@ -171,6 +172,22 @@ public class AggregateNodeIteratorTest extends TestHelper {
 		//		snList.stream().mapToInt(n -> (n.endPosition() - n.startPosition() + 1) * n.weight()).sum(),
 		//		anList.stream().mapToInt(n -> (n.endPosition() - n.startPosition() + 1) * n.weight()).sum());
 	}
+	@Test
+	public void should_read_support_directly_from_support_node_buffer() {
+		SAMEvidenceSource ses = SES(30, 60);
+		List<DirectedEvidence> input = new ArrayList<DirectedEvidence>();
+		input.add(NRRP(ses, withQual(new byte[] { 1,2,3,4,5}, withSequence("ACGTT", DP(0, 1, "5M", false, 1, 1, "5M", false)))));
+		input.add(NRRP(ses, withQual(new byte[] { 5,4,3,2,1}, withSequence("ACGTT", DP(0, 2, "5M", false, 1, 1, "5M", false)))));
+		input.addAll(SupportNodeIteratorTest.scrp(4, "ACGTTATACCG", 30, 60));
+		Collections.sort(input, DirectedEvidence.ByStartEnd);
+		List<KmerSupportNode> snList = Lists.newArrayList(new SupportNodeIterator(4, input.iterator(), 60, null, true, 0));
+		List<KmerNode> expected = Lists.newArrayList(new AggregateNodeIterator(snList.iterator()));
+		List<KmerNode> direct = Lists.newArrayList(new AggregateNodeIterator(new SupportNodeIterator(4, input.iterator(), 60, null, true, 0)));
+		assertTrue(KmerNodeUtil.ByLastStart.isOrdered(direct));
+		assertEquals(totalWeight(snList), totalWeight(direct));
+		assertEquals(Sets.newHashSet(expected), Sets.newHashSet(direct));
+		assertEquals(expected.size(), direct.size());
+	}
 	//@Test // expensive test to run
 	public void should_stream_input() {
 		AggregateNodeIterator agIt = new AggregateNodeIterator(new SupportNodeIterator(25, new RandomSoftClipIterator(), 100, null, false, 0));
@@ -59,4 +59,29 @@ public class EvidenceTrackerTest extends TestHelper {
 		tracker.remove(e);
 		assertFalse(tracker.isTracked(e.evidence().getEvidenceID()));
 	}
+	@Test
+	public void remove_should_only_untrack_given_evidence() {
+		int k = 4;
+		KmerEvidence e1 = KmerEvidence.create(k, SCE(FWD, Read(0, 1, "4M1S")));
+		KmerEvidence e2 = KmerEvidence.create(k, SCE(FWD, withReadName("r2", Read(0, 1, "4M1S"))[0]));
+		EvidenceTracker tracker = new EvidenceTracker();
+		tracker.track(e1, 0);
+		tracker.track(e1, 1);
+		tracker.track(e2, 0);
+		tracker.track(e2, 1);
+		assertEquals(2, tracker.tracking_evidenceActive());
+		assertEquals(4, tracker.tracking_supportNodeCount());
+		assertEquals(4, tracker.tracking_maxKmerSupportNodesCount());
+		tracker.remove(e1);
+		assertEquals(1, tracker.tracking_evidenceActive());
+		assertEquals(2, tracker.tracking_supportNodeCount());
+		Set<KmerEvidence> result = tracker.support(ImmutableList.of(new KmerPathSubnode(KPN(k, "AAAA", 1, 1, true))));
+		assertEquals(1, result.size());
+		assertEquals(e2, result.iterator().next());
+		result = tracker.untrack(ImmutableList.of(new KmerPathSubnode(KPN(k, "AAAA", 1, 1, true))));
+		assertEquals(1, result.size());
+		assertEquals(0, tracker.tracking_supportNodeCount());
+		assertEquals(0, tracker.tracking_kmerCount());
+		assertEquals(2, tracker.tracking_evidenceTotal());
+	}
 }
@@ -57,6 +57,33 @@ public class KmerPathNodeTest extends TestHelper {
 		assertEquals(4, pn.weight(2));
 	}
 	@Test
+	public void packed_path_should_split_and_prepend() {
+		int k = 25;
+		List<ImmutableKmerNode> nodes = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			nodes.add(new ImmutableKmerNode(K(S(RANDOM).substring(i, i + k)), i, i + 1, false, i + 1));
+		}
+		KmerPathNode pn = new KmerPathNode(nodes.get(0), k);
+		for (int i = 1; i < nodes.size(); i++) {
+			pn.append(nodes.get(i));
+		}
+		KmerPathNode split = pn.splitAtLength(40);
+		assertEquals(40, split.length());
+		assertEquals(60, pn.length());
+		for (int i = 0; i < 40; i++) {
+			assertEquals(nodes.get(i).lastKmer(), split.kmer(i));
+		}
+		for (int i = 0; i < 60; i++) {
+			assertEquals(nodes.get(40 + i).lastKmer(), pn.kmer(i));
+		}
+		pn.prepend(split);
+		assertEquals(100, pn.length());
+		LongArrayList kmers = pn.pathKmers();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(nodes.get(i).lastKmer(), kmers.getLong(i));
+		}
+	}
+	@Test
 	public void prepend_should_add_to_start() {
 		ImmutableKmerNode n0 = new ImmutableKmerNode(0, 1, 2, false, 2);
 		ImmutableKmerNode n1 = new ImmutableKmerNode(0, 1, 2, false, 2);
@@ -0,0 +1,41 @@
+package au.edu.wehi.idsv.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PrimitiveRectangleGraphMaximalCliqueCalculatorTest extends RectangleGraphMaximalCliqueCalculatorTest {
+	@Override
+	protected MaximalCliqueCalculator createCalculator() {
+		return new PrimitiveRectangleGraphMaximalCliqueCalculator();
+	}
+	private static List<RectangleGraphNode> cliques(MaximalCliqueCalculator calc, List<RectangleGraphNode> nodes) {
+		List<RectangleGraphNode> result = new ArrayList<>();
+		for (RectangleGraphNode n : nodes) {
+			result.addAll(calc.next(n));
+		}
+		result.addAll(calc.complete());
+		return result;
+	}
+	@Test
+	public void should_match_object_implementation() {
+		Random rng = new Random(0);
+		for (int i = 0; i < 1000; i++) {
+			int width = 2 + rng.nextInt(40);
+			List<RectangleGraphNode> nodes = new ArrayList<>();
+			for (int j = rng.nextInt(64); j >= 0; j--) {
+				long x = rng.nextInt(width);
+				long y = rng.nextInt(width);
+				nodes.add(new RectangleGraphNode(x, x + rng.nextInt(10), y, y + rng.nextInt(10), 1 + rng.nextInt(5)));
+			}
+			nodes.sort(RectangleGraphNode.ByStartXYEndXY);
+			assertEquals(
+					cliques(new RectangleGraphMaximalCliqueCalculator(), nodes).toString(),
+					cliques(new PrimitiveRectangleGraphMaximalCliqueCalculator(), nodes).toString());
+		}
+	}
+}
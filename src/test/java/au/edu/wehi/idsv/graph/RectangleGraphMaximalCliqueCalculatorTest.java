@@ -17,10 +17,13 @@ public class RectangleGraphMaximalCliqueCalculatorTest {
 	private RectangleGraphNode N(long startX, long endX, long startY, long endY, int weight) {
 		return new RectangleGraphNode(startX, endX, startY, endY, weight);
 	}
-	RectangleGraphMaximalCliqueCalculator graph; 
+	MaximalCliqueCalculator graph; 
+	protected MaximalCliqueCalculator createCalculator() {
+		return new RectangleGraphMaximalCliqueCalculator();
+	}
 	private RectangleGraphNode[] getCliques(RectangleGraphNode[] nodes) {
 		Arrays.sort(nodes, 0, nodes.length, RectangleGraphNode.ByStartXYEndXY);
-		graph = new RectangleGraphMaximalCliqueCalculator();
+		graph = createCalculator();
 		List<RectangleGraphNode> result = Lists.newArrayList();
 		for (int i = 0; i < nodes.length; i++) {
 			result.addAll(graph.next(nodes[i]));
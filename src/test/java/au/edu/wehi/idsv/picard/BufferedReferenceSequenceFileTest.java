@@ -8,6 +8,10 @@ import java.util.stream.Collectors;
 import org.junit.Test;
 
 import au.edu.wehi.idsv.TestHelper;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
 
 
 public class BufferedReferenceSequenceFileTest extends TestHelper {
@@ -47,4 +51,44 @@ public class BufferedReferenceSequenceFileTest extends TestHelper {
 		assertEquals('T', b.getBase(0, 5));
 		b.close();
 	}
+	@Test
+	public void should_return_ambiguous_bases_as_N() throws IOException {
+		SAMSequenceDictionary dict = new SAMSequenceDictionary();
+		dict.addSequence(new SAMSequenceRecord("test", 6));
+		ReferenceSequenceFile underlying = new ReferenceSequenceFile() {
+			@Override
+			public SAMSequenceDictionary getSequenceDictionary() {
+				return dict;
+			}
+			@Override
+			public ReferenceSequence nextSequence() {
+				return null;
+			}
+			@Override
+			public void reset() {
+			}
+			@Override
+			public boolean isIndexed() {
+				return true;
+			}
+			@Override
+			public ReferenceSequence getSequence(String contig) {
+				return new ReferenceSequence("test", 0, B("NARYTn"));
+			}
+			@Override
+			public ReferenceSequence getSubsequenceAt(String contig, long start, long stop) {
+				throw new UnsupportedOperationException();
+			}
+			@Override
+			public void close() {
+			}
+		};
+		BufferedReferenceSequenceFile b = new BufferedReferenceSequenceFile(underlying);
+		byte[] buffer = new byte[8];
+		b.getBases(0, 2, buffer, 1, 4);
+		assertEquals("ANNT", S(buffer).substring(1, 5));
+		assertEquals('N', b.getBase(0, 4));
+		assertEquals("NANNTN", S(b.getSequence("test").getBases()));
+		b.close();
+	}
 }
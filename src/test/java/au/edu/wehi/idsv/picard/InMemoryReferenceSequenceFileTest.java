@@ -25,4 +25,14 @@ public class InMemoryReferenceSequenceFileTest extends TestHelper {
 			assertEquals("CCCAAT", S(ref.getSubsequenceAt("0", 1, 6).getBases()));
 		 }
 	}
+	@Test
+	public void should_return_ambiguous_bases_as_N() throws IOException {
+		try (InMemoryReferenceSequenceFile ref = new InMemoryReferenceSequenceFile(new String[] { "0" }, new byte[][] { B("NARYTn") })) {
+			byte[] buffer = new byte[6];
+			ref.getBases(0, 1, buffer, 0, 6);
+			assertEquals("NANNTN", S(buffer));
+			assertEquals('N', ref.getBase(0, 3));
+			assertEquals("ANN", S(ref.getSubsequenceAt("0", 2, 4).getBases()));
+		}
+	}
 }
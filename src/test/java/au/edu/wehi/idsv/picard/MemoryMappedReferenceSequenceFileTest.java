@@ -0,0 +1,81 @@
+package au.edu.wehi.idsv.picard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+
+
+public class MemoryMappedReferenceSequenceFileTest extends IntermediateFilesTest {
+	private static byte[] randomBases(Random rng, int length) {
+		byte[] bases = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bases[i] = (byte)"ACGTN".charAt(rng.nextInt(rng.nextInt(8) == 0 ? 5 : 4));
+		}
+		return bases;
+	}
+	private InMemoryReferenceSequenceFile createReference() {
+		Random rng = new Random(0);
+		return new InMemoryReferenceSequenceFile(
+				new String[] { "empty", "short", "word", "long" },
+				new byte[][] { new byte[0], B("NANNT"), randomBases(rng, 64), randomBases(rng, 1000) });
+	}
+	private MemoryMappedReferenceSequenceFile createImage(InMemoryReferenceSequenceFile ref) throws IOException {
+		File fasta = testFolder.newFile("ref.fa");
+		File image = MemoryMappedReferenceSequenceFile.getImageFile(fasta);
+		assertFalse(MemoryMappedReferenceSequenceFile.isCurrent(fasta, image));
+		MemoryMappedReferenceSequenceFile.write(fasta, ref, image);
+		assertTrue(MemoryMappedReferenceSequenceFile.isCurrent(fasta, image));
+		return new MemoryMappedReferenceSequenceFile(image);
+	}
+	@Test
+	public void should_match_sequence_dictionary() throws IOException {
+		InMemoryReferenceSequenceFile ref = createReference();
+		MemoryMappedReferenceSequenceFile mm = createImage(ref);
+		assertEquals(ref.getSequenceDictionary().size(), mm.getSequenceDictionary().size());
+		for (int i = 0; i < ref.getSequenceDictionary().size(); i++) {
+			assertEquals(ref.getSequenceDictionary().getSequence(i).getSequenceName(), mm.getSequenceDictionary().getSequence(i).getSequenceName());
+			assertEquals(ref.getSequenceDictionary().getSequence(i).getSequenceLength(), mm.getSequenceDictionary().getSequence(i).getSequenceLength());
+		}
+		mm.close();
+	}
+	@Test
+	public void getBasesShouldMatchUnderlying() throws IOException {
+		InMemoryReferenceSequenceFile ref = createReference();
+		MemoryMappedReferenceSequenceFile mm = createImage(ref);
+		for (int referenceIndex = 1; referenceIndex < ref.getSequenceDictionary().size(); referenceIndex++) {
+			String contig = ref.getSequenceDictionary().getSequence(referenceIndex).getSequenceName();
+			byte[] bases = ref.getSequence(contig).getBases();
+			assertArrayEquals(bases, mm.getSequence(contig).getBases());
+			for (int start = 1; start <= Math.min(bases.length, 150); start++) {
+				assertEquals(ref.getBase(referenceIndex, start), mm.getBase(referenceIndex, start));
+				for (int end = start; end <= Math.min(bases.length, start + 140); end++) {
+					assertArrayEquals(ref.getSubsequenceAt(contig, start, end).getBases(), mm.getSubsequenceAt(contig, start, end).getBases());
+					byte[] buffer = new byte[end - start + 3];
+					mm.getBases(referenceIndex, start, buffer, 2, end - start + 1);
+					for (int i = start; i <= end; i++) {
+						assertEquals(bases[i - 1], buffer[i - start + 2]);
+					}
+				}
+			}
+		}
+		mm.close();
+	}
+	@Test
+	public void should_detect_stale_image() throws IOException {
+		InMemoryReferenceSequenceFile ref = createReference();
+		createImage(ref).close();
+		File fasta = new File(testFolder.getRoot(), "ref.fa");
+		File image = MemoryMappedReferenceSequenceFile.getImageFile(fasta);
+		assertTrue(fasta.setLastModified(fasta.lastModified() - 10000));
+		assertFalse(MemoryMappedReferenceSequenceFile.isCurrent(fasta, image));
+	}
+}
@@ -47,4 +47,22 @@ public class TwoBitBufferedReferenceSequenceFileTest extends TestHelper {
 		assertEquals('T', b.getBase(0, 5));
 		b.close();
 	}
+	@Test
+	public void getBases_should_match_getSubsequenceAt() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append(i % 7 == 0 || (i > 60 && i < 70) ? 'N' : "ACGT".charAt(i % 4));
+		}
+		String seq = sb.toString();
+		TwoBitBufferedReferenceSequenceFile b = new TwoBitBufferedReferenceSequenceFile(new InMemoryReferenceSequenceFile(new String[] { "test" }, new byte[][] { B(seq) }));
+		byte[] buffer = new byte[seq.length() + 1];
+		for (int start = 1; start <= seq.length(); start++) {
+			for (int end = start; end <= seq.length(); end++) {
+				b.getBases(0, start, buffer, 1, end - start + 1);
+				assertEquals(seq.substring(start - 1, end), new String(buffer, 1, end - start + 1));
+				assertEquals(S(b.getSubsequenceAt("test", start, end).getBases()), new String(buffer, 1, end - start + 1));
+			}
+		}
+		b.close();
+	}
 }
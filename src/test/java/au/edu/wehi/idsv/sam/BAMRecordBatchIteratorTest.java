@@ -0,0 +1,45 @@
+package au.edu.wehi.idsv.sam;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+
+
+public class BAMRecordBatchIteratorTest extends IntermediateFilesTest {
+	@Test
+	public void should_read_all_records_in_order() {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 1; i <= 1000; i++) {
+			SAMRecord r = Read(i % 2, i, "5S10M");
+			r.setReadName("r" + i);
+			in.add(r);
+		}
+		File bam = new File(testFolder.getRoot(), "batch.bam");
+		createBAM(bam, SortOrder.coordinate, in);
+		List<SAMRecord> expected = getRecords(bam);
+		List<SAMRecord> out = new ArrayList<>();
+		try (BAMRecordBatchIterator it = new BAMRecordBatchIterator(bam, 7)) {
+			assertEquals(SortOrder.coordinate, it.getFileHeader().getSortOrder());
+			assertEquals(getHeader().getSequenceDictionary().size(), it.getFileHeader().getSequenceDictionary().size());
+			while (it.hasNext()) {
+				List<SAMRecord> batch = it.next();
+				for (SAMRecord r : batch) {
+					r.eagerDecode();
+					out.add(r);
+				}
+			}
+		}
+		assertEquals(expected.size(), out.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getSAMString(), out.get(i).getSAMString());
+		}
+	}
+}
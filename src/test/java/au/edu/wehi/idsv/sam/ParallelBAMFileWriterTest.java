@@ -0,0 +1,69 @@
+package au.edu.wehi.idsv.sam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+
+public class ParallelBAMFileWriterTest extends IntermediateFilesTest {
+	@Test
+	public void should_sort_records_and_create_index() throws IOException {
+		File bam = new File(testFolder.getRoot(), "out.bam");
+		SAMFileHeader header = getHeader();
+		header.setSortOrder(SortOrder.coordinate);
+		try (SAMFileWriter writer = new ParallelSAMFileWriterFactory().setCreateIndex(true).makeSAMOrBAMWriter(header, false, bam)) {
+			for (int i = 1000; i > 0; i--) {
+				SAMRecord r = Read(0, i, "10M");
+				r.setReadName("r" + i);
+				writer.addAlignment(r);
+			}
+		}
+		List<SAMRecord> out = getRecords(bam);
+		assertEquals(1000, out.size());
+		for (int i = 0; i < out.size(); i++) {
+			assertEquals(i + 1, out.get(i).getAlignmentStart());
+		}
+		assertTrue(new File(testFolder.getRoot(), "out.bai").exists());
+	}
+	@Test
+	public void index_should_be_built_while_writing() throws IOException {
+		File bam = new File(testFolder.getRoot(), "out.bam");
+		SAMFileHeader header = getHeader();
+		header.setSortOrder(SortOrder.coordinate);
+		try (SAMFileWriter writer = new ParallelSAMFileWriterFactory().setCreateIndex(true).makeSAMOrBAMWriter(header, true, bam)) {
+			// enough records to span many BGZF blocks
+			for (int i = 1; i <= 9000; i++) {
+				SAMRecord r = Read(0, i, "50M");
+				r.setReadName("read" + i);
+				writer.addAlignment(r);
+			}
+		}
+		try (SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+			assertTrue(reader.hasIndex());
+			for (int start = 1; start < 8800; start += 777) {
+				List<SAMRecord> overlapping = Lists.newArrayList(reader.queryOverlapping(new QueryInterval[] { new QueryInterval(0, start, start + 100) }));
+				// reads overlapping [start, start + 100] start in [start - 49, start + 100]
+				assertEquals(Math.min(150, start + 100), overlapping.size());
+				for (SAMRecord r : overlapping) {
+					assertTrue(r.getAlignmentEnd() >= start && r.getAlignmentStart() <= start + 100);
+				}
+			}
+		}
+	}
+}
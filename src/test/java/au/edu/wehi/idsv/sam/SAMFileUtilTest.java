@@ -13,6 +13,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
 
 import au.edu.wehi.idsv.IntermediateFilesTest;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 
@@ -35,6 +36,19 @@ public class SAMFileUtilTest extends IntermediateFilesTest {
 		assertTrue(Ordering.from(SortOrder.coordinate.getComparatorInstance()).isOrdered(list));
 	}
 	@Test
+	public void merge_should_merge_record_streams_in_order() throws IOException {
+		SAMFileHeader header = getHeader().clone();
+		header.setSortOrder(SortOrder.coordinate);
+		SAMFileUtil.merge(header, ImmutableList.of(
+				ImmutableList.of(Read(0, 1, "1M"), Read(0, 4, "1M"), Read(1, 1, "1M")).iterator(),
+				ImmutableList.<SAMRecord>of().iterator(),
+				ImmutableList.of(Read(0, 2, "1M"), Read(0, 3, "1M"), Read(0, 6, "1M")).iterator()),
+				output, new ParallelSAMFileWriterFactory());
+		List<SAMRecord> list = getRecords(output);
+		assertEquals(6, list.size());
+		assertTrue(Ordering.from(SortOrder.coordinate.getComparatorInstance()).isOrdered(list));
+	}
+	@Test
 	public void sort_should_match_output_order() throws IOException {
 		File output = testFolder.newFile("output.bam");
 		createBAM(input, SortOrder.unsorted,
@@ -45,6 +59,22 @@ public class SAMFileUtilTest extends IntermediateFilesTest {
 		assertTrue(Ordering.from(SortOrder.coordinate.getComparatorInstance()).isOrdered(getRecords(output)));
 	}
 	@Test
+	public void sort_should_sort_nearly_sorted_input() throws IOException {
+		File output = testFolder.newFile("output.bam");
+		createBAM(input, SortOrder.unsorted,
+				Read(0, 1, "1M"),
+				Read(0, 3, "1M"),
+				Read(0, 2, "1M"),
+				Read(0, 4, "1M"),
+				Read(1, 1, "1M"),
+				Read(0, 5, "1M"),
+				Read(1, 2, "1M"));
+		SAMFileUtil.sort(getFSContext(), input, output, SortOrder.coordinate);
+		List<SAMRecord> list = getRecords(output);
+		assertEquals(7, list.size());
+		assertTrue(Ordering.from(SortOrder.coordinate.getComparatorInstance()).isOrdered(list));
+	}
+	@Test
 	public void sort_should_copy_file_for_matching_sort_order() throws IOException {
 		File output = testFolder.newFile("output.bam");
 		createBAM(input, SortOrder.queryname,
@@ -0,0 +1,67 @@
+package au.edu.wehi.idsv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+
+import au.edu.wehi.idsv.util.AsyncBufferedIteratorTest.CIT;
+
+
+public class AsyncFanOutIteratorTest {
+	@Test
+	public void should_partition_records_in_order() {
+		List<Integer> list = Ints.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12);
+		try (AsyncFanOutIterator<Integer> it = new AsyncFanOutIterator<>(list.iterator(), 2, x -> x % 2, "test", 100, 3)) {
+			assertEquals(Ints.asList(0, 2, 4, 6, 8, 10, 12), Lists.newArrayList(it.getOutput(0)));
+			assertEquals(Ints.asList(1, 3, 5, 7, 9, 11), Lists.newArrayList(it.getOutput(1)));
+		}
+	}
+	@Test
+	public void should_drop_negative_partitions() {
+		List<Integer> list = Ints.asList(0, 1, 2, 3, 4, 5);
+		try (AsyncFanOutIterator<Integer> it = new AsyncFanOutIterator<>(list.iterator(), 1, x -> x % 2 == 0 ? 0 : -1, "test", 1, 1)) {
+			assertEquals(Ints.asList(0, 2, 4), Lists.newArrayList(it.getOutput(0)));
+		}
+	}
+	@Test
+	public void should_allow_concurrent_consumption() throws InterruptedException, ExecutionException {
+		ExecutorService threadpool = Executors.newFixedThreadPool(3);
+		try (AsyncFanOutIterator<Integer> it = new AsyncFanOutIterator<>(new CIT(100000), 3, x -> x % 3, "test", 2, 16)) {
+			List<Future<Integer>> counts = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				int output = i;
+				counts.add(threadpool.submit(() -> Lists.newArrayList(it.getOutput(output)).size()));
+			}
+			int total = 0;
+			for (Future<Integer> f : counts) {
+				total += f.get();
+			}
+			assertEquals(100000, total);
+		} finally {
+			threadpool.shutdown();
+		}
+	}
+	@Test
+	public void close_should_close_underlying() throws InterruptedException {
+		CIT cit = new CIT(100000);
+		AsyncFanOutIterator<Integer> it = new AsyncFanOutIterator<>(cit, 2, x -> x % 2, "test", 1, 1);
+		it.getOutput(0).next();
+		it.close();
+		assertTrue(cit.isClosed);
+		// remaining outputs should terminate
+		Lists.newArrayList(it.getOutput(1));
+		assertFalse(it.getOutput(0).hasNext() && it.getOutput(1).hasNext());
+	}
+}
@@ -0,0 +1,116 @@
+package au.edu.wehi.idsv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class OffHeapBestScoreTableTest {
+	@Test
+	public void should_retain_first_best_score() {
+		try (OffHeapBestScoreTable table = new OffHeapBestScoreTable(10)) {
+			assertTrue(table.putIfBetter(1, 2, 10, 1, 1, 100, 1));
+			assertTrue(table.putIfBetter(1, 2, 20, 2, 2, 200, 2));
+			assertFalse(table.putIfBetter(1, 2, 30, 3, 2, 300, 3));
+			assertFalse(table.putIfBetter(1, 2, 40, 4, 1, 400, 4));
+			assertEquals(2, table.getScore(1, 2), 0);
+			assertTrue(table.isBestEvent(1, 2, 20, 2));
+			assertFalse(table.isBestEvent(1, 2, 30, 3));
+			assertTrue(table.isBestAlignment(1, 2, 200, 2));
+			assertFalse(table.isBestAlignment(1, 2, 200, 3));
+			assertEquals(1, table.size());
+		}
+	}
+	@Test
+	public void should_distinguish_keys() {
+		try (OffHeapBestScoreTable table = new OffHeapBestScoreTable(10)) {
+			table.putIfBetter(0, 0, 1, 1, 1, 1, 1);
+			table.putIfBetter(0, 1, 2, 2, 2, 2, 2);
+			table.putIfBetter(1, 0, 3, 3, 3, 3, 3);
+			assertEquals(3, table.size());
+			assertTrue(table.isBestEvent(0, 0, 1, 1));
+			assertTrue(table.isBestEvent(0, 1, 2, 2));
+			assertTrue(table.isBestEvent(1, 0, 3, 3));
+			assertFalse(table.isBestEvent(1, 1, 0, 0));
+			assertFalse(table.isBestAlignment(1, 1, 0, 0));
+			assertTrue(Float.isNaN(table.getScore(1, 1)));
+		}
+	}
+	@Test
+	public void should_resolve_collisions_by_probing() {
+		try (OffHeapBestScoreTable table = new OffHeapBestScoreTable(10)) {
+			int n = (int)table.capacity();
+			for (int i = 0; i < n; i++) {
+				assertTrue(table.putIfBetter(i, i, i, i, i, i, i));
+			}
+			for (int i = 0; i < n; i++) {
+				assertTrue(table.isBestAlignment(i, i, i, i));
+			}
+			assertEquals(n, table.size());
+		}
+	}
+	@Test
+	public void should_allocate_native_memory_on_demand() {
+		try (OffHeapBestScoreTable table = new OffHeapBestScoreTable(100000000)) {
+			assertEquals(0, table.allocatedBytes());
+			assertFalse(table.isBestEvent(1, 2, 10, 1));
+			assertEquals(0, table.allocatedBytes());
+			assertTrue(table.putIfBetter(1, 2, 10, 1, 1, 100, 1));
+			assertTrue(table.allocatedBytes() > 0);
+			assertTrue(table.allocatedBytes() < table.capacity());
+			assertTrue(table.isBestEvent(1, 2, 10, 1));
+		}
+	}
+	@Test(expected=IllegalStateException.class)
+	public void should_not_allow_access_after_close() {
+		OffHeapBestScoreTable table = new OffHeapBestScoreTable(10);
+		table.close();
+		table.putIfBetter(1, 2, 10, 1, 1, 100, 1);
+	}
+	@Test(expected=IllegalStateException.class)
+	public void should_fail_when_full() {
+		try (OffHeapBestScoreTable table = new OffHeapBestScoreTable(10)) {
+			for (long i = 0; i <= table.capacity(); i++) {
+				table.putIfBetter(i, 0, 0, 0, 0, 0, 0);
+			}
+		}
+	}
+	@Test
+	public void should_keep_best_score_under_concurrent_updates() throws InterruptedException, ExecutionException {
+		int threads = 8;
+		int keys = 1000;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try (OffHeapBestScoreTable table = new OffHeapBestScoreTable(keys)) {
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				tasks.add(pool.submit(() -> {
+					for (int score = 0; score < 100; score++) {
+						for (int key = 0; key < keys; key++) {
+							table.putIfBetter(key, 0, thread, 0, score * threads + thread, thread, 0);
+						}
+					}
+				}));
+			}
+			for (Future<?> f : tasks) {
+				f.get();
+			}
+			assertEquals(keys, table.size());
+			for (int key = 0; key < keys; key++) {
+				assertEquals(99 * threads + threads - 1, table.getScore(key, 0), 0);
+				assertTrue(table.isBestEvent(key, 0, threads - 1, 0));
+				assertTrue(table.isBestAlignment(key, 0, threads - 1, 0));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package au.edu.wehi.idsv.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+
+public class ParallelBlockCompressedInputStreamTest {
+	private static byte[] compress(byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(bytes, null)) {
+			out.write(data);
+		}
+		return bytes.toByteArray();
+	}
+	private static byte[] decompress(byte[] compressed, int maxBlocksInFlight) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try (ParallelBlockCompressedInputStream in = new ParallelBlockCompressedInputStream(new ByteArrayInputStream(compressed), "test", pool, maxBlocksInFlight)) {
+			return ByteStreams.toByteArray(in);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	@Test
+	public void should_round_trip_multiple_blocks() throws IOException {
+		byte[] data = new byte[7 * 65536 + 3];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)("ACGT".charAt(i % 5 % 4));
+		}
+		assertArrayEquals(data, decompress(compress(data), 3));
+	}
+	@Test
+	public void should_round_trip_incompressible_data() throws IOException {
+		byte[] data = new byte[3 * 65536];
+		new Random(0).nextBytes(data);
+		assertArrayEquals(data, decompress(compress(data), 1));
+	}
+	@Test
+	public void should_read_empty_stream() throws IOException {
+		assertArrayEquals(new byte[0], decompress(compress(new byte[0]), 2));
+	}
+	@Test(expected=IOException.class)
+	public void should_fail_on_truncated_block() throws IOException {
+		byte[] data = new byte[1000];
+		new Random(0).nextBytes(data);
+		byte[] compressed = compress(data);
+		byte[] truncated = new byte[100];
+		System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+		decompress(truncated, 2);
+	}
+}
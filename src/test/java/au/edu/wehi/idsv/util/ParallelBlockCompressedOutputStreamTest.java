@@ -0,0 +1,124 @@
+package au.edu.wehi.idsv.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+import htsjdk.samtools.seekablestream.SeekableMemoryStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+
+public class ParallelBlockCompressedOutputStreamTest {
+	private static byte[] roundTrip(byte[] data, int threads, int maxBlocksInFlight) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(bytes, 5, pool, maxBlocksInFlight)) {
+				out.write(data);
+			}
+			try (BlockCompressedInputStream in = new BlockCompressedInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+				return ByteStreams.toByteArray(in);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	@Test
+	public void should_round_trip_multiple_blocks() throws IOException {
+		byte[] data = new byte[5 * ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE + 17];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)("ACGT".charAt(i % 7 % 4));
+		}
+		assertArrayEquals(data, roundTrip(data, 4, 3));
+	}
+	@Test
+	public void should_round_trip_incompressible_data() throws IOException {
+		byte[] data = new byte[3 * ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE];
+		new Random(0).nextBytes(data);
+		assertArrayEquals(data, roundTrip(data, 2, 1));
+	}
+	@Test
+	public void should_write_bgzf_eof_marker() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try (ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(bytes, 5, pool, 1)) {
+			out.write(new byte[] { 1, 2, 3 });
+		}
+		pool.shutdown();
+		byte[] result = bytes.toByteArray();
+		byte[] eof = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+		assertTrue(result.length > eof.length);
+		for (int i = 0; i < eof.length; i++) {
+			assertEquals(eof[i], result[result.length - eof.length + i]);
+		}
+	}
+	@Test
+	public void close_should_close_underlying_stream_when_write_fails() {
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		boolean[] closed = new boolean[1];
+		OutputStream failing = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("write failed");
+			}
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+		try {
+			ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(failing, 5, pool, 2);
+			out.write(new byte[] { 1, 2, 3 });
+			try {
+				out.close();
+			} catch (IOException e) {
+				// expected
+			}
+			assertTrue(closed[0]);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	@Test
+	public void block_position_should_resolve_to_virtual_file_pointer() throws IOException {
+		byte[] data = new byte[4 * ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE + 123];
+		new Random(0).nextBytes(data);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		List<Long> blockAddress = new ArrayList<>();
+		blockAddress.add(0L);
+		long[] position = new long[data.length];
+		try (ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(bytes, 5, pool, 2)) {
+			out.setBlockWrittenListener(address -> blockAddress.add(address));
+			for (int i = 0; i < data.length; i++) {
+				position[i] = out.getBlockPosition();
+				out.write(data[i]);
+			}
+		}
+		pool.shutdown();
+		try (BlockCompressedInputStream in = new BlockCompressedInputStream(new SeekableMemoryStream(bytes.toByteArray(), "test"))) {
+			for (int i = 0; i < data.length; i += 1009) {
+				long virtualFilePointer = (blockAddress.get((int)(position[i] >>> 16)) << 16) | (position[i] & 0xffff);
+				in.seek(virtualFilePointer);
+				assertEquals(data[i], (byte)in.read());
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package au.edu.wehi.idsv.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+
+public class ParallelSortingCollectionTest {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	/**
+	 * Encodes (key, ordinal) pairs
+	 */
+	private static class PairCodec implements SortingCollection.Codec<long[]> {
+		private DataOutputStream out;
+		private DataInputStream in;
+		@Override
+		public void setOutputStream(OutputStream os) {
+			out = new DataOutputStream(os);
+		}
+		@Override
+		public void setInputStream(InputStream is) {
+			in = new DataInputStream(is);
+		}
+		@Override
+		public void encode(long[] val) {
+			try {
+				out.writeLong(val[0]);
+				out.writeLong(val[1]);
+			} catch (IOException e) {
+				throw new RuntimeIOException(e);
+			}
+		}
+		@Override
+		public long[] decode() {
+			try {
+				long key = in.readLong();
+				return new long[] { key, in.readLong() };
+			} catch (EOFException e) {
+				return null;
+			} catch (IOException e) {
+				throw new RuntimeIOException(e);
+			}
+		}
+		@Override
+		public PairCodec clone() {
+			return new PairCodec();
+		}
+	}
+	private static final Comparator<long[]> BY_KEY = Comparator.comparingLong(x -> x[0]);
+	private int runCount;
+	private int filesOnDisk;
+	private List<long[]> sort(List<long[]> input, int maxRecordsInRam, int runsInFlight) {
+		return sort(input, maxRecordsInRam, runsInFlight, ParallelSortingCollection.DEFAULT_MAX_MERGE_FAN_IN);
+	}
+	private List<long[]> sort(List<long[]> input, int maxRecordsInRam, int runsInFlight, int maxMergeFanIn) {
+		ExecutorService pool = Executors.newFixedThreadPool(runsInFlight);
+		try {
+			ParallelSortingCollection<long[]> collection = new ParallelSortingCollection<>(new PairCodec(), BY_KEY, maxRecordsInRam, testFolder.getRoot(), pool, runsInFlight, maxMergeFanIn);
+			for (long[] v : input) {
+				collection.add(v);
+			}
+			collection.doneAdding();
+			filesOnDisk = testFolder.getRoot().listFiles().length;
+			List<long[]> result = new ArrayList<>();
+			try (CloseableIterator<long[]> it = collection.iterator()) {
+				while (it.hasNext()) {
+					result.add(it.next());
+				}
+			}
+			runCount = collection.getRunCount();
+			collection.cleanup();
+			return result;
+		} finally {
+			pool.shutdown();
+		}
+	}
+	private static void assertStableSort(List<long[]> input, List<long[]> result) {
+		List<long[]> expected = new ArrayList<>(input);
+		expected.sort(BY_KEY);
+		assertEquals(expected.size(), result.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), result.get(i));
+		}
+	}
+	@Test
+	public void should_sort_in_memory() {
+		List<long[]> input = new ArrayList<>();
+		Random rng = new Random(0);
+		for (int i = 0; i < 100; i++) {
+			input.add(new long[] { rng.nextInt(10), i });
+		}
+		assertStableSort(input, sort(input, 1000, 1));
+		assertEquals(0, runCount);
+	}
+	@Test
+	public void should_spill_runs() {
+		List<long[]> input = new ArrayList<>();
+		Random rng = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			input.add(new long[] { rng.nextInt(100), i });
+		}
+		assertStableSort(input, sort(input, 1000, 4));
+		assertEquals(40, runCount);
+	}
+	@Test
+	public void run_size_should_not_depend_on_runs_in_flight() {
+		List<long[]> input = new ArrayList<>();
+		Random rng = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			input.add(new long[] { rng.nextInt(100), i });
+		}
+		sort(input, 1000, 1);
+		int serialRunCount = runCount;
+		sort(input, 1000, 16);
+		assertEquals(serialRunCount, runCount);
+	}
+	@Test
+	public void should_merge_runs_exceeding_fan_in() {
+		List<long[]> input = new ArrayList<>();
+		Random rng = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			input.add(new long[] { rng.nextInt(100), i });
+		}
+		// 400 runs of 25 records require two intermediate merge passes
+		assertStableSort(input, sort(input, 100, 3, 8));
+		assertEquals(7, runCount);
+		// merged runs are deleted
+		assertEquals(runCount, filesOnDisk);
+		assertEquals(0, testFolder.getRoot().listFiles().length);
+	}
+	@Test
+	public void should_sort_nearly_sorted_input() {
+		List<long[]> input = new ArrayList<>();
+		Random rng = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			input.add(new long[] { i / 3 + rng.nextInt(3), i });
+		}
+		assertStableSort(input, sort(input, 300, 2));
+	}
+	@Test
+	public void should_handle_run_boundaries() {
+		Random rng = new Random(0);
+		for (int n = 0; n < 50; n++) {
+			List<long[]> input = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				input.add(new long[] { rng.nextInt(5), i });
+			}
+			assertStableSort(input, sort(input, 1 + rng.nextInt(20), 1 + rng.nextInt(3)));
+		}
+	}
+}
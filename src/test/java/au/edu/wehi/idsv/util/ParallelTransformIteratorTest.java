@@ -1,6 +1,7 @@
 package au.edu.wehi.idsv.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -56,4 +57,24 @@ public class ParallelTransformIteratorTest {
 		for (int i = 32; i > 0; i--) assertEquals(i, (int)it.next());
 		threadpool.shutdown();
 	}
+	@Test
+	public void should_rethrow_transform_exception_on_consumer_thread() {
+		ExecutorService threadpool = Executors.newFixedThreadPool(4);
+		try {
+			CIT cit = new CIT(32);
+			ParallelTransformIterator<Integer, Integer> it = new ParallelTransformIterator<Integer, Integer>(cit, n -> {
+				if (n == 16) throw new IllegalStateException("transform failed");
+				return n;
+			}, 4, threadpool);
+			for (int i = 32; i > 16; i--) assertEquals(i, (int)it.next());
+			try {
+				it.next();
+				fail();
+			} catch (IllegalStateException e) {
+				assertEquals("transform failed", e.getMessage());
+			}
+		} finally {
+			threadpool.shutdown();
+		}
+	}
 }
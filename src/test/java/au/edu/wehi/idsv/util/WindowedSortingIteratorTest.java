@@ -0,0 +1,100 @@
+package au.edu.wehi.idsv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+public class WindowedSortingIteratorTest {
+	private static class LongCodec implements SortingCollection.Codec<Long> {
+		private DataOutputStream os;
+		private DataInputStream is;
+		@Override
+		public void setOutputStream(OutputStream os) {
+			this.os = new DataOutputStream(os);
+		}
+		@Override
+		public void setInputStream(InputStream is) {
+			this.is = new DataInputStream(is);
+		}
+		@Override
+		public void encode(Long val) {
+			try {
+				os.writeLong(val);
+			} catch (IOException e) {
+				throw new RuntimeIOException(e);
+			}
+		}
+		@Override
+		public Long decode() {
+			try {
+				return is.readLong();
+			} catch (EOFException e) {
+				return null;
+			} catch (IOException e) {
+				throw new RuntimeIOException(e);
+			}
+		}
+		@Override
+		public LongCodec clone() {
+			return new LongCodec();
+		}
+	}
+	private static List<Long> shuffledWithinWindow(int n, int windowSize) {
+		Random rnd = new Random(0);
+		List<Long> list = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			list.add((long)(i / 100 + rnd.nextInt(windowSize)));
+		}
+		return list;
+	}
+	@Test
+	public void should_sort_within_window() {
+		List<Long> input = shuffledWithinWindow(10000, 10);
+		WindowedSortingIterator<Long> it = new WindowedSortingIterator<>(input.iterator(), x -> x, 10);
+		List<Long> expected = Lists.newArrayList(input);
+		Collections.sort(expected);
+		assertEquals(expected, Lists.newArrayList(it));
+	}
+	@Test
+	public void should_spill_window_exceeding_memory_limit() {
+		List<Long> input = shuffledWithinWindow(10000, 10);
+		WindowedSortingIterator<Long> it = new WindowedSortingIterator<>(input.iterator(), x -> x, 10, Ordering.<Long>natural(), new LongCodec(), 100, null);
+		List<Long> result = new ArrayList<>();
+		while (it.hasNext()) {
+			result.add(it.next());
+			assertTrue(it.currentTrackedBufferSizes().get(0).size <= 101 + it.getSpilledRecordCount() / 100);
+		}
+		List<Long> expected = Lists.newArrayList(input);
+		Collections.sort(expected);
+		assertEquals(expected, result);
+		assertTrue(it.getSpilledRecordCount() > 0);
+		assertEquals(0, it.currentTrackedBufferSizes().get(1).size);
+	}
+	@Test
+	public void should_not_spill_within_memory_limit() {
+		List<Long> input = shuffledWithinWindow(10000, 10);
+		WindowedSortingIterator<Long> it = new WindowedSortingIterator<>(input.iterator(), x -> x, 10, Ordering.<Long>natural(), new LongCodec(), 100000, null);
+		List<Long> expected = Lists.newArrayList(input);
+		Collections.sort(expected);
+		assertEquals(expected, Lists.newArrayList(it));
+		assertEquals(0, it.getSpilledRecordCount());
+	}
+}
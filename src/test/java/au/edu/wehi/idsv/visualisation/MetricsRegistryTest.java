@@ -0,0 +1,108 @@
+package au.edu.wehi.idsv.visualisation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class MetricsRegistryTest {
+	private static String write(MetricsRegistry registry) throws IOException {
+		StringWriter sw = new StringWriter();
+		registry.write(sw);
+		return sw.toString();
+	}
+	@Test
+	public void should_write_counter() throws IOException {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test_total", "help text", "stage", "a").inc(3);
+		registry.counter("test_total", "help text", "stage", "a").inc();
+		registry.counter("test_total", "help text", "stage", "b").inc();
+		assertEquals(
+				"# HELP test_total help text\n" +
+				"# TYPE test_total counter\n" +
+				"test_total{stage=\"a\"} 4\n" +
+				"test_total{stage=\"b\"} 1\n",
+				write(registry));
+	}
+	@Test
+	public void should_write_cumulative_histogram_buckets() throws IOException {
+		MetricsRegistry registry = new MetricsRegistry();
+		MetricsRegistry.Histogram h = registry.histogram("test_seconds", "help", new double[] { 1, 10 });
+		h.observe(0.5);
+		h.observe(1);
+		h.observe(5);
+		h.observe(100);
+		assertEquals(4, h.getCount());
+		assertEquals(106.5, h.getSum(), 0);
+		assertEquals(
+				"# HELP test_seconds help\n" +
+				"# TYPE test_seconds histogram\n" +
+				"test_seconds_bucket{le=\"1.0\"} 2\n" +
+				"test_seconds_bucket{le=\"10.0\"} 3\n" +
+				"test_seconds_bucket{le=\"+Inf\"} 4\n" +
+				"test_seconds_sum 106.5\n" +
+				"test_seconds_count 4\n",
+				write(registry));
+	}
+	@Test
+	public void should_write_gauge_until_removed() throws IOException {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.gauge("test_gauge", "help", () -> 1.5, "chunk", "1");
+		assertTrue(write(registry).contains("test_gauge{chunk=\"1\"} 1.5\n"));
+		registry.remove("test_gauge", "chunk", "1");
+		assertEquals("", write(registry));
+	}
+	@Test
+	public void should_escape_label_values() throws IOException {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test_total", "help", "stage", "a\"b\\c\nd").inc();
+		assertTrue(write(registry).contains("test_total{stage=\"a\\\"b\\\\c\\nd\"} 1\n"));
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void should_not_allow_type_change() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test", "help");
+		registry.histogram("test", "help", new double[] { 1 });
+	}
+	@Test
+	public void should_sum_tracked_buffers_by_name() throws IOException {
+		MetricsRegistry registry = new MetricsRegistry();
+		TestBuffer b1 = new TestBuffer(2);
+		TestBuffer b2 = new TestBuffer(3);
+		registry.register(b1);
+		registry.register(b2);
+		String output = write(registry);
+		assertTrue(output.contains("# TYPE gridss_buffer_size gauge\n"));
+		assertTrue(output.contains("gridss_buffer_size{buffer=\"test\"} 5\n"));
+	}
+	@Test
+	public void should_write_sort_spills() throws IOException {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.sortSpill("windowed", 10);
+		registry.sortSpill("windowed", 5);
+		String output = write(registry);
+		assertTrue(output.contains("gridss_sort_spills_total{sorter=\"windowed\"} 2\n"));
+		assertTrue(output.contains("gridss_sort_spilled_records_total{sorter=\"windowed\"} 15\n"));
+		assertFalse(output.contains("parallel"));
+	}
+	private static class TestBuffer implements TrackedBuffer {
+		private final int size;
+		public TestBuffer(int size) {
+			this.size = size;
+		}
+		@Override
+		public void setTrackedBufferContext(String context) {
+		}
+		@Override
+		public List<NamedTrackedBuffer> currentTrackedBufferSizes() {
+			return ImmutableList.of(new NamedTrackedBuffer("test", size));
+		}
+	}
+}
@@ -32,7 +32,10 @@ import au.edu.wehi.idsv.ProcessingContext;
 import au.edu.wehi.idsv.SAMEvidenceSource;
 import au.edu.wehi.idsv.VariantCaller;
 import au.edu.wehi.idsv.VariantContextDirectedBreakpoint;
+import au.edu.wehi.idsv.sam.SamTags;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
+import gridss.analysis.StructuralVariantReadMetrics;
+import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 
@@ -167,6 +170,72 @@ public class AllocateEvidenceTest extends IntermediateFilesTest {
 		assertEquals(expectedEvidence, annotatedEvidence, 20); // floating point truncation on VCF is severe!
 	}
 	@Test
+	public void parallel_cache_population_should_match_single_threaded_allocation() throws IOException {
+		final int fragSize = 4;
+		final int testSize = 64;
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().minScore = 0;
+		pc.getConfig().multimapping = true;
+		pc.getConfig().chunkSize = 16;
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(pc, input, 0, 0, fragSize);
+		List<SAMRecord> in = new ArrayList<SAMRecord>();
+		for (int i = 1; i < testSize; i++) {
+			// each fragment has two alignments so must be uniquely assigned to one of the breakpoints
+			for (int j : new int[] { i, i + 8 }) {
+				SAMRecord[] dp = withReadName(String.format("read-%d", i), DP(0, i, "1M", true, 1, j, "1M", false));
+				dp[0].setAttribute(SamTags.MULTIMAPPING_FRAGMENT, 2);
+				dp[1].setAttribute(SamTags.MULTIMAPPING_FRAGMENT, 2);
+				ses.evidence.add(NonReferenceReadPair.create(dp[0], dp[1], ses));
+				ses.evidence.add(NonReferenceReadPair.create(dp[1], dp[0], ses));
+				in.add(dp[0]);
+				in.add(dp[1]);
+			}
+		}
+		Collections.sort(ses.evidence, DirectedEvidenceOrder.ByNatural);
+		createInput(in);
+		StructuralVariantReadMetrics svMetrics = new StructuralVariantReadMetrics();
+		svMetrics.STRUCTURAL_VARIANT_READ_PAIRS = in.size();
+		svMetrics.STRUCTURAL_VARIANT_READS = in.size();
+		MetricsFile<StructuralVariantReadMetrics, Integer> mf = new MetricsFile<>();
+		mf.addMetric(svMetrics);
+		mf.write(pc.getFileSystemContext().getSVMetrics(input));
+		StubAssemblyEvidenceSource aes = new StubAssemblyEvidenceSource(pc);
+		aes.fragSize = fragSize;
+		VariantCaller vc = new VariantCaller(pc, ImmutableList.<SAMEvidenceSource>of(ses), aes);
+		vc.callBreakends(output, MoreExecutors.newDirectExecutorService());
+		List<VariantContextDirectedBreakpoint> vcfs = Lists.newArrayList(Iterables.filter(getVcf(output, null), VariantContextDirectedBreakpoint.class));
+		
+		List<String> expected = new ArrayList<>();
+		AllocateEvidence cmd = new AllocateEvidence();
+		cmd.INPUT_VCF = output;
+		cmd.setContext(pc);
+		cmd.setAssemblySource(aes);
+		cmd.setSamEvidenceSources(ImmutableList.of(ses));
+		cmd.populateCache(null);
+		cmd.iterator(new AutoClosingIterator<>(vcfs.iterator()), MoreExecutors.newDirectExecutorService())
+			.forEachRemaining(v -> expected.add(v.getID() + " " + v.getBreakpointEvidenceCount()));
+		cmd.closeCache();
+		
+		List<String> result = new ArrayList<>();
+		ExecutorService threadpool = Executors.newFixedThreadPool(4);
+		try {
+			cmd = new AllocateEvidence();
+			cmd.INPUT_VCF = output;
+			cmd.setContext(pc);
+			cmd.setAssemblySource(aes);
+			cmd.setSamEvidenceSources(ImmutableList.of(ses));
+			cmd.populateCache(threadpool);
+			cmd.iterator(new AutoClosingIterator<>(vcfs.iterator()), MoreExecutors.newDirectExecutorService())
+				.forEachRemaining(v -> result.add(v.getID() + " " + v.getBreakpointEvidenceCount()));
+			cmd.closeCache();
+		} finally {
+			threadpool.shutdown();
+		}
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, result);
+	}
+	@Test
 	public void should_filter_if_insufficient_reads() throws IOException {
 		final ProcessingContext pc = getCommandlineContext();
 		pc.getVariantCallingParameters().minScore = 0;
@@ -0,0 +1,86 @@
+package gridss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import au.edu.wehi.idsv.AdaptiveChunkScheduler;
+import au.edu.wehi.idsv.DirectedEvidenceOrder;
+import au.edu.wehi.idsv.IdsvVariantContext;
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import au.edu.wehi.idsv.NonReferenceReadPair;
+import au.edu.wehi.idsv.ProcessingContext;
+import au.edu.wehi.idsv.SAMEvidenceSource;
+import au.edu.wehi.idsv.VariantCaller;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+
+public class AnnotateVariantsTest extends IntermediateFilesTest {
+	private List<String> annotate(ProcessingContext pc, StubSAMEvidenceSource ses, StubAssemblyEvidenceSource aes, File out, ExecutorService threadpool) throws IOException, InterruptedException, ExecutionException {
+		AnnotateVariants cmd = new AnnotateVariants();
+		cmd.INPUT_VCF = output;
+		cmd.OUTPUT_VCF = out;
+		cmd.ASSEMBLY = new File(testFolder.getRoot(), "assembly.bam");
+		cmd.setContext(pc);
+		cmd.setAssemblySource(aes);
+		cmd.setSamEvidenceSources(ImmutableList.of(ses));
+		cmd.doWork(threadpool);
+		return getVcf(out, null).stream()
+				.map(v -> String.format("%s %d:%d %.1f %s", v.getID(), v.getReferenceIndex(), v.getStart(), v.getPhredScaledQual(), new TreeMap<>(v.getAttributes())))
+				.collect(Collectors.toList());
+	}
+	@Test
+	public void chunked_annotation_should_match_single_pass_annotation() throws IOException, InterruptedException, ExecutionException {
+		final int fragSize = 4;
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().minScore = 0;
+		// small chunks so calls and their supporting evidence span chunk boundaries
+		pc.getConfig().chunkSize = 16;
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(pc, input, 0, 0, fragSize);
+		List<SAMRecord> in = new ArrayList<SAMRecord>();
+		for (int i = 1; i < 64; i++) {
+			for (int j = i; j < i + 4; j++) {
+				SAMRecord[] dp = withReadName(String.format("read-%d-%d", i, j), DP(0, i, "1M", true, 1, j, "1M", false));
+				ses.evidence.add(NonReferenceReadPair.create(dp[0], dp[1], ses));
+				ses.evidence.add(NonReferenceReadPair.create(dp[1], dp[0], ses));
+				in.add(dp[0]);
+				in.add(dp[1]);
+			}
+		}
+		Collections.sort(ses.evidence, DirectedEvidenceOrder.ByNatural);
+		createInput(in);
+		StubAssemblyEvidenceSource aes = new StubAssemblyEvidenceSource(pc);
+		aes.fragSize = fragSize;
+		VariantCaller vc = new VariantCaller(pc, ImmutableList.<SAMEvidenceSource>of(ses), aes);
+		vc.callBreakends(output, MoreExecutors.newDirectExecutorService());
+		createBAM(new File(testFolder.getRoot(), "assembly.bam"), SortOrder.coordinate, Collections.emptyList());
+		
+		List<String> expected = annotate(pc, ses, aes, new File(testFolder.getRoot(), "single.vcf"), null);
+		List<String> result;
+		ExecutorService threadpool = Executors.newFixedThreadPool(4);
+		try {
+			result = annotate(pc, ses, aes, new File(testFolder.getRoot(), "chunked.vcf"), threadpool);
+		} finally {
+			threadpool.shutdown();
+		}
+		assertTrue(AdaptiveChunkScheduler.forVariantCalling(pc, ImmutableList.of(ses), aes).getChunks().size() > 1);
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, result);
+	}
+}
@@ -7,6 +7,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -18,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 
 import au.edu.wehi.idsv.FixedSizeReadPairConcordanceCalculator;
@@ -27,10 +30,19 @@ import au.edu.wehi.idsv.ReadPairConcordanceMethod;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.picard.SynchronousReferenceLookupAdapter;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
+import gridss.analysis.CollectCigarMetrics;
+import gridss.analysis.CollectGridssMetrics;
+import gridss.analysis.CollectIdsvMetrics;
+import gridss.analysis.CollectMapqMetrics;
+import gridss.analysis.CollectTagMetrics;
+import gridss.analysis.GridssMetricsCollector;
+import gridss.analysis.ReportThresholdCoverage;
 import gridss.analysis.StructuralVariantReadMetrics;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.fastq.FastqReader;
+import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 
@@ -88,6 +100,167 @@ public class ExtractSVReadsTest extends IntermediateFilesTest {
 		StructuralVariantReadMetrics metric = Iterators.getOnlyElement(Iterables.filter(MetricsFile.readBeans(extract.METRICS_OUTPUT), StructuralVariantReadMetrics.class).iterator(), null);
 		assertEquals(1, metric.SOFT_CLIPPED_READS);
 	}
+	@Test
+	public void should_calculate_gridss_metrics_during_extraction() {
+		createInput();
+		File prefix = new File(testFolder.getRoot(), "metrics");
+		ExtractSVReads extract = new ExtractSVReads();
+		extract.INPUT = input;
+		extract.OUTPUT = output;
+		extract.GRIDSS_METRICS_OUTPUT = prefix;
+		extract.setup(getHeader(), extract.INPUT);
+		extract.acceptFragment(ImmutableList.of(Read(0, 1, "50M50S")), null);
+		extract.acceptFragment(Lists.newArrayList(RP(0, 1, 101, 50)), null);
+		extract.finish();
+		assertEquals(1, getRecords(output).size());
+		assertTrue(new File(prefix + ".cigar_metrics").exists());
+		assertTrue(new File(prefix + ".insert_size_metrics").exists());
+		assertTrue(new File(prefix + ".mapq_metrics").exists());
+		assertTrue(new File(prefix + ".idsv_metrics").exists());
+		assertTrue(new File(prefix + ".tag_metrics").exists());
+	}
+	@Test
+	public void gridss_metrics_calculated_during_extraction_should_match_CollectGridssMetrics() throws IOException {
+		List<SAMRecord> in = Lists.newArrayList();
+		for (int i = 1; i <= 100; i++) {
+			in.addAll(Arrays.asList(withReadName("concordant" + i, RP(0, i, i + 100 + i % 7, 50))));
+			in.add(withReadName("sc" + i, Read(0, 10 * i, "50M50S"))[0]);
+		}
+		for (int i = 1; i <= 3; i++) {
+			in.addAll(Arrays.asList(withReadName("discordant" + i, RP(0, 200 + i, 1000 + i, 50))));
+			in.addAll(Arrays.asList(withReadName("interchromosomal" + i, DP(0, 300 + i, "50M", true, 1, 400 + i, "50M", false))));
+		}
+		createInput(in);
+		File extractPrefix = new File(testFolder.getRoot(), "extract");
+		File collectPrefix = new File(testFolder.getRoot(), "collect");
+		assertEquals(0, new ExtractSVReads().instanceMain(new String[] {
+				"INPUT=" + input.getAbsolutePath(),
+				"OUTPUT=" + output.getAbsolutePath(),
+				"REFERENCE_SEQUENCE=" + reference.getAbsolutePath(),
+				"GRIDSS_METRICS_OUTPUT=" + extractPrefix.getAbsolutePath(),
+				"THRESHOLD_COVERAGE=10",
+				"READ_PAIR_CONCORDANCE_METHOD=PERCENTAGE",
+				"READ_PAIR_CONCORDANT_PERCENT=0.9",
+				"INSERT_SIZE_METRICS=" + extractPrefix.getAbsolutePath() + GridssMetricsCollector.INSERT_SIZE_METRICS_SUFFIX,
+		}));
+		assertEquals(0, new CollectGridssMetrics().instanceMain(new String[] {
+				"INPUT=" + input.getAbsolutePath(),
+				"OUTPUT=" + collectPrefix.getAbsolutePath(),
+				"THRESHOLD_COVERAGE=10",
+				"FILE_EXTENSION=null",
+				"PROGRAM=null",
+				"PROGRAM=CollectInsertSizeMetrics",
+		}));
+		for (String suffix : new String[] {
+				CollectCigarMetrics.METRICS_SUFFIX,
+				CollectMapqMetrics.METRICS_SUFFIX,
+				CollectTagMetrics.METRICS_SUFFIX,
+				CollectIdsvMetrics.METRICS_SUFFIX,
+				ReportThresholdCoverage.SUFFIX,
+				GridssMetricsCollector.INSERT_SIZE_METRICS_SUFFIX }) {
+			assertEquals(suffix, getMetricsContent(new File(collectPrefix + suffix)), getMetricsContent(new File(extractPrefix + suffix)));
+		}
+		// concordance of the deferred read pairs is resolved using the final insert size distribution
+		List<SAMRecord> out = getRecords(output);
+		assertTrue(out.stream().anyMatch(r -> r.getReadName().startsWith("discordant")));
+		assertTrue(out.stream().anyMatch(r -> r.getReadName().startsWith("interchromosomal")));
+		assertFalse(out.stream().anyMatch(r -> r.getReadName().startsWith("concordant")));
+	}
+	/**
+	 * Metrics file content excluding the header comments containing the command line and run time
+	 */
+	private static List<String> getMetricsContent(File file) throws IOException {
+		return Files.readLines(file, StandardCharsets.UTF_8).stream()
+				.filter(line -> !line.startsWith("#"))
+				.collect(Collectors.toList());
+	}
+	@Test
+	public void should_defer_read_pair_concordance_until_insert_size_distribution_is_known() {
+		createInput();
+		File prefix = new File(testFolder.getRoot(), "metrics");
+		ExtractSVReads extract = new ExtractSVReads();
+		extract.INPUT = input;
+		extract.OUTPUT = output;
+		extract.GRIDSS_METRICS_OUTPUT = prefix;
+		extract.READ_PAIR_CONCORDANCE_METHOD = ReadPairConcordanceMethod.PERCENTAGE;
+		extract.READ_PAIR_CONCORDANT_PERCENT = 0.9f;
+		extract.INSERT_SIZE_METRICS = new File(prefix + ".insert_size_metrics");
+		extract.setup(getHeader(), extract.INPUT);
+		for (int i = 1; i <= 100; i++) {
+			extract.acceptFragment(Lists.newArrayList(RP(0, i, i + 100, 50)), null);
+		}
+		extract.acceptFragment(Lists.newArrayList(RP(0, 200, 700, 50)), null);
+		extract.finish();
+		List<SAMRecord> out = getRecords(output);
+		assertEquals(2, out.size());
+		assertTrue(out.stream().allMatch(r -> r.getAlignmentStart() == 200 || r.getAlignmentStart() == 700));
+	}
+	@Test
+	public void should_compute_tags_on_extracted_reads() {
+		createInput();
+		ExtractSVReads extract = new ExtractSVReads();
+		extract.INPUT = input;
+		extract.OUTPUT = output;
+		extract.TAGS = Sets.newHashSet("TC");
+		extract.setup(getHeader(), extract.INPUT);
+		extract.acceptFragment(ImmutableList.of(Read(0, 1, "50M50S")), null);
+		extract.finish();
+		List<SAMRecord> out = getRecords(output);
+		assertEquals(1, out.size());
+		assertEquals(1, (int)out.get(0).getIntegerAttribute("TC"));
+	}
+	@Test
+	public void should_write_realignment_fastq_for_extracted_reads() throws IOException {
+		createInput();
+		File fq = new File(output.getAbsolutePath() + ".fq");
+		ExtractSVReads extract = new ExtractSVReads();
+		extract.INPUT = input;
+		extract.OUTPUT = output;
+		extract.REALIGNMENT_FASTQ = fq;
+		extract.setup(getHeader(), extract.INPUT);
+		extract.acceptFragment(ImmutableList.of(Read(0, 1, "50M50S")), null);
+		extract.acceptFragment(ImmutableList.of(Read(0, 1, "90M10S")), null);
+		extract.finish();
+		assertEquals(2, getRecords(output).size());
+		try (FastqReader reader = new FastqReader(fq)) {
+			assertEquals(1, Iterators.size(reader.iterator()));
+		}
+	}
+	@Test
+	public void should_apply_realignment_thresholds_to_realignment_fastq() throws IOException {
+		createInput();
+		File fq = new File(output.getAbsolutePath() + ".fq");
+		ExtractSVReads extract = new ExtractSVReads();
+		extract.INPUT = input;
+		extract.OUTPUT = output;
+		extract.REALIGNMENT_FASTQ = fq;
+		extract.REALIGNMENT_MIN_CLIP_LENGTH = 25;
+		extract.REALIGNMENT_MIN_CLIP_QUAL = 10;
+		SAMRecord realigned = withQual(Read(0, 1, "50M50S"), 30);
+		SAMRecord shortClip = withQual(Read(0, 1, "80M20S"), 30);
+		SAMRecord lowQual = withQual(Read(0, 1, "60M40S"), 2);
+		SAMRecord unclipped = withQual(Read(0, 1, "100M"), 30);
+		extract.setup(getHeader(), extract.INPUT);
+		extract.acceptFragment(ImmutableList.of(realigned), null);
+		extract.acceptFragment(ImmutableList.of(shortClip), null);
+		extract.acceptFragment(ImmutableList.of(lowQual), null);
+		extract.acceptFragment(ImmutableList.of(unclipped), null);
+		extract.finish();
+		// all clipped reads are extracted regardless of the realignment thresholds
+		assertEquals(ImmutableList.of(realigned.getReadName(), shortClip.getReadName(), lowQual.getReadName()),
+				getRecords(output).stream().map(r -> r.getReadName()).collect(Collectors.toList()));
+		try (FastqReader reader = new FastqReader(fq)) {
+			List<FastqRecord> fqs = Lists.newArrayList(reader.iterator());
+			assertEquals(1, fqs.size());
+			assertEquals(realigned.getReadString().substring(50), fqs.get(0).getReadString());
+		}
+	}
+	private static SAMRecord withQual(SAMRecord r, int qual) {
+		byte[] q = new byte[r.getReadLength()];
+		Arrays.fill(q, (byte)qual);
+		r.setBaseQualities(q);
+		return r;
+	}
 	/*
 	@Test
 	public void should_not_extract_unclipped_alignment_overlapping_blacklist() {